@@ -1,13 +1,22 @@
 package io.github.dmytroivakhnenko.gcpavroprocessor;
 
+import example.gcp.Client;
+import example.gcp.ClientMandatory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.integration.IntegrationAutoConfiguration;
 
+import java.util.concurrent.CompletableFuture;
+
 @SpringBootApplication(exclude = IntegrationAutoConfiguration.class)
 public class GcpAvroProcessorApplication {
 
     public static void main(String[] args) {
+        // generated classes parse their schemas when initialized, in parallel with the startup of the context
+        CompletableFuture.runAsync(() -> {
+            Client.getClassSchema();
+            ClientMandatory.getClassSchema();
+        });
         SpringApplication.run(GcpAvroProcessorApplication.class, args);
     }
 
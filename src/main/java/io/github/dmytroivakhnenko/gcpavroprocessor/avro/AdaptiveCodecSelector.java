@@ -0,0 +1,169 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.IoListener;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MeteredOutputStream;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.CodecSelectorStats;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Chooses codec of the next written file from CPU headroom of the machine and measured upload throughput:
+ * <ul>
+ * <li>snappy, when CPU headroom is below the minimum or upload is fast, bytes are cheaper than CPU time</li>
+ * <li>deflate-6, when upload is slow and CPU is available, CPU time is cheaper than bytes</li>
+ * <li>deflate-1 otherwise, including the time before the first upload is measured</li>
+ * </ul>
+ * Upload throughput is the moving average over the files written through {@link #measure(OutputStream)}.
+ */
+@Slf4j
+public class AdaptiveCodecSelector {
+    /**
+     * Configured codec of the outputs which get their codec from the selector
+     */
+    public static final String ADAPTIVE_CODEC = "adaptive";
+    static final String LIGHT_CODEC = "snappy";
+    static final String BALANCED_CODEC = "deflate-1";
+    static final String STRONG_CODEC = "deflate-6";
+    private static final double SMOOTHING = 0.3;
+
+    private final double minCpuHeadroom;
+    private final double slowUploadBytesPerSecond;
+    private final double fastUploadBytesPerSecond;
+    private final DoubleSupplier cpuLoad;
+    private double uploadBytesPerSecond = Double.NaN;
+    private String lastCodec;
+
+    public AdaptiveCodecSelector(double minCpuHeadroom, double slowUploadBytesPerSecond, double fastUploadBytesPerSecond) {
+        this(minCpuHeadroom, slowUploadBytesPerSecond, fastUploadBytesPerSecond, AdaptiveCodecSelector::systemCpuLoad);
+    }
+
+    /**
+     * @param cpuLoad - recent CPU load of the machine from 0 to 1, negative value if unknown
+     */
+    AdaptiveCodecSelector(double minCpuHeadroom, double slowUploadBytesPerSecond, double fastUploadBytesPerSecond, DoubleSupplier cpuLoad) {
+        this.minCpuHeadroom = minCpuHeadroom;
+        this.slowUploadBytesPerSecond = slowUploadBytesPerSecond;
+        this.fastUploadBytesPerSecond = Math.max(slowUploadBytesPerSecond, fastUploadBytesPerSecond);
+        this.cpuLoad = cpuLoad;
+    }
+
+    /**
+     * @param syncInterval - sync interval of the output
+     * @return format of the next written file
+     */
+    public AvroOutputFormat select(int syncInterval) {
+        var headroom = getCpuHeadroom();
+        double throughput;
+        synchronized (this) {
+            throughput = uploadBytesPerSecond;
+        }
+        String codec;
+        if (headroom < minCpuHeadroom || throughput > fastUploadBytesPerSecond) {
+            codec = LIGHT_CODEC;
+        } else if (throughput < slowUploadBytesPerSecond) {
+            codec = STRONG_CODEC;
+        } else {
+            codec = BALANCED_CODEC;
+        }
+        synchronized (this) {
+            lastCodec = codec;
+        }
+        log.debug("Codec {} was selected, CPU headroom {}, upload throughput {} bytes/s", codec, headroom, throughput);
+        return AvroOutputFormat.of(codec, syncInterval);
+    }
+
+    /**
+     * @param codec        - configured codec of the output, adaptive or fixed
+     * @param syncInterval - sync interval of the output
+     * @return format of the next written file
+     */
+    public AvroOutputFormat getOutputFormat(String codec, int syncInterval) {
+        if (ADAPTIVE_CODEC.equalsIgnoreCase(codec)) {
+            return select(syncInterval);
+        }
+        return AvroOutputFormat.of(codec, syncInterval);
+    }
+
+    /**
+     * Outputs loaded by BigQuery may use only null, deflate and snappy codecs, adaptive codec selects one of them.
+     *
+     * @throws IllegalArgumentException if the codec or sync interval is invalid or the codec isn't read by BigQuery
+     */
+    public static void checkLoadableByBigQuery(String codec, int syncInterval) {
+        var outputFormat = ADAPTIVE_CODEC.equalsIgnoreCase(codec) ? AvroOutputFormat.of("null", syncInterval) : AvroOutputFormat.of(codec, syncInterval);
+        if (!outputFormat.isLoadableByBigQuery()) {
+            throw new IllegalArgumentException("Codec " + codec + " isn't supported by BigQuery load jobs");
+        }
+    }
+
+    /**
+     * Subscribes to the metered output of a file, time spent in the output is counted as upload time of its bytes when the output is closed.
+     */
+    public OutputStream measure(OutputStream output) {
+        return MeteredOutputStream.of(output, new UploadMeter());
+    }
+
+    public synchronized void recordUpload(long bytes, long nanos) {
+        if (bytes <= 0 || nanos <= 0) {
+            return;
+        }
+        var throughput = bytes * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+        uploadBytesPerSecond = Double.isNaN(uploadBytesPerSecond) ? throughput : uploadBytesPerSecond + SMOOTHING * (throughput - uploadBytesPerSecond);
+    }
+
+    public CodecSelectorStats getStats() {
+        synchronized (this) {
+            return CodecSelectorStats.builder()
+                    .cpuHeadroom(getCpuHeadroom())
+                    .uploadBytesPerSecond(Double.isNaN(uploadBytesPerSecond) ? null : (long) uploadBytesPerSecond)
+                    .lastCodec(lastCodec)
+                    .build();
+        }
+    }
+
+    private double getCpuHeadroom() {
+        var load = cpuLoad.getAsDouble();
+        return load < 0 ? 1 : 1 - Math.min(load, 1);
+    }
+
+    /**
+     * System CPU load is available on HotSpot based JVMs, load average is used on the others.
+     */
+    private static double systemCpuLoad() {
+        var bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getSystemCpuLoad();
+        }
+        var loadAverage = bean.getSystemLoadAverage();
+        return loadAverage < 0 ? -1 : loadAverage / bean.getAvailableProcessors();
+    }
+
+    /**
+     * Sums bytes and time of the writes of one file, the upload is recorded when the file is closed.
+     */
+    private class UploadMeter implements IoListener {
+        private long bytes;
+        private long nanos;
+
+        @Override
+        public synchronized void onTransfer(long bytes, long nanos) {
+            this.bytes += bytes;
+            this.nanos += nanos;
+        }
+
+        @Override
+        public void onClose(long nanos) {
+            long totalBytes;
+            long totalNanos;
+            synchronized (this) {
+                totalBytes = bytes;
+                totalNanos = this.nanos + nanos;
+            }
+            recordUpload(totalBytes, totalNanos);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BufferPool;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decompression of raw data blocks for the codecs supported by Avro object container files.
+ * Avro keeps codec instances package private, so block format of every codec is handled here.
+ */
+public class AvroBlockCodec {
+    private static final int SNAPPY_CHECKSUM_SIZE = 4;
+    private static final int DEFLATE_RATIO_ESTIMATE = 4;
+
+    private AvroBlockCodec() {
+    }
+
+    /**
+     * @param codec - codec name from the container header
+     * @param data  - compressed block data
+     * @return heap buffer with decompressed block data
+     * @throws IOException if the codec is unknown or data is corrupted
+     */
+    public static ByteBuffer decompress(String codec, byte[] data) throws IOException {
+        switch (codec) {
+            case DataFileConstants.NULL_CODEC:
+                return ByteBuffer.wrap(data);
+            case DataFileConstants.DEFLATE_CODEC:
+                var inflater = new Inflater(true);
+                try (var inputStream = new InflaterInputStream(new ByteArrayInputStream(data), inflater)) {
+                    return ByteBuffer.wrap(inputStream.readAllBytes());
+                } finally {
+                    inflater.end();
+                }
+            case DataFileConstants.SNAPPY_CODEC:
+                return decompressSnappy(data);
+            case DataFileConstants.XZ_CODEC:
+                try (var inputStream = new XZCompressorInputStream(new ByteArrayInputStream(data))) {
+                    return ByteBuffer.wrap(inputStream.readAllBytes());
+                }
+            case DataFileConstants.BZIP2_CODEC:
+                try (var inputStream = new BZip2CompressorInputStream(new ByteArrayInputStream(data))) {
+                    return ByteBuffer.wrap(inputStream.readAllBytes());
+                }
+            default:
+                throw new IOException("Unsupported codec " + codec);
+        }
+    }
+
+    /**
+     * Decompresses deflate and snappy blocks into a heap buffer of the pool, other blocks as {@link #decompress(String, byte[])}.
+     * Returned buffer has to be released to the pool once the block is consumed, releasing a buffer which isn't pooled is harmless.
+     *
+     * @param codec      - codec name from the container header
+     * @param data       - compressed block data
+     * @param bufferPool - pool of heap buffers
+     * @return heap buffer with decompressed block data
+     * @throws IOException if the codec is unknown or data is corrupted
+     */
+    public static ByteBuffer decompress(String codec, byte[] data, BufferPool bufferPool) throws IOException {
+        switch (codec) {
+            case DataFileConstants.DEFLATE_CODEC:
+                return inflate(data, bufferPool);
+            case DataFileConstants.SNAPPY_CODEC:
+                return decompressSnappy(data, bufferPool);
+            default:
+                return decompress(codec, data);
+        }
+    }
+
+    /**
+     * Size of the inflated block isn't stored, buffer is replaced by a twice larger one whenever it is full.
+     */
+    private static ByteBuffer inflate(byte[] data, BufferPool bufferPool) throws IOException {
+        var inflater = new Inflater(true);
+        var buffer = acquireWhole(bufferPool, data.length * DEFLATE_RATIO_ESTIMATE);
+        try {
+            inflater.setInput(data);
+            while (!inflater.finished()) {
+                if (!buffer.hasRemaining()) {
+                    var larger = acquireWhole(bufferPool, buffer.capacity() * 2);
+                    larger.put(buffer.flip());
+                    bufferPool.release(buffer);
+                    buffer = larger;
+                }
+                var count = inflater.inflate(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Deflate block is truncated");
+                }
+                buffer.position(buffer.position() + count);
+            }
+            return buffer.flip();
+        } catch (IOException | DataFormatException | RuntimeException e) {
+            bufferPool.release(buffer);
+            throw e instanceof IOException ? (IOException) e : new IOException("Deflate block is corrupted", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static ByteBuffer decompressSnappy(byte[] data, BufferPool bufferPool) throws IOException {
+        var compressedLength = data.length - SNAPPY_CHECKSUM_SIZE;
+        if (compressedLength < 0) {
+            throw new IOException("Snappy block is truncated");
+        }
+        var length = Snappy.uncompressedLength(data, 0, compressedLength);
+        var buffer = bufferPool.acquire(length);
+        try {
+            Snappy.uncompress(data, 0, compressedLength, buffer.array(), buffer.arrayOffset());
+            var crc32 = new CRC32();
+            crc32.update(buffer.array(), buffer.arrayOffset(), length);
+            if ((int) crc32.getValue() != ByteBuffer.wrap(data, compressedLength, SNAPPY_CHECKSUM_SIZE).getInt()) {
+                throw new IOException("Checksum failure of snappy block");
+            }
+            return buffer;
+        } catch (IOException | RuntimeException e) {
+            bufferPool.release(buffer);
+            throw e;
+        }
+    }
+
+    private static ByteBuffer acquireWhole(BufferPool bufferPool, int size) {
+        var buffer = bufferPool.acquire(size);
+        return buffer.limit(buffer.capacity());
+    }
+
+    private static ByteBuffer decompressSnappy(byte[] data) throws IOException {
+        var compressedLength = data.length - SNAPPY_CHECKSUM_SIZE;
+        if (compressedLength < 0) {
+            throw new IOException("Snappy block is truncated");
+        }
+        var uncompressed = new byte[Snappy.uncompressedLength(data, 0, compressedLength)];
+        Snappy.uncompress(data, 0, compressedLength, uncompressed, 0);
+
+        var crc32 = new CRC32();
+        crc32.update(uncompressed);
+        if ((int) crc32.getValue() != ByteBuffer.wrap(data, compressedLength, SNAPPY_CHECKSUM_SIZE).getInt()) {
+            throw new IOException("Checksum failure of snappy block");
+        }
+        return ByteBuffer.wrap(uncompressed);
+    }
+}
@@ -0,0 +1,225 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileConstants;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads Avro object container file as a header followed by raw (still compressed) data blocks,
+ * so that blocks can be decompressed and decoded independently of each other.
+ */
+public class AvroContainerReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream input;
+    private final Header header;
+    private ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+    private boolean blocksStarted;
+    private long position;
+
+    public AvroContainerReader(InputStream input) throws IOException {
+        this.input = input instanceof BufferedInputStream ? input : new BufferedInputStream(input, BUFFER_SIZE);
+        this.header = readHeader();
+    }
+
+    public Header getHeader() {
+        return header;
+    }
+
+    /**
+     * @return number of bytes of the stream consumed so far, after a block is read it is the offset of the next block
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Reads next data block.
+     *
+     * @return raw block or null if the end of file is reached
+     * @throws IOException if the block is truncated or its sync marker doesn't match the header
+     */
+    public RawBlock nextBlock() throws IOException {
+        blocksStarted = true;
+        var first = input.read();
+        if (first < 0) {
+            return null;
+        }
+        var recordCount = readLong(first);
+        var size = readLong(input.read());
+        if (recordCount < 0 || size < 0 || size > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Invalid data block with %d records and %d bytes", recordCount, size));
+        }
+        var data = readFully((int) size);
+        if (!Arrays.equals(readFully(DataFileConstants.SYNC_SIZE), header.sync)) {
+            throw new IOException("Invalid sync marker");
+        }
+        return new RawBlock(recordCount, data);
+    }
+
+    /**
+     * Returns the rest of the file as a regular container stream (header included),
+     * for consumers that fall back to record level reading.
+     *
+     * @return container stream positioned at the header
+     */
+    public InputStream asContainerStream() {
+        if (blocksStarted) {
+            throw new IllegalStateException("Data blocks were already read");
+        }
+        return new SequenceInputStream(new ByteArrayInputStream(header.rawBytes), input);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private Header readHeader() throws IOException {
+        if (!Arrays.equals(readFully(DataFileConstants.MAGIC.length), DataFileConstants.MAGIC)) {
+            throw new IOException("Not an Avro data file");
+        }
+        var meta = new LinkedHashMap<String, byte[]>();
+        for (var count = readLong(input.read()); count != 0; count = readLong(input.read())) {
+            if (count < 0) {
+                // negative count is followed by the size of the block in bytes
+                readLong(input.read());
+                count = -count;
+            }
+            for (long i = 0; i < count; i++) {
+                var key = new String(readFully(readLength()), StandardCharsets.UTF_8);
+                meta.put(key, readFully(readLength()));
+            }
+        }
+        if (!meta.containsKey(DataFileConstants.SCHEMA)) {
+            throw new IOException("Avro data file has no schema");
+        }
+        var sync = readFully(DataFileConstants.SYNC_SIZE);
+        var rawBytes = headerBytes.toByteArray();
+        headerBytes = null;
+        return new Header(Collections.unmodifiableMap(meta), sync, rawBytes);
+    }
+
+    private int readLength() throws IOException {
+        var length = readLong(input.read());
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Invalid length %d", length));
+        }
+        return (int) length;
+    }
+
+    private long readLong(int first) throws IOException {
+        long value = 0;
+        var shift = 0;
+        var b = first;
+        while (true) {
+            if (b < 0) {
+                throw new EOFException("Avro data file is truncated");
+            }
+            if (shift > 63) {
+                throw new IOException("Invalid long encoding");
+            }
+            recordHeaderByte(b);
+            position++;
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+            if ((b & 0x80) == 0) {
+                return (value >>> 1) ^ -(value & 1);
+            }
+            b = input.read();
+        }
+    }
+
+    private byte[] readFully(int length) throws IOException {
+        var bytes = input.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException("Avro data file is truncated");
+        }
+        position += length;
+        if (headerBytes != null) {
+            headerBytes.write(bytes);
+        }
+        return bytes;
+    }
+
+    private void recordHeaderByte(int b) {
+        if (headerBytes != null) {
+            headerBytes.write(b);
+        }
+    }
+
+    /**
+     * Container file header. Schema is parsed on first access only.
+     */
+    public static class Header {
+        private final Map<String, byte[]> meta;
+        private final byte[] sync;
+        private final byte[] rawBytes;
+        private Schema schema;
+
+        private Header(Map<String, byte[]> meta, byte[] sync, byte[] rawBytes) {
+            this.meta = meta;
+            this.sync = sync;
+            this.rawBytes = rawBytes;
+        }
+
+        /**
+         * @return header exactly as it was read, magic and sync marker included
+         */
+        public byte[] getRawBytes() {
+            return rawBytes;
+        }
+
+        public Map<String, byte[]> getMeta() {
+            return meta;
+        }
+
+        public byte[] getSchemaBytes() {
+            return meta.get(DataFileConstants.SCHEMA);
+        }
+
+        public String getCodec() {
+            var codec = meta.get(DataFileConstants.CODEC);
+            return codec == null ? DataFileConstants.NULL_CODEC : new String(codec, StandardCharsets.UTF_8);
+        }
+
+        public synchronized Schema getSchema() {
+            if (schema == null) {
+                schema = new Schema.Parser().setValidate(false).parse(new String(getSchemaBytes(), StandardCharsets.UTF_8));
+            }
+            return schema;
+        }
+
+        /**
+         * Replaces parsing of the schema with an already parsed instance of the same schema.
+         */
+        synchronized void useSchema(Schema parsedSchema) {
+            schema = parsedSchema;
+        }
+    }
+
+    /**
+     * Data block as stored in the file, i.e. compressed with the codec from the header.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static class RawBlock {
+        private final long recordCount;
+        private final byte[] data;
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileWriter;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Codec and sync interval of a written Avro container file.
+ * Codec is given as name with optional level: null, snappy, bzip2, deflate-[1..9] or xz-[0..9].
+ */
+public class AvroOutputFormat {
+    public static final AvroOutputFormat DEFAULT = of(DataFileConstants.NULL_CODEC, DataFileConstants.DEFAULT_SYNC_INTERVAL);
+    private static final Set<String> BIGQUERY_CODECS = Set.of(DataFileConstants.NULL_CODEC, DataFileConstants.DEFLATE_CODEC, DataFileConstants.SNAPPY_CODEC);
+
+    private final String codec;
+    private final CodecFactory codecFactory;
+    private final int syncInterval;
+
+    private AvroOutputFormat(String codec, CodecFactory codecFactory, int syncInterval) {
+        this.codec = codec;
+        this.codecFactory = codecFactory;
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * @param codec        - codec name with optional level, e.g. deflate-6
+     * @param syncInterval - approximate size of uncompressed block in bytes
+     * @throws IllegalArgumentException if codec is unknown or sync interval is out of the range supported by Avro
+     */
+    public static AvroOutputFormat of(String codec, int syncInterval) {
+        if (syncInterval < 32 || syncInterval > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid sync interval " + syncInterval);
+        }
+        var normalized = codec.trim().toLowerCase(Locale.ROOT);
+        return new AvroOutputFormat(normalized, codecFactory(normalized), syncInterval);
+    }
+
+    private static CodecFactory codecFactory(String codec) {
+        var separator = codec.lastIndexOf('-');
+        if (separator < 0) {
+            try {
+                return CodecFactory.fromString(codec);
+            } catch (AvroRuntimeException e) {
+                throw new IllegalArgumentException("Unknown codec " + codec, e);
+            }
+        }
+        var name = codec.substring(0, separator);
+        int level;
+        try {
+            level = Integer.parseInt(codec.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid level of codec " + codec, e);
+        }
+        if (DataFileConstants.DEFLATE_CODEC.equals(name)) {
+            return CodecFactory.deflateCodec(level);
+        }
+        if (DataFileConstants.XZ_CODEC.equals(name)) {
+            return CodecFactory.xzCodec(level);
+        }
+        throw new IllegalArgumentException("Codec " + name + " doesn't have levels");
+    }
+
+    /**
+     * Sets codec and sync interval of the writer, must be called before the writer is created.
+     */
+    public <D> DataFileWriter<D> configure(DataFileWriter<D> writer) {
+        return writer.setCodec(codecFactory).setSyncInterval(syncInterval);
+    }
+
+    /**
+     * BigQuery loads Avro files compressed with deflate or snappy only.
+     */
+    public boolean isLoadableByBigQuery() {
+        var separator = codec.lastIndexOf('-');
+        return BIGQUERY_CODECS.contains(separator < 0 ? codec : codec.substring(0, separator));
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public int getSyncInterval() {
+        return syncInterval;
+    }
+
+    @Override
+    public String toString() {
+        return codec + "/" + syncInterval;
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Merges Avro container files with the same schema into one file by copying their data blocks.
+ * Blocks are copied without decoding records, blocks of a file with another codec are only recompressed.
+ * Input files are streamed block by block, so memory doesn't grow with their size.
+ */
+public class ContainerFileMerger implements Closeable {
+    private final Schema schema;
+    private final DataFileWriter<Object> writer = new DataFileWriter<>(new GenericDatumWriter<>());
+    private long fileCount;
+
+    /**
+     * @param schema - schema of the merged files
+     * @param codec  - codec of the output file, blocks of inputs with the same codec are copied as is
+     * @param output - stream for the output file
+     */
+    public ContainerFileMerger(Schema schema, String codec, OutputStream output) throws IOException {
+        this.schema = schema;
+        writer.setCodec(CodecFactory.fromString(codec));
+        writer.create(schema, output);
+    }
+
+    /**
+     * Opens the input file, only its header is read.
+     *
+     * @param input - stream of the whole input file, closed with the returned stream
+     * @throws IOException if the file isn't an Avro container file
+     */
+    public static DataFileStream<Object> open(InputStream input) throws IOException {
+        return new DataFileStream<>(input, new GenericDatumReader<>());
+    }
+
+    /**
+     * @return codec of the opened input file
+     */
+    public static String getCodec(DataFileStream<?> file) {
+        var codec = file.getMetaString(DataFileConstants.CODEC);
+        return codec == null ? DataFileConstants.NULL_CODEC : codec;
+    }
+
+    /**
+     * Appends all blocks of the opened file, one block is held in memory at a time.
+     * Blocks are written as they are read, so when the file turns out to be truncated or corrupted, part of its blocks
+     * are already written and the output has to be discarded.
+     *
+     * @param file - input file opened with {@link #open(InputStream)}
+     * @throws IOException if schema of the file differs from the output schema, before any block is appended, or if the file is truncated
+     * @throws AvroRuntimeException if a block of the file is corrupted
+     */
+    public void append(DataFileStream<Object> file) throws IOException {
+        if (!schema.equals(file.getSchema())) {
+            throw new IOException("Schema of the file " + file.getSchema().getFullName() + " differs from the output schema " + schema.getFullName());
+        }
+        writer.appendAllFrom(file, false);
+        fileCount++;
+    }
+
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
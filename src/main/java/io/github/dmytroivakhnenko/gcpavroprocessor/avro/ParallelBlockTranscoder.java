@@ -0,0 +1,143 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Transcodes Avro container file block by block on the given executor. Every input block is decompressed,
+ * projected and encoded into complete output blocks independently, output blocks are written in the
+ * original order. Number of blocks in flight is bounded, so memory usage doesn't depend on the file size.
+ */
+public class ParallelBlockTranscoder {
+    private final Executor executor;
+    private final int maxBlocksInFlight;
+    private final AvroOutputFormat outputFormat;
+
+    public ParallelBlockTranscoder(Executor executor, int maxBlocksInFlight) {
+        this(executor, maxBlocksInFlight, AvroOutputFormat.DEFAULT);
+    }
+
+    /**
+     * @param outputFormat - codec and sync interval of the output, input blocks larger than the sync interval are split
+     */
+    public ParallelBlockTranscoder(Executor executor, int maxBlocksInFlight, AvroOutputFormat outputFormat) {
+        this.executor = executor;
+        this.maxBlocksInFlight = Math.max(1, maxBlocksInFlight);
+        this.outputFormat = outputFormat;
+    }
+
+    /**
+     * @param reader          - reader of the input file, positioned at the first block
+     * @param projectedSchema - schema of the output file, must be raw projection of the input schema
+     * @param output          - stream for the output file
+     * @return number of transcoded records
+     * @throws IOException if input file is corrupted or output can't be written
+     */
+    public long transcode(AvroContainerReader reader, Schema projectedSchema, OutputStream output) throws IOException {
+        var writerSchema = reader.getHeader().getSchema();
+        var codec = reader.getHeader().getCodec();
+        if (RawRecordProjector.forSchemas(writerSchema, projectedSchema).isEmpty()) {
+            throw new IllegalArgumentException("Schema " + projectedSchema.getFullName() + " is not a raw projection of " + writerSchema.getFullName());
+        }
+
+        var sync = newSyncMarker();
+        var header = encodeBlocks(projectedSchema, sync, null);
+        output.write(header.toByteArray());
+
+        var counter = 0L;
+        var pending = new ArrayDeque<CompletableFuture<byte[]>>();
+        try {
+            AvroContainerReader.RawBlock block;
+            while ((block = reader.nextBlock()) != null) {
+                var rawBlock = block;
+                counter += rawBlock.getRecordCount();
+                pending.add(CompletableFuture.supplyAsync(() -> transcodeBlock(rawBlock, codec, writerSchema, projectedSchema, sync, header.size()), executor));
+                if (pending.size() >= maxBlocksInFlight) {
+                    output.write(await(pending.poll()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                output.write(await(pending.poll()));
+            }
+        } finally {
+            pending.forEach(future -> future.cancel(false));
+        }
+        return counter;
+    }
+
+    private byte[] transcodeBlock(AvroContainerReader.RawBlock block, String codec, Schema writerSchema, Schema projectedSchema, byte[] sync, int headerLength) {
+        try {
+            var data = AvroBlockCodec.decompress(codec, block.getData());
+            var projector = RawRecordProjector.forSchemas(writerSchema, projectedSchema).orElseThrow();
+            var encoded = encodeBlocks(projectedSchema, sync, writer -> projector.projectBlock(data, block.getRecordCount(), writer));
+            return encoded.toByteArray(headerLength);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encodes blocks with a regular DataFileWriter, so that codec and block framing are handled by Avro.
+     * All writers share the same sync marker, so the header written by every one of them is identical
+     * and blocks can be concatenated after a single header.
+     */
+    private BlockOutputStream encodeBlocks(Schema projectedSchema, byte[] sync, BlockEncoder encoder) throws IOException {
+        var outputStream = new BlockOutputStream();
+        try (var writer = outputFormat.configure(new DataFileWriter<>(new GenericDatumWriter<>(projectedSchema)))) {
+            writer.create(projectedSchema, outputStream, sync);
+            if (encoder != null) {
+                encoder.encode(writer);
+            }
+        }
+        return outputStream;
+    }
+
+    private byte[] await(CompletableFuture<byte[]> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new AvroRuntimeException(e.getCause());
+        }
+    }
+
+    private static byte[] newSyncMarker() {
+        var uuid = UUID.randomUUID();
+        var sync = new byte[DataFileConstants.SYNC_SIZE];
+        for (int i = 0; i < Long.BYTES; i++) {
+            sync[i] = (byte) (uuid.getMostSignificantBits() >>> (i * Byte.SIZE));
+            sync[Long.BYTES + i] = (byte) (uuid.getLeastSignificantBits() >>> (i * Byte.SIZE));
+        }
+        return sync;
+    }
+
+    @FunctionalInterface
+    private interface BlockEncoder {
+        void encode(DataFileWriter<?> writer) throws IOException;
+    }
+
+    private static class BlockOutputStream extends ByteArrayOutputStream {
+        private byte[] toByteArray(int from) {
+            return Arrays.copyOfRange(buf, from, count);
+        }
+    }
+}
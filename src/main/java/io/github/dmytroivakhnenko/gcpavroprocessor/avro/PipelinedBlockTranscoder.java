@@ -0,0 +1,236 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Transcodes Avro container file in four stages connected by bounded queues:
+ * read (raw blocks from the input) -> decode (decompression and projection) -> encode (output blocks) -> upload.
+ * Read, decode and encode stages run on the executor, upload runs on the calling thread which owns the output.
+ * When upload falls behind, full queues block the previous stages, so memory usage is bounded by the queue capacity.
+ */
+@Slf4j
+public class PipelinedBlockTranscoder {
+    private static final Object END = new Object();
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final Executor executor;
+    private final int queueCapacity;
+    private final AvroOutputFormat outputFormat;
+
+    public PipelinedBlockTranscoder(Executor executor, int queueCapacity) {
+        this(executor, queueCapacity, AvroOutputFormat.DEFAULT);
+    }
+
+    /**
+     * @param outputFormat - codec and sync interval of the output, compression runs in the encode stage
+     */
+    public PipelinedBlockTranscoder(Executor executor, int queueCapacity, AvroOutputFormat outputFormat) {
+        this.executor = executor;
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.outputFormat = outputFormat;
+    }
+
+    /**
+     * @param reader          - reader of the input file, positioned at the first block
+     * @param projectedSchema - schema of the output file, must be raw projection of the input schema
+     * @param output          - stream for the output file
+     * @return number of transcoded records
+     * @throws IOException if input file is corrupted or output can't be written
+     */
+    public long transcode(AvroContainerReader reader, Schema projectedSchema, OutputStream output) throws IOException {
+        var writerSchema = reader.getHeader().getSchema();
+        var codec = reader.getHeader().getCodec();
+        var projector = RawRecordProjector.forSchemas(writerSchema, projectedSchema)
+                .orElseThrow(() -> new IllegalArgumentException("Schema " + projectedSchema.getFullName() + " is not a raw projection of " + writerSchema.getFullName()));
+
+        var failure = new AtomicReference<Throwable>();
+        var counter = new AtomicLong();
+        BlockingQueue<Object> rawBlocks = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> projectedBlocks = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> encodedChunks = new ArrayBlockingQueue<>(queueCapacity);
+
+        var stages = new ArrayList<CompletableFuture<Void>>();
+        stages.add(runStage("read", failure, () -> {
+            AvroContainerReader.RawBlock block;
+            while ((block = reader.nextBlock()) != null) {
+                put(rawBlocks, block, failure);
+            }
+            put(rawBlocks, END, failure);
+        }));
+        stages.add(runStage("decode", failure, () -> {
+            for (var item = take(rawBlocks, failure); item != END; item = take(rawBlocks, failure)) {
+                var block = (AvroContainerReader.RawBlock) item;
+                var projectedBlock = new ProjectedBlock(block.getData().length);
+                projector.projectBlock(AvroBlockCodec.decompress(codec, block.getData()), block.getRecordCount(), projectedBlock::add);
+                put(projectedBlocks, projectedBlock, failure);
+            }
+            put(projectedBlocks, END, failure);
+        }));
+        stages.add(runStage("encode", failure, () -> {
+            try (var writer = outputFormat.configure(new DataFileWriter<>(new GenericDatumWriter<>(projectedSchema)))) {
+                writer.create(projectedSchema, new QueueOutputStream(encodedChunks, failure));
+                for (var item = take(projectedBlocks, failure); item != END; item = take(projectedBlocks, failure)) {
+                    counter.addAndGet(((ProjectedBlock) item).appendTo(writer));
+                }
+            }
+            put(encodedChunks, END, failure);
+        }));
+
+        try {
+            for (var item = take(encodedChunks, failure); item != END; item = take(encodedChunks, failure)) {
+                output.write((byte[]) item);
+            }
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        }
+        CompletableFuture.allOf(stages.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+        rethrow(failure.get());
+        return counter.get();
+    }
+
+    private CompletableFuture<Void> runStage(String name, AtomicReference<Throwable> failure, Stage stage) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                stage.run();
+            } catch (Exception e) {
+                if (failure.compareAndSet(null, e)) {
+                    log.error("Transcode stage {} failed", name, e);
+                }
+            }
+        }, executor);
+    }
+
+    private static void put(BlockingQueue<Object> queue, Object item, AtomicReference<Throwable> failure) throws IOException {
+        try {
+            while (!queue.offer(item, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure(failure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transcode stage was interrupted");
+        }
+    }
+
+    private static Object take(BlockingQueue<Object> queue, AtomicReference<Throwable> failure) throws IOException {
+        try {
+            Object item;
+            while ((item = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                checkFailure(failure);
+            }
+            return item;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transcode stage was interrupted");
+        }
+    }
+
+    private static void checkFailure(AtomicReference<Throwable> failure) throws IOException {
+        if (failure.get() != null) {
+            throw new InterruptedIOException("Transcode stage was stopped due to failure of another stage");
+        }
+    }
+
+    private static void rethrow(Throwable failure) throws IOException {
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) failure).getCause();
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw new AvroRuntimeException(failure);
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        void run() throws IOException;
+    }
+
+    /**
+     * Projected records of one input block, kept in binary form with their boundaries.
+     */
+    private static class ProjectedBlock {
+        private byte[] data;
+        private int[] recordEnds = new int[64];
+        private int size;
+        private int recordCount;
+
+        private ProjectedBlock(int initialCapacity) {
+            this.data = new byte[Math.max(initialCapacity, 64)];
+        }
+
+        private void add(ByteBuffer record) {
+            var length = record.remaining();
+            if (size + length > data.length) {
+                data = Arrays.copyOf(data, Math.max(size + length, data.length * 2));
+            }
+            if (recordCount == recordEnds.length) {
+                recordEnds = Arrays.copyOf(recordEnds, recordEnds.length * 2);
+            }
+            System.arraycopy(record.array(), record.arrayOffset() + record.position(), data, size, length);
+            size += length;
+            recordEnds[recordCount++] = size;
+        }
+
+        private long appendTo(DataFileWriter<?> writer) throws IOException {
+            var recordView = ByteBuffer.wrap(data);
+            var start = 0;
+            for (int i = 0; i < recordCount; i++) {
+                recordView.limit(recordEnds[i]);
+                recordView.position(start);
+                writer.appendEncoded(recordView);
+                start = recordEnds[i];
+            }
+            return recordCount;
+        }
+    }
+
+    /**
+     * Passes everything written by the encode stage to the upload stage as chunks.
+     */
+    private static class QueueOutputStream extends OutputStream {
+        private final BlockingQueue<Object> queue;
+        private final AtomicReference<Throwable> failure;
+
+        private QueueOutputStream(BlockingQueue<Object> queue, AtomicReference<Throwable> failure) {
+            this.queue = queue;
+            this.failure = failure;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                put(queue, Arrays.copyOfRange(b, off, off + len), failure);
+            }
+        }
+    }
+}
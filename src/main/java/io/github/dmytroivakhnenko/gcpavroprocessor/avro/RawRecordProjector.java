@@ -0,0 +1,338 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Projects binary encoded Avro records onto a subset of their fields without decoding them.
+ * Every record is scanned once to find its field boundaries, fields that are not projected are skipped
+ * and the bytes of the projected fields are appended to the output writer as an already encoded datum.
+ * <p>
+ * Instances keep per-record state in reusable buffers, so they are cheap to create but not thread safe.
+ */
+public class RawRecordProjector {
+    private final Schema[] projectedSchemas;
+    private final SkipNode[] writerFields;
+    private final int[][] projectedFields;
+    private final boolean[] contiguous;
+    private final int[] fieldStarts;
+    private byte[] scratch = new byte[256];
+    private ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch);
+    private int pos;
+
+    private RawRecordProjector(Schema writerSchema, Schema[] projectedSchemas, int[][] projectedFields) {
+        this.projectedSchemas = projectedSchemas;
+        var fields = writerSchema.getFields();
+        this.writerFields = new SkipNode[fields.size()];
+        for (int i = 0; i < writerFields.length; i++) {
+            writerFields[i] = SkipNode.compile(fields.get(i).schema(), new HashSet<>());
+        }
+        this.projectedFields = projectedFields;
+        this.fieldStarts = new int[writerFields.length + 1];
+        this.contiguous = new boolean[projectedFields.length];
+        for (int p = 0; p < projectedFields.length; p++) {
+            var isContiguous = true;
+            for (int i = 1; i < projectedFields[p].length; i++) {
+                isContiguous &= projectedFields[p][i] == projectedFields[p][0] + i;
+            }
+            contiguous[p] = isContiguous;
+        }
+    }
+
+    /**
+     * Creates projector if every projected field is present in the writer schema with identical type,
+     * so that its binary encoding can be copied as is.
+     *
+     * @param writerSchema    - schema the records were written with
+     * @param projectedSchema - schema of the output records
+     * @return projector or empty if projection requires decoding (missing fields, promoted types etc.)
+     */
+    public static Optional<RawRecordProjector> forSchemas(Schema writerSchema, Schema projectedSchema) {
+        return forSchemas(writerSchema, List.of(projectedSchema));
+    }
+
+    /**
+     * Creates projector onto several schemas at once, every record is scanned once for all of them.
+     *
+     * @param writerSchema     - schema the records were written with
+     * @param projectedSchemas - schemas of the outputs, in the order of consumers passed to {@link #projectBlock(ByteBuffer, long, List)}
+     * @return projector or empty if any of projections requires decoding
+     */
+    public static Optional<RawRecordProjector> forSchemas(Schema writerSchema, List<Schema> projectedSchemas) {
+        if (writerSchema.getType() != Schema.Type.RECORD) {
+            return Optional.empty();
+        }
+        var projectedFields = new int[projectedSchemas.size()][];
+        for (int p = 0; p < projectedFields.length; p++) {
+            var projectedSchema = projectedSchemas.get(p);
+            if (projectedSchema.getType() != Schema.Type.RECORD) {
+                return Optional.empty();
+            }
+            projectedFields[p] = new int[projectedSchema.getFields().size()];
+            for (var projectedField : projectedSchema.getFields()) {
+                var writerField = writerSchema.getField(projectedField.name());
+                if (writerField == null || !writerField.schema().equals(projectedField.schema())) {
+                    return Optional.empty();
+                }
+                projectedFields[p][projectedField.pos()] = writerField.pos();
+            }
+        }
+        try {
+            return Optional.of(new RawRecordProjector(writerSchema, projectedSchemas.toArray(Schema[]::new), projectedFields));
+        } catch (IllegalArgumentException e) {
+            // recursive schemas are left to the regular datum reader
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return the first projected schema
+     */
+    public Schema getProjectedSchema() {
+        return projectedSchemas[0];
+    }
+
+    public List<Schema> getProjectedSchemas() {
+        return List.of(projectedSchemas);
+    }
+
+    /**
+     * Projects all records of the decompressed data block and appends them to the writer.
+     *
+     * @param block       - decompressed block data, heap buffer positioned at the first record
+     * @param recordCount - number of records in the block
+     * @param writer      - writer created with the projected schema
+     * @return number of projected records
+     * @throws IOException if the block is truncated or doesn't match the writer schema
+     */
+    public long projectBlock(ByteBuffer block, long recordCount, DataFileWriter<?> writer) throws IOException {
+        return projectBlock(block, recordCount, writer::appendEncoded);
+    }
+
+    /**
+     * Projects all records of the decompressed data block and passes every projected record to the consumer.
+     * Buffer passed to the consumer is reused, its content is valid until the consumer returns.
+     *
+     * @param block       - decompressed block data, heap buffer positioned at the first record
+     * @param recordCount - number of records in the block
+     * @param consumer    - consumer of binary encoded projected records
+     * @return number of projected records
+     * @throws IOException if the block is truncated or doesn't match the writer schema
+     */
+    public long projectBlock(ByteBuffer block, long recordCount, RecordConsumer consumer) throws IOException {
+        return projectBlock(block, recordCount, List.of(consumer));
+    }
+
+    /**
+     * Projects all records of the decompressed data block onto every projected schema, each record is scanned once.
+     * Buffer passed to a consumer is reused, its content is valid until the consumer returns.
+     *
+     * @param block       - decompressed block data, heap buffer positioned at the first record
+     * @param recordCount - number of records in the block
+     * @param consumers   - consumer of every projected schema, in the order of the schemas
+     * @return number of projected records
+     * @throws IOException if the block is truncated or doesn't match the writer schema
+     */
+    public long projectBlock(ByteBuffer block, long recordCount, List<RecordConsumer> consumers) throws IOException {
+        if (consumers.size() != projectedSchemas.length) {
+            throw new IllegalArgumentException(String.format("Expected %d consumers, got %d", projectedSchemas.length, consumers.size()));
+        }
+        var buf = block.array();
+        var offset = block.arrayOffset();
+        var limit = offset + block.limit();
+        var recordView = block.duplicate();
+        pos = offset + block.position();
+
+        for (long i = 0; i < recordCount; i++) {
+            scanRecord(buf, limit);
+            for (int p = 0; p < projectedFields.length; p++) {
+                var fields = projectedFields[p];
+                if (contiguous[p]) {
+                    recordView.limit(fieldStarts[fields[fields.length - 1] + 1] - offset);
+                    recordView.position(fieldStarts[fields[0]] - offset);
+                    consumers.get(p).accept(recordView);
+                } else {
+                    consumers.get(p).accept(gatherProjectedFields(buf, fields));
+                }
+            }
+        }
+
+        if (pos != limit) {
+            throw new IOException(String.format("Data block has %d unexpected trailing bytes", limit - pos));
+        }
+        return recordCount;
+    }
+
+    private void scanRecord(byte[] buf, int limit) throws IOException {
+        for (int f = 0; f < writerFields.length; f++) {
+            fieldStarts[f] = pos;
+            skip(writerFields[f], buf, limit);
+        }
+        fieldStarts[writerFields.length] = pos;
+    }
+
+    private ByteBuffer gatherProjectedFields(byte[] buf, int[] projectedFields) {
+        var length = 0;
+        for (int field : projectedFields) {
+            length += fieldStarts[field + 1] - fieldStarts[field];
+        }
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+            scratchBuffer = ByteBuffer.wrap(scratch);
+        }
+        var written = 0;
+        for (int field : projectedFields) {
+            var fieldLength = fieldStarts[field + 1] - fieldStarts[field];
+            System.arraycopy(buf, fieldStarts[field], scratch, written, fieldLength);
+            written += fieldLength;
+        }
+        scratchBuffer.limit(written);
+        scratchBuffer.position(0);
+        return scratchBuffer;
+    }
+
+    private void skip(SkipNode node, byte[] buf, int limit) throws IOException {
+        switch (node.type) {
+            case NULL:
+                break;
+            case BOOLEAN:
+                skipBytes(1, limit);
+                break;
+            case INT:
+            case LONG:
+            case ENUM:
+                readLong(buf, limit);
+                break;
+            case FLOAT:
+                skipBytes(4, limit);
+                break;
+            case DOUBLE:
+                skipBytes(8, limit);
+                break;
+            case FIXED:
+                skipBytes(node.size, limit);
+                break;
+            case STRING:
+            case BYTES:
+                skipBytes(readLength(buf, limit), limit);
+                break;
+            case RECORD:
+                for (int i = 0; i < node.children.length; i++) {
+                    skip(node.children[i], buf, limit);
+                }
+                break;
+            case UNION:
+                var index = readLong(buf, limit);
+                if (index < 0 || index >= node.children.length) {
+                    throw new IOException(String.format("Union index %d is out of range", index));
+                }
+                skip(node.children[(int) index], buf, limit);
+                break;
+            case ARRAY:
+            case MAP:
+                skipBlocks(node, buf, limit);
+                break;
+            default:
+                throw new IOException("Unsupported schema type " + node.type);
+        }
+    }
+
+    private void skipBlocks(SkipNode node, byte[] buf, int limit) throws IOException {
+        for (var count = readLong(buf, limit); count != 0; count = readLong(buf, limit)) {
+            if (count < 0) {
+                // negative count is followed by the size of the block in bytes
+                readLong(buf, limit);
+                count = -count;
+            }
+            for (long i = 0; i < count; i++) {
+                if (node.type == Schema.Type.MAP) {
+                    skipBytes(readLength(buf, limit), limit);
+                }
+                skip(node.children[0], buf, limit);
+            }
+        }
+    }
+
+    private void skipBytes(long length, int limit) throws IOException {
+        if (length > limit - pos) {
+            throw new EOFException("Record is truncated");
+        }
+        pos += (int) length;
+    }
+
+    private long readLength(byte[] buf, int limit) throws IOException {
+        var length = readLong(buf, limit);
+        if (length < 0) {
+            throw new IOException(String.format("Negative length %d", length));
+        }
+        return length;
+    }
+
+    private long readLong(byte[] buf, int limit) throws IOException {
+        long value = 0;
+        var shift = 0;
+        int b;
+        do {
+            if (pos >= limit) {
+                throw new EOFException("Record is truncated");
+            }
+            if (shift > 63) {
+                throw new IOException("Invalid long encoding");
+            }
+            b = buf[pos++] & 0xff;
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(ByteBuffer record) throws IOException;
+    }
+
+    /**
+     * Schema tree flattened to arrays, so that skipping doesn't allocate iterators.
+     */
+    private static final class SkipNode {
+        private final Schema.Type type;
+        private final SkipNode[] children;
+        private final int size;
+
+        private SkipNode(Schema.Type type, SkipNode[] children, int size) {
+            this.type = type;
+            this.children = children;
+            this.size = size;
+        }
+
+        private static SkipNode compile(Schema schema, Set<String> enclosingRecords) {
+            switch (schema.getType()) {
+                case RECORD:
+                    if (!enclosingRecords.add(schema.getFullName())) {
+                        throw new IllegalArgumentException("Recursive schema " + schema.getFullName());
+                    }
+                    var fields = schema.getFields().stream().map(field -> compile(field.schema(), enclosingRecords)).toArray(SkipNode[]::new);
+                    enclosingRecords.remove(schema.getFullName());
+                    return new SkipNode(schema.getType(), fields, 0);
+                case UNION:
+                    return new SkipNode(schema.getType(), schema.getTypes().stream().map(type -> compile(type, enclosingRecords)).toArray(SkipNode[]::new), 0);
+                case ARRAY:
+                    return new SkipNode(schema.getType(), new SkipNode[]{compile(schema.getElementType(), enclosingRecords)}, 0);
+                case MAP:
+                    return new SkipNode(schema.getType(), new SkipNode[]{compile(schema.getValueType(), enclosingRecords)}, 0);
+                case FIXED:
+                    return new SkipNode(schema.getType(), new SkipNode[0], schema.getFixedSize());
+                default:
+                    return new SkipNode(schema.getType(), new SkipNode[0], 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+public enum TranscodeMode {
+    /**
+     * Single DataFileStream is read and written on the calling thread.
+     */
+    SEQUENTIAL,
+    /**
+     * Data blocks are decompressed, projected and encoded on the transcode fork-join pool.
+     */
+    PARALLEL,
+    /**
+     * Read, decode, encode and upload run as separate stages connected by bounded queues.
+     */
+    PIPELINED
+}
@@ -0,0 +1,141 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.SchemaRegistryStats;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaCompatibility;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.specific.SpecificDatumReader;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writer schemas of the read files keyed by the 64-bit fingerprint of the schema from the container header.
+ * Schema is parsed, checked against the reader schema and given a resolving reader of the projection once,
+ * the least recently used schemas are evicted. Files with a known schema start decoding without parsing or resolution.
+ *
+ * @param <T> - type of the projected records
+ */
+@Slf4j
+public class WriterSchemaRegistry<T> {
+    private final Schema readerSchema;
+    private final Schema projectedSchema;
+    private final int maxEntries;
+    private final Map<Long, WriterSchema<T>> schemas;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param readerSchema    - schema every file has to be compatible with
+     * @param projectedSchema - schema of the records decoded from the files, subset of the reader schema
+     * @param maxEntries      - maximum number of kept writer schemas
+     */
+    public WriterSchemaRegistry(Schema readerSchema, Schema projectedSchema, int maxEntries) {
+        this.readerSchema = readerSchema;
+        this.projectedSchema = projectedSchema;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.schemas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, WriterSchema<T>> eldest) {
+                return size() > WriterSchemaRegistry.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Finds writer schema of the file and makes the header return its cached parsed schema.
+     *
+     * @param header - header of the read file
+     * @return writer schema, registered if it wasn't known
+     */
+    public WriterSchema<T> resolve(AvroContainerReader.Header header) {
+        var schemaBytes = header.getSchemaBytes();
+        var fingerprint = SchemaNormalization.fingerprint64(schemaBytes);
+        WriterSchema<T> writerSchema;
+        synchronized (this) {
+            writerSchema = schemas.get(fingerprint);
+            // bytes are compared as well, so that a fingerprint collision can't mix up schemas
+            if (writerSchema != null && Arrays.equals(writerSchema.schemaBytes, schemaBytes)) {
+                hitCount++;
+                header.useSchema(writerSchema.schema);
+                return writerSchema;
+            }
+            missCount++;
+        }
+        writerSchema = new WriterSchema<>(fingerprint, schemaBytes, header.getSchema(), readerSchema, projectedSchema);
+        log.info("Writer schema {} with fingerprint {} was registered, compatible: {}", writerSchema.schema.getFullName(), fingerprint, writerSchema.isCompatible());
+        synchronized (this) {
+            schemas.put(fingerprint, writerSchema);
+        }
+        return writerSchema;
+    }
+
+    public synchronized SchemaRegistryStats getStats() {
+        return SchemaRegistryStats.builder()
+                .schemaCount(schemas.size())
+                .hitCount(hitCount)
+                .missCount(missCount)
+                .build();
+    }
+
+    /**
+     * Parsed writer schema with the results of its resolution against the reader and projected schemas.
+     */
+    public static class WriterSchema<T> {
+        private final long fingerprint;
+        private final byte[] schemaBytes;
+        private final Schema schema;
+        private final String incompatibility;
+        private final DatumReader<T> projectionReader;
+        private final DatumReader<GenericRecord> fullReader;
+
+        private WriterSchema(long fingerprint, byte[] schemaBytes, Schema schema, Schema readerSchema, Schema projectedSchema) {
+            this.fingerprint = fingerprint;
+            this.schemaBytes = schemaBytes;
+            this.schema = schema;
+            var compatibility = SchemaCompatibility.checkReaderWriterCompatibility(readerSchema, schema);
+            this.incompatibility = compatibility.getType() == SchemaCompatibility.SchemaCompatibilityType.COMPATIBLE ? null : compatibility.getDescription();
+            // resolving decoders are cached per reader and thread by writer schema identity, so the same schema instance is kept
+            this.projectionReader = new SpecificDatumReader<>(schema, projectedSchema);
+            this.fullReader = new GenericDatumReader<>(schema, readerSchema);
+        }
+
+        public long getFingerprint() {
+            return fingerprint;
+        }
+
+        public Schema getSchema() {
+            return schema;
+        }
+
+        public boolean isCompatible() {
+            return incompatibility == null;
+        }
+
+        /**
+         * @return description of the incompatibility with the reader schema, null if the schema is compatible
+         */
+        public String getIncompatibility() {
+            return incompatibility;
+        }
+
+        /**
+         * @return reader decoding records written with this schema directly into the projection, safe to share between threads
+         */
+        public DatumReader<T> getProjectionReader() {
+            return projectionReader;
+        }
+
+        /**
+         * @return reader decoding records written with this schema into generic records of the reader schema, safe to share between threads
+         */
+        public DatumReader<GenericRecord> getFullReader() {
+            return fullReader;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.config;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BufferPool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Pools of reused buffers, so that large short-lived arrays don't churn the heap of a memory capped container.
+ */
+@Configuration
+public class BufferPoolConfig {
+    private static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Byte ranges fetched ahead of the readers of Cloud Storage files, optionally off-heap.
+     */
+    @Bean
+    public BufferPool gcsBufferPool(@Value("${gcs.read.range.size}") int rangeSize,
+                                    @Value("${buffer.gcs.max-pooled-bytes}") long maxPooledBytes,
+                                    @Value("${buffer.gcs.direct}") boolean direct) {
+        return new BufferPool("gcs", MIN_BUFFER_SIZE, rangeSize, maxPooledBytes, direct);
+    }
+
+    /**
+     * Decompressed Avro data blocks, always on heap, as records are decoded from the backing array.
+     */
+    @Bean
+    public BufferPool avroBufferPool(@Value("${buffer.avro.max-buffer-size}") int maxBufferSize,
+                                     @Value("${buffer.avro.max-pooled-bytes}") long maxPooledBytes) {
+        return new BufferPool("avro", MIN_BUFFER_SIZE, maxBufferSize, maxPooledBytes, false);
+    }
+}
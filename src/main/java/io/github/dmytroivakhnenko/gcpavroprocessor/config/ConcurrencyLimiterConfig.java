@@ -0,0 +1,27 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.config;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.ConcurrencyLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive limit of the files processed concurrently, in front of the executors, so that a saturated instance makes Pub/Sub
+ * back off before latency reaches the acknowledgement deadline.
+ */
+@Configuration
+public class ConcurrencyLimiterConfig {
+
+    @Bean
+    public ConcurrencyLimiter processingLimiter(@Value("${limiter.processing.initial-limit}") int initialLimit,
+                                                @Value("${limiter.processing.min-limit}") int minLimit,
+                                                @Value("${limiter.processing.max-limit}") int maxLimit,
+                                                @Value("${limiter.processing.backoff-ratio}") double backoffRatio,
+                                                @Value("${limiter.processing.latency-threshold-seconds}") long latencyThresholdSeconds,
+                                                @Value("${limiter.processing.heap-pressure-threshold}") double heapPressureThreshold) {
+        return new ConcurrencyLimiter("processing", initialLimit, minLimit, maxLimit, backoffRatio,
+                TimeUnit.SECONDS.toNanos(latencyThresholdSeconds), heapPressureThreshold);
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.config;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BoundedExecutor;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.ExecutorMode;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Bounded executors for every kind of work. Saturated executor rejects new tasks instead of growing,
+ * so a burst of notifications is pushed back to Pub/Sub rather than exhausting container memory.
+ * Executors of blocking Cloud requests may run on virtual threads, they are bounded by a higher number of threads then.
+ */
+@Configuration
+@Slf4j
+public class ExecutorConfig {
+    private static final int STAGES_PER_FILE = 3;
+
+    /**
+     * Transcoding of whole files, bounds the number of files processed at once.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public BoundedExecutor transcodeExecutor(@Value("${executor.transcode.threads}") int threads,
+                                             @Value("${executor.transcode.queue-capacity}") int queueCapacity) {
+        return new BoundedExecutor("transcode", threads, queueCapacity);
+    }
+
+    /**
+     * Stages of pipelined transcoding. Sized for every file the transcode executor can run at once,
+     * so that stages of a running file are never queued behind stages of other files.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public BoundedExecutor transcodeStageExecutor(@Value("${executor.transcode.threads}") int transcodeThreads) {
+        return new BoundedExecutor("transcode-stage", STAGES_PER_FILE * transcodeThreads, STAGES_PER_FILE * transcodeThreads);
+    }
+
+    /**
+     * Cloud Storage requests: ranged reads ahead of the transcoders and temporary file cleanup.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public BoundedExecutor gcsIoExecutor(@Value("${executor.mode}") ExecutorMode mode,
+                                         @Value("${executor.gcs-io.threads}") int threads,
+                                         @Value("${executor.gcs-io.virtual-threads}") int virtualThreads,
+                                         @Value("${executor.gcs-io.queue-capacity}") int queueCapacity) {
+        return ioExecutor("gcs-io", mode, threads, virtualThreads, queueCapacity);
+    }
+
+    /**
+     * Generation of random client files, every thread writes one file at a time.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public BoundedExecutor generatorExecutor(@Value("${executor.generator.threads}") int threads,
+                                             @Value("${executor.generator.queue-capacity}") int queueCapacity) {
+        return new BoundedExecutor("generator", threads, queueCapacity);
+    }
+
+    /**
+     * Submission of BigQuery load jobs, their completion is tracked by the job poller without blocking threads.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public BoundedExecutor bigQueryExecutor(@Value("${executor.mode}") ExecutorMode mode,
+                                            @Value("${executor.bigquery.threads}") int threads,
+                                            @Value("${executor.bigquery.virtual-threads}") int virtualThreads,
+                                            @Value("${executor.bigquery.queue-capacity}") int queueCapacity) {
+        return ioExecutor("bigquery", mode, threads, virtualThreads, queueCapacity);
+    }
+
+    private BoundedExecutor ioExecutor(String name, ExecutorMode mode, int threads, int virtualThreads, int queueCapacity) {
+        if (mode == ExecutorMode.VIRTUAL) {
+            var threadFactory = VirtualThreads.newFactory(name + "-");
+            if (threadFactory.isPresent()) {
+                log.info("Executor {} runs up to {} tasks on virtual threads", name, virtualThreads);
+                return new BoundedExecutor(name, virtualThreads, queueCapacity, threadFactory.get(), true);
+            }
+            log.warn("Virtual threads aren't supported by Java {}, executor {} runs on {} platform threads", Runtime.version().feature(), name, threads);
+        }
+        return new BoundedExecutor(name, threads, queueCapacity);
+    }
+}
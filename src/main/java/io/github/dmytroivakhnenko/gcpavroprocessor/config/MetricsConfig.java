@@ -0,0 +1,51 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.config;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BoundedExecutor;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BufferPool;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.ConcurrencyLimiter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+
+/**
+ * Registers gauges and counters of components which don't depend on the metrics registry themselves.
+ */
+@Configuration
+@RequiredArgsConstructor
+public class MetricsConfig {
+    private final MetricsRegistry metrics;
+    private final List<BoundedExecutor> executors;
+    private final List<BufferPool> bufferPools;
+    private final List<ConcurrencyLimiter> limiters;
+
+    @PostConstruct
+    public void registerExecutorGauges() {
+        for (var executor : executors) {
+            metrics.gauge("executor_queued_tasks", "Tasks waiting in the queue of the executor", () -> executor.getQueue().size(), "executor", executor.getName());
+            metrics.gauge("executor_active_tasks", "Tasks running on the executor", executor::getActiveCount, "executor", executor.getName());
+            metrics.counter("executor_rejected_tasks_total", "Tasks rejected by the saturated executor", executor::getRejectedCount, "executor", executor.getName());
+        }
+    }
+
+    @PostConstruct
+    public void registerBufferPoolGauges() {
+        for (var pool : bufferPools) {
+            metrics.counter("buffer_pool_hits_total", "Buffers acquired from the pool", () -> pool.getStats().getHitCount(), "pool", pool.getName());
+            metrics.counter("buffer_pool_misses_total", "Buffers allocated because the pool had none of the size", () -> pool.getStats().getMissCount(), "pool", pool.getName());
+            metrics.gauge("buffer_pool_outstanding_bytes", "Bytes of buffers acquired and not yet released", () -> pool.getStats().getOutstandingBytes(), "pool", pool.getName());
+            metrics.gauge("buffer_pool_pooled_bytes", "Bytes of free buffers kept by the pool", () -> pool.getStats().getPooledBytes(), "pool", pool.getName());
+        }
+    }
+
+    @PostConstruct
+    public void registerLimiterGauges() {
+        for (var limiter : limiters) {
+            metrics.gauge("concurrency_limit", "Adaptive limit of the work processed concurrently", limiter::getLimit, "limiter", limiter.getName());
+            metrics.gauge("concurrency_in_flight", "Work processed concurrently under the limit", limiter::getInFlight, "limiter", limiter.getName());
+            metrics.counter("concurrency_rejected_total", "Work rejected by the limiter", limiter::getRejectedCount, "limiter", limiter.getName());
+        }
+    }
+}
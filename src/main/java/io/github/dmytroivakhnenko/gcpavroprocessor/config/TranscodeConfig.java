@@ -0,0 +1,46 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.config;
+
+import example.gcp.Client;
+import example.gcp.ClientMandatory;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.AdaptiveCodecSelector;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.WriterSchemaRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ForkJoinPool;
+
+@Configuration
+public class TranscodeConfig {
+
+    /**
+     * Pool for block level transcoding, non-positive parallelism means one thread per available processor.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ForkJoinPool transcodeForkJoinPool(@Value("${avro.transcode.parallelism}") int parallelism) {
+        var threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        return new ForkJoinPool(threads, pool -> {
+            var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("avro-transcode-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Selector of the codec for outputs configured as adaptive.
+     */
+    @Bean
+    public AdaptiveCodecSelector adaptiveCodecSelector(@Value("${avro.output.adaptive.min-cpu-headroom}") double minCpuHeadroom,
+                                                       @Value("${avro.output.adaptive.slow-upload-bytes-per-second}") double slowUploadBytesPerSecond,
+                                                       @Value("${avro.output.adaptive.fast-upload-bytes-per-second}") double fastUploadBytesPerSecond) {
+        return new AdaptiveCodecSelector(minCpuHeadroom, slowUploadBytesPerSecond, fastUploadBytesPerSecond);
+    }
+
+    /**
+     * Known writer schemas of the input files, resolved against Client schema and projected onto ClientMandatory.
+     */
+    @Bean
+    public WriterSchemaRegistry<ClientMandatory> writerSchemaRegistry(@Value("${avro.schema.registry.max-entries}") int maxEntries) {
+        return new WriterSchemaRegistry<>(Client.getClassSchema(), ClientMandatory.getClassSchema(), maxEntries);
+    }
+}
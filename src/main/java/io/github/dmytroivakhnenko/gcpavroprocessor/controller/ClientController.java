@@ -1,26 +1,44 @@
 package io.github.dmytroivakhnenko.gcpavroprocessor.controller;
 
-import io.github.dmytroivakhnenko.gcpavroprocessor.service.GCSFileProcessorService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.AvroFileGeneratorService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.GenerationProgress;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.List;
+
 @RestController
 @RequiredArgsConstructor
 public class ClientController {
-    private final GCSFileProcessorService gcsFileProcessorService;
+    private final AvroFileGeneratorService avroFileGeneratorService;
 
     @GetMapping("/")
     public ResponseEntity<String> welcome() {
         return new ResponseEntity<>("Welcome to GSC AVRO processor application", HttpStatus.OK);
     }
 
+    /**
+     * Starts generation in background, its progress is reported by {@link #generation(String)}
+     */
     @GetMapping("/generate")
-    public ResponseEntity<String> generate(@RequestParam(required = false, defaultValue = "test") String name, @RequestParam(required = false, defaultValue = "1") int fileCount, @RequestParam(required = false, defaultValue = "1") int clientsCount) {
-        gcsFileProcessorService.generateRandomAvroFiles(name, fileCount, clientsCount);
-        return new ResponseEntity<>(String.format("%d file(s) with name %s and %d clients was(were) created", fileCount, name, clientsCount), HttpStatus.OK);
+    public ResponseEntity<GenerationProgress> generate(@RequestParam(required = false, defaultValue = "test") String name, @RequestParam(required = false, defaultValue = "1") int fileCount, @RequestParam(required = false, defaultValue = "1") int clientsCount) {
+        return new ResponseEntity<>(avroFileGeneratorService.startGeneration(name, fileCount, clientsCount), HttpStatus.ACCEPTED);
+    }
+
+    @GetMapping("/generate/progress")
+    public ResponseEntity<List<GenerationProgress>> generations() {
+        return new ResponseEntity<>(avroFileGeneratorService.getGenerations(), HttpStatus.OK);
+    }
+
+    @GetMapping("/generate/progress/{id}")
+    public ResponseEntity<GenerationProgress> generation(@PathVariable String id) {
+        return avroFileGeneratorService.getGeneration(id)
+                .map(progress -> new ResponseEntity<>(progress, HttpStatus.OK))
+                .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
     }
 }
@@ -0,0 +1,41 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.controller;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.FileJobService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.FileJob;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.FileJobState;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * JobController reports progress of files processed in asynchronous acknowledgement mode
+ */
+@RestController
+@RequestMapping("/jobs")
+@RequiredArgsConstructor
+public class JobController {
+    private final FileJobService fileJobService;
+
+    @GetMapping
+    public ResponseEntity<List<FileJob>> getJobs(@RequestParam(required = false) FileJobState state) {
+        var jobs = fileJobService.getJobs().stream()
+                .filter(job -> state == null || job.getState() == state)
+                .collect(Collectors.toList());
+        return new ResponseEntity<>(jobs, HttpStatus.OK);
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<FileJob> getJob(@PathVariable String id) {
+        return fileJobService.getJob(id)
+                .map(job -> new ResponseEntity<>(job, HttpStatus.OK))
+                .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+}
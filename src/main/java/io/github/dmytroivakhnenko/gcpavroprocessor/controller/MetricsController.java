@@ -0,0 +1,24 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.controller;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * MetricsController exposes metrics of the pipeline for Prometheus scraping
+ */
+@RestController
+@RequiredArgsConstructor
+public class MetricsController {
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry metrics;
+
+    @GetMapping(value = "/metrics", produces = PROMETHEUS_CONTENT_TYPE)
+    public ResponseEntity<String> scrape() {
+        return new ResponseEntity<>(metrics.scrape(), HttpStatus.OK);
+    }
+}
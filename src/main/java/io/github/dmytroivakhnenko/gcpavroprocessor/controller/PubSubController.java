@@ -1,103 +1,112 @@
 package io.github.dmytroivakhnenko.gcpavroprocessor.controller;
 
-import com.google.cloud.storage.BlobInfo;
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.StartupMetrics;
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.FileJobService;
 import io.github.dmytroivakhnenko.gcpavroprocessor.service.GCSFileProcessorService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.PubSubAckMode;
 import io.github.dmytroivakhnenko.gcpavroprocessor.util.PubSubEvent;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.StorageNotification;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.Base64;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
-
-import static io.github.dmytroivakhnenko.gcpavroprocessor.util.AvroFileUtils.AVRO_FILE_EXT;
 
 /**
- * PubsubController consumes a Pub/Sub message (JSON format)
+ * PubsubController consumes a Pub/Sub message (JSON format).
+ * Response is completed asynchronously, so the servlet thread is released while the file is processed.
  */
 @RestController
 @RequiredArgsConstructor
 @Slf4j
 public class PubSubController {
     private final GCSFileProcessorService gcsFileProcessorService;
+    private final FileJobService fileJobService;
+    private final MetricsRegistry metrics;
+    private final StartupMetrics startupMetrics;
+    @Value("${pubsub.ack.mode}")
+    private PubSubAckMode ackMode;
 
     @PostMapping("/pubsub")
-    public ResponseEntity receiveMessage(@RequestBody PubSubEvent event) {
+    public CompletableFuture<ResponseEntity> receiveMessage(@RequestBody PubSubEvent event) {
         // Get PubSub message from request body
         var payload = Optional.ofNullable(event.getMessage());
         if (payload.isEmpty()) {
             return logAndReturnBadRequest("Invalid Pub/Sub message format");
         }
 
-        // Decode the Pub/Sub message
-        var payloadData = payload.get().getData();
-        JsonObject data;
+        // Decode the Cloud Storage notification of the Pub/Sub message
+        StorageNotification notification;
         try {
-            var decodedMessage = new String(Base64.getDecoder().decode(payloadData));
-            log.info("PubSub message received {}", decodedMessage);
-            var gson = new Gson();
-            data = gson.fromJson(decodedMessage, JsonObject.class);
-        } catch (Exception e) {
-            return logAndReturnBadRequest("Invalid Pub/Sub message: data property is not valid base64 encoded JSON", e);
-        }
-
-        var fileName = data.get("name");
-        var bucketName = data.get("bucket");
-        // Validate if the message is a Cloud Storage event
-        if (Objects.isNull(fileName) || Objects.isNull(bucketName)) {
-            return logAndReturnBadRequest("Invalid Cloud Storage notification: expected name and bucket properties");
+            notification = StorageNotification.parse(payload.get().getData());
+        } catch (IllegalArgumentException e) {
+            return logAndReturnBadRequest(e.getMessage(), e);
         }
 
         // Validate if file has avro extension
-        if (!fileName.getAsString().endsWith(AVRO_FILE_EXT)) {
-            log.info("File {} was skipped from processing due to the wrong extension", fileName.getAsString());
-            return new ResponseEntity(HttpStatus.OK);
+        if (!notification.isAvroFile()) {
+            log.info("File {} was skipped from processing due to the wrong extension", notification.getBlobInfo().getName());
+            return CompletableFuture.completedFuture(new ResponseEntity(HttpStatus.OK));
         }
 
-        var blobInfo = BlobInfo.newBuilder(bucketName.getAsString(), fileName.getAsString()).build();
-        return getResponse(gcsFileProcessorService.processFileToBigQuery(blobInfo));
+        var blobInfo = notification.getBlobInfo();
+        var createdAt = notification.getCreatedAt();
+        if (ackMode == PubSubAckMode.ASYNC) {
+            // Acknowledge the message once file is in the job journal, its progress is available at /jobs/{id}
+            var job = fileJobService.accept(blobInfo, createdAt);
+            startupMetrics.notificationProcessed();
+            return CompletableFuture.completedFuture(new ResponseEntity(job, HttpStatus.ACCEPTED));
+        }
+        return getResponse(gcsFileProcessorService.processFileToBigQuery(blobInfo), createdAt);
     }
 
     /**
-     * Method waits and checks results of completion of all completable futures
+     * Method combines results of completion of all completable futures without waiting for them
      *
      * @param completableFutures - list of CompletableFutures that contain boolean result of the BigQuery uploading jobs
-     * @return HttpStatus.OK if all jobs were successfully finished, HttpStatus.BAD_REQUEST otherwise
+     * @param createdAt          - creation time of the file in epoch milliseconds, null if unknown
+     * @return future of HttpStatus.OK if all jobs were successfully finished, HttpStatus.BAD_REQUEST otherwise,
+     * failed with the cause of the failed future, so that it is handled by the exception handler
      */
-    private ResponseEntity getResponse(List<CompletableFuture<Boolean>> completableFutures) {
-        CompletableFuture<Void> allFutures = CompletableFuture.allOf(completableFutures.toArray(CompletableFuture[]::new));
-
-        CompletableFuture<Boolean> allCompletableFuture = allFutures
-                .thenApply(future -> {
-                    return completableFutures.stream()
-                            .map(completableFuture -> completableFuture.join())
-                            .collect(Collectors.toList());
-                }).thenApply(results -> results.stream().allMatch(Boolean.TRUE::equals));
+    private CompletableFuture<ResponseEntity> getResponse(List<CompletableFuture<Boolean>> completableFutures, Long createdAt) {
+        return CompletableFuture.allOf(completableFutures.toArray(CompletableFuture[]::new))
+                .thenApply(future -> completableFutures.stream().allMatch(completableFuture -> Boolean.TRUE.equals(completableFuture.join())))
+                .whenComplete((allSucceeded, e) -> {
+                    recordEndToEnd(createdAt, Boolean.TRUE.equals(allSucceeded));
+                    startupMetrics.notificationProcessed();
+                })
+                .thenApply(allSucceeded -> {
+                    if (allSucceeded) {
+                        return new ResponseEntity(HttpStatus.OK);
+                    } else {
+                        return new ResponseEntity("Error(s) occurred during file processing", HttpStatus.BAD_REQUEST);
+                    }
+                });
+    }
 
-        if (allCompletableFuture.join()) {
-            return new ResponseEntity(HttpStatus.OK);
-        } else {
-            return new ResponseEntity("Error(s) occurred during file processing", HttpStatus.BAD_REQUEST);
+    private void recordEndToEnd(Long createdAt, boolean succeeded) {
+        if (!Objects.isNull(createdAt)) {
+            metrics.histogram(MetricsRegistry.FILE_END_TO_END_SECONDS, MetricsRegistry.FILE_END_TO_END_HELP, "result", succeeded ? "success" : "failure")
+                    .record(Math.max(0, System.currentTimeMillis() - createdAt) / 1000.0);
         }
     }
 
-    private ResponseEntity logAndReturnBadRequest(String errorMsg) {
+    private CompletableFuture<ResponseEntity> logAndReturnBadRequest(String errorMsg) {
         log.error(errorMsg);
-        return new ResponseEntity(errorMsg, HttpStatus.BAD_REQUEST);
+        return CompletableFuture.completedFuture(new ResponseEntity(errorMsg, HttpStatus.BAD_REQUEST));
     }
 
-    private ResponseEntity logAndReturnBadRequest(String errorMsg, Exception e) {
+    private CompletableFuture<ResponseEntity> logAndReturnBadRequest(String errorMsg, Exception e) {
         log.error(errorMsg, e);
-        return new ResponseEntity(errorMsg, HttpStatus.BAD_REQUEST);
+        return CompletableFuture.completedFuture(new ResponseEntity(errorMsg, HttpStatus.BAD_REQUEST));
     }
 }
\ No newline at end of file
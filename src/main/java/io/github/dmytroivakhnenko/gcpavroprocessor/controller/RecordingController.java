@@ -0,0 +1,58 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.controller;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.FlightRecorderService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.RecordingInfo;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * RecordingController starts and stops Java Flight Recorder recordings of live traffic
+ */
+@RestController
+@RequestMapping("/jfr/recording")
+@RequiredArgsConstructor
+public class RecordingController {
+    private final FlightRecorderService flightRecorderService;
+
+    @PostMapping("/start")
+    public ResponseEntity<RecordingInfo> start(@RequestParam(required = false, defaultValue = "default") String settings) {
+        return new ResponseEntity<>(flightRecorderService.startRecording(settings), HttpStatus.OK);
+    }
+
+    @GetMapping
+    public ResponseEntity<RecordingInfo> recording() {
+        return flightRecorderService.getRecording()
+                .map(recording -> new ResponseEntity<>(recording, HttpStatus.OK))
+                .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
+    /**
+     * Returns the recording file, which is deleted once it was sent
+     */
+    @PostMapping("/stop")
+    public ResponseEntity<Resource> stop() throws IOException {
+        var file = flightRecorderService.stopRecording();
+        if (file.isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        var headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.setContentLength(Files.size(file.get()));
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.get().getFileName() + "\"");
+        return new ResponseEntity<>(new InputStreamResource(Files.newInputStream(file.get(), StandardOpenOption.DELETE_ON_CLOSE)), headers, HttpStatus.OK);
+    }
+}
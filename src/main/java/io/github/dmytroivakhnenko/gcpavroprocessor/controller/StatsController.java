@@ -0,0 +1,85 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.controller;
+
+import example.gcp.ClientMandatory;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.AdaptiveCodecSelector;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.WriterSchemaRegistry;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.BigQueryRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.CloudStorageRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.PullConsumerService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BoundedExecutor;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BufferPool;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BufferPoolStats;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.CodecSelectorStats;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.ConcurrencyLimiter;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.ConcurrencyLimiterStats;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.ExecutorStats;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.JobPollerStats;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.PullConsumerStats;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.RangedReadStats;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.SchemaRegistryStats;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * StatsController exposes runtime statistics of the processing pipeline
+ */
+@RestController
+@RequestMapping("/stats")
+@RequiredArgsConstructor
+public class StatsController {
+    private final CloudStorageRepository gcStorage;
+    private final BigQueryRepository bqRepository;
+    private final List<BoundedExecutor> executors;
+    private final List<BufferPool> bufferPools;
+    private final List<ConcurrencyLimiter> limiters;
+    private final AdaptiveCodecSelector codecSelector;
+    private final WriterSchemaRegistry<ClientMandatory> writerSchemaRegistry;
+    private final PullConsumerService pullConsumerService;
+
+    @GetMapping("/storage/read")
+    public ResponseEntity<RangedReadStats> storageRead() {
+        return new ResponseEntity<>(gcStorage.getRangedReadStats(), HttpStatus.OK);
+    }
+
+    @GetMapping("/bigquery/jobs")
+    public ResponseEntity<JobPollerStats> bigQueryJobs() {
+        return new ResponseEntity<>(bqRepository.getJobPollerStats(), HttpStatus.OK);
+    }
+
+    @GetMapping("/executors")
+    public ResponseEntity<List<ExecutorStats>> executors() {
+        return new ResponseEntity<>(executors.stream().map(BoundedExecutor::getStats).collect(Collectors.toList()), HttpStatus.OK);
+    }
+
+    @GetMapping("/buffers")
+    public ResponseEntity<List<BufferPoolStats>> buffers() {
+        return new ResponseEntity<>(bufferPools.stream().map(BufferPool::getStats).collect(Collectors.toList()), HttpStatus.OK);
+    }
+
+    @GetMapping("/limiters")
+    public ResponseEntity<List<ConcurrencyLimiterStats>> limiters() {
+        return new ResponseEntity<>(limiters.stream().map(ConcurrencyLimiter::getStats).collect(Collectors.toList()), HttpStatus.OK);
+    }
+
+    @GetMapping("/avro/codec")
+    public ResponseEntity<CodecSelectorStats> avroCodec() {
+        return new ResponseEntity<>(codecSelector.getStats(), HttpStatus.OK);
+    }
+
+    @GetMapping("/avro/schemas")
+    public ResponseEntity<SchemaRegistryStats> avroSchemas() {
+        return new ResponseEntity<>(writerSchemaRegistry.getStats(), HttpStatus.OK);
+    }
+
+    @GetMapping("/pubsub/pull")
+    public ResponseEntity<PullConsumerStats> pubSubPull() {
+        return new ResponseEntity<>(pullConsumerService.getStats(), HttpStatus.OK);
+    }
+}
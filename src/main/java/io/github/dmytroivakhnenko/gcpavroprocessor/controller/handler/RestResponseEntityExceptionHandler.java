@@ -2,6 +2,7 @@ package io.github.dmytroivakhnenko.gcpavroprocessor.controller.handler;
 
 import io.github.dmytroivakhnenko.gcpavroprocessor.exception.AvroFileGenerationException;
 import io.github.dmytroivakhnenko.gcpavroprocessor.exception.AvroFileValidationException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -42,6 +43,20 @@ public class RestResponseEntityExceptionHandler extends ResponseEntityExceptionH
         return handleExceptionInternal(ex, msg, new HttpHeaders(), HttpStatus.INTERNAL_SERVER_ERROR, request);
     }
 
+    /**
+     * This method handles rejection of the file when the concurrency limit is reached or processing executors are saturated.
+     *
+     * @param ex      - thrown exception
+     * @param request - web request
+     * @return Too many requests status (429) to make PubSub subscription redeliver message with backoff
+     */
+    @ExceptionHandler(value = ServiceOverloadedException.class)
+    protected ResponseEntity<Object> serviceOverloadedHandler(RuntimeException ex, WebRequest request) {
+        var msg = "Service is overloaded, file will be processed on redelivery";
+        log.warn(msg, ex);
+        return handleExceptionInternal(ex, msg, new HttpHeaders(), HttpStatus.TOO_MANY_REQUESTS, request);
+    }
+
     /**
      * This method handles all exceptions from the application
      *
@@ -0,0 +1,22 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.exception;
+
+public class MandatoryRowsStreamingException extends RuntimeException {
+    public MandatoryRowsStreamingException() {
+    }
+
+    public MandatoryRowsStreamingException(String message) {
+        super(message);
+    }
+
+    public MandatoryRowsStreamingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public MandatoryRowsStreamingException(Throwable cause) {
+        super(cause);
+    }
+
+    public MandatoryRowsStreamingException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+}
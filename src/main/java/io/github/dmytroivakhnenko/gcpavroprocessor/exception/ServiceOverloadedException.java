@@ -0,0 +1,20 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.exception;
+
+import java.util.concurrent.RejectedExecutionException;
+
+public class ServiceOverloadedException extends RejectedExecutionException {
+    public ServiceOverloadedException() {
+    }
+
+    public ServiceOverloadedException(String message) {
+        super(message);
+    }
+
+    public ServiceOverloadedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public ServiceOverloadedException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,103 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.jfr;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MeteredInputStream;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MeteredOutputStream;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Read of an input file transcoded into the outputs. Time spent in reads of the input and in writes of the outputs
+ * is reported separately, the rest of the duration went to decoding and encoding.
+ */
+@Name("io.github.dmytroivakhnenko.gcpavroprocessor.AvroTranscode")
+@Label("Avro Transcode")
+@Category({"GCP Avro Processor", "File"})
+@Description("Read of an input file transcoded into the outputs")
+public class AvroTranscodeEvent extends Event {
+    @Label("File URI")
+    public String fileUri;
+
+    @Label("Output")
+    @Description("mandatory, projections or streaming")
+    public String output;
+
+    @Label("Output URIs")
+    public String outputUris;
+
+    @Label("Bytes Read")
+    @DataAmount
+    public long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytesWritten;
+
+    @Label("Records")
+    public long recordCount;
+
+    @Label("Read Time")
+    @Description("Time spent in reads of the input file, including waits for read-ahead ranges")
+    @Timespan
+    public long readTime;
+
+    @Label("Write Time")
+    @Description("Time spent in writes of the outputs, including the upload finished when they are closed")
+    @Timespan
+    public long writeTime;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+
+    /**
+     * Streams are timed only while a recording of the event is running, transient fields are not recorded
+     */
+    private transient IoTimer readTimer;
+    private transient IoTimer writeTimer;
+
+    /**
+     * @param fileUri - URI of the input file
+     * @param output  - outputs the file is transcoded into
+     * @return started event, which has to be finished
+     */
+    public static AvroTranscodeEvent start(String fileUri, String output) {
+        var event = new AvroTranscodeEvent();
+        if (event.isEnabled()) {
+            event.fileUri = fileUri;
+            event.output = output;
+            event.readTimer = new IoTimer();
+            event.writeTimer = new IoTimer();
+        }
+        event.begin();
+        return event;
+    }
+
+    public InputStream timeRead(InputStream in) {
+        return readTimer == null ? in : MeteredInputStream.of(in, readTimer);
+    }
+
+    public OutputStream timeWrite(OutputStream out) {
+        return writeTimer == null ? out : MeteredOutputStream.of(out, writeTimer);
+    }
+
+    /**
+     * Event which was started before the recording isn't committed, as its streams weren't timed.
+     */
+    public void finish() {
+        end();
+        if (readTimer != null && shouldCommit()) {
+            bytesRead = readTimer.getBytes();
+            readTime = readTimer.getNanos();
+            bytesWritten = writeTimer.getBytes();
+            writeTime = writeTimer.getNanos();
+            commit();
+        }
+    }
+}
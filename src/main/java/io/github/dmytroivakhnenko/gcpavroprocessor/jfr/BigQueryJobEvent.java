@@ -0,0 +1,39 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * BigQuery job filling a table with the data of an input file, from its submission to its completion.
+ */
+@Name("io.github.dmytroivakhnenko.gcpavroprocessor.BigQueryJob")
+@Label("BigQuery Job")
+@Category({"GCP Avro Processor", "BigQuery"})
+@Description("BigQuery job filling a table with the data of an input file, from its submission to its completion")
+public class BigQueryJobEvent extends Event {
+    @Label("Job ID")
+    @Description("Empty when the file was loaded by a batched load job")
+    public String jobId;
+
+    @Label("Job Type")
+    @Description("load, batched_load or query")
+    public String jobType;
+
+    @Label("Table")
+    public String tableName;
+
+    @Label("Source URI")
+    public String sourceUri;
+
+    @Label("Submit Time")
+    @Description("Time to create the job, the rest of the duration is the wait for its completion")
+    @Timespan
+    public long submitTime;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
@@ -0,0 +1,28 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Processing of an input file from its start to all of its tables loaded, committed by the thread completing the last load.
+ */
+@Name("io.github.dmytroivakhnenko.gcpavroprocessor.FileProcessing")
+@Label("File Processing")
+@Category({"GCP Avro Processor", "File"})
+@Description("Processing of an input file from its start to all of its tables loaded")
+public class FileProcessingEvent extends Event {
+    @Label("File URI")
+    public String fileUri;
+
+    @Label("Mandatory Load Mode")
+    public String mandatoryLoadMode;
+
+    @Label("Tables")
+    public int tableCount;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
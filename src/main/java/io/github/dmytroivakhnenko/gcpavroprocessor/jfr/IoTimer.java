@@ -0,0 +1,28 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.jfr;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.IoListener;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sums time spent in the calls of the metered streams it listens to and bytes passed through them.
+ * Streams may be used by different threads, e.g. by the stages of a pipelined transcode.
+ */
+public class IoTimer implements IoListener {
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    @Override
+    public void onTransfer(long bytes, long nanos) {
+        this.nanos.add(nanos);
+        this.bytes.add(bytes);
+    }
+
+    public long getNanos() {
+        return nanos.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.metrics;
+
+/**
+ * Subscriber of a metered stream, e.g. metrics, flight recorder events or the codec selector.
+ * Listeners are called on the thread of the stream call, so they have to be cheap and thread safe
+ * if the stream is used by several threads.
+ */
+public interface IoListener {
+    /**
+     * Called after every successful read, write or flush call.
+     *
+     * @param bytes - bytes passed by the call, 0 for a flush or the end of the stream
+     * @param nanos - time spent in the call
+     */
+    void onTransfer(long bytes, long nanos);
+
+    /**
+     * Called once when an output stream is closed, which finishes the upload of a Cloud Storage file.
+     *
+     * @param nanos - time spent in the close
+     */
+    default void onClose(long nanos) {
+        onTransfer(0, nanos);
+    }
+}
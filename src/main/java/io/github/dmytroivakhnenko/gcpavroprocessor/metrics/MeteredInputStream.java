@@ -0,0 +1,56 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Times every read call and passes its bytes and time to the listeners. Wrapping a metered stream again adds
+ * the listener to it, so the stream is timed once however many subscribers it has.
+ */
+public class MeteredInputStream extends FilterInputStream {
+    private volatile IoListener[] listeners;
+
+    private MeteredInputStream(InputStream in, IoListener listener) {
+        super(in);
+        this.listeners = new IoListener[]{listener};
+    }
+
+    public static InputStream of(InputStream in, IoListener listener) {
+        if (in instanceof MeteredInputStream) {
+            ((MeteredInputStream) in).addListener(listener);
+            return in;
+        }
+        return new MeteredInputStream(in, listener);
+    }
+
+    @Override
+    public int read() throws IOException {
+        var start = System.nanoTime();
+        var value = super.read();
+        record(start, value < 0 ? 0 : 1);
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        var start = System.nanoTime();
+        var count = super.read(b, off, len);
+        record(start, Math.max(0, count));
+        return count;
+    }
+
+    private synchronized void addListener(IoListener listener) {
+        var added = Arrays.copyOf(listeners, listeners.length + 1);
+        added[listeners.length] = listener;
+        listeners = added;
+    }
+
+    private void record(long start, long bytes) {
+        var nanos = System.nanoTime() - start;
+        for (var listener : listeners) {
+            listener.onTransfer(bytes, nanos);
+        }
+    }
+}
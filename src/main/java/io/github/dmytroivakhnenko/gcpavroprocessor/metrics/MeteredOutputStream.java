@@ -0,0 +1,77 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Times every write and flush call and the close, which finishes the upload, and passes them to the listeners.
+ * Wrapping a metered stream again adds the listener to it, so the stream is timed once however many subscribers it has.
+ */
+public class MeteredOutputStream extends FilterOutputStream {
+    private volatile IoListener[] listeners;
+    private boolean closed;
+
+    private MeteredOutputStream(OutputStream out, IoListener listener) {
+        super(out);
+        this.listeners = new IoListener[]{listener};
+    }
+
+    public static OutputStream of(OutputStream out, IoListener listener) {
+        if (out instanceof MeteredOutputStream) {
+            ((MeteredOutputStream) out).addListener(listener);
+            return out;
+        }
+        return new MeteredOutputStream(out, listener);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        var start = System.nanoTime();
+        out.write(b);
+        record(start, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        var start = System.nanoTime();
+        out.write(b, off, len);
+        record(start, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        var start = System.nanoTime();
+        out.flush();
+        record(start, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        var start = System.nanoTime();
+        // buffered data is flushed by the close of the underlying stream, so its time is counted once
+        out.close();
+        var nanos = System.nanoTime() - start;
+        for (var listener : listeners) {
+            listener.onClose(nanos);
+        }
+    }
+
+    private synchronized void addListener(IoListener listener) {
+        var added = Arrays.copyOf(listeners, listeners.length + 1);
+        added[listeners.length] = listener;
+        listeners = added;
+    }
+
+    private void record(long start, long bytes) {
+        var nanos = System.nanoTime() - start;
+        for (var listener : listeners) {
+            listener.onTransfer(bytes, nanos);
+        }
+    }
+}
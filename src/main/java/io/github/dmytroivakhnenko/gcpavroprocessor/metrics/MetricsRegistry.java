@@ -0,0 +1,229 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and latency histograms of the pipeline, rendered in Prometheus text exposition format.
+ * Metrics are identified by name and label pairs, the same metric is returned for the same name and labels,
+ * so callers on hot paths keep the returned metric instead of looking it up for every event.
+ */
+@Component
+public class MetricsRegistry {
+    /**
+     * Recorded by whichever component completes the file, so it is named here
+     */
+    public static final String FILE_END_TO_END_SECONDS = "file_end_to_end_seconds";
+    public static final String FILE_END_TO_END_HELP = "Time from creation of an input file to all of its tables loaded";
+    /**
+     * Upper bounds of histogram buckets in seconds, from a millisecond to ten minutes
+     */
+    private static final double[] BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600};
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param labels - label names and values, alternating
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, Type.COUNTER).metrics.computeIfAbsent(formatLabels(labels), key -> new Counter());
+    }
+
+    /**
+     * Registers counter read on every scrape, for components which count events themselves.
+     * Counter registered again with the same labels replaces the previous one.
+     *
+     * @param labels - label names and values, alternating
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, Type.COUNTER).metrics.put(formatLabels(labels), new FunctionCounter(value));
+    }
+
+    /**
+     * @param labels - label names and values, alternating
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, Type.HISTOGRAM).metrics.computeIfAbsent(formatLabels(labels), key -> new Histogram());
+    }
+
+    /**
+     * Registers gauge read on every scrape, gauge registered again with the same labels replaces the previous one.
+     *
+     * @param labels - label names and values, alternating
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, Type.GAUGE).metrics.put(formatLabels(labels), new Gauge(value));
+    }
+
+    /**
+     * @return all metrics in Prometheus text exposition format 0.0.4
+     */
+    public String scrape() {
+        var output = new StringBuilder();
+        families.forEach((name, family) -> {
+            output.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            output.append("# TYPE ").append(name).append(' ').append(family.type.name().toLowerCase(Locale.ROOT)).append('\n');
+            family.metrics.forEach((labels, metric) -> metric.write(output, name, labels));
+        });
+        return output.toString();
+    }
+
+    private Family family(String name, String help, Type type) {
+        var family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+        }
+        return family;
+    }
+
+    private static String formatLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels " + Arrays.toString(labels) + " are not name and value pairs");
+        }
+        var formatted = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            formatted.append(formatted.length() == 0 ? "" : ",").append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return formatted.toString();
+    }
+
+    private static void writeSample(StringBuilder output, String name, String labels, double value) {
+        output.append(name);
+        if (!labels.isEmpty()) {
+            output.append('{').append(labels).append('}');
+        }
+        output.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            output.append((long) value);
+        } else {
+            output.append(value);
+        }
+        output.append('\n');
+    }
+
+    private static String withLabel(String labels, String label) {
+        return labels.isEmpty() ? label : labels + "," + label;
+    }
+
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    private static class Family {
+        private final String help;
+        private final Type type;
+        private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+        private Family(String help, Type type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private interface Metric {
+        void write(StringBuilder output, String name, String labels);
+    }
+
+    public static class Counter implements Metric {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void increment(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        public void write(StringBuilder output, String name, String labels) {
+            writeSample(output, name, labels, value.sum());
+        }
+    }
+
+    private static class FunctionCounter implements Metric {
+        private final LongSupplier value;
+
+        private FunctionCounter(LongSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public void write(StringBuilder output, String name, String labels) {
+            writeSample(output, name, labels, value.getAsLong());
+        }
+    }
+
+    private static class Gauge implements Metric {
+        private final DoubleSupplier value;
+
+        private Gauge(DoubleSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public void write(StringBuilder output, String name, String labels) {
+            writeSample(output, name, labels, value.getAsDouble());
+        }
+    }
+
+    /**
+     * Histogram of durations in seconds with fixed buckets, recording is lock free.
+     */
+    public static class Histogram implements Metric {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void recordNanos(long nanos) {
+            record(nanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        public void recordSince(long startNanos) {
+            recordNanos(System.nanoTime() - startNanos);
+        }
+
+        public void record(double seconds) {
+            var index = Arrays.binarySearch(BUCKETS, seconds);
+            buckets[index >= 0 ? index : -index - 1].increment();
+            sum.add(seconds);
+        }
+
+        public long getCount() {
+            return Arrays.stream(buckets).mapToLong(LongAdder::sum).sum();
+        }
+
+        @Override
+        public void write(StringBuilder output, String name, String labels) {
+            var cumulative = 0L;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += buckets[i].sum();
+                writeSample(output, name + "_bucket", withLabel(labels, "le=\"" + BUCKETS[i] + "\""), cumulative);
+            }
+            cumulative += buckets[BUCKETS.length].sum();
+            writeSample(output, name + "_bucket", withLabel(labels, "le=\"+Inf\""), cumulative);
+            writeSample(output, name + "_sum", labels, sum.sum());
+            writeSample(output, name + "_count", labels, cumulative);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.metrics;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cold start of the instance measured from the start of the JVM: until the application is ready
+ * and until the first Pub/Sub notification is processed, which is the latency a notification waits after scale from zero.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StartupMetrics {
+    private final MetricsRegistry metrics;
+    private final ApplicationContext context;
+    private final AtomicBoolean notificationProcessed = new AtomicBoolean();
+    @Value("${startup.exit-after-ready}")
+    private boolean exitAfterReady;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void applicationReady() {
+        var seconds = secondsSinceJvmStart();
+        metrics.gauge("app_ready_seconds", "Time from the start of the JVM until the application is ready", () -> seconds);
+        log.info("Application is ready {} s after the start of the JVM", seconds);
+        if (exitAfterReady) {
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    /**
+     * Records the first processed notification, later calls are ignored.
+     */
+    public void notificationProcessed() {
+        if (notificationProcessed.compareAndSet(false, true)) {
+            var seconds = secondsSinceJvmStart();
+            metrics.gauge("app_first_notification_seconds", "Time from the start of the JVM until the first Pub/Sub notification is processed", () -> seconds);
+            log.info("First notification was processed {} s after the start of the JVM", seconds);
+        }
+    }
+
+    private static double secondsSinceJvmStart() {
+        return (System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime()) / 1000.0;
+    }
+}
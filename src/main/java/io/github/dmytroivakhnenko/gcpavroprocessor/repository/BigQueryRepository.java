@@ -1,10 +1,31 @@
 package io.github.dmytroivakhnenko.gcpavroprocessor.repository;
 
 import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobStatus;
+import com.google.cloud.storage.BlobInfo;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.JobPollerStats;
 import io.github.dmytroivakhnenko.gcpavroprocessor.util.LoadInfo;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface BigQueryRepository {
     Job loadAvroFileToDataset(String dataset, LoadInfo loadInfo);
 
-    Boolean waitForJob(Job job);
+    /**
+     * Starts single load job for all files, the job either loads all of them or none.
+     *
+     * @param idempotencyKey - identifies the batch among retries of the same files, null if the load may be repeated
+     */
+    Job loadAvroFilesToDataset(String dataset, String table, List<BlobInfo> files, String idempotencyKey);
+
+    /**
+     * Starts query job that replaces content of the target table with the columns of the source table.
+     * Every job reads the whole source table, jobs of the same target table must not run concurrently.
+     */
+    Job copyColumnsToTable(String dataset, String sourceTable, String targetTable, List<String> columns);
+
+    CompletableFuture<JobStatus> waitForJob(Job job);
+
+    JobPollerStats getJobPollerStats();
 }
@@ -1,16 +1,41 @@
 package io.github.dmytroivakhnenko.gcpavroprocessor.repository;
 
 import com.google.cloud.storage.BlobInfo;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.RangedReadStats;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
+import java.util.Optional;
 
 public interface CloudStorageRepository {
     InputStream getInputStreamForFile(BlobInfo blobInfo);
 
+    /**
+     * @param offset - offset of the first read byte, the rest of the file is read
+     */
+    InputStream getInputStreamForFile(BlobInfo blobInfo, long offset);
+
+    /**
+     * Reads whole file, intended for small files.
+     *
+     * @return content of the file, empty if it doesn't exist
+     */
+    Optional<byte[]> readFile(BlobInfo blobInfo);
+
+    long getFileSize(BlobInfo blobInfo);
+
     OutputStream createFileAndGetOutputStream(BlobInfo blobInfo);
 
     void deleteFile(BlobInfo blobInfo);
 
+    /**
+     * Concatenates the files into the target file, files have to be in the bucket of the target.
+     * Target may be one of the sources.
+     */
+    void composeFiles(List<BlobInfo> sources, BlobInfo target);
+
     void moveFileToBucket(BlobInfo blobInfo, String targetBucket);
+
+    RangedReadStats getRangedReadStats();
 }
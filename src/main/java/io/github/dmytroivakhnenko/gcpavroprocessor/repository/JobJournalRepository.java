@@ -0,0 +1,17 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.FileJob;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface JobJournalRepository {
+    /**
+     * Durably stores the current state of the job, i.e. the state survives a crash once the method returns.
+     */
+    void save(FileJob job);
+
+    Optional<FileJob> findById(String id);
+
+    List<FileJob> findAll();
+}
@@ -0,0 +1,31 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository;
+
+import com.google.cloud.storage.BlobInfo;
+import example.gcp.ClientMandatory;
+
+public interface MandatoryRowSink {
+    /**
+     * Opens a writer for the rows of one source file.
+     *
+     * @param dataset - dataset of the table
+     * @param table   - table for the rows
+     * @param source  - file the rows are read from
+     * @return writer that has to be committed when the source file ends
+     */
+    Writer open(String dataset, String table, BlobInfo source);
+
+    interface Writer {
+        /**
+         * Adds the row to the current batch, the batch is sent when it is full.
+         * Row may be reused by the caller once the method returns.
+         */
+        void write(ClientMandatory row);
+
+        /**
+         * Sends the rest of the rows.
+         *
+         * @return number of written rows
+         */
+        long commit();
+    }
+}
@@ -0,0 +1,14 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository;
+
+public interface ProcessedFileRepository {
+    /**
+     * @param key - bucket, name and generation of the file
+     * @return true if the file was processed within the retention period and wasn't evicted since
+     */
+    boolean isProcessed(String key);
+
+    /**
+     * Durably records that the file was processed, i.e. the record survives a crash once the method returns.
+     */
+    void markProcessed(String key);
+}
@@ -0,0 +1,26 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.PulledMessage;
+
+import java.util.List;
+
+/**
+ * Pull subscription of Cloud Storage notifications.
+ */
+public interface PubSubSubscriber {
+    /**
+     * Waits for messages for a while if none are available.
+     *
+     * @param maxMessages - maximum number of returned messages
+     * @return received messages, empty if none arrived
+     */
+    List<PulledMessage> pull(int maxMessages);
+
+    void acknowledge(List<String> ackIds);
+
+    /**
+     * @param ackIds  - ack ids of outstanding messages
+     * @param seconds - new ack deadline counted from now, 0 makes the messages available for redelivery at once
+     */
+    void modifyAckDeadline(List<String> ackIds, int seconds);
+}
@@ -0,0 +1,167 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
+
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobStatus;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.JobPollerStats;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks completion of BigQuery jobs with a single polling thread instead of a blocked thread per job.
+ * Statuses of all tracked jobs are fetched at once on every poll. Poll interval starts at the minimum,
+ * grows while no job finishes and is reset when a job finishes or a new one is tracked.
+ * Futures are completed on the polling thread, so dependent stages should be cheap or asynchronous.
+ */
+@Slf4j
+public class BigQueryJobPoller implements Closeable {
+    private static final double BACKOFF_MULTIPLIER = 1.5;
+
+    private final JobStatusFetcher fetcher;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final long jobTimeoutNanos;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("bigquery-job-poller-"));
+    private final Map<String, TrackedJob> trackedJobs = new ConcurrentHashMap<>();
+    private final LongAdder pollCount = new LongAdder();
+    private final LongAdder completedCount = new LongAdder();
+    private final LongAdder timedOutCount = new LongAdder();
+    private long intervalMillis;
+    private ScheduledFuture<?> nextPoll;
+    private boolean closed;
+
+    public BigQueryJobPoller(JobStatusFetcher fetcher, long minIntervalMillis, long maxIntervalMillis, long jobTimeoutMillis) {
+        this.fetcher = fetcher;
+        this.minIntervalMillis = Math.max(1, minIntervalMillis);
+        this.maxIntervalMillis = Math.max(this.minIntervalMillis, maxIntervalMillis);
+        this.jobTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(jobTimeoutMillis);
+        this.intervalMillis = this.minIntervalMillis;
+    }
+
+    /**
+     * Starts tracking of the job.
+     *
+     * @param job - created BigQuery job
+     * @return future completed with the status of the finished job,
+     * or completed exceptionally with TimeoutException if the job isn't finished in time
+     */
+    public CompletableFuture<JobStatus> track(Job job) {
+        var trackedJob = new TrackedJob(job, System.nanoTime() + jobTimeoutNanos);
+        trackedJobs.put(job.getJobId().getJob(), trackedJob);
+        schedulePoll(true);
+        return trackedJob.future;
+    }
+
+    public JobPollerStats getStats() {
+        synchronized (this) {
+            return JobPollerStats.builder()
+                    .trackedJobs(trackedJobs.size())
+                    .pollCount(pollCount.sum())
+                    .completedCount(completedCount.sum())
+                    .timedOutCount(timedOutCount.sum())
+                    .intervalMillis(intervalMillis)
+                    .build();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        scheduler.shutdownNow();
+        trackedJobs.values().forEach(trackedJob -> trackedJob.future.cancel(false));
+        trackedJobs.clear();
+    }
+
+    private synchronized void schedulePoll(boolean resetInterval) {
+        if (closed) {
+            return;
+        }
+        if (resetInterval) {
+            intervalMillis = minIntervalMillis;
+        }
+        if (nextPoll != null && !nextPoll.isDone()) {
+            // poll is running or will start soon enough
+            if (nextPoll.getDelay(TimeUnit.MILLISECONDS) <= intervalMillis) {
+                return;
+            }
+            nextPoll.cancel(false);
+        }
+        nextPoll = scheduler.schedule(this::poll, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void scheduleNextPoll(boolean progress) {
+        nextPoll = null;
+        if (trackedJobs.isEmpty()) {
+            return;
+        }
+        intervalMillis = progress ? minIntervalMillis : Math.min(maxIntervalMillis, (long) (intervalMillis * BACKOFF_MULTIPLIER));
+        schedulePoll(false);
+    }
+
+    private void poll() {
+        pollCount.increment();
+        var progress = false;
+        var jobs = new ArrayList<Job>(trackedJobs.size());
+        trackedJobs.values().forEach(trackedJob -> jobs.add(trackedJob.job));
+        try {
+            for (var entry : fetcher.fetchStatuses(jobs).entrySet()) {
+                var status = entry.getValue();
+                if (status != null && status.getState() == JobStatus.State.DONE) {
+                    var trackedJob = trackedJobs.remove(entry.getKey());
+                    if (trackedJob != null) {
+                        completedCount.increment();
+                        trackedJob.future.complete(status);
+                        progress = true;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Statuses of {} BigQuery jobs weren't fetched", jobs.size(), e);
+        }
+        var now = System.nanoTime();
+        trackedJobs.entrySet().removeIf(entry -> {
+            var trackedJob = entry.getValue();
+            if (now - trackedJob.deadlineNanos < 0) {
+                return false;
+            }
+            timedOutCount.increment();
+            trackedJob.future.completeExceptionally(new TimeoutException("Job " + entry.getKey() + " wasn't finished in time"));
+            return true;
+        });
+        scheduleNextPoll(progress);
+    }
+
+    /**
+     * Fetches current statuses of the jobs in as few requests as possible.
+     */
+    @FunctionalInterface
+    public interface JobStatusFetcher {
+        /**
+         * @param jobs - tracked jobs
+         * @return statuses by job name, jobs with unknown status may be absent
+         */
+        Map<String, JobStatus> fetchStatuses(Collection<Job> jobs);
+    }
+
+    @RequiredArgsConstructor
+    private static class TrackedJob {
+        private final Job job;
+        private final long deadlineNanos;
+        private final CompletableFuture<JobStatus> future = new CompletableFuture<>();
+    }
+}
@@ -1,23 +1,62 @@
 package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
 
-import com.google.cloud.RetryOption;
 import com.google.cloud.bigquery.*;
+import com.google.cloud.storage.BlobInfo;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
 import io.github.dmytroivakhnenko.gcpavroprocessor.repository.BigQueryRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.JobPollerStats;
 import io.github.dmytroivakhnenko.gcpavroprocessor.util.LoadInfo;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
-import org.threeten.bp.Duration;
 
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.constructGCSUri;
 
 @Repository
 @Slf4j
 public class BigQueryRepositoryImpl implements BigQueryRepository {
-    private static final BigQuery bigquery = BigQueryOptions.getDefaultInstance().getService();
-    private static final int JOB_TOTAL_TIMEOUT_MINUTES = 5;
-    private static final int JOB_RETRY_COUNT = 5;
+    private static final long JOB_LIST_PAGE_SIZE = 1000;
+    private static final int MAX_JOB_LIST_PAGES = 3;
+    private static final String JOB_NAME_PREFIX = "avro_processor_";
+    private static final int MAX_DETERMINISTIC_JOB_ATTEMPTS = 20;
+    private static final int HTTP_CONFLICT = 409;
+    private static final String JOB_SUBMIT_LATENCY = "bigquery_job_submit_seconds";
+    private static final String JOB_SUBMIT_LATENCY_HELP = "Time to create a BigQuery job, including attaching to an existing one";
+    private static final String JOB_LATENCY = "bigquery_job_seconds";
+    private static final String JOB_LATENCY_HELP = "Time from submission of a BigQuery job to its completion";
+
+    private final CloudClients clients;
+    private final BigQueryJobPoller jobPoller;
+    private final int jobListThreshold;
+    private final MetricsRegistry metrics;
+
+    public BigQueryRepositoryImpl(CloudClients clients,
+                                  MetricsRegistry metrics,
+                                  @Value("${bigquery.job.poll.min-interval-millis}") long minPollIntervalMillis,
+                                  @Value("${bigquery.job.poll.max-interval-millis}") long maxPollIntervalMillis,
+                                  @Value("${bigquery.job.poll.list-threshold}") int jobListThreshold,
+                                  @Value("${bigquery.job.timeout-minutes}") long jobTimeoutMinutes) {
+        this.clients = clients;
+        this.jobListThreshold = jobListThreshold;
+        this.jobPoller = new BigQueryJobPoller(this::fetchJobStatuses, minPollIntervalMillis, maxPollIntervalMillis, TimeUnit.MINUTES.toMillis(jobTimeoutMinutes));
+        this.metrics = metrics;
+        metrics.gauge("bigquery_tracked_jobs", "BigQuery jobs waiting for completion", () -> jobPoller.getStats().getTrackedJobs());
+    }
 
     @Override
     public Job loadAvroFileToDataset(String dataset, LoadInfo loadInfo) {
@@ -25,32 +64,174 @@ public class BigQueryRepositoryImpl implements BigQueryRepository {
         var tableId = TableId.of(dataset, loadInfo.getTableName());
         var loadConfig = LoadJobConfiguration.of(tableId, constructGCSUri(blobInfo), FormatOptions.avro());
         // Load data from a GCS Avro file into the table
-        var job = bigquery.create(JobInfo.of(loadConfig));
+        var start = System.nanoTime();
+        var job = loadInfo.getIdempotencyKey() == null ? clients.bigQuery().create(JobInfo.of(loadConfig)) : createOrAttach(loadConfig, dataset + "." + loadInfo.getTableName() + "/" + loadInfo.getIdempotencyKey());
+        metrics.histogram(JOB_SUBMIT_LATENCY, JOB_SUBMIT_LATENCY_HELP, "type", "load").recordSince(start);
         log.info("Job: {} processing file {} was started", job.getJobId(), constructGCSUri(blobInfo));
         return job;
     }
 
     @Override
-    public Boolean waitForJob(Job job) {
-        try {
-            log.info("Waiting for job {} to finish ...", job.getJobId());
-            job.waitFor(RetryOption.totalTimeout(Duration.ofMinutes(JOB_TOTAL_TIMEOUT_MINUTES)), RetryOption.maxAttempts(JOB_RETRY_COUNT));
-            if (job.isDone()) {
-                log.info("Job {} was finished", job.getJobId());
-                if (!Objects.isNull(job.getStatus().getError())) {
-                    log.error("Job {} was finished with error {}", job.getJobId(), job.getStatus().getError());
-                    return false;
-                } else {
-                    log.info("Job {} was finished without any errors", job.getJobId());
-                    return true;
+    public Job loadAvroFilesToDataset(String dataset, String table, List<BlobInfo> files, String idempotencyKey) {
+        var tableId = TableId.of(dataset, table);
+        var sourceUris = files.stream().map(CloudFileUtils::constructGCSUri).collect(Collectors.toList());
+        var loadConfig = LoadJobConfiguration.of(tableId, sourceUris, FormatOptions.avro());
+        var start = System.nanoTime();
+        var job = idempotencyKey == null ? clients.bigQuery().create(JobInfo.of(loadConfig)) : createOrAttach(loadConfig, dataset + "." + table + "/" + idempotencyKey);
+        metrics.histogram(JOB_SUBMIT_LATENCY, JOB_SUBMIT_LATENCY_HELP, "type", "batch_load").recordSince(start);
+        log.info("Job: {} processing {} files to table {} was started", job.getJobId(), sourceUris.size(), table);
+        return job;
+    }
+
+    @Override
+    public Job copyColumnsToTable(String dataset, String sourceTable, String targetTable, List<String> columns) {
+        var query = String.format("SELECT %s FROM `%s.%s`", columns.stream().map(column -> "`" + column + "`").collect(Collectors.joining(", ")), dataset, sourceTable);
+        var queryConfig = QueryJobConfiguration.newBuilder(query)
+                .setDestinationTable(TableId.of(dataset, targetTable))
+                .setWriteDisposition(JobInfo.WriteDisposition.WRITE_TRUNCATE)
+                .setUseLegacySql(false)
+                .build();
+        var start = System.nanoTime();
+        var job = clients.bigQuery().create(JobInfo.of(queryConfig));
+        metrics.histogram(JOB_SUBMIT_LATENCY, JOB_SUBMIT_LATENCY_HELP, "type", "query").recordSince(start);
+        log.info("Job: {} copying columns {} of table {} to table {} was started", job.getJobId(), columns, sourceTable, targetTable);
+        return job;
+    }
+
+    @Override
+    public CompletableFuture<JobStatus> waitForJob(Job job) {
+        log.info("Waiting for job {} to finish ...", job.getJobId());
+        var start = System.nanoTime();
+        return jobPoller.track(job).whenComplete((status, e) -> {
+            var result = e != null ? "unfinished" : Objects.isNull(status.getError()) ? "success" : "error";
+            metrics.histogram(JOB_LATENCY, JOB_LATENCY_HELP, "type", getJobType(job), "result", result).recordSince(start);
+            if (e != null) {
+                log.error("Job {} wasn't finished", job.getJobId(), e);
+            } else if (!Objects.isNull(status.getError())) {
+                log.error("Job {} was finished with error {}", job.getJobId(), status.getError());
+            } else {
+                log.info("Job {} was finished without any errors", job.getJobId());
+            }
+        });
+    }
+
+    @Override
+    public JobPollerStats getJobPollerStats() {
+        return jobPoller.getStats();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobPoller.close();
+    }
+
+    /**
+     * Creates job with ID derived from the key, so that a repeated submission attaches to the job created before,
+     * e.g. when the response to the first submission was lost or the service was restarted while waiting for the job.
+     * Job which failed is not attached, the next attempt gets the next suffix of the ID.
+     */
+    private Job createOrAttach(JobConfiguration configuration, String idempotencyKey) {
+        var baseJobName = JOB_NAME_PREFIX + UUID.nameUUIDFromBytes(idempotencyKey.getBytes(StandardCharsets.UTF_8));
+        for (int attempt = 0; attempt < MAX_DETERMINISTIC_JOB_ATTEMPTS; attempt++) {
+            var jobId = JobId.of(attempt == 0 ? baseJobName : baseJobName + "_" + attempt);
+            try {
+                return clients.bigQuery().create(JobInfo.of(jobId, configuration));
+            } catch (BigQueryException e) {
+                if (e.getCode() != HTTP_CONFLICT) {
+                    throw e;
                 }
+            }
+            var existing = clients.bigQuery().getJob(jobId);
+            if (existing != null && !isFailed(existing.getStatus())) {
+                log.info("Job {} for {} already exists and was attached", jobId.getJob(), idempotencyKey);
+                return existing;
+            }
+        }
+        log.warn("All {} deterministic jobs for {} failed, job with random ID is created", MAX_DETERMINISTIC_JOB_ATTEMPTS, idempotencyKey);
+        return clients.bigQuery().create(JobInfo.of(configuration));
+    }
+
+    private static String getJobType(Job job) {
+        JobConfiguration configuration = job.getConfiguration();
+        return configuration == null || configuration.getType() == null ? "unknown" : configuration.getType().name().toLowerCase();
+    }
+
+    private static boolean isFailed(JobStatus status) {
+        return status != null && status.getState() == JobStatus.State.DONE && status.getError() != null;
+    }
+
+    /**
+     * Few jobs are fetched one by one. Otherwise finished jobs created between the oldest and the newest tracked job are
+     * listed newest first, until all tracked jobs are found or {@link #MAX_JOB_LIST_PAGES} pages are read, as the
+     * window also holds jobs of other tools and grows with a long-running tracked job. Tracked jobs older than the listed
+     * part of the window and jobs without creation time are fetched one by one, the rest of the tracked jobs are still running.
+     */
+    private Map<String, JobStatus> fetchJobStatuses(Collection<Job> jobs) {
+        if (jobs.size() < jobListThreshold) {
+            return fetchJobStatusesOneByOne(jobs);
+        }
+        var creationTimes = new HashMap<String, Long>();
+        var unlisted = new ArrayList<Job>();
+        for (var job : jobs) {
+            var creationTime = getCreationTime(job);
+            if (creationTime == null) {
+                unlisted.add(job);
             } else {
-                log.error("Job {} wasn't finished", job.getJobId());
-                return false;
+                creationTimes.put(job.getJobId().getJob(), creationTime);
             }
-        } catch (InterruptedException e) {
-            log.error("Exception occurred during job {} execution", job.getJobId(), e);
-            return false;
         }
+        var statuses = new HashMap<String, JobStatus>();
+        if (!creationTimes.isEmpty()) {
+            var page = clients.bigQuery().listJobs(BigQuery.JobListOption.stateFilter(JobStatus.State.DONE),
+                    BigQuery.JobListOption.minCreationTime(Collections.min(creationTimes.values())),
+                    BigQuery.JobListOption.maxCreationTime(Collections.max(creationTimes.values())),
+                    BigQuery.JobListOption.pageSize(JOB_LIST_PAGE_SIZE));
+            var listedSince = Long.MAX_VALUE;
+            for (int pages = 1; ; pages++) {
+                for (var job : page.getValues()) {
+                    var jobName = job.getJobId().getJob();
+                    if (creationTimes.containsKey(jobName)) {
+                        statuses.put(jobName, job.getStatus());
+                    }
+                    var creationTime = getCreationTime(job);
+                    listedSince = creationTime != null ? Math.min(listedSince, creationTime) : listedSince;
+                }
+                if (statuses.size() == creationTimes.size() || !page.hasNextPage()) {
+                    listedSince = Long.MIN_VALUE;
+                    break;
+                }
+                if (pages >= MAX_JOB_LIST_PAGES) {
+                    break;
+                }
+                page = page.getNextPage();
+            }
+            for (var job : jobs) {
+                var creationTime = creationTimes.get(job.getJobId().getJob());
+                if (creationTime != null && creationTime < listedSince && !statuses.containsKey(job.getJobId().getJob())) {
+                    unlisted.add(job);
+                }
+            }
+        }
+        statuses.putAll(fetchJobStatusesOneByOne(unlisted));
+        return statuses;
+    }
+
+    private Map<String, JobStatus> fetchJobStatusesOneByOne(Collection<Job> jobs) {
+        var statuses = new HashMap<String, JobStatus>();
+        for (var job : jobs) {
+            var current = clients.bigQuery().getJob(job.getJobId());
+            if (current != null) {
+                statuses.put(current.getJobId().getJob(), current.getStatus());
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * Job attached after a conflict may have no statistics
+     */
+    private static Long getCreationTime(Job job) {
+        JobStatistics statistics = job.getStatistics();
+        return statistics == null ? null : statistics.getCreationTime();
     }
 }
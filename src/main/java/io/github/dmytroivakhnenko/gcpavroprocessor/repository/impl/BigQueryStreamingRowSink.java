@@ -0,0 +1,89 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
+
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.storage.BlobInfo;
+import example.gcp.ClientMandatory;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.MandatoryRowsStreamingException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.MandatoryRowSink;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.constructFileKey;
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.constructGCSUri;
+
+/**
+ * Streams rows with BigQuery insertAll requests, a request per batch.
+ * Every row has an insert id derived from the source file version and the row number,
+ * so rows of a file processed again shortly after are deduplicated by BigQuery on a best effort basis.
+ * The file version is hashed, so that the id stays within the 128 characters allowed by BigQuery whatever the file name,
+ * and rows of an overwritten file aren't dropped as duplicates of the previous version.
+ */
+@Repository
+@Slf4j
+public class BigQueryStreamingRowSink implements MandatoryRowSink {
+    private final CloudClients clients;
+    private final int batchSize;
+
+    public BigQueryStreamingRowSink(CloudClients clients, @Value("${bigquery.streaming.batch-size}") int batchSize) {
+        this.clients = clients;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Override
+    public Writer open(String dataset, String table, BlobInfo source) {
+        return new StreamingWriter(TableId.of(dataset, table), constructGCSUri(source),
+                UUID.nameUUIDFromBytes(constructFileKey(source).getBytes(StandardCharsets.UTF_8)).toString());
+    }
+
+    private class StreamingWriter implements Writer {
+        private final TableId tableId;
+        private final String sourceUri;
+        private final String insertIdPrefix;
+        private final List<InsertAllRequest.RowToInsert> batch = new ArrayList<>(batchSize);
+        private long rowCount;
+
+        private StreamingWriter(TableId tableId, String sourceUri, String insertIdPrefix) {
+            this.tableId = tableId;
+            this.sourceUri = sourceUri;
+            this.insertIdPrefix = insertIdPrefix;
+        }
+
+        @Override
+        public void write(ClientMandatory row) {
+            var content = Map.<String, Object>of("id", row.getId(), "name", row.getName().toString());
+            batch.add(InsertAllRequest.RowToInsert.of(insertIdPrefix + "#" + rowCount++, content));
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        @Override
+        public long commit() {
+            flush();
+            log.info("{} rows of file {} were streamed to table {}", rowCount, sourceUri, tableId);
+            return rowCount;
+        }
+
+        private void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            var response = clients.bigQuery().insertAll(InsertAllRequest.newBuilder(tableId).setRows(batch).build());
+            if (response.hasErrors()) {
+                var msg = String.format("%d rows of file %s weren't streamed to table %s, first error: %s", response.getInsertErrors().size(),
+                        sourceUri, tableId, response.getInsertErrors().values().iterator().next());
+                log.error(msg);
+                throw new MandatoryRowsStreamingException(msg);
+            }
+            batch.clear();
+        }
+    }
+}
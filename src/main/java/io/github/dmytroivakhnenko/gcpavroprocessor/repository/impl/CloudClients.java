@@ -0,0 +1,66 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Cloud Storage and BigQuery clients shared by the repositories. Creating a client resolves credentials and project,
+ * which is a noticeable part of a cold start, so both clients are created in the background while the context starts.
+ * A client that couldn't be created fails the requests that use it instead of the startup.
+ */
+@Component
+@Slf4j
+public class CloudClients {
+    private final CompletableFuture<Storage> storage;
+    private final CompletableFuture<BigQuery> bigQuery;
+
+    public CloudClients() {
+        storage = create("Cloud Storage", () -> StorageOptions.getDefaultInstance().getService());
+        bigQuery = create("BigQuery", () -> BigQueryOptions.getDefaultInstance().getService());
+    }
+
+    /**
+     * @return Cloud Storage client, waits until it is created
+     */
+    public Storage storage() {
+        return get(storage);
+    }
+
+    /**
+     * @return BigQuery client, waits until it is created
+     */
+    public BigQuery bigQuery() {
+        return get(bigQuery);
+    }
+
+    private static <T> CompletableFuture<T> create(String name, Supplier<T> client) {
+        var start = System.nanoTime();
+        return CompletableFuture.supplyAsync(client)
+                .whenComplete((created, e) -> {
+                    if (e != null) {
+                        log.error("{} client wasn't created", name, e);
+                    } else {
+                        log.info("{} client was created in {} ms", name, (System.nanoTime() - start) / 1_000_000);
+                    }
+                });
+    }
+
+    private static <T> T get(CompletableFuture<T> client) {
+        try {
+            return client.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -1,56 +1,231 @@
 package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
 
+import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
-import com.google.cloud.storage.StorageOptions;
+import com.google.cloud.storage.StorageException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.IoListener;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MeteredInputStream;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MeteredOutputStream;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
 import io.github.dmytroivakhnenko.gcpavroprocessor.repository.CloudStorageRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BufferPool;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.RangedReadStats;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.gcp.storage.GoogleStorageResource;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 
 import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.constructGCSUri;
 
 @Repository
 @Slf4j
 public class CloudStorageRepositoryImpl implements CloudStorageRepository {
-    private static final Storage storage = StorageOptions.getDefaultInstance().getService();
     private static final int CHUNK_SIZE = 2 * 1024 * 1024;
+    private static final int MAX_COMPOSE_SOURCES = 32;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final String OPERATION_LATENCY = "gcs_operation_seconds";
+    private static final String OPERATION_LATENCY_HELP = "Latency of Cloud Storage operations, read and write are single calls of the file streams";
 
+    private final CloudClients clients;
+    private final Executor gcsIoExecutor;
+    private final BufferPool gcsBufferPool;
+    private final RangedReadStats rangedReadStats;
+    private final MetricsRegistry.Histogram openReadLatency;
+    private final MetricsRegistry.Histogram readLatency;
+    private final MetricsRegistry.Histogram rangeReadLatency;
+    private final MetricsRegistry.Histogram openWriteLatency;
+    private final MetricsRegistry.Histogram writeLatency;
+    private final MetricsRegistry.Histogram closeWriteLatency;
+    private final MetricsRegistry.Histogram deleteLatency;
+    private final MetricsRegistry.Histogram composeLatency;
+    private final MetricsRegistry.Counter readBytes;
+    private final MetricsRegistry.Counter writtenBytes;
+    private final IoListener readMeter;
+    private final IoListener writeMeter;
+
+    public CloudStorageRepositoryImpl(CloudClients clients,
+                                      @Qualifier("gcsIoExecutor") Executor gcsIoExecutor,
+                                      @Qualifier("gcsBufferPool") BufferPool gcsBufferPool,
+                                      MetricsRegistry metrics,
+                                      @Value("${gcs.read.ahead.window}") int readAheadWindow,
+                                      @Value("${gcs.read.range.size}") int rangeSize) {
+        this.clients = clients;
+        this.gcsIoExecutor = gcsIoExecutor;
+        this.gcsBufferPool = gcsBufferPool;
+        this.rangedReadStats = new RangedReadStats(readAheadWindow, rangeSize);
+        this.openReadLatency = metrics.histogram(OPERATION_LATENCY, OPERATION_LATENCY_HELP, "operation", "open_read");
+        this.readLatency = metrics.histogram(OPERATION_LATENCY, OPERATION_LATENCY_HELP, "operation", "read");
+        this.rangeReadLatency = metrics.histogram(OPERATION_LATENCY, OPERATION_LATENCY_HELP, "operation", "read_range");
+        this.openWriteLatency = metrics.histogram(OPERATION_LATENCY, OPERATION_LATENCY_HELP, "operation", "open_write");
+        this.writeLatency = metrics.histogram(OPERATION_LATENCY, OPERATION_LATENCY_HELP, "operation", "write");
+        this.closeWriteLatency = metrics.histogram(OPERATION_LATENCY, OPERATION_LATENCY_HELP, "operation", "close_write");
+        this.deleteLatency = metrics.histogram(OPERATION_LATENCY, OPERATION_LATENCY_HELP, "operation", "delete");
+        this.composeLatency = metrics.histogram(OPERATION_LATENCY, OPERATION_LATENCY_HELP, "operation", "compose");
+        this.readBytes = metrics.counter("gcs_read_bytes_total", "Bytes read from Cloud Storage files");
+        this.writtenBytes = metrics.counter("gcs_written_bytes_total", "Bytes written to Cloud Storage files");
+        this.readMeter = (bytes, nanos) -> {
+            readLatency.recordNanos(nanos);
+            readBytes.increment(bytes);
+        };
+        this.writeMeter = new IoListener() {
+            @Override
+            public void onTransfer(long bytes, long nanos) {
+                writeLatency.recordNanos(nanos);
+                writtenBytes.increment(bytes);
+            }
+
+            @Override
+            public void onClose(long nanos) {
+                closeWriteLatency.recordNanos(nanos);
+            }
+        };
+    }
+
+    /**
+     * Files larger than one range are read as several byte ranges fetched concurrently ahead of the reader,
+     * smaller files (or all files if read-ahead window is less than 2) are read through a single channel.
+     */
     @Override
     public InputStream getInputStreamForFile(BlobInfo blobInfo) {
-        var blob = storage.get(blobInfo.getBlobId());
-        var reader = blob.reader();
-        reader.setChunkSize(CHUNK_SIZE);
-        return Channels.newInputStream(reader);
+        return getInputStreamForFile(blobInfo, 0);
+    }
+
+    @Override
+    public InputStream getInputStreamForFile(BlobInfo blobInfo, long offset) {
+        var start = System.nanoTime();
+        var blob = clients.storage().get(blobInfo.getBlobId());
+        openReadLatency.recordSince(start);
+        if (blob == null) {
+            throw new StorageException(404, String.format("File %s doesn't exist", constructGCSUri(blobInfo)));
+        }
+        var rangeSize = rangedReadStats.getRangeSize();
+        var size = Math.max(0, blob.getSize() - offset);
+        if (rangedReadStats.getWindowSize() < 2 || size <= rangeSize) {
+            var reader = blob.reader();
+            reader.setChunkSize(CHUNK_SIZE);
+            try {
+                reader.seek(offset);
+            } catch (IOException e) {
+                reader.close();
+                throw new StorageException(e);
+            }
+            return MeteredInputStream.of(Channels.newInputStream(reader), readMeter);
+        }
+        // generation is pinned, so that all ranges are read from the same object version
+        var blobId = BlobId.of(blob.getBucket(), blob.getName(), blob.getGeneration());
+        log.info("File {} of {} bytes is read from offset {} by ranges of {} bytes with read-ahead window {}", constructGCSUri(blobInfo), blob.getSize(), offset,
+                rangeSize, rangedReadStats.getWindowSize());
+        return MeteredInputStream.of(new ReadAheadInputStream((rangeOffset, target) -> readRange(blobId, offset + rangeOffset, target), gcsIoExecutor, size, rangeSize,
+                rangedReadStats.getWindowSize(), rangedReadStats, gcsBufferPool), readMeter);
+    }
+
+    @Override
+    public Optional<byte[]> readFile(BlobInfo blobInfo) {
+        var start = System.nanoTime();
+        try {
+            var content = clients.storage().readAllBytes(blobInfo.getBlobId());
+            readBytes.increment(content.length);
+            return Optional.of(content);
+        } catch (StorageException e) {
+            if (e.getCode() == HTTP_NOT_FOUND) {
+                return Optional.empty();
+            }
+            throw e;
+        } finally {
+            readLatency.recordSince(start);
+        }
+    }
+
+    @Override
+    public long getFileSize(BlobInfo blobInfo) {
+        var blob = clients.storage().get(blobInfo.getBlobId());
+        if (blob == null) {
+            throw new StorageException(404, String.format("File %s doesn't exist", constructGCSUri(blobInfo)));
+        }
+        return blob.getSize();
     }
 
     @Override
     public OutputStream createFileAndGetOutputStream(BlobInfo blobInfo) {
-        var storageResource = new GoogleStorageResource(storage, constructGCSUri(blobInfo));
+        var start = System.nanoTime();
+        var storageResource = new GoogleStorageResource(clients.storage(), constructGCSUri(blobInfo));
         var blob = storageResource.createBlob();
         var writer = blob.writer();
         writer.setChunkSize(CHUNK_SIZE);
-        return Channels.newOutputStream(writer);
+        openWriteLatency.recordSince(start);
+        return MeteredOutputStream.of(Channels.newOutputStream(writer), writeMeter);
     }
 
     @Override
     public void deleteFile(BlobInfo blobInfo) {
-        if (storage.delete(blobInfo.getBlobId())) {
+        var start = System.nanoTime();
+        var deleted = clients.storage().delete(blobInfo.getBlobId());
+        deleteLatency.recordSince(start);
+        if (deleted) {
             log.info("Temp file {} was deleted", constructGCSUri(blobInfo));
         } else {
             log.error("Temp file {} wasn't deleted", constructGCSUri(blobInfo));
         }
     }
 
+    @Override
+    public void composeFiles(List<BlobInfo> sources, BlobInfo target) {
+        var start = System.nanoTime();
+        // a single request composes at most 32 objects, the target accumulates the rest request by request
+        var composed = 0;
+        while (composed < sources.size()) {
+            var request = Storage.ComposeRequest.newBuilder().setTarget(target);
+            var count = 0;
+            if (composed > 0) {
+                request.addSource(target.getName());
+                count++;
+            }
+            for (; count < MAX_COMPOSE_SOURCES && composed < sources.size(); count++, composed++) {
+                request.addSource(sources.get(composed).getName());
+            }
+            clients.storage().compose(request.build());
+        }
+        composeLatency.recordSince(start);
+        log.info("{} files were composed into {}", sources.size(), constructGCSUri(target));
+    }
+
     @Override
     public void moveFileToBucket(BlobInfo blobInfo, String targetBucket) {
-        var blob = storage.get(blobInfo.getBucket(), blobInfo.getName());
+        var blob = clients.storage().get(blobInfo.getBucket(), blobInfo.getName());
         var copyWriter = blob.copyTo(targetBucket, blobInfo.getName());
         copyWriter.getResult();
         blob.delete();
     }
+
+    @Override
+    public RangedReadStats getRangedReadStats() {
+        return rangedReadStats;
+    }
+
+    private void readRange(BlobId blobId, long offset, ByteBuffer target) throws IOException {
+        var start = System.nanoTime();
+        try (var reader = clients.storage().reader(blobId)) {
+            // whole range is fetched with a single request
+            reader.setChunkSize(target.remaining());
+            reader.seek(offset);
+            while (target.hasRemaining()) {
+                if (reader.read(target) < 0) {
+                    break;
+                }
+            }
+        } finally {
+            rangeReadLatency.recordSince(start);
+        }
+    }
 }
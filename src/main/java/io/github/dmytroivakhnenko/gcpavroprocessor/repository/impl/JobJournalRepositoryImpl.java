@@ -0,0 +1,151 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.JobJournalRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.FileJob;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Job journal kept in a local append-only file with one JSON snapshot of a job per line.
+ * Every save is forced to the disk before returning. On start the journal is replayed, the last snapshot of a job wins
+ * and a line truncated by a crash is skipped. When the file grows much larger than the number of live jobs,
+ * it is compacted into a temporary file that atomically replaces the journal.
+ */
+@Repository
+@Slf4j
+public class JobJournalRepositoryImpl implements JobJournalRepository {
+    private static final Gson gson = new Gson();
+
+    private final Path path;
+    private final int compactionThreshold;
+    private final long retentionMillis;
+    private final Map<String, FileJob> jobs = new LinkedHashMap<>();
+    private FileChannel channel;
+    private int lineCount;
+
+    public JobJournalRepositoryImpl(@Value("${jobs.journal.path}") String path,
+                                    @Value("${jobs.journal.compaction-threshold}") int compactionThreshold,
+                                    @Value("${jobs.journal.retention-hours}") long retentionHours) throws IOException {
+        this.path = Path.of(path).toAbsolutePath();
+        this.compactionThreshold = Math.max(1, compactionThreshold);
+        this.retentionMillis = TimeUnit.HOURS.toMillis(retentionHours);
+        Files.createDirectories(this.path.getParent());
+        replay();
+        compact();
+        log.info("Job journal {} was opened with {} jobs", this.path, jobs.size());
+    }
+
+    @Override
+    public synchronized void save(FileJob job) {
+        var line = ByteBuffer.wrap((gson.toJson(job) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        try {
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            channel.force(false);
+            jobs.remove(job.getId());
+            jobs.put(job.getId(), job);
+            if (++lineCount >= Math.max(compactionThreshold, 2 * jobs.size())) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Job " + job.getId() + " wasn't saved to the journal " + path, e);
+        }
+    }
+
+    @Override
+    public synchronized Optional<FileJob> findById(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    @Override
+    public synchronized List<FileJob> findAll() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (var reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            var lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    var job = gson.fromJson(line, FileJob.class);
+                    if (job.getId() != null && job.getState() != null) {
+                        jobs.remove(job.getId());
+                        jobs.put(job.getId(), job);
+                        continue;
+                    }
+                } catch (JsonParseException e) {
+                    // fall through to the warning below
+                }
+                log.warn("Line {} of job journal {} is corrupted and was skipped", lineNumber, path);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal with the last snapshot of every job, finished jobs older than retention period are dropped.
+     */
+    private void compact() throws IOException {
+        var now = System.currentTimeMillis();
+        jobs.values().removeIf(job -> job.getState().isTerminal() && now - job.getUpdatedAt() > retentionMillis);
+        var tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var tmp = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var content = new StringBuilder();
+            jobs.values().forEach(job -> content.append(gson.toJson(job)).append(System.lineSeparator()));
+            var buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                tmp.write(buffer);
+            }
+            tmp.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        lineCount = jobs.size();
+    }
+
+    private void forceDirectory() {
+        try (var directory = FileChannel.open(path.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // syncing a directory is not supported by every platform
+            log.debug("Directory of job journal {} wasn't synced", path, e);
+        }
+    }
+}
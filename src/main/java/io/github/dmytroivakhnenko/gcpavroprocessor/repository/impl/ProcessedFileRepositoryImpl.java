@@ -0,0 +1,161 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.ProcessedFileRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.ProcessedFile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processed files kept in a bounded in-memory cache backed by a local append-only file with one JSON record per line.
+ * Cache is ordered by processing time, records older than TTL and the oldest records above the maximum number of entries
+ * are evicted. On start the file is replayed into the cache and compacted, so the file doesn't grow beyond twice the cache.
+ */
+@Repository
+@Slf4j
+public class ProcessedFileRepositoryImpl implements ProcessedFileRepository {
+    private static final Gson gson = new Gson();
+
+    private final Path path;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Map<String, Long> processedFiles;
+    private FileChannel channel;
+    private int lineCount;
+
+    public ProcessedFileRepositoryImpl(@Value("${idempotency.processed-files.path}") String path,
+                                       @Value("${idempotency.cache.max-entries}") int maxEntries,
+                                       @Value("${idempotency.cache.ttl-hours}") long ttlHours) throws IOException {
+        this.path = Path.of(path).toAbsolutePath();
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMillis = TimeUnit.HOURS.toMillis(ttlHours);
+        this.processedFiles = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > ProcessedFileRepositoryImpl.this.maxEntries;
+            }
+        };
+        Files.createDirectories(this.path.getParent());
+        replay();
+        compact();
+        log.info("Processed files log {} was opened with {} files", this.path, processedFiles.size());
+    }
+
+    @Override
+    public synchronized boolean isProcessed(String key) {
+        evictExpired(System.currentTimeMillis());
+        return processedFiles.containsKey(key);
+    }
+
+    @Override
+    public synchronized void markProcessed(String key) {
+        var processedFile = ProcessedFile.builder().key(key).processedAt(System.currentTimeMillis()).build();
+        var line = ByteBuffer.wrap((gson.toJson(processedFile) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        try {
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            channel.force(false);
+            put(processedFile);
+            if (++lineCount >= 2 * maxEntries) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("File " + key + " wasn't saved to the processed files log " + path, e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void put(ProcessedFile processedFile) {
+        // re-inserted key moves to the end, so the map stays ordered by processing time
+        processedFiles.remove(processedFile.getKey());
+        processedFiles.put(processedFile.getKey(), processedFile.getProcessedAt());
+    }
+
+    private void evictExpired(long now) {
+        var iterator = processedFiles.values().iterator();
+        while (iterator.hasNext() && now - iterator.next() > ttlMillis) {
+            iterator.remove();
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (var reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            var lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    var processedFile = gson.fromJson(line, ProcessedFile.class);
+                    if (processedFile.getKey() != null) {
+                        put(processedFile);
+                        continue;
+                    }
+                } catch (JsonParseException e) {
+                    // fall through to the warning below
+                }
+                log.warn("Line {} of processed files log {} is corrupted and was skipped", lineNumber, path);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log with the records of the cache, so that evicted records are dropped.
+     */
+    private void compact() throws IOException {
+        evictExpired(System.currentTimeMillis());
+        var tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var tmp = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var content = new StringBuilder();
+            processedFiles.forEach((key, processedAt) -> content.append(gson.toJson(ProcessedFile.builder().key(key).processedAt(processedAt).build()))
+                    .append(System.lineSeparator()));
+            var buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                tmp.write(buffer);
+            }
+            tmp.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        lineCount = processedFiles.size();
+    }
+
+    private void forceDirectory() {
+        try (var directory = FileChannel.open(path.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // syncing a directory is not supported by every platform
+            log.debug("Directory of processed files log {} wasn't synced", path, e);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.PubSubException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.PubSubSubscriber;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.PulledMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull subscription accessed with the Pub/Sub REST API, which needs no client library.
+ * Endpoint with http scheme is taken for the local emulator, its requests aren't authenticated.
+ */
+@Repository
+public class PubSubRestSubscriber implements PubSubSubscriber {
+    private static final String PUBSUB_SCOPE = "https://www.googleapis.com/auth/pubsub";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    /**
+     * Pull is answered once messages arrive or after the server defined wait
+     */
+    private static final Duration PULL_TIMEOUT = Duration.ofSeconds(90);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final Gson gson = new Gson();
+
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).build();
+    private final String subscriptionUri;
+    private final boolean emulator;
+    private GoogleCredentials credentials;
+
+    /**
+     * @param endpoint     - https://pubsub.googleapis.com or http://host:port of the emulator
+     * @param subscription - projects/{project}/subscriptions/{subscription}
+     */
+    public PubSubRestSubscriber(@Value("${pubsub.pull.endpoint}") String endpoint,
+                                @Value("${pubsub.pull.subscription}") String subscription) {
+        this.subscriptionUri = endpoint.replaceAll("/+$", "") + "/v1/" + subscription;
+        this.emulator = endpoint.startsWith("http:");
+    }
+
+    @Override
+    public List<PulledMessage> pull(int maxMessages) {
+        var body = new JsonObject();
+        body.addProperty("maxMessages", maxMessages);
+        var response = post(":pull", body, PULL_TIMEOUT);
+        var messages = new ArrayList<PulledMessage>();
+        var receivedMessages = response.getAsJsonArray("receivedMessages");
+        if (receivedMessages == null) {
+            return messages;
+        }
+        for (var element : receivedMessages) {
+            var receivedMessage = element.getAsJsonObject();
+            var message = receivedMessage.getAsJsonObject("message");
+            messages.add(PulledMessage.builder()
+                    .ackId(receivedMessage.get("ackId").getAsString())
+                    .messageId(getString(message, "messageId"))
+                    .publishTime(getString(message, "publishTime"))
+                    .data(getString(message, "data"))
+                    .build());
+        }
+        return messages;
+    }
+
+    @Override
+    public void acknowledge(List<String> ackIds) {
+        var body = new JsonObject();
+        body.add("ackIds", toJsonArray(ackIds));
+        post(":acknowledge", body, REQUEST_TIMEOUT);
+    }
+
+    @Override
+    public void modifyAckDeadline(List<String> ackIds, int seconds) {
+        var body = new JsonObject();
+        body.add("ackIds", toJsonArray(ackIds));
+        body.addProperty("ackDeadlineSeconds", seconds);
+        post(":modifyAckDeadline", body, REQUEST_TIMEOUT);
+    }
+
+    private JsonObject post(String method, JsonObject body, Duration timeout) {
+        var uri = URI.create(subscriptionUri + method);
+        try {
+            var request = HttpRequest.newBuilder(uri)
+                    .timeout(timeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(body)));
+            if (!emulator) {
+                for (var header : getCredentials().getRequestMetadata(uri).entrySet()) {
+                    header.getValue().forEach(value -> request.header(header.getKey(), value));
+                }
+            }
+            var response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() / 100 != 2) {
+                throw new PubSubException(String.format("Pub/Sub request %s failed with status %d: %s", method, response.statusCode(), response.body()));
+            }
+            var json = gson.fromJson(response.body(), JsonObject.class);
+            return json == null ? new JsonObject() : json;
+        } catch (IOException e) {
+            throw new PubSubException("Pub/Sub request " + method + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PubSubException("Pub/Sub request " + method + " was interrupted", e);
+        }
+    }
+
+    /**
+     * Credentials are resolved on the first request, so that the application starts without them while pull is disabled.
+     */
+    private synchronized GoogleCredentials getCredentials() throws IOException {
+        if (credentials == null) {
+            credentials = GoogleCredentials.getApplicationDefault().createScoped(PUBSUB_SCOPE);
+        }
+        return credentials;
+    }
+
+    private static String getString(JsonObject json, String property) {
+        var value = json.get(property);
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+
+    private static JsonArray toJsonArray(List<String> values) {
+        var array = new JsonArray();
+        values.forEach(array::add);
+        return array;
+    }
+}
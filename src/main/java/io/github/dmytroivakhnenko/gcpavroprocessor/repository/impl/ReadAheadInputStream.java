@@ -0,0 +1,177 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BufferPool;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.RangedReadStats;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Input stream over an object of known size that is fetched as consecutive byte ranges.
+ * Up to window ranges are requested concurrently ahead of the reader, ranges are returned strictly in order.
+ * Ranges are read into buffers of the pool, a buffer goes back to the pool once its range is consumed or abandoned.
+ * Saturated executor narrows the window instead of failing the read, which was admitted already: ranges are requested
+ * again once a pending range is consumed, and with none pending the next range is read by the reader itself.
+ */
+public class ReadAheadInputStream extends InputStream {
+    private final RangeReader rangeReader;
+    private final Executor executor;
+    private final long size;
+    private final int rangeSize;
+    private final int window;
+    private final RangedReadStats stats;
+    private final BufferPool bufferPool;
+    private final ArrayDeque<CompletableFuture<ByteBuffer>> pending = new ArrayDeque<>();
+    private long nextOffset;
+    private ByteBuffer current;
+    private boolean closed;
+
+    public ReadAheadInputStream(RangeReader rangeReader, Executor executor, long size, int rangeSize, int window, RangedReadStats stats, BufferPool bufferPool) {
+        this.rangeReader = rangeReader;
+        this.executor = executor;
+        this.size = size;
+        this.rangeSize = rangeSize;
+        this.window = Math.max(1, window);
+        this.stats = stats;
+        this.bufferPool = bufferPool;
+        scheduleRanges();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureCurrentRange()) {
+            return -1;
+        }
+        return current.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureCurrentRange()) {
+            return -1;
+        }
+        var count = Math.min(len, current.remaining());
+        current.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.remaining();
+    }
+
+    /**
+     * Ranges still being read release their buffers when they complete.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        pending.forEach(future -> {
+            if (!future.cancel(true) && !future.isCompletedExceptionally()) {
+                bufferPool.release(future.getNow(null));
+            }
+        });
+        pending.clear();
+        bufferPool.release(current);
+        current = null;
+    }
+
+    private boolean ensureCurrentRange() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        while (current == null || !current.hasRemaining()) {
+            bufferPool.release(current);
+            current = null;
+            if (pending.isEmpty()) {
+                return false;
+            }
+            current = await(pending.poll());
+            scheduleRanges();
+        }
+        return true;
+    }
+
+    private void scheduleRanges() {
+        while (pending.size() < window && nextOffset < size) {
+            var offset = nextOffset;
+            var length = (int) Math.min(rangeSize, size - offset);
+            var future = new CompletableFuture<ByteBuffer>();
+            try {
+                executor.execute(() -> fetchRange(offset, length, future));
+            } catch (RejectedExecutionException e) {
+                if (!pending.isEmpty()) {
+                    return;
+                }
+                fetchRange(offset, length, future);
+            }
+            nextOffset += length;
+            pending.add(future);
+        }
+    }
+
+    /**
+     * Range which was cancelled before it started isn't read, buffer of a range which was cancelled while it was read is released.
+     */
+    private void fetchRange(long offset, int length, CompletableFuture<ByteBuffer> future) {
+        if (future.isDone()) {
+            return;
+        }
+        var buffer = bufferPool.acquire(length);
+        try {
+            var start = System.nanoTime();
+            rangeReader.read(offset, buffer);
+            if (buffer.hasRemaining()) {
+                throw new EOFException(String.format("Range at offset %d returned %d bytes instead of %d", offset, buffer.position(), length));
+            }
+            buffer.flip();
+            stats.recordRange(length, System.nanoTime() - start);
+        } catch (IOException | RuntimeException e) {
+            bufferPool.release(buffer);
+            future.completeExceptionally(e);
+            return;
+        }
+        if (!future.complete(buffer)) {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private ByteBuffer await(CompletableFuture<ByteBuffer> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Range read failed", e.getCause());
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("Range read was cancelled");
+        }
+    }
+
+    @FunctionalInterface
+    public interface RangeReader {
+        /**
+         * Fills the target up to its limit, less if the object ends earlier.
+         *
+         * @param offset - position of the first byte of the range
+         * @param target - buffer for the range content, its remaining bytes are the length of the range
+         * @throws IOException if the range can't be read
+         */
+        void read(long offset, ByteBuffer target) throws IOException;
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.GenerationProgress;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface AvroFileGeneratorService {
+    /**
+     * Starts generation of files with random clients in background, files are written to the input bucket.
+     *
+     * @param name         - prefix of the file names, file number is appended to it
+     * @param fileCount    - number of files
+     * @param clientsCount - number of clients in every file
+     * @return progress of the started generation
+     */
+    GenerationProgress startGeneration(String name, int fileCount, int clientsCount);
+
+    Optional<GenerationProgress> getGeneration(String id);
+
+    List<GenerationProgress> getGenerations();
+}
@@ -0,0 +1,26 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service;
+
+import com.google.cloud.storage.BlobInfo;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.FileJob;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface FileJobService {
+    /**
+     * Records the file in the job journal and starts its processing in background.
+     *
+     * @param blobInfo  - file to process
+     * @param createdAt - creation time of the file in epoch milliseconds, null if unknown
+     * @return journal entry of the accepted file, or of the same file that is already in progress
+     */
+    FileJob accept(BlobInfo blobInfo, Long createdAt);
+
+    default FileJob accept(BlobInfo blobInfo) {
+        return accept(blobInfo, null);
+    }
+
+    Optional<FileJob> getJob(String id);
+
+    List<FileJob> getJobs();
+}
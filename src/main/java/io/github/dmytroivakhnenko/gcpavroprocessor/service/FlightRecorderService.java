@@ -0,0 +1,26 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.RecordingInfo;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+public interface FlightRecorderService {
+    /**
+     * Starts a flight recording of the running application, only one recording runs at a time.
+     *
+     * @param settings - name of the JDK recording settings, e.g. default (low overhead) or profile
+     * @return started recording, or the one which is already running
+     * @throws IllegalArgumentException if the settings don't exist
+     */
+    RecordingInfo startRecording(String settings);
+
+    Optional<RecordingInfo> getRecording();
+
+    /**
+     * Stops the running recording and writes it to a file.
+     *
+     * @return recording file, empty if no recording was running
+     */
+    Optional<Path> stopRecording();
+}
@@ -7,6 +7,4 @@ import java.util.concurrent.CompletableFuture;
 
 public interface GCSFileProcessorService {
     List<CompletableFuture<Boolean>> processFileToBigQuery(BlobInfo blobInfo);
-
-    void generateRandomAvroFiles(String name, int fileCount, int clientsCount);
 }
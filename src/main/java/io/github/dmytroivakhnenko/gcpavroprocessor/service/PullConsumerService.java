@@ -0,0 +1,17 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.PullConsumerStats;
+
+public interface PullConsumerService {
+    /**
+     * Starts pulling notifications, does nothing if they are already pulled.
+     */
+    void start();
+
+    /**
+     * Stops pulling, outstanding messages are made available for redelivery.
+     */
+    void stop();
+
+    PullConsumerStats getStats();
+}
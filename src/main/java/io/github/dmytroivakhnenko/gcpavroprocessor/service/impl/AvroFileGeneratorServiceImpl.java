@@ -0,0 +1,236 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import com.google.cloud.storage.BlobInfo;
+import example.gcp.Client;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.AdaptiveCodecSelector;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.AvroFileGenerationException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.CloudStorageRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.AvroFileGeneratorService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BoundedExecutor;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.GenerationProgress;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.GenerationState;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.RandomClientGenerator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.constructGCSUri;
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.getAvroFile;
+
+/**
+ * Generates files of a generation in parallel on the generator executor. Every worker takes the next file number
+ * until all files are taken, so one generation occupies at most one task per executor thread.
+ * Files are written to the generator bucket and moved to the input bucket once complete. An object is finalized
+ * when its stream is closed, even after a failed write, so only complete files may be written where they are notified.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class AvroFileGeneratorServiceImpl implements AvroFileGeneratorService {
+    private static final int MAX_KEPT_GENERATIONS = 100;
+
+    private final CloudStorageRepository gcStorage;
+    private final AdaptiveCodecSelector codecSelector;
+    @Qualifier("generatorExecutor")
+    private final BoundedExecutor generatorExecutor;
+
+    /**
+     * Recent generations by id, the oldest are forgotten, guarded by the map itself
+     */
+    private final Map<String, Generation> generations = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Generation> eldest) {
+            return size() > MAX_KEPT_GENERATIONS;
+        }
+    };
+
+    @Value("${gcs.input.bucket.name}")
+    private String inputBucketName;
+
+    @Value("${gcs.generator.bucket.name}")
+    private String generatorBucketName;
+
+    @Value("${avro.output.generator.codec}")
+    private String outputCodec;
+
+    @Value("${avro.output.generator.sync-interval}")
+    private int outputSyncInterval;
+
+    @PostConstruct
+    public void init() {
+        // generated files are loaded to BigQuery like any other input file
+        AdaptiveCodecSelector.checkLoadableByBigQuery(outputCodec, outputSyncInterval);
+    }
+
+    /**
+     * @throws ServiceOverloadedException if the generator executor is saturated
+     */
+    @Override
+    public GenerationProgress startGeneration(String name, int fileCount, int clientsCount) {
+        var workerCount = Math.min(Math.max(0, fileCount), generatorExecutor.getMaximumPoolSize());
+        var generation = new Generation(UUID.randomUUID().toString(), name, fileCount, clientsCount, workerCount);
+        if (workerCount == 0) {
+            generation.finish();
+        }
+        for (int i = 0; i < workerCount; i++) {
+            try {
+                generatorExecutor.execute(() -> generateFiles(generation));
+            } catch (ServiceOverloadedException e) {
+                if (i == 0) {
+                    throw e;
+                }
+                // workers that were submitted generate all the files, just with less parallelism
+                log.warn("Generation {} runs with {} of {} workers", generation.id, i, workerCount);
+                for (int j = i; j < workerCount; j++) {
+                    generation.workerFinished();
+                }
+                break;
+            }
+        }
+        synchronized (generations) {
+            generations.put(generation.id, generation);
+        }
+        log.info("Generation {} of {} file(s) with name {} and {} clients was started", generation.id, fileCount, name, clientsCount);
+        return generation.getProgress();
+    }
+
+    @Override
+    public Optional<GenerationProgress> getGeneration(String id) {
+        synchronized (generations) {
+            return Optional.ofNullable(generations.get(id)).map(Generation::getProgress);
+        }
+    }
+
+    @Override
+    public List<GenerationProgress> getGenerations() {
+        synchronized (generations) {
+            return generations.values().stream().map(Generation::getProgress).collect(Collectors.toList());
+        }
+    }
+
+    private void generateFiles(Generation generation) {
+        var clientGenerator = new RandomClientGenerator();
+        var clientDatumWriter = new SpecificDatumWriter<>(Client.class);
+        try {
+            int fileNumber;
+            while (generation.error == null && (fileNumber = generation.nextFile.getAndIncrement()) < generation.fileCount) {
+                generateFile(generation, fileNumber, clientGenerator, clientDatumWriter);
+            }
+        } catch (RuntimeException e) {
+            generation.fail(e);
+        } finally {
+            generation.workerFinished();
+        }
+    }
+
+    private void generateFile(Generation generation, int fileNumber, RandomClientGenerator clientGenerator, SpecificDatumWriter<Client> clientDatumWriter) {
+        var blobInfo = getAvroFile(generatorBucketName, generation.name + fileNumber);
+        var outputFormat = codecSelector.getOutputFormat(outputCodec, outputSyncInterval);
+        try (var outputStream = codecSelector.measure(gcStorage.createFileAndGetOutputStream(blobInfo));
+             var clientDataFileWriter = outputFormat.configure(new DataFileWriter<>(clientDatumWriter))) {
+            clientDataFileWriter.create(Client.getClassSchema(), outputStream);
+            for (int i = 0; i < generation.clientsCount; i++) {
+                clientDataFileWriter.append(clientGenerator.next());
+                generation.recordsWritten.increment();
+            }
+        } catch (IOException e) {
+            var msg = String.format("Exception occurs during generating clients for avro file: %s ", constructGCSUri(blobInfo));
+            log.error(msg, e);
+            deletePartialFile(blobInfo);
+            throw new AvroFileGenerationException(msg);
+        } catch (RuntimeException e) {
+            deletePartialFile(blobInfo);
+            throw e;
+        }
+        gcStorage.moveFileToBucket(blobInfo, inputBucketName);
+        generation.filesWritten.increment();
+    }
+
+    private void deletePartialFile(BlobInfo blobInfo) {
+        try {
+            gcStorage.deleteFile(blobInfo);
+        } catch (RuntimeException e) {
+            log.warn("Partial file {} wasn't deleted", constructGCSUri(blobInfo), e);
+        }
+    }
+
+    private static class Generation {
+        private final String id;
+        private final String name;
+        private final int fileCount;
+        private final int clientsCount;
+        private final long startedAt = System.currentTimeMillis();
+        private final AtomicInteger nextFile = new AtomicInteger();
+        private final AtomicInteger activeWorkers;
+        private final LongAdder filesWritten = new LongAdder();
+        private final LongAdder recordsWritten = new LongAdder();
+        private volatile String error;
+        private volatile Long finishedAt;
+
+        private Generation(String id, String name, int fileCount, int clientsCount, int workerCount) {
+            this.id = id;
+            this.name = name;
+            this.fileCount = fileCount;
+            this.clientsCount = clientsCount;
+            this.activeWorkers = new AtomicInteger(workerCount);
+        }
+
+        private synchronized void fail(RuntimeException e) {
+            if (error == null) {
+                error = e.getMessage();
+            }
+        }
+
+        private void workerFinished() {
+            if (activeWorkers.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            finishedAt = System.currentTimeMillis();
+            log.info("Generation {} was finished: {} file(s), {} clients, error: {}", id, filesWritten.sum(), recordsWritten.sum(), error);
+        }
+
+        private GenerationProgress getProgress() {
+            var end = finishedAt;
+            var records = recordsWritten.sum();
+            var elapsedMillis = Math.max(1, (end == null ? System.currentTimeMillis() : end) - startedAt);
+            GenerationState state;
+            if (end == null) {
+                state = GenerationState.RUNNING;
+            } else {
+                state = error == null ? GenerationState.SUCCEEDED : GenerationState.FAILED;
+            }
+            return GenerationProgress.builder()
+                    .id(id)
+                    .name(name)
+                    .state(state)
+                    .fileCount(fileCount)
+                    .clientsCount(clientsCount)
+                    .filesWritten(filesWritten.sum())
+                    .recordsWritten(records)
+                    .startedAt(startedAt)
+                    .finishedAt(end)
+                    .recordsPerSecond(records * 1000.0 / elapsedMillis)
+                    .error(error)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.AvroFileValidationException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.JobJournalRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.FileJobService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.GCSFileProcessorService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.FileJob;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.FileJobState;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.constructGCSUri;
+
+/**
+ * Processes files in background and keeps their progress in the job journal.
+ * Jobs interrupted by a restart and failed jobs are retried from the journal with exponential backoff.
+ */
+@Service
+@Slf4j
+public class FileJobServiceImpl implements FileJobService {
+    private static final int MAX_BACKOFF_SHIFT = 10;
+
+    private final GCSFileProcessorService gcsFileProcessorService;
+    private final JobJournalRepository journal;
+    private final MetricsRegistry metrics;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final Map<String, String> activeJobIdsByFile = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("file-job-retry-"));
+
+    public FileJobServiceImpl(GCSFileProcessorService gcsFileProcessorService,
+                              JobJournalRepository journal,
+                              MetricsRegistry metrics,
+                              @Value("${jobs.retry.max-attempts}") int maxAttempts,
+                              @Value("${jobs.retry.delay-seconds}") long retryDelaySeconds,
+                              @Value("${jobs.retry.check-interval-seconds}") long checkIntervalSeconds) {
+        this.gcsFileProcessorService = gcsFileProcessorService;
+        this.journal = journal;
+        this.metrics = metrics;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryDelayMillis = TimeUnit.SECONDS.toMillis(retryDelaySeconds);
+        recoverInterruptedJobs();
+        retryScheduler.scheduleWithFixedDelay(this::retryDueJobs, checkIntervalSeconds, checkIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @throws ServiceOverloadedException if processing can't be started now, job is recorded as rejected
+     */
+    @Override
+    public synchronized FileJob accept(BlobInfo blobInfo, Long createdAt) {
+        var activeJobId = activeJobIdsByFile.get(fileKey(blobInfo.getBucket(), blobInfo.getName(), blobInfo.getGeneration()));
+        if (activeJobId != null) {
+            var activeJob = journal.findById(activeJobId);
+            if (activeJob.isPresent()) {
+                log.info("File {} is already processed by job {}", constructGCSUri(blobInfo), activeJobId);
+                return activeJob.get();
+            }
+        }
+        var now = System.currentTimeMillis();
+        var job = save(FileJob.builder()
+                .id(UUID.randomUUID().toString())
+                .bucket(blobInfo.getBucket())
+                .name(blobInfo.getName())
+                .generation(blobInfo.getGeneration())
+                .createdAt(createdAt)
+                .state(FileJobState.ACCEPTED)
+                .acceptedAt(now)
+                .updatedAt(now)
+                .build());
+        try {
+            return start(job);
+        } catch (ServiceOverloadedException e) {
+            save(job.toBuilder().state(FileJobState.REJECTED).updatedAt(System.currentTimeMillis()).error(e.getMessage()).build());
+            throw e;
+        }
+    }
+
+    @Override
+    public Optional<FileJob> getJob(String id) {
+        return journal.findById(id);
+    }
+
+    @Override
+    public List<FileJob> getJobs() {
+        return journal.findAll();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+    }
+
+    private FileJob start(FileJob job) {
+        var blobInfo = BlobInfo.newBuilder(BlobId.of(job.getBucket(), job.getName(), job.getGeneration())).build();
+        var futures = gcsFileProcessorService.processFileToBigQuery(blobInfo);
+        var running = save(job.toBuilder()
+                .state(FileJobState.RUNNING)
+                .attempts(job.getAttempts() + 1)
+                .updatedAt(System.currentTimeMillis())
+                .nextAttemptAt(null)
+                .error(null)
+                .build());
+        log.info("Job {} started attempt {} of file {}", running.getId(), running.getAttempts(), constructGCSUri(blobInfo));
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenApply(v -> futures.stream().allMatch(future -> Boolean.TRUE.equals(future.join())))
+                .whenComplete((succeeded, e) -> finish(running, Boolean.TRUE.equals(succeeded), e));
+        return running;
+    }
+
+    private void finish(FileJob job, boolean succeeded, Throwable e) {
+        var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        var now = System.currentTimeMillis();
+        var builder = job.toBuilder().updatedAt(now);
+        if (cause == null && succeeded) {
+            builder.state(FileJobState.SUCCEEDED);
+        } else if (cause instanceof AvroFileValidationException) {
+            builder.state(FileJobState.INVALID).error(cause.getMessage());
+        } else {
+            builder.error(cause == null ? "Error(s) occurred during file processing" : cause.toString());
+            if (job.getAttempts() < maxAttempts) {
+                builder.state(FileJobState.RETRY_PENDING).nextAttemptAt(now + (retryDelayMillis << Math.min(job.getAttempts() - 1, MAX_BACKOFF_SHIFT)));
+            } else {
+                builder.state(FileJobState.FAILED);
+            }
+        }
+        var finished = save(builder.build());
+        if (finished.getState().isTerminal() && !Objects.isNull(finished.getCreatedAt())) {
+            metrics.histogram(MetricsRegistry.FILE_END_TO_END_SECONDS, MetricsRegistry.FILE_END_TO_END_HELP, "result", finished.getState() == FileJobState.SUCCEEDED ? "success" : "failure")
+                    .record(Math.max(0, now - finished.getCreatedAt()) / 1000.0);
+        }
+        if (finished.getState() == FileJobState.SUCCEEDED) {
+            log.info("Job {} finished processing of file {}", finished.getId(), finished.getName());
+        } else {
+            log.error("Job {} of file {} finished in state {}: {}", finished.getId(), finished.getName(), finished.getState(), finished.getError());
+        }
+    }
+
+    private void recoverInterruptedJobs() {
+        var now = System.currentTimeMillis();
+        for (var job : journal.findAll()) {
+            if (job.getState() == FileJobState.ACCEPTED || job.getState() == FileJobState.RUNNING) {
+                log.warn("Job {} of file {} was interrupted in state {} and will be retried", job.getId(), job.getName(), job.getState());
+                save(job.toBuilder().state(FileJobState.RETRY_PENDING).updatedAt(now).nextAttemptAt(now).build());
+            } else if (!job.getState().isTerminal()) {
+                activeJobIdsByFile.put(fileKey(job.getBucket(), job.getName(), job.getGeneration()), job.getId());
+            }
+        }
+    }
+
+    private synchronized void retryDueJobs() {
+        var now = System.currentTimeMillis();
+        for (var job : journal.findAll()) {
+            if (job.getState() != FileJobState.RETRY_PENDING || job.getNextAttemptAt() == null || job.getNextAttemptAt() > now) {
+                continue;
+            }
+            try {
+                start(job);
+            } catch (ServiceOverloadedException e) {
+                log.warn("Retries were postponed, service is overloaded");
+                return;
+            } catch (RuntimeException e) {
+                finish(job.toBuilder().attempts(job.getAttempts() + 1).build(), false, e);
+            }
+        }
+    }
+
+    private FileJob save(FileJob job) {
+        journal.save(job);
+        var key = fileKey(job.getBucket(), job.getName(), job.getGeneration());
+        if (job.getState().isTerminal()) {
+            activeJobIdsByFile.remove(key, job.getId());
+        } else {
+            activeJobIdsByFile.put(key, job.getId());
+        }
+        return job;
+    }
+
+    private static String fileKey(String bucket, String name, Long generation) {
+        return bucket + "/" + name + "#" + generation;
+    }
+}
@@ -0,0 +1,116 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.FlightRecorderService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.RecordingInfo;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Recording keeps events of the last max age minutes up to max size on disk, so a forgotten recording doesn't grow unbounded.
+ * Custom events of the processing path are enabled by any settings.
+ */
+@Service
+@Slf4j
+public class FlightRecorderServiceImpl implements FlightRecorderService {
+    private static final String RECORDING_NAME = "gcp-avro-processor";
+    private static final long BYTES_PER_MB = 1024 * 1024;
+
+    private final Path directory;
+    private final long maxAgeMinutes;
+    private final long maxSizeBytes;
+    private Recording recording;
+    private String recordingSettings;
+
+    public FlightRecorderServiceImpl(@Value("${jfr.recording.directory}") String directory,
+                                     @Value("${jfr.recording.max-age-minutes}") long maxAgeMinutes,
+                                     @Value("${jfr.recording.max-size-mb}") long maxSizeMb) {
+        this.directory = Paths.get(directory);
+        this.maxAgeMinutes = maxAgeMinutes;
+        this.maxSizeBytes = maxSizeMb * BYTES_PER_MB;
+    }
+
+    @Override
+    public synchronized RecordingInfo startRecording(String settings) {
+        if (recording != null) {
+            log.info("Recording {} is already running", recording.getId());
+            return getInfo(recording);
+        }
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration(settings);
+        } catch (IOException | ParseException e) {
+            throw new IllegalArgumentException("Recording settings " + settings + " can't be loaded", e);
+        }
+        var started = new Recording(configuration);
+        started.setName(RECORDING_NAME);
+        started.setToDisk(true);
+        started.setMaxAge(Duration.ofMinutes(maxAgeMinutes));
+        started.setMaxSize(maxSizeBytes);
+        started.start();
+        recording = started;
+        recordingSettings = settings;
+        log.info("Recording {} with settings {} was started", started.getId(), settings);
+        return getInfo(started);
+    }
+
+    @Override
+    public synchronized Optional<RecordingInfo> getRecording() {
+        return Optional.ofNullable(recording).map(this::getInfo);
+    }
+
+    @Override
+    public synchronized Optional<Path> stopRecording() {
+        if (recording == null) {
+            return Optional.empty();
+        }
+        var stopped = recording;
+        recording = null;
+        try {
+            Files.createDirectories(directory);
+            var file = directory.resolve(RECORDING_NAME + "-" + stopped.getId() + "-" + System.currentTimeMillis() + ".jfr");
+            stopped.stop();
+            stopped.dump(file);
+            log.info("Recording {} was stopped and written to {}", stopped.getId(), file);
+            return Optional.of(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Recording " + stopped.getId() + " wasn't written", e);
+        } finally {
+            stopped.close();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+    }
+
+    private RecordingInfo getInfo(Recording recording) {
+        return RecordingInfo.builder()
+                .id(recording.getId())
+                .name(recording.getName())
+                .state(recording.getState().name())
+                .settings(recordingSettings)
+                .startedAt(recording.getState() == RecordingState.NEW ? null : recording.getStartTime().toEpochMilli())
+                .maxAgeMinutes(maxAgeMinutes)
+                .maxSizeBytes(maxSizeBytes)
+                .sizeBytes(recording.getSize())
+                .build();
+    }
+}
@@ -1,52 +1,111 @@
 package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
 
+import com.google.cloud.bigquery.Job;
 import com.google.cloud.storage.BlobInfo;
 import example.gcp.Client;
 import example.gcp.ClientMandatory;
-import io.github.dmytroivakhnenko.gcpavroprocessor.exception.AvroFileGenerationException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.AdaptiveCodecSelector;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.AvroBlockCodec;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.AvroContainerReader;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.AvroOutputFormat;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.ParallelBlockTranscoder;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.PipelinedBlockTranscoder;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.RawRecordProjector;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.TranscodeMode;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.WriterSchemaRegistry;
 import io.github.dmytroivakhnenko.gcpavroprocessor.exception.AvroFileValidationException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.MandatoryRowsStreamingException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.jfr.AvroTranscodeEvent;
+import io.github.dmytroivakhnenko.gcpavroprocessor.jfr.BigQueryJobEvent;
+import io.github.dmytroivakhnenko.gcpavroprocessor.jfr.FileProcessingEvent;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MeteredInputStream;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
 import io.github.dmytroivakhnenko.gcpavroprocessor.repository.BigQueryRepository;
 import io.github.dmytroivakhnenko.gcpavroprocessor.repository.CloudStorageRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.MandatoryRowSink;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.ProcessedFileRepository;
 import io.github.dmytroivakhnenko.gcpavroprocessor.service.GCSFileProcessorService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BoundedExecutor;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BufferPool;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.ConcurrencyLimiter;
 import io.github.dmytroivakhnenko.gcpavroprocessor.util.LoadInfo;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.MandatoryLoadMode;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.ProjectionConfig;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.avro.file.DataFileStream;
+import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.specific.SpecificDatumWriter;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-import static io.github.dmytroivakhnenko.gcpavroprocessor.util.AvroFileUtils.createRandomClient;
-import static io.github.dmytroivakhnenko.gcpavroprocessor.util.ClientUtils.createMandatoryClientFromClient;
 import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.*;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class GCSFileProcessorServiceImpl implements GCSFileProcessorService {
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
     private final CloudStorageRepository gcStorage;
     private final BigQueryRepository bqRepository;
+    private final MandatoryRowSink mandatoryRowSink;
+    private final LoadJobBatcher loadJobBatcher;
+    private final TableRebuildScheduler tableRebuildScheduler;
+    private final AdaptiveCodecSelector codecSelector;
+    private final ProcessedFileRepository processedFiles;
+    private final WriterSchemaRegistry<ClientMandatory> writerSchemaRegistry;
+    private final MetricsRegistry metrics;
+    @Qualifier("avroBufferPool")
+    private final BufferPool avroBufferPool;
+    private final ForkJoinPool transcodeForkJoinPool;
+    @Qualifier("transcodeExecutor")
+    private final BoundedExecutor transcodeExecutor;
+    @Qualifier("transcodeStageExecutor")
+    private final BoundedExecutor transcodeStageExecutor;
+    @Qualifier("gcsIoExecutor")
+    private final BoundedExecutor gcsIoExecutor;
+    @Qualifier("bigQueryExecutor")
+    private final BoundedExecutor bigQueryExecutor;
+    @Qualifier("processingLimiter")
+    private final ConcurrencyLimiter processingLimiter;
 
     @Value("${gcs.tmp.bucket.name}")
     private String tmpBucketName;
 
-    @Value("${gcs.input.bucket.name}")
-    private String inputBucketName;
-
-    @Value("${gcs.generator.bucket.name}")
-    private String generatorBucketName;
-
     @Value("${bigquery.tableName.full}")
     private String tableNameFull;
 
@@ -56,73 +115,785 @@ public class GCSFileProcessorServiceImpl implements GCSFileProcessorService {
     @Value("${spring.cloud.gcp.bigquery.datasetName}")
     private String datasetName;
 
+    @Value("${bigquery.mandatory.mode}")
+    private MandatoryLoadMode mandatoryLoadMode;
+
+    @Value("${bigquery.projections}")
+    private String projectionsConfig;
+
+    /**
+     * Derived tables besides the mandatory one, parsed on startup
+     */
+    private List<ProjectionConfig> projections = List.of();
+
+    @Value("${bigquery.load.batch.enabled}")
+    private boolean loadBatchingEnabled;
+
+    @Value("${avro.compaction.enabled}")
+    private boolean compactionEnabled;
+
+    @Value("${avro.compaction.small-file-bytes}")
+    private long compactionSmallFileBytes;
+
+    @Value("${avro.compaction.flush-bytes}")
+    private long compactionFlushBytes;
+
+    @Value("${avro.compaction.max-age-millis}")
+    private long compactionMaxAgeMillis;
+
+    private SmallFileCompactor smallFileCompactor;
+
+    @Value("${avro.checkpoint.enabled}")
+    private boolean checkpointEnabled;
+
+    @Value("${avro.checkpoint.min-file-bytes}")
+    private long checkpointMinFileBytes;
+
+    @Value("${avro.checkpoint.part-bytes}")
+    private long checkpointPartBytes;
+
+    private ResumableTranscoder resumableTranscoder;
+
+    /**
+     * Futures of the files being processed by file key, guarded by the map itself
+     */
+    private final Map<String, List<CompletableFuture<Boolean>>> filesInFlight = new HashMap<>();
+
+    @Value("${avro.projection.raw.enabled}")
+    private boolean rawProjectionEnabled;
+
+    @Value("${avro.transcode.mode}")
+    private TranscodeMode transcodeMode;
+
+    @Value("${avro.transcode.parallel.max-blocks-in-flight}")
+    private int maxBlocksInFlight;
+
+    @Value("${avro.transcode.pipelined.queue-capacity}")
+    private int pipelineQueueCapacity;
+
+    @Value("${avro.output.mandatory.codec}")
+    private String mandatoryOutputCodec;
+
+    @Value("${avro.output.mandatory.sync-interval}")
+    private int mandatoryOutputSyncInterval;
+
+    @PostConstruct
+    public void init() {
+        // misconfigured outputs fail on startup instead of on the first file
+        AdaptiveCodecSelector.checkLoadableByBigQuery(mandatoryOutputCodec, mandatoryOutputSyncInterval);
+        projections = ProjectionConfig.parseAll(projectionsConfig, Client.getClassSchema());
+        var tableNames = new HashSet<>(List.of(tableNameFull, tableNameMandatory));
+        for (var projection : projections) {
+            if (!tableNames.add(projection.getTableName())) {
+                throw new IllegalArgumentException("Table " + projection.getTableName() + " is the destination of more than one output");
+            }
+            AdaptiveCodecSelector.checkLoadableByBigQuery(getProjectionCodec(projection), mandatoryOutputSyncInterval);
+            log.info("Projection {} to table {} was configured", projection.getSchema().getFields().stream().map(Schema.Field::name).collect(Collectors.toList()),
+                    projection.getTableName());
+        }
+        if (!projections.isEmpty() && mandatoryLoadMode == MandatoryLoadMode.TMP_FILE && transcodeMode != TranscodeMode.SEQUENTIAL) {
+            log.warn("Transcode mode {} is ignored, files are transcoded sequentially while {} projections are configured", transcodeMode, projections.size());
+        }
+        if (checkpointEnabled) {
+            resumableTranscoder = new ResumableTranscoder(gcStorage, tmpBucketName, checkpointPartBytes);
+        }
+        if (compactionEnabled) {
+            smallFileCompactor = new SmallFileCompactor(gcStorage, gcsIoExecutor, tmpBucketName, compactionFlushBytes, compactionMaxAgeMillis,
+                    compactedFile -> loadAvroFileToBigQuery(LoadInfo.builder().blobInfo(compactedFile).tableName(tableNameFull).build()));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (smallFileCompactor != null) {
+            smallFileCompactor.close();
+        }
+    }
+
+    /**
+     * Transcoding is submitted to the bounded transcode executor, loads start when the file is validated.
+     * A file version which is being processed or was processed successfully is not processed again,
+     * futures of its processing or completed futures are returned instead. Files without generation are always processed.
+     *
+     * @throws ServiceOverloadedException if the transcode executor is saturated
+     */
     @Override
     public List<CompletableFuture<Boolean>> processFileToBigQuery(BlobInfo blobInfo) {
-        log.info("File {} started processing", constructGCSUri(blobInfo));
-        var mandatoryClientBlobInfo = validateAvroFileAndCreateFileWithMandatoryFields(blobInfo);
-        return Stream.of(LoadInfo.builder().blobInfo(blobInfo).tableName(tableNameFull).build(), LoadInfo.builder().blobInfo(mandatoryClientBlobInfo).tableName(tableNameMandatory).temporaryFile(true).build())
-                .map(this::loadAvroFileToBigQuery)
-                .collect(Collectors.toList());
+        if (Objects.isNull(blobInfo.getGeneration())) {
+            return startProcessing(blobInfo);
+        }
+        var fileKey = constructFileKey(blobInfo);
+        List<CompletableFuture<Boolean>> futures;
+        synchronized (filesInFlight) {
+            futures = filesInFlight.get(fileKey);
+            if (futures != null) {
+                log.info("File {} is already being processed, duplicate notification is attached to it", fileKey);
+                return futures;
+            }
+            if (processedFiles.isProcessed(fileKey)) {
+                log.info("File {} was already processed, duplicate notification is skipped", fileKey);
+                return Collections.nCopies(2 + projections.size(), CompletableFuture.completedFuture(true));
+            }
+            futures = startProcessing(blobInfo);
+            filesInFlight.put(fileKey, futures);
+        }
+        var processing = futures;
+        CompletableFuture.allOf(processing.toArray(CompletableFuture[]::new))
+                .thenApply(v -> processing.stream().allMatch(future -> Boolean.TRUE.equals(future.join())))
+                .whenComplete((succeeded, e) -> finishProcessing(fileKey, Boolean.TRUE.equals(succeeded)));
+        return processing;
     }
 
-    @Override
-    public void generateRandomAvroFiles(String name, int fileCount, int clientsCount) {
-        BlobInfo blobInfo;
-        var clientDatumWriter = new SpecificDatumWriter<>(Client.class);
-        var client = new Client();
-        for (int i = 0; i < fileCount; i++) {
-            blobInfo = getAvroFile(generatorBucketName, name + i);
-            try (var outputStream = gcStorage.createFileAndGetOutputStream(blobInfo);
-                 var clientDataFileWriter = new DataFileWriter<>(clientDatumWriter)) {
-                clientDataFileWriter.create(Client.getClassSchema(), outputStream);
-                for (int j = 0; j < clientsCount; j++) {
-                    client = createRandomClient();
-                    clientDataFileWriter.append(client);
-                }
-            } catch (IOException e) {
-                var msg = String.format("Exception occurs during generating clients for avro file: %s ", constructGCSUri(blobInfo));
-                log.error(msg, e);
-                throw new AvroFileGenerationException(msg);
+    /**
+     * Successfully processed file is recorded before it leaves in-flight files, so a duplicate finds it in one of them.
+     * Failed file is forgotten, so that a redelivered notification processes it again.
+     */
+    private void finishProcessing(String fileKey, boolean succeeded) {
+        try {
+            if (succeeded) {
+                processedFiles.markProcessed(fileKey);
+            }
+        } catch (RuntimeException e) {
+            log.error("File {} wasn't recorded as processed", fileKey, e);
+        } finally {
+            synchronized (filesInFlight) {
+                filesInFlight.remove(fileKey);
             }
-            gcStorage.moveFileToBucket(blobInfo, inputBucketName);
         }
     }
 
+    /**
+     * File is processed under the adaptive concurrency limit, its processing time and rejections by the executors adjust the limit.
+     *
+     * @throws ServiceOverloadedException if the limit is reached
+     */
+    private List<CompletableFuture<Boolean>> startProcessing(BlobInfo blobInfo) {
+        var start = processingLimiter.acquire();
+        var event = new FileProcessingEvent();
+        event.begin();
+        List<CompletableFuture<Boolean>> futures;
+        try {
+            futures = startLoads(blobInfo);
+        } catch (RuntimeException e) {
+            processingLimiter.release(start, e instanceof ServiceOverloadedException);
+            throw e;
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenApply(v -> futures.stream().allMatch(future -> Boolean.TRUE.equals(future.join())))
+                .whenComplete((succeeded, e) -> {
+                    processingLimiter.release(start, isOverloaded(e));
+                    recordProcessing(start, Boolean.TRUE.equals(succeeded));
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.fileUri = constructGCSUri(blobInfo);
+                        event.mandatoryLoadMode = mandatoryLoadMode.name();
+                        event.tableCount = futures.size();
+                        event.succeeded = Boolean.TRUE.equals(succeeded);
+                        event.commit();
+                    }
+                });
+        return futures;
+    }
+
+    private static boolean isOverloaded(Throwable e) {
+        var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause instanceof ServiceOverloadedException;
+    }
+
+    /**
+     * Processing time is measured from the start of processing to all tables loaded. End-to-end time from creation
+     * of the file is recorded by the caller, which got the creation time with the notification.
+     */
+    private void recordProcessing(long startNanos, boolean succeeded) {
+        var result = succeeded ? "success" : "failure";
+        metrics.counter("files_processed_total", "Processed input files", "result", result).increment();
+        metrics.histogram("file_processing_seconds", "Time from the start of processing of a file to all of its tables loaded", "result", result)
+                .recordSince(startNanos);
+    }
+
+    /**
+     * Futures are ordered as full table, mandatory table and then the projections in their configured order.
+     * In query and streaming modes projections are rebuilt from the full table, rebuilds of a table are serialized
+     * and one rebuild serves every file loaded before it started.
+     */
+    private List<CompletableFuture<Boolean>> startLoads(BlobInfo blobInfo) {
+        log.info("File {} started processing", constructGCSUri(blobInfo));
+        var futures = new ArrayList<CompletableFuture<Boolean>>();
+        if (mandatoryLoadMode == MandatoryLoadMode.QUERY) {
+            // file isn't read by the service, schema of the file is validated by the load job
+            var fullLoad = loadFullFileToBigQuery(blobInfo);
+            futures.add(fullLoad);
+            futures.add(fullLoad.thenCompose(loaded -> loaded ? copyColumnsToBigQuery(tableNameMandatory, ClientMandatory.getClassSchema()) : CompletableFuture.completedFuture(false)));
+            projections.forEach(projection -> futures.add(fullLoad.thenCompose(loaded -> loaded ? copyColumnsToBigQuery(projection.getTableName(), projection.getSchema())
+                    : CompletableFuture.completedFuture(false))));
+            return futures;
+        }
+        if (mandatoryLoadMode == MandatoryLoadMode.STREAMING) {
+            // only mandatory rows are streamed, projections are rebuilt from the full table like in query mode
+            var streamedRows = CompletableFuture.supplyAsync(() -> validateAvroFileAndStreamMandatoryRows(blobInfo), transcodeExecutor);
+            var fullLoad = streamedRows.thenCompose(rowCount -> loadFullFileToBigQuery(blobInfo));
+            futures.add(fullLoad);
+            futures.add(streamedRows.thenApply(rowCount -> true));
+            projections.forEach(projection -> futures.add(fullLoad.thenCompose(loaded -> loaded ? copyColumnsToBigQuery(projection.getTableName(), projection.getSchema())
+                    : CompletableFuture.completedFuture(false))));
+            return futures;
+        }
+        var projectedBlobInfos = CompletableFuture.supplyAsync(() -> validateAvroFileAndCreateProjectedFiles(blobInfo), transcodeExecutor);
+        futures.add(projectedBlobInfos.thenCompose(tmpBlobs -> loadFullFileToBigQuery(blobInfo)));
+        var tableNames = getProjectedTableNames();
+        for (int i = 0; i < tableNames.size(); i++) {
+            var index = i;
+            futures.add(projectedBlobInfos.thenCompose(tmpBlobs -> loadAvroFileToBigQuery(LoadInfo.builder().blobInfo(tmpBlobs.get(index)).tableName(tableNames.get(index))
+                    .temporaryFile(true).idempotencyKey(getIdempotencyKey(blobInfo)).build())));
+        }
+        return futures;
+    }
+
+    /**
+     * Small files are compacted with other small files when compaction is enabled, the compacted file is loaded instead of them.
+     */
+    private CompletableFuture<Boolean> loadFullFileToBigQuery(BlobInfo blobInfo) {
+        var loadInfo = LoadInfo.builder().blobInfo(blobInfo).tableName(tableNameFull).idempotencyKey(getIdempotencyKey(blobInfo)).build();
+        if (smallFileCompactor == null) {
+            return loadAvroFileToBigQuery(loadInfo);
+        }
+        return CompletableFuture.supplyAsync(() -> gcStorage.getFileSize(blobInfo), gcsIoExecutor)
+                .thenCompose(size -> size < compactionSmallFileBytes ? smallFileCompactor.submit(blobInfo, size) : loadAvroFileToBigQuery(loadInfo));
+    }
+
     private CompletableFuture<Boolean> loadAvroFileToBigQuery(LoadInfo loadInfo) {
-        var future = CompletableFuture.supplyAsync(() -> bqRepository.waitForJob(bqRepository.loadAvroFileToDataset(datasetName, loadInfo)), executorService);
+        CompletableFuture<Boolean> future;
+        if (loadBatchingEnabled) {
+            var event = new BigQueryJobEvent();
+            event.begin();
+            future = CompletableFuture.supplyAsync(() -> gcStorage.getFileSize(loadInfo.getBlobInfo()), gcsIoExecutor)
+                    .thenCompose(size -> loadJobBatcher.submit(datasetName, loadInfo, size));
+            future.whenComplete((loaded, e) -> commitJobEvent(event, null, "batched_load", loadInfo.getTableName(), loadInfo.getBlobInfo(), 0, loaded));
+        } else {
+            future = traceJob("load", loadInfo.getTableName(), loadInfo.getBlobInfo(), () -> bqRepository.loadAvroFileToDataset(datasetName, loadInfo));
+        }
         if (loadInfo.isTemporaryFile()) {
-            future.thenRun(() -> gcStorage.deleteFile(loadInfo.getBlobInfo()));
+            // temp file is deleted whether the load succeeded, failed or timed out
+            future.handleAsync((loaded, loadError) -> {
+                        gcStorage.deleteFile(loadInfo.getBlobInfo());
+                        return null;
+                    }, gcsIoExecutor)
+                    .exceptionally(e -> {
+                        log.error("Temp file {} wasn't deleted", constructGCSUri(loadInfo.getBlobInfo()), e);
+                        return null;
+                    });
         }
         return future;
     }
 
+    /**
+     * Table is rebuilt from the whole full table, so rebuilds requested by files loaded close together are served by one query job.
+     */
+    private CompletableFuture<Boolean> copyColumnsToBigQuery(String tableName, Schema schema) {
+        var columns = schema.getFields().stream().map(Schema.Field::name).collect(Collectors.toList());
+        return tableRebuildScheduler.submit(datasetName + "." + tableName,
+                () -> traceJob("query", tableName, null, () -> bqRepository.copyColumnsToTable(datasetName, tableNameFull, tableName, columns)));
+    }
+
+    /**
+     * Job is submitted on the BigQuery executor and awaited, both are recorded as a flight recorder event.
+     *
+     * @param sourceFile - file the job reads, null if it reads a table
+     */
+    private CompletableFuture<Boolean> traceJob(String jobType, String tableName, BlobInfo sourceFile, Supplier<Job> submit) {
+        var event = new BigQueryJobEvent();
+        event.begin();
+        var submitted = new AtomicReference<Job>();
+        var submitNanos = new AtomicLong();
+        var future = CompletableFuture.supplyAsync(() -> {
+            var start = System.nanoTime();
+            var job = submit.get();
+            submitNanos.set(System.nanoTime() - start);
+            submitted.set(job);
+            return job;
+        }, bigQueryExecutor)
+                .thenCompose(bqRepository::waitForJob)
+                .thenApply(status -> Objects.isNull(status.getError()));
+        future.whenComplete((succeeded, e) -> commitJobEvent(event, submitted.get(), jobType, tableName, sourceFile, submitNanos.get(), succeeded));
+        return future;
+    }
+
+    private static void commitJobEvent(BigQueryJobEvent event, Job job, String jobType, String tableName, BlobInfo sourceFile, long submitNanos, Boolean succeeded) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.jobId = Objects.isNull(job) || Objects.isNull(job.getJobId()) ? null : job.getJobId().getJob();
+            event.jobType = jobType;
+            event.tableName = tableName;
+            event.sourceUri = Objects.isNull(sourceFile) ? null : constructGCSUri(sourceFile);
+            event.submitTime = submitNanos;
+            event.succeeded = Boolean.TRUE.equals(succeeded);
+            event.commit();
+        }
+    }
+
     public BlobInfo validateAvroFileAndCreateFileWithMandatoryFields(BlobInfo blobInfo) {
+        return traceTranscode(blobInfo, "mandatory", event -> createFileWithMandatoryFields(blobInfo, event));
+    }
+
+    private BlobInfo createFileWithMandatoryFields(BlobInfo blobInfo, AvroTranscodeEvent event) {
         var tmpBlob = getTmpAvroFile(tmpBucketName);
-        var counter = 0;
+        var outputFormat = codecSelector.getOutputFormat(mandatoryOutputCodec, mandatoryOutputSyncInterval);
+        var start = System.nanoTime();
+        long counter;
 
         log.info("Validation of file {} started", constructGCSUri(blobInfo));
-        var clientDatumReader = new SpecificDatumReader<>(Client.class);
-        var mandatoryClientDatumWriter = new SpecificDatumWriter<>(ClientMandatory.class);
-
-        try (var outputStream = gcStorage.createFileAndGetOutputStream(tmpBlob);
-             var inputStream = gcStorage.getInputStreamForFile(blobInfo);
-             var clientDataFileReader = new DataFileStream<>(inputStream, clientDatumReader);
-             var mandatoryClientDataFileWriter = new DataFileWriter<>(mandatoryClientDatumWriter)) {
-            mandatoryClientDataFileWriter.create(ClientMandatory.getClassSchema(), outputStream);
-            log.info("Temporary file for mandatory info {} was created", constructGCSUri(tmpBlob));
-            while (clientDataFileReader.hasNext()) {
-                counter++;
-                var client = clientDataFileReader.next();
-                mandatoryClientDataFileWriter.append(createMandatoryClientFromClient(client));
-            }
+        try {
+            counter = isCheckpointed(blobInfo) ? transcodeWithCheckpoints(blobInfo, tmpBlob, outputFormat, event) : transcode(blobInfo, tmpBlob, outputFormat, event);
         } catch (IOException e) {
             var msg = String.format("Exception occurs during getting clients from avro file: %s ", constructGCSUri(blobInfo));
             log.error(msg, e);
             throw new AvroFileValidationException(msg);
         }
 
+        event.outputUris = constructGCSUri(tmpBlob);
+        event.recordCount = counter;
+        recordTranscode("mandatory", start, counter);
         log.info("Number of processed Clients: {}", counter);
         log.info("Validation of file {} was successfully finished, temporary file for mandatory info {} was successfully loaded", constructGCSUri(blobInfo), constructGCSUri(tmpBlob));
         return tmpBlob;
     }
-}
\ No newline at end of file
+
+    private long transcode(BlobInfo blobInfo, BlobInfo tmpBlob, AvroOutputFormat outputFormat, AvroTranscodeEvent event) throws IOException {
+        try (var outputStream = event.timeWrite(codecSelector.measure(gcStorage.createFileAndGetOutputStream(tmpBlob)));
+             var inputStream = event.timeRead(meterTranscodeInput(gcStorage.getInputStreamForFile(blobInfo), "mandatory"))) {
+            log.info("Temporary file for mandatory info {} was created with output format {}", constructGCSUri(tmpBlob), outputFormat);
+            var reader = new AvroContainerReader(inputStream);
+            var writerSchema = resolveWriterSchema(reader);
+            return transcodeMode == TranscodeMode.SEQUENTIAL ? transcode(reader, writerSchema, outputStream, outputFormat) : transcodeBlocks(reader, writerSchema, outputStream, outputFormat);
+        }
+    }
+
+    /**
+     * Large file versions are transcoded with checkpoints, so that a retry continues where the interrupted attempt stopped.
+     */
+    private boolean isCheckpointed(BlobInfo blobInfo) {
+        return checkpointEnabled && !Objects.isNull(blobInfo.getGeneration()) && gcStorage.getFileSize(blobInfo) >= checkpointMinFileBytes;
+    }
+
+    /**
+     * Checkpointed transcode reads the file sequentially regardless of transcode mode.
+     */
+    private long transcodeWithCheckpoints(BlobInfo blobInfo, BlobInfo tmpBlob, AvroOutputFormat outputFormat, AvroTranscodeEvent event) throws IOException {
+        log.info("Temporary file for mandatory info {} is written by parts of {} bytes with output format {}", constructGCSUri(tmpBlob), checkpointPartBytes, outputFormat);
+        return resumableTranscoder.transcode(blobInfo, tmpBlob, ClientMandatory.getClassSchema(), outputFormat, new SpecificDatumWriter<>(ClientMandatory.class),
+                reader -> getMandatoryBlockTranscoder(reader, resolveWriterSchema(reader)),
+                inputStream -> event.timeRead(meterTranscodeInput(inputStream, "mandatory")),
+                outputStream -> event.timeWrite(codecSelector.measure(outputStream)));
+    }
+
+    /**
+     * Mandatory file and a file of every projection are written from one read of the source file,
+     * every record is projected onto all of them before the next record is read.
+     * Projections are transcoded sequentially, parallel transcode modes apply to the mandatory file alone.
+     *
+     * @return temporary files ordered as mandatory file and then the projections in their configured order
+     */
+    public List<BlobInfo> validateAvroFileAndCreateProjectedFiles(BlobInfo blobInfo) {
+        if (projections.isEmpty()) {
+            return List.of(validateAvroFileAndCreateFileWithMandatoryFields(blobInfo));
+        }
+        return traceTranscode(blobInfo, "projections", event -> createProjectedFiles(blobInfo, event));
+    }
+
+    private List<BlobInfo> createProjectedFiles(BlobInfo blobInfo, AvroTranscodeEvent event) {
+        var schemas = new ArrayList<Schema>();
+        schemas.add(ClientMandatory.getClassSchema());
+        projections.forEach(projection -> schemas.add(projection.getSchema()));
+        var codecs = new ArrayList<String>();
+        codecs.add(mandatoryOutputCodec);
+        projections.forEach(projection -> codecs.add(getProjectionCodec(projection)));
+        var tableNames = getProjectedTableNames();
+        var tmpBlobs = new ArrayList<BlobInfo>();
+        var writers = new ArrayList<DataFileWriter<GenericRecord>>();
+        var start = System.nanoTime();
+        long counter;
+
+        log.info("Validation of file {} started", constructGCSUri(blobInfo));
+        try (var inputStream = event.timeRead(meterTranscodeInput(gcStorage.getInputStreamForFile(blobInfo), "projections"))) {
+            try {
+                for (int i = 0; i < schemas.size(); i++) {
+                    var tmpBlob = getTmpAvroFile(tmpBucketName);
+                    var outputFormat = codecSelector.getOutputFormat(codecs.get(i), mandatoryOutputSyncInterval);
+                    var outputStream = event.timeWrite(codecSelector.measure(gcStorage.createFileAndGetOutputStream(tmpBlob)));
+                    var writer = outputFormat.configure(new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(schemas.get(i))));
+                    try {
+                        writer.create(schemas.get(i), outputStream);
+                    } catch (IOException e) {
+                        outputStream.close();
+                        throw e;
+                    }
+                    writers.add(writer);
+                    tmpBlobs.add(tmpBlob);
+                    log.info("Temporary file for table {} {} was created with output format {}", tableNames.get(i), constructGCSUri(tmpBlob), outputFormat);
+                }
+                var reader = new AvroContainerReader(inputStream);
+                counter = transcodeProjections(reader, resolveWriterSchema(reader), schemas, writers);
+            } finally {
+                closeAll(writers);
+            }
+        } catch (IOException e) {
+            var msg = String.format("Exception occurs during getting clients from avro file: %s ", constructGCSUri(blobInfo));
+            log.error(msg, e);
+            throw new AvroFileValidationException(msg);
+        }
+
+        event.outputUris = tmpBlobs.stream().map(CloudFileUtils::constructGCSUri).collect(Collectors.joining(","));
+        event.recordCount = counter;
+        recordTranscode("projections", start, counter);
+        log.info("Number of processed Clients: {}", counter);
+        log.info("Validation of file {} was successfully finished, {} temporary files were successfully written", constructGCSUri(blobInfo), tmpBlobs.size());
+        return tmpBlobs;
+    }
+
+    /**
+     * Mandatory rows are sent to BigQuery while the file is read, so no temporary file is written.
+     * File is read sequentially regardless of transcode mode, once to validate it and once to send its rows,
+     * throughput is bounded by the streaming requests. Bytes of the two reads are counted as outputs streaming_validation and streaming.
+     *
+     * @return number of streamed rows
+     */
+    public long validateAvroFileAndStreamMandatoryRows(BlobInfo blobInfo) {
+        return traceTranscode(blobInfo, "streaming", event -> streamMandatoryRows(blobInfo, event));
+    }
+
+    /**
+     * Rows are sent in batches while the file is read, so the whole file is validated by a first read without sending rows,
+     * and an invalid file leaves no rows in the table. Failure of the second read isn't a validation failure,
+     * the file is processed again on redelivery and the sent rows are deduplicated by their insert ids.
+     */
+    private long streamMandatoryRows(BlobInfo blobInfo, AvroTranscodeEvent event) {
+        var start = System.nanoTime();
+
+        log.info("Validation of file {} started", constructGCSUri(blobInfo));
+        long validatedCount;
+        try {
+            var validatingWriter = new ValidatingWriter();
+            readMandatoryRows(event.timeRead(meterTranscodeInput(gcStorage.getInputStreamForFile(blobInfo), "streaming_validation")), validatingWriter);
+            validatedCount = validatingWriter.commit();
+        } catch (IOException e) {
+            var msg = String.format("Exception occurs during getting clients from avro file: %s ", constructGCSUri(blobInfo));
+            log.error(msg, e);
+            throw new AvroFileValidationException(msg);
+        }
+        var writer = mandatoryRowSink.open(datasetName, tableNameMandatory, blobInfo);
+        try {
+            readMandatoryRows(event.timeRead(meterTranscodeInput(gcStorage.getInputStreamForFile(blobInfo), "streaming")), writer);
+        } catch (IOException e) {
+            var msg = String.format("Validated avro file %s wasn't read while its rows were streamed", constructGCSUri(blobInfo));
+            log.error(msg, e);
+            throw new MandatoryRowsStreamingException(msg, e);
+        }
+        var counter = writer.commit();
+        if (counter != validatedCount) {
+            var msg = String.format("Validated avro file %s had %d rows, %d rows were streamed", constructGCSUri(blobInfo), validatedCount, counter);
+            log.error(msg);
+            throw new MandatoryRowsStreamingException(msg);
+        }
+
+        event.outputUris = datasetName + "." + tableNameMandatory;
+        event.recordCount = counter;
+        recordTranscode("streaming", start, counter);
+        log.info("Number of processed Clients: {}", counter);
+        log.info("Validation of file {} was successfully finished, mandatory rows were streamed to table {}", constructGCSUri(blobInfo), tableNameMandatory);
+        return counter;
+    }
+
+    private void readMandatoryRows(InputStream inputStream, MandatoryRowSink.Writer writer) throws IOException {
+        try (inputStream; var reader = new AvroContainerReader(inputStream)) {
+            var writerSchema = resolveWriterSchema(reader);
+            var projector = getRawProjector(writerSchema.getSchema(), List.of(ClientMandatory.getClassSchema()));
+            var codec = reader.getHeader().getCodec();
+            var rawRowDecoder = new MandatoryRowDecoder(writer);
+            var projectedRowDecoder = new ProjectedRowDecoder(writerSchema.getProjectionReader());
+            AvroContainerReader.RawBlock block;
+            while ((block = reader.nextBlock()) != null) {
+                var data = AvroBlockCodec.decompress(codec, block.getData(), avroBufferPool);
+                try {
+                    if (projector.isPresent()) {
+                        projector.get().projectBlock(data, block.getRecordCount(), rawRowDecoder);
+                    } else {
+                        projectedRowDecoder.decodeBlock(data, block.getRecordCount(), writer::write);
+                    }
+                } finally {
+                    avroBufferPool.release(data);
+                }
+            }
+        }
+    }
+
+    private long transcode(AvroContainerReader reader, WriterSchemaRegistry.WriterSchema<ClientMandatory> writerSchema,
+                           OutputStream outputStream, AvroOutputFormat outputFormat) throws IOException {
+        var counter = 0L;
+        var mandatoryClientDatumWriter = new SpecificDatumWriter<>(ClientMandatory.class);
+
+        try (var mandatoryClientDataFileWriter = outputFormat.configure(new DataFileWriter<>(mandatoryClientDatumWriter))) {
+            mandatoryClientDataFileWriter.create(ClientMandatory.getClassSchema(), outputStream);
+            var blockTranscoder = getMandatoryBlockTranscoder(reader, writerSchema);
+            AvroContainerReader.RawBlock block;
+            while ((block = reader.nextBlock()) != null) {
+                counter += blockTranscoder.transcode(block, mandatoryClientDataFileWriter);
+            }
+        }
+        return counter;
+    }
+
+    private ResumableTranscoder.BlockTranscoder<ClientMandatory> getMandatoryBlockTranscoder(AvroContainerReader reader,
+                                                                                           WriterSchemaRegistry.WriterSchema<ClientMandatory> writerSchema) {
+        var codec = reader.getHeader().getCodec();
+        var projector = getRawProjector(writerSchema.getSchema(), List.of(ClientMandatory.getClassSchema()));
+        var projectedRowDecoder = new ProjectedRowDecoder(writerSchema.getProjectionReader());
+        return (block, writer) -> {
+            var data = AvroBlockCodec.decompress(codec, block.getData(), avroBufferPool);
+            try {
+                if (projector.isPresent()) {
+                    // blocks are projected in binary form, records are neither decoded nor allocated
+                    return projector.get().projectBlock(data, block.getRecordCount(), writer);
+                }
+                return projectedRowDecoder.decodeBlock(data, block.getRecordCount(), writer::append);
+            } finally {
+                avroBufferPool.release(data);
+            }
+        };
+    }
+
+    private long transcodeBlocks(AvroContainerReader reader, WriterSchemaRegistry.WriterSchema<ClientMandatory> writerSchema,
+                                 OutputStream outputStream, AvroOutputFormat outputFormat) throws IOException {
+        if (getRawProjector(writerSchema.getSchema(), List.of(ClientMandatory.getClassSchema())).isEmpty()) {
+            log.info("Writer schema doesn't allow block level projection, file is transcoded sequentially");
+            return transcode(reader, writerSchema, outputStream, outputFormat);
+        }
+        if (transcodeMode == TranscodeMode.PIPELINED) {
+            return new PipelinedBlockTranscoder(transcodeStageExecutor, pipelineQueueCapacity, outputFormat).transcode(reader, ClientMandatory.getClassSchema(), outputStream);
+        }
+        return new ParallelBlockTranscoder(transcodeForkJoinPool, maxBlocksInFlight, outputFormat).transcode(reader, ClientMandatory.getClassSchema(), outputStream);
+    }
+
+    private long transcodeProjections(AvroContainerReader reader, WriterSchemaRegistry.WriterSchema<ClientMandatory> writerSchema,
+                                      List<Schema> schemas, List<DataFileWriter<GenericRecord>> writers) throws IOException {
+        var counter = 0L;
+        var codec = reader.getHeader().getCodec();
+        var projector = getRawProjector(writerSchema.getSchema(), schemas);
+        var consumers = writers.stream().map(writer -> (RawRecordProjector.RecordConsumer) writer::appendEncoded).collect(Collectors.toList());
+        var projectingRowDecoder = new ProjectingRowDecoder(writerSchema.getFullReader(), schemas);
+        AvroContainerReader.RawBlock block;
+        while ((block = reader.nextBlock()) != null) {
+            var data = AvroBlockCodec.decompress(codec, block.getData(), avroBufferPool);
+            try {
+                if (projector.isPresent()) {
+                    counter += projector.get().projectBlock(data, block.getRecordCount(), consumers);
+                } else {
+                    counter += projectingRowDecoder.decodeBlock(data, block.getRecordCount(), writers);
+                }
+            } finally {
+                avroBufferPool.release(data);
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Transcode is recorded as a flight recorder event, which is committed whether the transcode succeeded or not.
+     */
+    private <T> T traceTranscode(BlobInfo blobInfo, String output, Function<AvroTranscodeEvent, T> transcode) {
+        var event = AvroTranscodeEvent.start(constructGCSUri(blobInfo), output);
+        try {
+            var result = transcode.apply(event);
+            event.succeeded = true;
+            return result;
+        } finally {
+            event.finish();
+        }
+    }
+
+    /**
+     * Counts compressed bytes of the input file read by the transcode of the given output.
+     */
+    private InputStream meterTranscodeInput(InputStream inputStream, String output) {
+        var readBytes = metrics.counter("avro_transcode_bytes_total", "Bytes of input files read by transcoding", "output", output);
+        return MeteredInputStream.of(inputStream, (bytes, nanos) -> readBytes.increment(bytes));
+    }
+
+    private void recordTranscode(String output, long startNanos, long recordCount) {
+        metrics.counter("avro_transcode_records_total", "Records of input files transcoded into the outputs", "output", output).increment(recordCount);
+        metrics.histogram("avro_transcode_seconds", "Time to transcode an input file into the outputs", "output", output).recordSince(startNanos);
+    }
+
+    /**
+     * Writers are closed in order, the first failure is rethrown once all of them were closed.
+     */
+    private static void closeAll(List<? extends Closeable> closeables) throws IOException {
+        IOException failure = null;
+        for (var closeable : closeables) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private List<String> getProjectedTableNames() {
+        var tableNames = new ArrayList<String>();
+        tableNames.add(tableNameMandatory);
+        projections.forEach(projection -> tableNames.add(projection.getTableName()));
+        return tableNames;
+    }
+
+    private String getProjectionCodec(ProjectionConfig projection) {
+        return Objects.isNull(projection.getCodec()) ? mandatoryOutputCodec : projection.getCodec();
+    }
+
+    /**
+     * Writer schema is looked up by its fingerprint, so a schema seen before is neither parsed nor resolved again.
+     *
+     * @throws IOException if the file can't be read with Client schema
+     */
+    private WriterSchemaRegistry.WriterSchema<ClientMandatory> resolveWriterSchema(AvroContainerReader reader) throws IOException {
+        var writerSchema = writerSchemaRegistry.resolve(reader.getHeader());
+        if (!writerSchema.isCompatible()) {
+            throw new IOException(String.format("Writer schema %s with fingerprint %d isn't compatible with Client schema: %s",
+                    writerSchema.getSchema().getFullName(), writerSchema.getFingerprint(), writerSchema.getIncompatibility()));
+        }
+        return writerSchema;
+    }
+
+    /**
+     * Load jobs of a file version get deterministic IDs, so that a retried load attaches to the job started before.
+     * Load of a temporary file is keyed by its source file, as every attempt writes another temporary file.
+     */
+    private static String getIdempotencyKey(BlobInfo sourceFile) {
+        return Objects.isNull(sourceFile.getGeneration()) ? null : constructFileKey(sourceFile);
+    }
+
+    /**
+     * Raw projection is used only for files written exactly with Client schema, any other writer schema
+     * goes through the resolving reader of its registry entry.
+     */
+    private Optional<RawRecordProjector> getRawProjector(Schema writerSchema, List<Schema> projectedSchemas) {
+        if (!rawProjectionEnabled || !Client.getClassSchema().equals(writerSchema)) {
+            return Optional.empty();
+        }
+        return RawRecordProjector.forSchemas(writerSchema, projectedSchemas);
+    }
+
+    /**
+     * Decodes projected records into a reused mandatory client and passes it to the row writer.
+     */
+    private static class MandatoryRowDecoder implements RawRecordProjector.RecordConsumer {
+        private final MandatoryRowSink.Writer writer;
+        private final SpecificDatumReader<ClientMandatory> reader = new SpecificDatumReader<>(ClientMandatory.class);
+        private ClientMandatory row;
+        private BinaryDecoder decoder;
+
+        private MandatoryRowDecoder(MandatoryRowSink.Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void accept(ByteBuffer record) throws IOException {
+            decoder = DecoderFactory.get().binaryDecoder(record.array(), record.arrayOffset() + record.position(), record.remaining(), decoder);
+            row = reader.read(row, decoder);
+            writer.write(row);
+        }
+    }
+
+    /**
+     * Decodes rows without sending them, so that the file is validated before any row leaves the service.
+     */
+    private static class ValidatingWriter implements MandatoryRowSink.Writer {
+        private long rowCount;
+
+        @Override
+        public void write(ClientMandatory row) {
+            rowCount++;
+        }
+
+        @Override
+        public long commit() {
+            return rowCount;
+        }
+    }
+
+    /**
+     * Decodes records of a data block with the resolving reader straight into a reused mandatory client,
+     * fields which are not projected are skipped by the resolver.
+     */
+    private static class ProjectedRowDecoder {
+        private final DatumReader<ClientMandatory> reader;
+        private ClientMandatory row;
+        private BinaryDecoder decoder;
+
+        private ProjectedRowDecoder(DatumReader<ClientMandatory> reader) {
+            this.reader = reader;
+        }
+
+        private long decodeBlock(ByteBuffer block, long recordCount, RowConsumer consumer) throws IOException {
+            decoder = DecoderFactory.get().binaryDecoder(block.array(), block.arrayOffset() + block.position(), block.remaining(), decoder);
+            for (long i = 0; i < recordCount; i++) {
+                row = reader.read(row, decoder);
+                consumer.accept(row);
+            }
+            if (!decoder.isEnd()) {
+                throw new IOException("Data block has unexpected trailing bytes");
+            }
+            return recordCount;
+        }
+    }
+
+    /**
+     * Decodes every record of a data block once into a reused generic client and copies its fields
+     * into a reused record of every projection, which is appended to the writer of the projection.
+     */
+    private static class ProjectingRowDecoder {
+        private final DatumReader<GenericRecord> reader;
+        private final GenericData.Record[] rows;
+        private final int[][] sourceFields;
+        private GenericRecord source;
+        private BinaryDecoder decoder;
+
+        private ProjectingRowDecoder(DatumReader<GenericRecord> reader, List<Schema> schemas) {
+            this.reader = reader;
+            this.rows = new GenericData.Record[schemas.size()];
+            this.sourceFields = new int[schemas.size()][];
+            for (int p = 0; p < rows.length; p++) {
+                var fields = schemas.get(p).getFields();
+                rows[p] = new GenericData.Record(schemas.get(p));
+                sourceFields[p] = fields.stream().mapToInt(field -> Client.getClassSchema().getField(field.name()).pos()).toArray();
+            }
+        }
+
+        private long decodeBlock(ByteBuffer block, long recordCount, List<DataFileWriter<GenericRecord>> writers) throws IOException {
+            decoder = DecoderFactory.get().binaryDecoder(block.array(), block.arrayOffset() + block.position(), block.remaining(), decoder);
+            for (long i = 0; i < recordCount; i++) {
+                source = reader.read(source, decoder);
+                for (int p = 0; p < rows.length; p++) {
+                    for (int f = 0; f < sourceFields[p].length; f++) {
+                        rows[p].put(f, source.get(sourceFields[p][f]));
+                    }
+                    writers.get(p).append(rows[p]);
+                }
+            }
+            if (!decoder.isEnd()) {
+                throw new IOException("Data block has unexpected trailing bytes");
+            }
+            return recordCount;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowConsumer {
+        void accept(ClientMandatory row) throws IOException;
+    }
+}
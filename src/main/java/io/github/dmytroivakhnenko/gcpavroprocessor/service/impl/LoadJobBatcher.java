@@ -0,0 +1,178 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import com.google.cloud.bigquery.Job;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.BigQueryRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BoundedExecutor;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.LoadInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.constructGCSUri;
+
+/**
+ * Collects files ready for loading per destination table and loads every batch with a single load job.
+ * Batch is closed when its time window elapses or when it reaches maximum number of files or total size.
+ * Load job is atomic, so when a batch of several files fails, every file is loaded again with its own job
+ * and one broken file doesn't fail the rest of the batch.
+ * Job of a batch gets ID derived from the sorted keys of its files and a job of a single file the ID of its key,
+ * so that a redelivered batch or a retry of a batch whose status was lost attaches to the job started before.
+ */
+@Component
+@Slf4j
+public class LoadJobBatcher {
+    private final BigQueryRepository bqRepository;
+    private final BoundedExecutor bigQueryExecutor;
+    private final long windowMillis;
+    private final int maxFiles;
+    private final long maxBytes;
+    private final Map<String, Batch> openBatches = new HashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("load-job-batcher-"));
+
+    public LoadJobBatcher(BigQueryRepository bqRepository,
+                          @Qualifier("bigQueryExecutor") BoundedExecutor bigQueryExecutor,
+                          @Value("${bigquery.load.batch.window-millis}") long windowMillis,
+                          @Value("${bigquery.load.batch.max-files}") int maxFiles,
+                          @Value("${bigquery.load.batch.max-bytes}") long maxBytes) {
+        this.bqRepository = bqRepository;
+        this.bigQueryExecutor = bigQueryExecutor;
+        this.windowMillis = windowMillis;
+        this.maxFiles = Math.max(1, maxFiles);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds file to the open batch of its table.
+     *
+     * @param size - size of the file in bytes
+     * @return future completed with the result of the load job of the batch
+     */
+    public synchronized CompletableFuture<Boolean> submit(String dataset, LoadInfo loadInfo, long size) {
+        var key = dataset + "." + loadInfo.getTableName();
+        var batch = openBatches.computeIfAbsent(key, k -> new Batch(dataset, loadInfo.getTableName()));
+        if (batch.timer == null) {
+            batch.timer = scheduler.schedule(() -> close(key, batch), windowMillis, TimeUnit.MILLISECONDS);
+        }
+        var future = new CompletableFuture<Boolean>();
+        batch.loads.add(loadInfo);
+        batch.futures.add(future);
+        batch.bytes += size;
+        if (batch.loads.size() >= maxFiles || batch.bytes >= maxBytes) {
+            close(key, batch);
+        }
+        return future;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<Batch> batches;
+        synchronized (this) {
+            batches = new ArrayList<>(openBatches.values());
+            openBatches.clear();
+        }
+        scheduler.shutdownNow();
+        batches.forEach(this::start);
+    }
+
+    private synchronized void close(String key, Batch batch) {
+        if (openBatches.get(key) != batch) {
+            return;
+        }
+        openBatches.remove(key);
+        batch.timer.cancel(false);
+        start(batch);
+    }
+
+    private void start(Batch batch) {
+        log.info("Batch of {} files ({} bytes) for table {} is loaded", batch.loads.size(), batch.bytes, batch.table);
+        var batchLoad = batch.loads.size() == 1 ? load(batch.dataset, batch.loads.get(0)) : load(batch.dataset, batch.table, batch.loads);
+        batchLoad.whenComplete((loaded, e) -> {
+            if (e != null) {
+                batch.futures.forEach(future -> future.completeExceptionally(e));
+            } else if (loaded) {
+                batch.futures.forEach(future -> future.complete(true));
+            } else if (batch.loads.size() > 1) {
+                log.warn("Batch of {} files for table {} failed, files are loaded one by one", batch.loads.size(), batch.table);
+                for (int i = 0; i < batch.loads.size(); i++) {
+                    var future = batch.futures.get(i);
+                    load(batch.dataset, batch.loads.get(i)).whenComplete((fileLoaded, fileError) -> {
+                        if (fileError != null) {
+                            future.completeExceptionally(fileError);
+                        } else {
+                            future.complete(fileLoaded);
+                        }
+                    });
+                }
+            } else {
+                log.error("File {} wasn't loaded to table {}", constructGCSUri(batch.loads.get(0).getBlobInfo()), batch.table);
+                batch.futures.forEach(future -> future.complete(false));
+            }
+        });
+    }
+
+    private CompletableFuture<Boolean> load(String dataset, String table, List<LoadInfo> loads) {
+        var files = loads.stream().map(LoadInfo::getBlobInfo).collect(Collectors.toList());
+        return load(() -> bqRepository.loadAvroFilesToDataset(dataset, table, files, getIdempotencyKey(loads)));
+    }
+
+    private CompletableFuture<Boolean> load(String dataset, LoadInfo loadInfo) {
+        return load(() -> bqRepository.loadAvroFileToDataset(dataset, loadInfo));
+    }
+
+    private CompletableFuture<Boolean> load(Supplier<Job> submit) {
+        try {
+            return CompletableFuture.supplyAsync(submit, bigQueryExecutor)
+                    .thenCompose(bqRepository::waitForJob)
+                    .thenApply(status -> Objects.isNull(status.getError()));
+        } catch (ServiceOverloadedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Keys are sorted, so that the same files get the same key whatever order they were submitted in.
+     * Key of every file is hashed, so that the key stays short however many files the batch has.
+     *
+     * @return key of the batch, null if any of its files may be loaded repeatedly
+     */
+    private static String getIdempotencyKey(List<LoadInfo> loads) {
+        if (loads.stream().anyMatch(load -> load.getIdempotencyKey() == null)) {
+            return null;
+        }
+        var keys = loads.stream().map(LoadInfo::getIdempotencyKey).sorted().collect(Collectors.joining("\n"));
+        return "batch-" + UUID.nameUUIDFromBytes(keys.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class Batch {
+        private final String dataset;
+        private final String table;
+        private final List<LoadInfo> loads = new ArrayList<>();
+        private final List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        private long bytes;
+        private ScheduledFuture<?> timer;
+
+        private Batch(String dataset, String table) {
+            this.dataset = dataset;
+            this.table = table;
+        }
+    }
+}
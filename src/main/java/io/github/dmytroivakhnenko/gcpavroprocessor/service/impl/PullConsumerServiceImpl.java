@@ -0,0 +1,368 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.AvroFileValidationException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.PubSubSubscriber;
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.GCSFileProcessorService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.PullConsumerService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.PullConsumerStats;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.PulledMessage;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.StorageNotification;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Consumes Cloud Storage notifications from a pull subscription, so that the instance decides its concurrency
+ * instead of Pub/Sub. Notifications are pulled in batches by a single thread while outstanding messages and bytes of the
+ * notified files are under the limits, then processed by {@link GCSFileProcessorService} like pushed ones.
+ * Ack deadlines of outstanding messages are extended until their files are loaded or the max lease time elapses.
+ * Outcomes match the push endpoint: invalid messages and files are acknowledged, messages of an overloaded service
+ * and of failed loads are made available for redelivery. Acknowledgements and redeliveries are queued by the threads
+ * completing the loads and sent in batches by the lease thread, so those threads never wait for Pub/Sub.
+ */
+@Service
+@Slf4j
+public class PullConsumerServiceImpl implements PullConsumerService {
+    private static final long IDLE_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final long ACK_FLUSH_MILLIS = 100;
+    /**
+     * Ack ids sent in a single request, well below the Pub/Sub request size limit
+     */
+    private static final int MAX_ACK_IDS = 1000;
+    private static final String MESSAGES = "pubsub_pull_messages_total";
+    private static final String MESSAGES_HELP = "Messages of the pull subscription by outcome";
+
+    private final PubSubSubscriber subscriber;
+    private final GCSFileProcessorService gcsFileProcessorService;
+    private final MetricsRegistry metrics;
+    private final boolean enabled;
+    private final int maxMessages;
+    private final int maxOutstandingMessages;
+    private final long maxOutstandingBytes;
+    private final int ackDeadlineSeconds;
+    private final long maxLeaseNanos;
+    /**
+     * Outstanding messages by ack id, guarded by this together with the outstanding bytes
+     */
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final Queue<String> pendingAcks = new ConcurrentLinkedQueue<>();
+    private final Queue<String> pendingRedeliveries = new ConcurrentLinkedQueue<>();
+    private final LongAdder receivedCount = new LongAdder();
+    private final LongAdder acknowledgedCount = new LongAdder();
+    private final LongAdder redeliveredCount = new LongAdder();
+    private final LongAdder extendedCount = new LongAdder();
+    private final LongAdder flowControlledCount = new LongAdder();
+    private long outstandingBytes;
+    private volatile boolean running;
+    private Thread pullThread;
+    private ScheduledExecutorService leaseManager;
+
+    public PullConsumerServiceImpl(PubSubSubscriber subscriber,
+                                   GCSFileProcessorService gcsFileProcessorService,
+                                   MetricsRegistry metrics,
+                                   @Value("${pubsub.pull.enabled}") boolean enabled,
+                                   @Value("${pubsub.pull.max-messages}") int maxMessages,
+                                   @Value("${pubsub.pull.max-outstanding-messages}") int maxOutstandingMessages,
+                                   @Value("${pubsub.pull.max-outstanding-bytes}") long maxOutstandingBytes,
+                                   @Value("${pubsub.pull.ack-deadline-seconds}") int ackDeadlineSeconds,
+                                   @Value("${pubsub.pull.max-lease-minutes}") long maxLeaseMinutes) {
+        this.subscriber = subscriber;
+        this.gcsFileProcessorService = gcsFileProcessorService;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.maxMessages = Math.max(1, maxMessages);
+        this.maxOutstandingMessages = Math.max(1, maxOutstandingMessages);
+        this.maxOutstandingBytes = Math.max(1, maxOutstandingBytes);
+        this.ackDeadlineSeconds = Math.max(1, ackDeadlineSeconds);
+        this.maxLeaseNanos = TimeUnit.MINUTES.toNanos(maxLeaseMinutes);
+        metrics.gauge("pubsub_pull_outstanding_messages", "Pulled messages which are neither acknowledged nor redelivered", leases::size);
+        metrics.gauge("pubsub_pull_outstanding_bytes", "Bytes of the files notified by the outstanding messages", this::getOutstandingBytes);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            start();
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        pullThread = new Thread(this::pullMessages, "pubsub-pull");
+        pullThread.setDaemon(true);
+        pullThread.start();
+        // deadline is extended twice per deadline, so a single failed extension doesn't expire the messages
+        var extensionMillis = TimeUnit.SECONDS.toMillis(ackDeadlineSeconds) / 2;
+        leaseManager = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("pubsub-lease-"));
+        leaseManager.scheduleWithFixedDelay(this::extendLeases, extensionMillis, extensionMillis, TimeUnit.MILLISECONDS);
+        leaseManager.scheduleWithFixedDelay(this::sendPendingAcks, ACK_FLUSH_MILLIS, ACK_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        log.info("Pulling of notifications was started, up to {} outstanding messages and {} bytes", maxOutstandingMessages, maxOutstandingBytes);
+    }
+
+    @Override
+    @PreDestroy
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            thread = pullThread;
+            leaseManager.shutdown();
+            notifyAll();
+        }
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(ackDeadlineSeconds));
+            leaseManager.awaitTermination(ackDeadlineSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // files still being processed are attached to by the redelivered messages
+        var ackIds = new ArrayList<>(leases.keySet());
+        if (!ackIds.isEmpty()) {
+            log.info("{} outstanding messages are made available for redelivery", ackIds.size());
+            ackIds.stream().filter(this::release).forEach(pendingRedeliveries::add);
+        }
+        sendPendingAcks();
+    }
+
+    @Override
+    public PullConsumerStats getStats() {
+        return PullConsumerStats.builder()
+                .running(running)
+                .outstandingMessages(leases.size())
+                .outstandingBytes(getOutstandingBytes())
+                .receivedCount(receivedCount.sum())
+                .acknowledgedCount(acknowledgedCount.sum())
+                .redeliveredCount(redeliveredCount.sum())
+                .extendedCount(extendedCount.sum())
+                .flowControlledCount(flowControlledCount.sum())
+                .build();
+    }
+
+    private synchronized long getOutstandingBytes() {
+        return outstandingBytes;
+    }
+
+    private void pullMessages() {
+        var backoffMillis = IDLE_MILLIS;
+        while (running) {
+            try {
+                var messages = subscriber.pull(awaitCapacity());
+                messages.forEach(this::receive);
+                backoffMillis = IDLE_MILLIS;
+                if (messages.isEmpty()) {
+                    Thread.sleep(IDLE_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Notifications weren't pulled, pull is retried in {} ms", backoffMillis, e);
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+            }
+        }
+    }
+
+    /**
+     * Bytes of a pulled batch are known only after it is received, so the bytes limit may be exceeded by the last batch.
+     *
+     * @return number of messages that may be pulled
+     */
+    private synchronized int awaitCapacity() throws InterruptedException {
+        if (leases.size() >= maxOutstandingMessages || outstandingBytes >= maxOutstandingBytes) {
+            flowControlledCount.increment();
+            while (running && (leases.size() >= maxOutstandingMessages || outstandingBytes >= maxOutstandingBytes)) {
+                wait();
+            }
+        }
+        if (!running) {
+            throw new InterruptedException("Pulling was stopped");
+        }
+        return Math.min(maxMessages, maxOutstandingMessages - leases.size());
+    }
+
+    private void receive(PulledMessage message) {
+        receivedCount.increment();
+        StorageNotification notification;
+        try {
+            notification = StorageNotification.parse(message.getData());
+        } catch (IllegalArgumentException e) {
+            log.error("Message {} was acknowledged, it isn't a valid Cloud Storage notification", message.getMessageId(), e);
+            acknowledge(message.getAckId(), "invalid");
+            return;
+        }
+        if (!notification.isAvroFile()) {
+            log.info("File {} was skipped from processing due to the wrong extension", notification.getBlobInfo().getName());
+            acknowledge(message.getAckId(), "skipped");
+            return;
+        }
+
+        var size = notification.getSize() != null ? notification.getSize() : message.getData().length();
+        synchronized (this) {
+            leases.put(message.getAckId(), new Lease(message.getAckId(), size, System.nanoTime()));
+            outstandingBytes += size;
+        }
+        List<CompletableFuture<Boolean>> futures;
+        try {
+            futures = gcsFileProcessorService.processFileToBigQuery(notification.getBlobInfo());
+        } catch (RuntimeException e) {
+            complete(message, notification, false, e);
+            return;
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenApply(v -> futures.stream().allMatch(future -> Boolean.TRUE.equals(future.join())))
+                .whenComplete((succeeded, e) -> complete(message, notification, Boolean.TRUE.equals(succeeded), e));
+    }
+
+    private void complete(PulledMessage message, StorageNotification notification, boolean succeeded, Throwable e) {
+        var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        var file = notification.getBlobInfo().getName();
+        if (!release(message.getAckId())) {
+            // message was released by stop or lease expiration, it is redelivered anyway
+            return;
+        }
+        if (succeeded) {
+            acknowledge(message.getAckId(), "loaded");
+        } else if (cause instanceof AvroFileValidationException) {
+            log.error("Message {} was acknowledged, file {} is invalid", message.getMessageId(), file, cause);
+            acknowledge(message.getAckId(), "invalid");
+        } else if (cause instanceof ServiceOverloadedException) {
+            log.warn("Service is overloaded, file {} will be processed on redelivery", file);
+            redeliver(message.getAckId(), "overloaded");
+        } else {
+            log.error("File {} wasn't processed, message {} will be redelivered", file, message.getMessageId(), cause);
+            redeliver(message.getAckId(), "failed");
+        }
+        if (notification.getCreatedAt() != null && cause == null) {
+            metrics.histogram(MetricsRegistry.FILE_END_TO_END_SECONDS, MetricsRegistry.FILE_END_TO_END_HELP, "result", succeeded ? "success" : "failure")
+                    .record(Math.max(0, System.currentTimeMillis() - notification.getCreatedAt()) / 1000.0);
+        }
+    }
+
+    /**
+     * @return whether the message was outstanding
+     */
+    private synchronized boolean release(String ackId) {
+        var lease = leases.remove(ackId);
+        if (lease == null) {
+            return false;
+        }
+        outstandingBytes -= lease.size;
+        notifyAll();
+        return true;
+    }
+
+    private void acknowledge(String ackId, String outcome) {
+        metrics.counter(MESSAGES, MESSAGES_HELP, "outcome", outcome).increment();
+        pendingAcks.add(ackId);
+    }
+
+    private void redeliver(String ackId, String outcome) {
+        metrics.counter(MESSAGES, MESSAGES_HELP, "outcome", outcome).increment();
+        pendingRedeliveries.add(ackId);
+    }
+
+    private void sendPendingAcks() {
+        for (var ackIds = drain(pendingAcks); !ackIds.isEmpty(); ackIds = drain(pendingAcks)) {
+            try {
+                subscriber.acknowledge(ackIds);
+                acknowledgedCount.add(ackIds.size());
+            } catch (RuntimeException e) {
+                // messages are redelivered after their deadline, a processed file is skipped or attached to then
+                log.warn("{} messages weren't acknowledged", ackIds.size(), e);
+            }
+        }
+        for (var ackIds = drain(pendingRedeliveries); !ackIds.isEmpty(); ackIds = drain(pendingRedeliveries)) {
+            modifyAckDeadline(ackIds, 0);
+        }
+    }
+
+    private static List<String> drain(Queue<String> queue) {
+        var ackIds = new ArrayList<String>();
+        String ackId;
+        while (ackIds.size() < MAX_ACK_IDS && (ackId = queue.poll()) != null) {
+            ackIds.add(ackId);
+        }
+        return ackIds;
+    }
+
+    private void modifyAckDeadline(List<String> ackIds, int seconds) {
+        try {
+            subscriber.modifyAckDeadline(ackIds, seconds);
+            if (seconds == 0) {
+                redeliveredCount.add(ackIds.size());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Ack deadline of {} messages wasn't modified", ackIds.size(), e);
+        }
+    }
+
+    /**
+     * Message leased longer than the max lease time keeps counting as outstanding, but its deadline expires,
+     * so that a file stuck in processing is eventually redelivered.
+     */
+    private void extendLeases() {
+        var now = System.nanoTime();
+        var leased = leases.values().stream()
+                .filter(lease -> now - lease.receivedAt < maxLeaseNanos)
+                .map(lease -> lease.ackId)
+                .collect(Collectors.toCollection(ArrayDeque::new));
+        for (var ackIds = drain(leased); !ackIds.isEmpty(); ackIds = drain(leased)) {
+            try {
+                subscriber.modifyAckDeadline(ackIds, ackDeadlineSeconds);
+                extendedCount.add(ackIds.size());
+            } catch (RuntimeException e) {
+                log.warn("Ack deadline of {} outstanding messages wasn't extended", ackIds.size(), e);
+            }
+        }
+    }
+
+    private static class Lease {
+        private final String ackId;
+        private final long size;
+        private final long receivedAt;
+
+        private Lease(String ackId, long size, long receivedAt) {
+            this.ackId = ackId;
+            this.size = size;
+            this.receivedAt = receivedAt;
+        }
+    }
+}
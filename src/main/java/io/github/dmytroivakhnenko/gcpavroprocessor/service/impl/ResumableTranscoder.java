@@ -0,0 +1,277 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import com.google.cloud.storage.BlobInfo;
+import com.google.gson.Gson;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.AvroContainerReader;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.AvroOutputFormat;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.CloudStorageRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.TranscodeCheckpoint;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.DatumWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.AvroFileUtils.AVRO_FILE_EXT;
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.constructFileKey;
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.constructGCSUri;
+
+/**
+ * Transcodes a source file into parts of the output file in the tmp bucket, a checkpoint with the input offset
+ * and the finished parts is saved at a block boundary after every part. A retried transcode of the same file version
+ * continues from the checkpoint with a ranged read, finished parts are composed into the output file.
+ * Parts share one sync marker and only the first one has the header, so the composed file is a single container file.
+ * Every attempt writes its parts under its own id, so that concurrent attempts of a redelivered notification never
+ * overwrite each other's parts and an attempt composes only the parts listed in its own checkpoint.
+ */
+@Slf4j
+class ResumableTranscoder {
+    private static final String CHECKPOINT_PREFIX = "checkpoints/";
+    private static final String CHECKPOINT_EXT = ".checkpoint.json";
+    private static final Gson gson = new Gson();
+
+    private final CloudStorageRepository gcStorage;
+    private final String bucket;
+    private final long partBytes;
+
+    /**
+     * @param bucket    - bucket of the parts and checkpoints, the output file has to be in it as well
+     * @param partBytes - approximate size of a part, i.e. of the work lost when the transcode is interrupted
+     */
+    ResumableTranscoder(CloudStorageRepository gcStorage, String bucket, long partBytes) {
+        this.gcStorage = gcStorage;
+        this.bucket = bucket;
+        this.partBytes = Math.max(1, partBytes);
+    }
+
+    /**
+     * @param source       - source file, must have generation, so that a checkpoint never applies to another version
+     * @param target       - output file in the bucket of the parts
+     * @param schema       - schema of the output file
+     * @param outputFormat - format of a new output, a resumed output keeps the format of its checkpoint
+     * @param datumWriter  - writer of the output records
+     * @param factory      - creates transcoder of the blocks once the header of the source is read
+     * @param inputDecorator  - applied to the stream of the source
+     * @param outputDecorator - applied to the streams of the parts
+     * @return number of transcoded records, including the records of the parts from the checkpoint
+     * @throws IOException if the source is corrupted or the output can't be written
+     */
+    <T> long transcode(BlobInfo source, BlobInfo target, Schema schema, AvroOutputFormat outputFormat, DatumWriter<T> datumWriter,
+                       BlockTranscoderFactory<T> factory, UnaryOperator<InputStream> inputDecorator, UnaryOperator<OutputStream> outputDecorator) throws IOException {
+        var checkpointFile = getCheckpointFile(source);
+        var attemptId = UUID.randomUUID().toString();
+        var checkpoint = loadCheckpoint(source, checkpointFile, schema);
+        InputStream input;
+        if (checkpoint == null) {
+            checkpoint = TranscodeCheckpoint.builder()
+                    .sourceFile(constructGCSUri(source))
+                    .attemptId(attemptId)
+                    .outputSchemaFingerprint(SchemaNormalization.parsingFingerprint64(schema))
+                    .outputCodec(outputFormat.getCodec())
+                    .outputSyncInterval(outputFormat.getSyncInterval())
+                    .outputSync(encode(newSyncMarker()))
+                    .parts(List.of())
+                    .build();
+            input = inputDecorator.apply(gcStorage.getInputStreamForFile(source));
+        } else {
+            log.info("Transcode of file {} is resumed from offset {} with {} records in {} parts of attempt {}", constructGCSUri(source), checkpoint.getInputOffset(),
+                    checkpoint.getRecordCount(), checkpoint.getParts().size(), checkpoint.getAttemptId());
+            checkpoint = checkpoint.toBuilder().attemptId(attemptId).build();
+            input = new SequenceInputStream(new ByteArrayInputStream(decode(checkpoint.getSourceHeader())),
+                    inputDecorator.apply(gcStorage.getInputStreamForFile(source, checkpoint.getInputOffset())));
+        }
+        var format = AvroOutputFormat.of(checkpoint.getOutputCodec(), checkpoint.getOutputSyncInterval());
+        var sync = decode(checkpoint.getOutputSync());
+
+        try (var reader = new AvroContainerReader(input)) {
+            var sourceHeaderLength = reader.getPosition();
+            // stream of a resumed read starts with the saved header, which is followed by the block at the input offset
+            var streamStart = checkpoint.getParts().isEmpty() ? 0 : checkpoint.getInputOffset() - sourceHeaderLength;
+            if (checkpoint.getSourceHeader() == null) {
+                checkpoint = checkpoint.toBuilder().sourceHeader(encode(reader.getHeader().getRawBytes())).inputOffset(sourceHeaderLength).build();
+            }
+            var blockTranscoder = factory.create(reader);
+            var outputHeaderLength = encodeHeader(schema, format, datumWriter, sync).length;
+            var finished = false;
+            while (!finished) {
+                var parts = new ArrayList<>(checkpoint.getParts());
+                var part = getPartFile(checkpointFile, attemptId, parts.size());
+                var records = checkpoint.getRecordCount();
+                var partStream = new PartOutputStream(outputDecorator.apply(gcStorage.createFileAndGetOutputStream(part)), parts.isEmpty() ? 0 : outputHeaderLength);
+                try (var writer = format.configure(new DataFileWriter<>(datumWriter))) {
+                    writer.create(schema, partStream, sync);
+                    AvroContainerReader.RawBlock block = null;
+                    while (partStream.written < partBytes && (block = reader.nextBlock()) != null) {
+                        records += blockTranscoder.transcode(block, writer);
+                    }
+                    finished = block == null;
+                }
+                parts.add(part.getName());
+                checkpoint = checkpoint.toBuilder()
+                        .inputOffset(streamStart + reader.getPosition())
+                        .recordCount(records)
+                        .parts(parts)
+                        .updatedAt(System.currentTimeMillis())
+                        .build();
+                if (!finished) {
+                    saveCheckpoint(checkpointFile, checkpoint);
+                }
+            }
+        }
+
+        gcStorage.composeFiles(checkpoint.getParts().stream().map(part -> BlobInfo.newBuilder(bucket, part).build()).collect(Collectors.toList()), target);
+        log.info("Transcode of file {} into {} parts was finished, {} records were written to {}", constructGCSUri(source), checkpoint.getParts().size(),
+                checkpoint.getRecordCount(), constructGCSUri(target));
+        deleteCheckpoint(checkpointFile, checkpoint);
+        return checkpoint.getRecordCount();
+    }
+
+    /**
+     * @return checkpoint of the source, null if there is none or it was saved for another output schema
+     */
+    private TranscodeCheckpoint loadCheckpoint(BlobInfo source, BlobInfo checkpointFile, Schema schema) {
+        var content = gcStorage.readFile(checkpointFile);
+        if (content.isEmpty()) {
+            return null;
+        }
+        TranscodeCheckpoint checkpoint;
+        try {
+            checkpoint = gson.fromJson(new String(content.get(), StandardCharsets.UTF_8), TranscodeCheckpoint.class);
+        } catch (RuntimeException e) {
+            log.warn("Checkpoint {} is corrupted and is ignored", constructGCSUri(checkpointFile), e);
+            return null;
+        }
+        if (checkpoint == null || checkpoint.getParts() == null || checkpoint.getParts().isEmpty()
+                || !constructGCSUri(source).equals(checkpoint.getSourceFile())
+                || checkpoint.getOutputSchemaFingerprint() != SchemaNormalization.parsingFingerprint64(schema)) {
+            log.warn("Checkpoint {} doesn't match the transcode of file {} and is ignored", constructGCSUri(checkpointFile), constructGCSUri(source));
+            return null;
+        }
+        return checkpoint;
+    }
+
+    private void saveCheckpoint(BlobInfo checkpointFile, TranscodeCheckpoint checkpoint) throws IOException {
+        try (var output = gcStorage.createFileAndGetOutputStream(checkpointFile)) {
+            output.write(gson.toJson(checkpoint).getBytes(StandardCharsets.UTF_8));
+        }
+        log.info("Checkpoint of file {} was saved at offset {} with {} records in {} parts", checkpoint.getSourceFile(), checkpoint.getInputOffset(),
+                checkpoint.getRecordCount(), checkpoint.getParts().size());
+    }
+
+    /**
+     * Checkpoint goes first, so that a failure in between leaves parts without a checkpoint rather than the opposite.
+     * Parts of an abandoned transcode are left to the lifecycle rules of the tmp bucket.
+     */
+    private void deleteCheckpoint(BlobInfo checkpointFile, TranscodeCheckpoint checkpoint) {
+        try {
+            gcStorage.deleteFile(checkpointFile);
+            checkpoint.getParts().forEach(part -> gcStorage.deleteFile(BlobInfo.newBuilder(bucket, part).build()));
+        } catch (RuntimeException e) {
+            log.error("Checkpoint {} or its parts weren't deleted", constructGCSUri(checkpointFile), e);
+        }
+    }
+
+    /**
+     * Checkpoint is named after the source file version, so that a retry finds it.
+     */
+    private BlobInfo getCheckpointFile(BlobInfo source) {
+        var id = UUID.nameUUIDFromBytes(constructFileKey(source).getBytes(StandardCharsets.UTF_8));
+        return BlobInfo.newBuilder(bucket, CHECKPOINT_PREFIX + id + CHECKPOINT_EXT).build();
+    }
+
+    /**
+     * Part is named after the attempt writing it, a part left unfinished by an interrupted attempt is left to the lifecycle rules.
+     */
+    private BlobInfo getPartFile(BlobInfo checkpointFile, String attemptId, int number) {
+        return BlobInfo.newBuilder(bucket, checkpointFile.getName().replace(CHECKPOINT_EXT, "") + "/" + attemptId + "/part-" + number + AVRO_FILE_EXT).build();
+    }
+
+    private static <T> byte[] encodeHeader(Schema schema, AvroOutputFormat format, DatumWriter<T> datumWriter, byte[] sync) throws IOException {
+        var header = new ByteArrayOutputStream();
+        try (var writer = format.configure(new DataFileWriter<>(datumWriter))) {
+            writer.create(schema, header, sync);
+        }
+        return header.toByteArray();
+    }
+
+    private static byte[] newSyncMarker() {
+        var uuid = UUID.randomUUID();
+        var sync = new byte[DataFileConstants.SYNC_SIZE];
+        for (int i = 0; i < Long.BYTES; i++) {
+            sync[i] = (byte) (uuid.getMostSignificantBits() >>> (i * Byte.SIZE));
+            sync[Long.BYTES + i] = (byte) (uuid.getLeastSignificantBits() >>> (i * Byte.SIZE));
+        }
+        return sync;
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private static byte[] decode(String value) {
+        return Base64.getDecoder().decode(value);
+    }
+
+    /**
+     * Transcodes a raw block of the source into records of the output.
+     */
+    @FunctionalInterface
+    interface BlockTranscoder<T> {
+        long transcode(AvroContainerReader.RawBlock block, DataFileWriter<T> writer) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface BlockTranscoderFactory<T> {
+        BlockTranscoder<T> create(AvroContainerReader reader) throws IOException;
+    }
+
+    /**
+     * Drops the header written by the writer of a part that isn't the first one and counts the written bytes.
+     */
+    private static class PartOutputStream extends FilterOutputStream {
+        private long skipped;
+        private final long headerLength;
+        private long written;
+
+        private PartOutputStream(OutputStream out, long headerLength) {
+            super(out);
+            this.headerLength = headerLength;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (skipped < headerLength) {
+                skipped++;
+                return;
+            }
+            out.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            var skip = (int) Math.min(len, headerLength - skipped);
+            skipped += skip;
+            if (len > skip) {
+                out.write(b, off + skip, len - skip);
+                written += len - skip;
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import com.google.cloud.storage.BlobInfo;
+import com.google.gson.GsonBuilder;
+import example.gcp.Client;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.ContainerFileMerger;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.AvroFileValidationException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.CloudStorageRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.CompactionManifest;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.file.DataFileStream;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.AvroFileUtils.AVRO_FILE_EXT;
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.constructGCSUri;
+
+/**
+ * Collects small Client files and merges them at block level into one compacted file, which is loaded instead of them.
+ * Pending files are merged when their total size or the age of the oldest one reaches the threshold.
+ * Every compacted file gets a manifest object with the list of its input files.
+ * Compacted file is deleted once its load finishes, its input files stay in the input bucket, so a failed load is
+ * compacted again on redelivery. Manifests are kept as the record of what was loaded from which files,
+ * they are expired by a lifecycle rule on the compacted/ prefix of the tmp bucket.
+ */
+@Slf4j
+class SmallFileCompactor implements Closeable {
+    private static final String COMPACTED_PREFIX = "compacted/";
+    private static final String MANIFEST_EXT = ".manifest.json";
+
+    private final CloudStorageRepository gcStorage;
+    private final Executor executor;
+    private final String bucket;
+    private final long flushBytes;
+    private final long maxAgeMillis;
+    private final Function<BlobInfo, CompletableFuture<Boolean>> loader;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("small-file-compactor-"));
+    private List<PendingFile> pendingFiles = new ArrayList<>();
+    private long pendingBytes;
+    private ScheduledFuture<?> ageTimer;
+
+    /**
+     * @param loader - loads a file to the full table, used both for compacted files and for files that couldn't be merged
+     */
+    SmallFileCompactor(CloudStorageRepository gcStorage, Executor executor, String bucket, long flushBytes, long maxAgeMillis,
+                       Function<BlobInfo, CompletableFuture<Boolean>> loader) {
+        this.gcStorage = gcStorage;
+        this.executor = executor;
+        this.bucket = bucket;
+        this.flushBytes = flushBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.loader = loader;
+    }
+
+    /**
+     * @return future completed with the result of the load of the compacted file that contains this file
+     */
+    synchronized CompletableFuture<Boolean> submit(BlobInfo file, long size) {
+        var pendingFile = new PendingFile(file);
+        pendingFiles.add(pendingFile);
+        pendingBytes += size;
+        if (pendingBytes >= flushBytes) {
+            flush();
+        } else if (ageTimer == null) {
+            ageTimer = scheduler.schedule(this::flush, maxAgeMillis, TimeUnit.MILLISECONDS);
+        }
+        return pendingFile.future;
+    }
+
+    @Override
+    public void close() {
+        flush();
+        scheduler.shutdown();
+    }
+
+    private synchronized void flush() {
+        if (ageTimer != null) {
+            ageTimer.cancel(false);
+            ageTimer = null;
+        }
+        if (pendingFiles.isEmpty()) {
+            return;
+        }
+        var files = pendingFiles;
+        pendingFiles = new ArrayList<>();
+        pendingBytes = 0;
+        try {
+            CompletableFuture.runAsync(() -> compactAndLoad(files), executor);
+        } catch (ServiceOverloadedException e) {
+            files.forEach(file -> file.future.completeExceptionally(e));
+        }
+    }
+
+    private void compactAndLoad(List<PendingFile> files) {
+        var name = COMPACTED_PREFIX + UUID.randomUUID();
+        var compactedFile = BlobInfo.newBuilder(bucket, name + AVRO_FILE_EXT).setContentType("application/avro").build();
+        var merged = new ArrayList<PendingFile>();
+        var skipped = new ArrayList<PendingFile>();
+        long compactedBytes;
+        try {
+            compactedBytes = merge(files, compactedFile, merged, skipped);
+            if (!merged.isEmpty()) {
+                writeManifest(BlobInfo.newBuilder(bucket, name + MANIFEST_EXT).setContentType("application/json").build(), compactedFile, compactedBytes, merged, skipped);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Compaction of {} files to {} failed", files.size(), constructGCSUri(compactedFile), e);
+            files.forEach(file -> file.future.completeExceptionally(e));
+            return;
+        }
+        if (!merged.isEmpty()) {
+            log.info("{} files of {} bytes were compacted to {}", merged.size(), compactedBytes, constructGCSUri(compactedFile));
+            var load = loader.apply(compactedFile);
+            complete(merged, load);
+            deleteWhenLoaded(compactedFile, load);
+        }
+        skipped.forEach(file -> complete(List.of(file), loader.apply(file.blobInfo)));
+    }
+
+    /**
+     * Files are streamed into the compacted file block by block. File found corrupted after some of its blocks were
+     * written leaves the compacted file inconsistent, so the file is failed and the rest are merged again into a new one.
+     *
+     * @return size of the compacted file, or 0 if none of the files could be merged
+     */
+    private long merge(List<PendingFile> files, BlobInfo compactedFile, List<PendingFile> merged, List<PendingFile> skipped) throws IOException {
+        var remaining = new ArrayList<>(files);
+        var rewritten = false;
+        while (true) {
+            merged.clear();
+            skipped.clear();
+            var output = new CountingOutput();
+            var corrupted = mergeOnce(remaining, compactedFile, output, merged, skipped);
+            if (corrupted == null) {
+                if (rewritten && merged.isEmpty()) {
+                    // nothing is left to load the inconsistent compacted file of the previous pass
+                    gcStorage.deleteFile(compactedFile);
+                }
+                return output.count;
+            }
+            log.warn("Compacted file {} is written again without corrupted file {}", constructGCSUri(compactedFile), constructGCSUri(corrupted.blobInfo));
+            remaining.remove(corrupted);
+            rewritten = true;
+        }
+    }
+
+    /**
+     * @return file found corrupted after some of its blocks were written, null if the compacted file is complete
+     */
+    private PendingFile mergeOnce(List<PendingFile> files, BlobInfo compactedFile, CountingOutput output, List<PendingFile> merged,
+                                  List<PendingFile> skipped) throws IOException {
+        ContainerFileMerger merger = null;
+        try {
+            for (var file : files) {
+                if (file.future.isDone()) {
+                    // failed as corrupted in a previous pass
+                    continue;
+                }
+                try (var input = openInput(file)) {
+                    if (input == null) {
+                        continue;
+                    }
+                    if (!Client.getClassSchema().equals(input.getSchema())) {
+                        log.info("File {} has another writer schema and won't be compacted", constructGCSUri(file.blobInfo));
+                        skipped.add(file);
+                        continue;
+                    }
+                    if (merger == null) {
+                        // codec of the first file is kept, so that blocks of files with the same codec are copied as is
+                        output.delegate = gcStorage.createFileAndGetOutputStream(compactedFile);
+                        merger = new ContainerFileMerger(Client.getClassSchema(), ContainerFileMerger.getCodec(input), output);
+                    }
+                    try {
+                        merger.append(input);
+                    } catch (IOException | AvroRuntimeException e) {
+                        if (output.failed) {
+                            throw e;
+                        }
+                        failCorrupted(file, e);
+                        return file;
+                    }
+                }
+                merged.add(file);
+            }
+        } finally {
+            if (merger != null) {
+                merger.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return opened file, null if it isn't an Avro container file, then its future is failed
+     */
+    private DataFileStream<Object> openInput(PendingFile file) throws IOException {
+        var input = gcStorage.getInputStreamForFile(file.blobInfo);
+        try {
+            return ContainerFileMerger.open(input);
+        } catch (IOException | AvroRuntimeException e) {
+            input.close();
+            failCorrupted(file, e);
+            return null;
+        }
+    }
+
+    private static void failCorrupted(PendingFile file, Exception e) {
+        var msg = String.format("File %s is corrupted and won't be compacted", constructGCSUri(file.blobInfo));
+        log.error(msg, e);
+        file.future.completeExceptionally(new AvroFileValidationException(msg, e));
+    }
+
+    private void writeManifest(BlobInfo manifestFile, BlobInfo compactedFile, long compactedBytes, List<PendingFile> merged, List<PendingFile> skipped) throws IOException {
+        var manifest = CompactionManifest.builder()
+                .compactedFile(constructGCSUri(compactedFile))
+                .createdAt(System.currentTimeMillis())
+                .compactedBytes(compactedBytes)
+                .inputFiles(merged.stream().map(file -> constructGCSUri(file.blobInfo)).collect(Collectors.toList()))
+                .skippedFiles(skipped.stream().map(file -> constructGCSUri(file.blobInfo)).collect(Collectors.toList()))
+                .build();
+        try (var output = gcStorage.createFileAndGetOutputStream(manifestFile)) {
+            output.write(new GsonBuilder().setPrettyPrinting().create().toJson(manifest).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void deleteWhenLoaded(BlobInfo compactedFile, CompletableFuture<Boolean> load) {
+        load.handleAsync((loaded, loadError) -> {
+                    gcStorage.deleteFile(compactedFile);
+                    return null;
+                }, executor)
+                .exceptionally(e -> {
+                    log.error("Compacted file {} wasn't deleted", constructGCSUri(compactedFile), e);
+                    return null;
+                });
+    }
+
+    private static void complete(List<PendingFile> files, CompletableFuture<Boolean> load) {
+        load.whenComplete((loaded, e) -> files.forEach(file -> {
+            if (e != null) {
+                file.future.completeExceptionally(e);
+            } else {
+                file.future.complete(loaded);
+            }
+        }));
+    }
+
+    private static class PendingFile {
+        private final BlobInfo blobInfo;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private PendingFile(BlobInfo blobInfo) {
+            this.blobInfo = blobInfo;
+        }
+    }
+
+    /**
+     * Counts bytes of the compacted file, the output object is created with the first merged file.
+     */
+    private static class CountingOutput extends OutputStream {
+        private OutputStream delegate;
+        private long count;
+        /**
+         * Whether writing failed, so that a failure of the output isn't taken for a corrupted input
+         */
+        private boolean failed;
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                delegate.write(b);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                delegate.write(b, off, len);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                delegate.flush();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
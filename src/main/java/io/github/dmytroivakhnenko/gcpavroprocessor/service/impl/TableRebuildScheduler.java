@@ -0,0 +1,114 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Serializes and debounces rebuilds of tables derived from another table with a query.
+ * Rebuild replaces the whole content of its table, so one rebuild started after the source table was loaded
+ * covers every load finished before it. Requests of a table are collected for a time window and served by a single rebuild,
+ * at most one rebuild of a table runs at a time and requests arriving while it runs are served by the next one,
+ * which sees their loads. Two rebuilds of the same table never race and the table isn't rebuilt once per loaded file.
+ */
+@Component
+@Slf4j
+public class TableRebuildScheduler {
+    private final long windowMillis;
+    private final Map<String, Target> targets = new HashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("table-rebuild-scheduler-"));
+
+    public TableRebuildScheduler(@Value("${bigquery.rebuild.window-millis}") long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Requests rebuild of the table, the request must be made after the loads the rebuild has to see are finished.
+     *
+     * @param rebuild - starts the rebuild and returns future completed with its result, the same for every request of the table
+     * @return future completed with the result of the first rebuild started after the request
+     */
+    public synchronized CompletableFuture<Boolean> submit(String table, Supplier<CompletableFuture<Boolean>> rebuild) {
+        var target = targets.computeIfAbsent(table, k -> new Target());
+        if (target.pending == null) {
+            var pending = new Rebuild(rebuild);
+            target.pending = pending;
+            scheduler.schedule(() -> due(table, pending), windowMillis, TimeUnit.MILLISECONDS);
+        }
+        var future = new CompletableFuture<Boolean>();
+        target.pending.futures.add(future);
+        return future;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            targets.values().stream().filter(target -> target.pending != null).forEach(target -> target.pending.due = true);
+            targets.keySet().forEach(this::startIfReady);
+        }
+        scheduler.shutdownNow();
+    }
+
+    private synchronized void due(String table, Rebuild rebuild) {
+        rebuild.due = true;
+        startIfReady(table);
+    }
+
+    private synchronized void startIfReady(String table) {
+        var target = targets.get(table);
+        if (target.running || target.pending == null || !target.pending.due) {
+            return;
+        }
+        var rebuild = target.pending;
+        target.pending = null;
+        target.running = true;
+        log.info("Table {} is rebuilt for {} requests", table, rebuild.futures.size());
+        start(rebuild).whenComplete((rebuilt, e) -> {
+            synchronized (this) {
+                target.running = false;
+                startIfReady(table);
+            }
+            if (e != null) {
+                rebuild.futures.forEach(future -> future.completeExceptionally(e));
+            } else {
+                rebuild.futures.forEach(future -> future.complete(rebuilt));
+            }
+        });
+    }
+
+    private static CompletableFuture<Boolean> start(Rebuild rebuild) {
+        try {
+            return rebuild.start.get();
+        } catch (ServiceOverloadedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static class Target {
+        private Rebuild pending;
+        private boolean running;
+    }
+
+    private static class Rebuild {
+        private final Supplier<CompletableFuture<Boolean>> start;
+        private final List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        private boolean due;
+
+        private Rebuild(Supplier<CompletableFuture<Boolean>> start) {
+            this.start = start;
+        }
+    }
+}
@@ -15,9 +15,9 @@ import java.nio.file.Paths;
 @Slf4j
 public class AvroFileUtils {
     private static final String AVRO_FILE_SAVE_PATH = "/src/test/resources/avro/";
-    private static final int NAME_LENGTH = 10;
-    private static final int PHONE_LENGTH = 8;
-    private static final int ADDRESS_LENGTH = 30;
+    static final int NAME_LENGTH = 10;
+    static final int PHONE_LENGTH = 8;
+    static final int ADDRESS_LENGTH = 30;
     public static final String AVRO_FILE_EXT = ".avro";
 
     public static Client createRandomClient() {
@@ -0,0 +1,69 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named thread pool with fixed number of threads and bounded queue.
+ * Tasks submitted to the saturated pool are rejected with {@link ServiceOverloadedException}.
+ * Threads may be virtual, then the number of threads bounds concurrency of the tasks rather than platform threads.
+ */
+@Slf4j
+public class BoundedExecutor extends ThreadPoolExecutor {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    @Getter
+    private final String name;
+    private final int queueCapacity;
+    @Getter
+    private final boolean virtualThreads;
+    private final LongAdder rejectedCount = new LongAdder();
+
+    public BoundedExecutor(String name, int threads, int queueCapacity) {
+        this(name, threads, queueCapacity, new CustomizableThreadFactory(name + "-"), false);
+    }
+
+    /**
+     * @param threadFactory  - factory of the pool threads
+     * @param virtualThreads - whether the factory creates virtual threads
+     */
+    public BoundedExecutor(String name, int threads, int queueCapacity, ThreadFactory threadFactory, boolean virtualThreads) {
+        super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), threadFactory);
+        this.name = name;
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.virtualThreads = virtualThreads;
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler((task, executor) -> {
+            rejectedCount.increment();
+            var msg = String.format("Executor %s is saturated: %d tasks are active and %d are queued", name, getActiveCount(), getQueue().size());
+            log.warn(msg);
+            throw new ServiceOverloadedException(msg);
+        });
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public ExecutorStats getStats() {
+        return ExecutorStats.builder()
+                .name(name)
+                .virtualThreads(virtualThreads)
+                .poolSize(getPoolSize())
+                .maxPoolSize(getMaximumPoolSize())
+                .activeCount(getActiveCount())
+                .queuedCount(getQueue().size())
+                .queueCapacity(queueCapacity)
+                .rejectedCount(getRejectedCount())
+                .completedCount(getCompletedTaskCount())
+                .build();
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Pool of reusable byte buffers in power of two size classes from the min to the max buffer size.
+ * Released buffers are kept up to the max pooled bytes, buffers beyond it and requests larger than the max buffer size
+ * are left to the garbage collector. Only buffers acquired from the pool are taken back, other buffers are ignored on release,
+ * so callers may release whatever buffer they got, e.g. from a codec that returns pooled and wrapped buffers.
+ */
+public class BufferPool {
+    private final String name;
+    private final int minBufferSize;
+    private final int maxBufferSize;
+    private final long maxPooledBytes;
+    private final boolean direct;
+    private final ArrayDeque<ByteBuffer>[] free;
+    private final Set<ByteBuffer> outstanding = Collections.newSetFromMap(new IdentityHashMap<>());
+    private long pooledBytes;
+    private long outstandingBytes;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param name           - name of the pool in stats and metrics
+     * @param minBufferSize  - capacity of the smallest buffer, rounded up to a power of two
+     * @param maxBufferSize  - capacity of the largest pooled buffer, rounded up to a power of two
+     * @param maxPooledBytes - total capacity of the idle buffers kept in the pool
+     * @param direct         - whether buffers are allocated off-heap, such buffers have no backing array
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(String name, int minBufferSize, int maxBufferSize, long maxPooledBytes, boolean direct) {
+        this.name = name;
+        this.minBufferSize = roundUp(Math.max(1, minBufferSize));
+        this.maxBufferSize = Math.max(this.minBufferSize, roundUp(maxBufferSize));
+        this.maxPooledBytes = maxPooledBytes;
+        this.direct = direct;
+        this.free = new ArrayDeque[sizeClass(this.maxBufferSize) + 1];
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * @param size - number of bytes needed
+     * @return cleared buffer with at least the capacity and the limit set to the size
+     */
+    public ByteBuffer acquire(int size) {
+        if (size > maxBufferSize) {
+            synchronized (this) {
+                missCount++;
+            }
+            return allocate(size);
+        }
+        var sizeClass = sizeClass(Math.max(size, minBufferSize));
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = free[sizeClass].poll();
+            if (buffer != null) {
+                hitCount++;
+                pooledBytes -= buffer.capacity();
+            } else {
+                missCount++;
+            }
+        }
+        if (buffer == null) {
+            buffer = allocate(minBufferSize << sizeClass);
+        }
+        buffer.clear().limit(size);
+        synchronized (this) {
+            outstanding.add(buffer);
+            outstandingBytes += buffer.capacity();
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer to the pool, the buffer must not be used afterwards. Null and foreign buffers are ignored.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || !outstanding.remove(buffer)) {
+            return;
+        }
+        outstandingBytes -= buffer.capacity();
+        if (pooledBytes + buffer.capacity() <= maxPooledBytes) {
+            free[sizeClass(buffer.capacity())].push(buffer);
+            pooledBytes += buffer.capacity();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public synchronized BufferPoolStats getStats() {
+        return BufferPoolStats.builder()
+                .name(name)
+                .direct(direct)
+                .maxPooledBytes(maxPooledBytes)
+                .pooledBytes(pooledBytes)
+                .outstandingBytes(outstandingBytes)
+                .hitCount(hitCount)
+                .missCount(missCount)
+                .build();
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private int sizeClass(int capacity) {
+        return Integer.numberOfTrailingZeros(roundUp(capacity)) - Integer.numberOfTrailingZeros(minBufferSize);
+    }
+
+    private static int roundUp(int size) {
+        return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+}
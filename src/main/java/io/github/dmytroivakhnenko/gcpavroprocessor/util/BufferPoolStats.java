@@ -0,0 +1,22 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Builder
+@Getter
+public class BufferPoolStats {
+    private final String name;
+    private final boolean direct;
+    private final long maxPooledBytes;
+    /**
+     * Capacity of the idle buffers kept for reuse
+     */
+    private final long pooledBytes;
+    /**
+     * Capacity of the buffers acquired and not released yet
+     */
+    private final long outstandingBytes;
+    private final long hitCount;
+    private final long missCount;
+}
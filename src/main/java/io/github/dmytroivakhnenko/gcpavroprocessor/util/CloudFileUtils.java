@@ -11,6 +11,13 @@ public class CloudFileUtils {
         return String.format("gs://%s/%s", blobInfo.getBucket(), blobInfo.getName());
     }
 
+    /**
+     * Identifies the version of the file, a file overwritten with the same name gets another generation.
+     */
+    public static String constructFileKey(BlobInfo blobInfo) {
+        return String.format("%s/%s#%d", blobInfo.getBucket(), blobInfo.getName(), blobInfo.getGeneration());
+    }
+
     public static BlobInfo getTmpAvroFile(String bucket) {
         var tmpName = UUID.randomUUID() + "tmp_file" + AVRO_FILE_EXT;
         return BlobInfo.newBuilder(bucket, tmpName).setContentType("application/avro").build();
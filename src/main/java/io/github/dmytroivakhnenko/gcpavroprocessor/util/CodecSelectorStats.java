@@ -0,0 +1,12 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Builder
+@Getter
+public class CodecSelectorStats {
+    private final double cpuHeadroom;
+    private final Long uploadBytesPerSecond;
+    private final String lastCodec;
+}
@@ -0,0 +1,22 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Content of the manifest object written next to every compacted file.
+ */
+@Builder
+@Getter
+public class CompactionManifest {
+    private final String compactedFile;
+    private final long createdAt;
+    private final long compactedBytes;
+    private final List<String> inputFiles;
+    /**
+     * Files that couldn't be merged (other schema), they are loaded on their own
+     */
+    private final List<String> skippedFiles;
+}
@@ -0,0 +1,168 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Adaptive limit of the work processed concurrently, adjusted by additive increase and multiplicative decrease (AIMD).
+ * Limit grows by one per limit of completed work while it is used, and is multiplied by the backoff ratio when work takes
+ * longer than the latency threshold, is rejected by a saturated executor or completes while the heap is under pressure.
+ * New work is rejected while the heap is under pressure regardless of the limit, except when no work is in flight:
+ * heap is only collected, and its pressure only refreshed, while something allocates, so an idle service admits work
+ * to avoid being wedged by a stale reading.
+ * Work started before the last decrease doesn't decrease the limit again, as it was started under the previous limit.
+ * Work over the limit is rejected with {@link ServiceOverloadedException}, so that the notification is redelivered with backoff.
+ */
+public class ConcurrencyLimiter {
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+    private final double heapPressureThreshold;
+    private final DoubleSupplier heapPressure;
+    private final LongSupplier nanoTime;
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos;
+    private long acquiredCount;
+    private long rejectedCount;
+    private long decreaseCount;
+
+    /**
+     * @param name                  - name of the limiter in stats and metrics
+     * @param initialLimit          - limit before any work completes
+     * @param minLimit              - limit is never decreased below it
+     * @param maxLimit              - limit is never increased above it
+     * @param backoffRatio          - limit is multiplied by it on overload, between 0 and 1
+     * @param latencyThresholdNanos - work taking longer signals overload
+     * @param heapPressureThreshold - heap used after garbage collection to the max heap, above it new work is rejected
+     */
+    public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+                              long latencyThresholdNanos, double heapPressureThreshold) {
+        this(name, initialLimit, minLimit, maxLimit, backoffRatio, latencyThresholdNanos, heapPressureThreshold,
+                ConcurrencyLimiter::heapUsedAfterGc, System::nanoTime);
+    }
+
+    ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double backoffRatio, long latencyThresholdNanos,
+                       double heapPressureThreshold, DoubleSupplier heapPressure, LongSupplier nanoTime) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.backoffRatio = Math.min(1, Math.max(0, backoffRatio));
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.heapPressureThreshold = heapPressureThreshold;
+        this.heapPressure = heapPressure;
+        this.nanoTime = nanoTime;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.lastDecreaseNanos = nanoTime.getAsLong();
+    }
+
+    /**
+     * @return start time of the work in nanos, to be passed to {@link #release(long, boolean)} once the work completes
+     * @throws ServiceOverloadedException if the limit is reached or the heap is under pressure while work is in flight
+     */
+    public long acquire() {
+        var pressure = heapPressure.getAsDouble();
+        synchronized (this) {
+            var now = nanoTime.getAsLong();
+            if (pressure > heapPressureThreshold && inFlight > 0) {
+                rejectedCount++;
+                throw new ServiceOverloadedException(String.format("Limiter %s rejected work, heap used after GC is %.0f%%", name, pressure * 100));
+            }
+            if (inFlight >= (int) limit) {
+                rejectedCount++;
+                throw new ServiceOverloadedException(String.format("Limiter %s rejected work, %d of %d are in flight", name, inFlight, (int) limit));
+            }
+            inFlight++;
+            acquiredCount++;
+            return now;
+        }
+    }
+
+    /**
+     * @param startNanos - value returned by {@link #acquire()}
+     * @param overloaded - whether the work failed because a downstream resource was saturated
+     */
+    public void release(long startNanos, boolean overloaded) {
+        var pressure = heapPressure.getAsDouble();
+        synchronized (this) {
+            complete(startNanos, overloaded || pressure > heapPressureThreshold);
+        }
+    }
+
+    private void complete(long startNanos, boolean overloaded) {
+        var now = nanoTime.getAsLong();
+        var used = inFlight >= (int) limit / 2;
+        inFlight--;
+        if (overloaded || now - startNanos > latencyThresholdNanos) {
+            decrease(startNanos, now);
+        } else if (used) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public synchronized ConcurrencyLimiterStats getStats() {
+        return ConcurrencyLimiterStats.builder()
+                .name(name)
+                .limit((int) limit)
+                .minLimit(minLimit)
+                .maxLimit(maxLimit)
+                .inFlight(inFlight)
+                .acquiredCount(acquiredCount)
+                .rejectedCount(rejectedCount)
+                .decreaseCount(decreaseCount)
+                .heapPressure(heapPressure.getAsDouble())
+                .build();
+    }
+
+    private void decrease(long startNanos, long now) {
+        if (startNanos - lastDecreaseNanos < 0) {
+            return;
+        }
+        limit = Math.max(minLimit, limit * backoffRatio);
+        lastDecreaseNanos = now;
+        decreaseCount++;
+    }
+
+    /**
+     * Usage after the last collection ignores garbage that is yet to be collected, so only live data counts as pressure.
+     * It is only updated when the pool itself is collected, so current usage is taken once it is lower, as memory was
+     * reclaimed since. Pools without collection usage are taken with their current usage.
+     */
+    private static double heapUsedAfterGc() {
+        var max = Runtime.getRuntime().maxMemory();
+        if (max <= 0 || max == Long.MAX_VALUE) {
+            return 0;
+        }
+        long used = 0;
+        for (var pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                var usage = pool.getUsage().getUsed();
+                var collectionUsage = pool.getCollectionUsage();
+                used += collectionUsage != null ? Math.min(collectionUsage.getUsed(), usage) : usage;
+            }
+        }
+        return (double) used / max;
+    }
+}
@@ -0,0 +1,24 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Builder
+@Getter
+public class ConcurrencyLimiterStats {
+    private final String name;
+    private final int limit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int inFlight;
+    private final long acquiredCount;
+    private final long rejectedCount;
+    /**
+     * Times the limit was decreased on overload
+     */
+    private final long decreaseCount;
+    /**
+     * Heap used after garbage collection to the max heap
+     */
+    private final double heapPressure;
+}
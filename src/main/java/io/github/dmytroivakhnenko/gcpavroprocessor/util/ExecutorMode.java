@@ -0,0 +1,13 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+public enum ExecutorMode {
+    /**
+     * Every task of the I/O executors holds a platform thread, including the time it is blocked on a Cloud request
+     */
+    PLATFORM,
+    /**
+     * I/O executors run tasks on virtual threads, which release their carrier thread while blocked on a Cloud request.
+     * Requires Java 21, platform threads are used on older versions
+     */
+    VIRTUAL
+}
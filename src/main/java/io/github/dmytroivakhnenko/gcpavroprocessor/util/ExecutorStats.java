@@ -0,0 +1,18 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Builder
+@Getter
+public class ExecutorStats {
+    private final String name;
+    private final boolean virtualThreads;
+    private final int poolSize;
+    private final int maxPoolSize;
+    private final int activeCount;
+    private final int queuedCount;
+    private final int queueCapacity;
+    private final long rejectedCount;
+    private final long completedCount;
+}
@@ -0,0 +1,27 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Progress of a single file processed in asynchronous acknowledgement mode, as stored in the job journal.
+ * Times are epoch milliseconds.
+ */
+@Builder(toBuilder = true)
+@Getter
+public class FileJob {
+    private final String id;
+    private final String bucket;
+    private final String name;
+    private final Long generation;
+    /**
+     * Creation time of the object from the notification, null if it wasn't present
+     */
+    private final Long createdAt;
+    private final FileJobState state;
+    private final int attempts;
+    private final long acceptedAt;
+    private final long updatedAt;
+    private final Long nextAttemptAt;
+    private final String error;
+}
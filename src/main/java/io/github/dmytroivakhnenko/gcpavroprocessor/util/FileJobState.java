@@ -0,0 +1,36 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+public enum FileJobState {
+    /**
+     * Notification was acknowledged, processing wasn't started yet
+     */
+    ACCEPTED(false),
+    RUNNING(false),
+    /**
+     * Attempt failed, file will be processed again after the next attempt time
+     */
+    RETRY_PENDING(false),
+    SUCCEEDED(true),
+    /**
+     * File doesn't follow the schema, it is never retried
+     */
+    INVALID(true),
+    /**
+     * All attempts failed
+     */
+    FAILED(true),
+    /**
+     * Service was overloaded, notification was returned to Pub/Sub for redelivery
+     */
+    REJECTED(true);
+
+    private final boolean terminal;
+
+    FileJobState(boolean terminal) {
+        this.terminal = terminal;
+    }
+
+    public boolean isTerminal() {
+        return terminal;
+    }
+}
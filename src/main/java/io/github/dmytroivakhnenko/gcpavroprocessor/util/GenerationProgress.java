@@ -0,0 +1,26 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Progress of a generation of random client files. Times are epoch milliseconds.
+ */
+@Builder
+@Getter
+public class GenerationProgress {
+    private final String id;
+    private final String name;
+    private final GenerationState state;
+    private final int fileCount;
+    private final int clientsCount;
+    private final long filesWritten;
+    private final long recordsWritten;
+    private final long startedAt;
+    private final Long finishedAt;
+    /**
+     * Average over the whole generation, up to now if it is still running
+     */
+    private final double recordsPerSecond;
+    private final String error;
+}
@@ -0,0 +1,10 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+public enum GenerationState {
+    RUNNING,
+    SUCCEEDED,
+    /**
+     * One of the files wasn't written, files which were not started yet are not generated
+     */
+    FAILED
+}
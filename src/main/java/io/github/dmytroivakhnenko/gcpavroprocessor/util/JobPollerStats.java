@@ -0,0 +1,14 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Builder
+@Getter
+public class JobPollerStats {
+    private final int trackedJobs;
+    private final long pollCount;
+    private final long completedCount;
+    private final long timedOutCount;
+    private final long intervalMillis;
+}
@@ -10,5 +10,9 @@ public class LoadInfo {
     private final BlobInfo blobInfo;
     private final String tableName;
     private final boolean temporaryFile;
+    /**
+     * Identifies the load among retries of the same source file, null if the load may be repeated
+     */
+    private final String idempotencyKey;
 }
 
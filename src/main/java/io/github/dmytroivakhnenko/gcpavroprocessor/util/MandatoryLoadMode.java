@@ -0,0 +1,17 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+public enum MandatoryLoadMode {
+    /**
+     * Mandatory fields are written to a temporary Avro file in Cloud Storage and loaded with a load job
+     */
+    TMP_FILE,
+    /**
+     * Mandatory rows are streamed to BigQuery in batches while the source file is read
+     */
+    STREAMING,
+    /**
+     * Mandatory table is rebuilt from the full table with a query job once the full load succeeds,
+     * so the source file is read by the full load only
+     */
+    QUERY
+}
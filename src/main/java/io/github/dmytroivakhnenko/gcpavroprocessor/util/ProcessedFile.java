@@ -0,0 +1,15 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * File version which was completely loaded to BigQuery, as stored in the processed files log.
+ * Key consists of bucket, name and generation of the file, time is epoch milliseconds.
+ */
+@Builder
+@Getter
+public class ProcessedFile {
+    private final String key;
+    private final long processedAt;
+}
@@ -0,0 +1,84 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+import org.apache.avro.Schema;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Derived table filled from the same read of the source file as the mandatory table.
+ */
+@Builder
+@Getter
+public class ProjectionConfig {
+    private static final String PROJECTION_SEPARATOR = ";";
+    private static final String PART_SEPARATOR = ":";
+    private static final String FIELD_SEPARATOR = ",";
+
+    private final String tableName;
+    /**
+     * Schema of the table, fields of the source schema in their source order
+     */
+    private final Schema schema;
+    /**
+     * Codec of the temporary file, null if the mandatory codec is used
+     */
+    private final String codec;
+
+    /**
+     * Parses projections separated by ';', every projection is {@code <table>:<field>,<field>...[:<codec>]}.
+     *
+     * @param value        - property value, may be blank
+     * @param sourceSchema - schema the projected fields are taken from
+     * @return projections in the declared order
+     * @throws IllegalArgumentException if a projection is malformed or refers to an unknown field
+     */
+    public static List<ProjectionConfig> parseAll(String value, Schema sourceSchema) {
+        var projections = new ArrayList<ProjectionConfig>();
+        if (value == null || value.isBlank()) {
+            return projections;
+        }
+        for (var projection : value.split(PROJECTION_SEPARATOR)) {
+            if (!projection.isBlank()) {
+                projections.add(parse(projection.trim(), sourceSchema));
+            }
+        }
+        return projections;
+    }
+
+    private static ProjectionConfig parse(String projection, Schema sourceSchema) {
+        var parts = projection.split(PART_SEPARATOR);
+        if (parts.length < 2 || parts.length > 3 || parts[0].isBlank()) {
+            throw new IllegalArgumentException("Projection " + projection + " doesn't match <table>:<field>,<field>...[:<codec>]");
+        }
+        var tableName = parts[0].trim();
+        var fieldNames = new LinkedHashSet<String>();
+        for (var fieldName : parts[1].split(FIELD_SEPARATOR)) {
+            if (!fieldName.isBlank()) {
+                fieldNames.add(fieldName.trim());
+            }
+        }
+        if (fieldNames.isEmpty()) {
+            throw new IllegalArgumentException("Projection to table " + tableName + " has no fields");
+        }
+        var fields = new ArrayList<Schema.Field>();
+        for (var fieldName : fieldNames) {
+            var field = sourceSchema.getField(fieldName);
+            if (field == null) {
+                throw new IllegalArgumentException("Projection to table " + tableName + " refers to unknown field " + fieldName);
+            }
+            fields.add(field);
+        }
+        // source order keeps projected fields of a record adjacent where possible, BigQuery matches columns by name anyway
+        fields.sort(Comparator.comparingInt(Schema.Field::pos));
+        var schema = Schema.createRecord(sourceSchema.getName() + "_" + tableName.replaceAll("\\W", "_"), null, sourceSchema.getNamespace(), false,
+                fields.stream().map(field -> new Schema.Field(field.name(), field.schema(), field.doc(), field.defaultVal())).collect(Collectors.toList()));
+        var codec = parts.length == 3 && !parts[2].isBlank() ? parts[2].trim() : null;
+        return ProjectionConfig.builder().tableName(tableName).schema(schema).codec(codec).build();
+    }
+}
@@ -0,0 +1,12 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+public enum PubSubAckMode {
+    /**
+     * Push request is answered when file is loaded to all tables, failures are retried by Pub/Sub redelivery
+     */
+    SYNC,
+    /**
+     * Push request is answered as soon as file is recorded in the job journal, failures are retried from the journal
+     */
+    ASYNC
+}
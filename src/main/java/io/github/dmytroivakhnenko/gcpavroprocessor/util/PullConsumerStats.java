@@ -0,0 +1,17 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Builder
+@Getter
+public class PullConsumerStats {
+    private final boolean running;
+    private final int outstandingMessages;
+    private final long outstandingBytes;
+    private final long receivedCount;
+    private final long acknowledgedCount;
+    private final long redeliveredCount;
+    private final long extendedCount;
+    private final long flowControlledCount;
+}
@@ -0,0 +1,19 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Message received from a pull subscription, it is outstanding until acknowledged or its ack deadline expires.
+ */
+@Builder
+@Getter
+public class PulledMessage {
+    private final String ackId;
+    private final String messageId;
+    private final String publishTime;
+    /**
+     * Base64 encoded data of the message
+     */
+    private final String data;
+}
@@ -0,0 +1,44 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import example.gcp.Client;
+import org.apache.avro.util.Utf8;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Fills a reused client with random values of the same shape as {@link AvroFileUtils#createRandomClient()}.
+ * Strings are written into reused Utf8 buffers from the thread-local random source, so no objects are allocated per client.
+ * Not thread safe, every generating thread uses its own instance.
+ */
+public class RandomClientGenerator {
+    private static final byte[] ALPHABETIC = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NUMERIC = "0123456789".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ALPHANUMERIC = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.US_ASCII);
+
+    private final Client client = new Client();
+    private final Utf8 name = new Utf8();
+    private final Utf8 phone = new Utf8();
+    private final Utf8 address = new Utf8();
+
+    /**
+     * @return the same client instance filled with new values, valid until the next call
+     */
+    public Client next() {
+        var random = ThreadLocalRandom.current();
+        client.setId(random.nextLong(Long.MAX_VALUE));
+        client.setName(fill(name, ALPHABETIC, AvroFileUtils.NAME_LENGTH, random));
+        client.setPhone(fill(phone, NUMERIC, AvroFileUtils.PHONE_LENGTH, random));
+        client.setAddress(fill(address, ALPHANUMERIC, AvroFileUtils.ADDRESS_LENGTH, random));
+        return client;
+    }
+
+    private static Utf8 fill(Utf8 value, byte[] alphabet, int length, ThreadLocalRandom random) {
+        value.setByteLength(length);
+        var bytes = value.getBytes();
+        for (int i = 0; i < length; i++) {
+            bytes[i] = alphabet[random.nextInt(alphabet.length)];
+        }
+        return value;
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-ahead configuration and latency of ranged reads from Cloud Storage.
+ */
+public class RangedReadStats {
+    @Getter
+    private final int windowSize;
+    @Getter
+    private final int rangeSize;
+    private final LongAdder rangeCount = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLong lastLatencyNanos = new AtomicLong();
+
+    public RangedReadStats(int windowSize, int rangeSize) {
+        this.windowSize = windowSize;
+        this.rangeSize = rangeSize;
+    }
+
+    public void recordRange(int bytes, long latencyNanos) {
+        rangeCount.increment();
+        bytesRead.add(bytes);
+        totalLatencyNanos.add(latencyNanos);
+        maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+        lastLatencyNanos.set(latencyNanos);
+    }
+
+    public long getRangeCount() {
+        return rangeCount.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public double getAverageRangeLatencyMillis() {
+        var count = rangeCount.sum();
+        return count == 0 ? 0 : totalLatencyNanos.sum() / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getMaxRangeLatencyMillis() {
+        return maxLatencyNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getLastRangeLatencyMillis() {
+        return lastLatencyNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
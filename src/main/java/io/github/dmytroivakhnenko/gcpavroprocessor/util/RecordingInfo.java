@@ -0,0 +1,29 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Flight recording started on demand. Times are epoch milliseconds.
+ */
+@Builder
+@Getter
+public class RecordingInfo {
+    private final long id;
+    private final String name;
+    /**
+     * NEW, DELAYED, RUNNING, STOPPED or CLOSED
+     */
+    private final String state;
+    /**
+     * Name of the JDK recording settings, e.g. default or profile
+     */
+    private final String settings;
+    private final Long startedAt;
+    /**
+     * Events older than this are dropped while the recording runs
+     */
+    private final long maxAgeMinutes;
+    private final long maxSizeBytes;
+    private final long sizeBytes;
+}
@@ -0,0 +1,12 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Builder
+@Getter
+public class SchemaRegistryStats {
+    private final int schemaCount;
+    private final long hitCount;
+    private final long missCount;
+}
@@ -0,0 +1,109 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Objects;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.AvroFileUtils.AVRO_FILE_EXT;
+
+/**
+ * Cloud Storage notification carried by the data of a Pub/Sub message, the same for push and pull subscriptions.
+ */
+@Builder
+@Getter
+@Slf4j
+public class StorageNotification {
+    private static final Gson gson = new Gson();
+
+    /**
+     * Notified file, of the notified generation if it is known
+     */
+    private final BlobInfo blobInfo;
+    /**
+     * Whether the file has avro extension, other files are skipped
+     */
+    private final boolean avroFile;
+    /**
+     * Creation time of the file in epoch milliseconds, null if unknown
+     */
+    private final Long createdAt;
+    /**
+     * Size of the file in bytes, null if unknown
+     */
+    private final Long size;
+
+    /**
+     * @param data - base64 encoded JSON data of the Pub/Sub message
+     * @return notification, generation and times of a file without avro extension aren't parsed
+     * @throws IllegalArgumentException if data isn't a valid Cloud Storage notification
+     */
+    public static StorageNotification parse(String data) {
+        JsonObject json;
+        try {
+            var decodedMessage = new String(Base64.getDecoder().decode(data), StandardCharsets.UTF_8);
+            log.info("PubSub message received {}", decodedMessage);
+            json = Objects.requireNonNull(gson.fromJson(decodedMessage, JsonObject.class));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid Pub/Sub message: data property is not valid base64 encoded JSON", e);
+        }
+
+        var fileName = json.get("name");
+        var bucketName = json.get("bucket");
+        if (Objects.isNull(fileName) || Objects.isNull(bucketName)) {
+            throw new IllegalArgumentException("Invalid Cloud Storage notification: expected name and bucket properties");
+        }
+        if (!fileName.getAsString().endsWith(AVRO_FILE_EXT)) {
+            return StorageNotification.builder()
+                    .blobInfo(BlobInfo.newBuilder(BlobId.of(bucketName.getAsString(), fileName.getAsString())).build())
+                    .build();
+        }
+
+        // Generation identifies the version of the file, so that a redelivered notification isn't processed twice
+        Long generation = null;
+        if (json.has("generation")) {
+            try {
+                generation = json.get("generation").getAsLong();
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid Cloud Storage notification: generation property is not a number", e);
+            }
+        }
+        return StorageNotification.builder()
+                .blobInfo(BlobInfo.newBuilder(BlobId.of(bucketName.getAsString(), fileName.getAsString(), generation)).build())
+                .avroFile(true)
+                .createdAt(getCreateTime(json))
+                .size(getSize(json))
+                .build();
+    }
+
+    /**
+     * Creation time is used only to measure end-to-end latency, so a missing or invalid value doesn't reject the file.
+     */
+    private static Long getCreateTime(JsonObject json) {
+        if (!json.has("timeCreated")) {
+            return null;
+        }
+        try {
+            return Instant.parse(json.get("timeCreated").getAsString()).toEpochMilli();
+        } catch (RuntimeException e) {
+            log.warn("Invalid timeCreated property {} of Cloud Storage notification is ignored", json.get("timeCreated"));
+            return null;
+        }
+    }
+
+    private static Long getSize(JsonObject json) {
+        try {
+            return json.has("size") ? json.get("size").getAsLong() : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Progress of a resumable transcode, saved whenever an output part is finished. Binary values are Base64 encoded.
+ */
+@Builder(toBuilder = true)
+@Getter
+public class TranscodeCheckpoint {
+    private final String sourceFile;
+    /**
+     * Id of the attempt which saved the checkpoint, parts are named after the attempt which wrote them
+     */
+    private final String attemptId;
+    /**
+     * Header of the source file, so that a resumed read starts right at the input offset
+     */
+    private final String sourceHeader;
+    /**
+     * Offset of the first source block which isn't in the parts
+     */
+    private final long inputOffset;
+    private final long recordCount;
+    private final long outputSchemaFingerprint;
+    private final String outputCodec;
+    private final int outputSyncInterval;
+    /**
+     * Sync marker shared by all parts, so that the composed parts are a single container file
+     */
+    private final String outputSync;
+    /**
+     * Names of the finished parts in the tmp bucket, only the first one starts with the header
+     */
+    private final List<String> parts;
+    private final long updatedAt;
+}
@@ -0,0 +1,32 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads of Java 21 from code compiled for Java 11, the builder API is looked up reflectively.
+ */
+@Slf4j
+public final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    /**
+     * @param prefix - prefix of the thread names, followed by the thread number
+     * @return factory of virtual threads, empty if the running Java doesn't support them
+     */
+    public static Optional<ThreadFactory> newFactory(String prefix) {
+        try {
+            var builderType = Class.forName("java.lang.Thread$Builder");
+            var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return Optional.of((ThreadFactory) builderType.getMethod("factory").invoke(builder));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 19 and 20 have the API, but it throws unless preview features are enabled
+            log.debug("Virtual threads aren't available", e);
+            return Optional.empty();
+        }
+    }
+}
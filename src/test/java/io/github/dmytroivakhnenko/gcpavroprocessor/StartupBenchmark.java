@@ -0,0 +1,86 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures cold start as Pub/Sub sees it: time from launching the application until it answers the first push notification.
+ * Application is launched by the given command, e.g. the entrypoint of the image, so that JVM options and profiles can be compared.
+ * Notification of the given file is pushed as soon as the port accepts connections, it has no generation,
+ * so the file is processed on every run. Needs credentials of a project with the buckets and the dataset.
+ * Usage: {@code StartupBenchmark <runs> <port> <bucket> <file> <command...>}, the command has to start the server on the port.
+ */
+public class StartupBenchmark {
+    private static final Duration START_TIMEOUT = Duration.ofMinutes(2);
+    private static final long RETRY_MILLIS = 10;
+    private static final Pattern READY_SECONDS = Pattern.compile("^app_ready_seconds (\\S+)$", Pattern.MULTILINE);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5) {
+            System.err.println("Usage: StartupBenchmark <runs> <port> <bucket> <file> <command...>");
+            System.exit(1);
+        }
+        var runs = Integer.parseInt(args[0]);
+        var baseUri = URI.create("http://localhost:" + Integer.parseInt(args[1]));
+        var data = String.format("{\"bucket\":\"%s\",\"name\":\"%s\"}", args[2], args[3]);
+        var event = String.format("{\"message\":{\"data\":\"%s\"}}", Base64.getEncoder().encodeToString(data.getBytes(StandardCharsets.UTF_8)));
+        var command = Arrays.asList(args).subList(4, args.length);
+        var client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(100)).build();
+
+        System.out.printf("%4s %10s %14s %8s%n", "run", "ready s", "first push s", "status");
+        var firstPushSeconds = new ArrayList<Double>();
+        for (int run = 1; run <= runs; run++) {
+            var process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            var start = System.nanoTime();
+            try {
+                var response = pushUntilStarted(client, baseUri.resolve("/pubsub"), event, process);
+                var seconds = (System.nanoTime() - start) / 1e9;
+                firstPushSeconds.add(seconds);
+                System.out.printf("%4d %10s %14.2f %8d%n", run, readySeconds(client, baseUri.resolve("/metrics")), seconds, response.statusCode());
+            } finally {
+                process.destroy();
+                if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+        }
+        Collections.sort(firstPushSeconds);
+        System.out.printf("first push: min %.2f s, median %.2f s%n", firstPushSeconds.get(0), firstPushSeconds.get(firstPushSeconds.size() / 2));
+    }
+
+    private static HttpResponse<String> pushUntilStarted(HttpClient client, URI uri, String event, Process process) throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(event))
+                .build();
+        var deadline = System.nanoTime() + START_TIMEOUT.toNanos();
+        while (true) {
+            try {
+                return client.send(request, HttpResponse.BodyHandlers.ofString());
+            } catch (ConnectException e) {
+                if (!process.isAlive() || System.nanoTime() > deadline) {
+                    throw new IOException("Application didn't start accepting connections", e);
+                }
+                Thread.sleep(RETRY_MILLIS);
+            }
+        }
+    }
+
+    private static String readySeconds(HttpClient client, URI uri) throws IOException, InterruptedException {
+        var metrics = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString()).body();
+        var matcher = READY_SECONDS.matcher(metrics);
+        return matcher.find() ? matcher.group(1) : "-";
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AdaptiveCodecSelectorTest {
+    private static final double SLOW_UPLOAD = 10_000_000;
+    private static final double FAST_UPLOAD = 100_000_000;
+    private static final int SYNC_INTERVAL = 64 * 1024;
+
+    private final AtomicReference<Double> cpuLoad = new AtomicReference<>(0.1);
+    private final AdaptiveCodecSelector selector = new AdaptiveCodecSelector(0.25, SLOW_UPLOAD, FAST_UPLOAD, cpuLoad::get);
+
+    @Test
+    void whenUploadIsNotMeasuredThenBalancedCodecIsSelected() {
+        var outputFormat = selector.select(SYNC_INTERVAL);
+
+        assertThat(outputFormat.getCodec()).isEqualTo(AdaptiveCodecSelector.BALANCED_CODEC);
+        assertThat(outputFormat.getSyncInterval()).isEqualTo(SYNC_INTERVAL);
+    }
+
+    @Test
+    void whenUploadIsSlowThenStrongCodecIsSelectedUntilCpuIsBusy() {
+        selector.recordUpload(1_000_000, TimeUnit.SECONDS.toNanos(1));
+
+        assertThat(selector.select(SYNC_INTERVAL).getCodec()).isEqualTo(AdaptiveCodecSelector.STRONG_CODEC);
+        cpuLoad.set(0.9);
+        assertThat(selector.select(SYNC_INTERVAL).getCodec()).isEqualTo(AdaptiveCodecSelector.LIGHT_CODEC);
+    }
+
+    @Test
+    void whenUploadIsFastThenLightCodecIsSelected() {
+        selector.recordUpload(1_000_000_000, TimeUnit.SECONDS.toNanos(1));
+
+        assertThat(selector.select(SYNC_INTERVAL).getCodec()).isEqualTo(AdaptiveCodecSelector.LIGHT_CODEC);
+        assertThat(selector.getStats().getLastCodec()).isEqualTo(AdaptiveCodecSelector.LIGHT_CODEC);
+    }
+
+    @Test
+    void whenMeasuredOutputIsClosedThenUploadIsRecorded() throws IOException {
+        try (var output = selector.measure(new ByteArrayOutputStream())) {
+            output.write(new byte[1024]);
+        }
+
+        assertThat(selector.getStats().getUploadBytesPerSecond()).isPositive();
+    }
+
+    @Test
+    void whenCodecHasLevelThenItIsParsed() {
+        assertThat(AvroOutputFormat.of("deflate-9", SYNC_INTERVAL).isLoadableByBigQuery()).isTrue();
+        assertThat(AvroOutputFormat.of("XZ-3", SYNC_INTERVAL).isLoadableByBigQuery()).isFalse();
+        assertThatThrownBy(() -> AvroOutputFormat.of("snappy-1", SYNC_INTERVAL)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> AvroOutputFormat.of("lz4", SYNC_INTERVAL)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
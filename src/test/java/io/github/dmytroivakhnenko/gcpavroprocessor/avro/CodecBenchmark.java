@@ -0,0 +1,85 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import example.gcp.Client;
+import example.gcp.ClientMandatory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecordBase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.AvroFileUtils.createRandomClient;
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.ClientUtils.createMandatoryClientFromClient;
+
+/**
+ * Compares CPU time and size of generated Client and temporary ClientMandatory files for every codec and sync interval.
+ * Upload columns estimate the total time to write and upload the file at the given bandwidth, the row with the lowest
+ * of them is the best choice for that bandwidth. Run with the record count as the optional argument.
+ */
+public class CodecBenchmark {
+    private static final String[] CODECS = {"null", "snappy", "deflate-1", "deflate-6", "deflate-9", "xz-1", "xz-6", "bzip2"};
+    private static final int[] SYNC_INTERVALS = {16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
+    private static final long[] BANDWIDTHS_MB = {10, 50, 200};
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int MEASURED_ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        var recordCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        var clients = new ArrayList<Client>(recordCount);
+        var mandatoryClients = new ArrayList<ClientMandatory>(recordCount);
+        for (int i = 0; i < recordCount; i++) {
+            var client = createRandomClient();
+            clients.add(client);
+            mandatoryClients.add(createMandatoryClientFromClient(client));
+        }
+        run("Client (generator output)", clients, Client.class);
+        run("ClientMandatory (temporary file)", mandatoryClients, ClientMandatory.class);
+    }
+
+    private static <T extends SpecificRecordBase> void run(String title, List<T> records, Class<T> type) throws IOException {
+        var uncompressedSize = write(records, type, AvroOutputFormat.of("null", SYNC_INTERVALS[0])).size();
+        System.out.printf("%n%s, %d records, %d bytes uncompressed%n", title, records.size(), uncompressedSize);
+        System.out.printf("%-10s %8s %12s %7s %9s", "codec", "sync", "bytes", "ratio", "cpu ms");
+        for (var bandwidth : BANDWIDTHS_MB) {
+            System.out.printf(" %13s", "@" + bandwidth + "MB/s ms");
+        }
+        System.out.println();
+
+        var threadBean = ManagementFactory.getThreadMXBean();
+        for (var codec : CODECS) {
+            for (var syncInterval : SYNC_INTERVALS) {
+                var outputFormat = AvroOutputFormat.of(codec, syncInterval);
+                for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                    write(records, type, outputFormat);
+                }
+                var start = threadBean.getCurrentThreadCpuTime();
+                var size = 0;
+                for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                    size = write(records, type, outputFormat).size();
+                }
+                var cpuMillis = (threadBean.getCurrentThreadCpuTime() - start) / MEASURED_ROUNDS / 1_000_000.0;
+
+                System.out.printf("%-10s %8d %12d %7.2f %9.1f", codec, syncInterval, size, (double) uncompressedSize / size, cpuMillis);
+                for (var bandwidth : BANDWIDTHS_MB) {
+                    System.out.printf(" %13.1f", cpuMillis + size * 1000.0 / (bandwidth * 1024 * 1024));
+                }
+                System.out.println();
+            }
+        }
+    }
+
+    private static <T extends SpecificRecordBase> ByteArrayOutputStream write(List<T> records, Class<T> type, AvroOutputFormat outputFormat) throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        try (var writer = outputFormat.configure(new DataFileWriter<>(new SpecificDatumWriter<>(type)))) {
+            writer.create(records.get(0).getSchema(), outputStream);
+            for (var record : records) {
+                writer.append(record);
+            }
+        }
+        return outputStream;
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import example.gcp.Client;
+import example.gcp.ClientMandatory;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.AvroFileUtils.createRandomClient;
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.ClientUtils.createMandatoryClientFromClient;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ContainerFileMergerTest {
+    private static final int CLIENTS_PER_FILE = 300;
+
+    @Test
+    void whenFilesAreMergedThenAllRecordsAreKeptInOrder() throws IOException {
+        var clients = new ArrayList<Client>();
+        var files = new ArrayList<byte[]>();
+        for (var codec : List.of("deflate", "deflate", "snappy", "null")) {
+            var fileClients = createClients();
+            clients.addAll(fileClients);
+            files.add(write(Client.getClassSchema(), fileClients, CodecFactory.fromString(codec)));
+        }
+        var output = new ByteArrayOutputStream();
+
+        try (var merger = new ContainerFileMerger(Client.getClassSchema(), "deflate", output)) {
+            for (var file : files) {
+                try (var input = ContainerFileMerger.open(new ByteArrayInputStream(file))) {
+                    merger.append(input);
+                }
+            }
+            assertThat(merger.getFileCount()).isEqualTo(files.size());
+        }
+
+        try (var stream = new DataFileStream<>(new ByteArrayInputStream(output.toByteArray()), new SpecificDatumReader<>(Client.class))) {
+            var i = 0;
+            while (stream.hasNext()) {
+                assertThat(stream.next()).isEqualTo(clients.get(i++));
+            }
+            assertThat(i).isEqualTo(clients.size());
+        }
+    }
+
+    @Test
+    void whenFileHasAnotherSchemaThenItIsNotAppended() throws IOException {
+        var mandatoryClients = new ArrayList<ClientMandatory>();
+        createClients().forEach(client -> mandatoryClients.add(createMandatoryClientFromClient(client)));
+        var file = write(ClientMandatory.getClassSchema(), mandatoryClients, CodecFactory.nullCodec());
+
+        try (var merger = new ContainerFileMerger(Client.getClassSchema(), "null", new ByteArrayOutputStream())) {
+            assertThatThrownBy(() -> merger.append(ContainerFileMerger.open(new ByteArrayInputStream(file)))).isInstanceOf(IOException.class);
+            assertThat(merger.getFileCount()).isZero();
+        }
+    }
+
+    @Test
+    void whenFileIsTruncatedThenAppendFails() throws IOException {
+        var file = write(Client.getClassSchema(), createClients(), CodecFactory.deflateCodec(6));
+
+        try (var merger = new ContainerFileMerger(Client.getClassSchema(), "deflate", new ByteArrayOutputStream())) {
+            assertThatThrownBy(() -> merger.append(ContainerFileMerger.open(new ByteArrayInputStream(Arrays.copyOf(file, file.length - 20)))))
+                    .isInstanceOfAny(IOException.class, AvroRuntimeException.class);
+        }
+    }
+
+    private List<Client> createClients() {
+        var clients = new ArrayList<Client>(CLIENTS_PER_FILE);
+        for (int i = 0; i < CLIENTS_PER_FILE; i++) {
+            clients.add(createRandomClient());
+        }
+        return clients;
+    }
+
+    private <T extends SpecificRecordBase> byte[] write(Schema schema, List<T> records, CodecFactory codec) throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        try (var writer = new DataFileWriter<T>(new SpecificDatumWriter<>(schema))) {
+            writer.setCodec(codec);
+            writer.setSyncInterval(4096);
+            writer.create(schema, outputStream);
+            for (var record : records) {
+                writer.append(record);
+            }
+        }
+        return outputStream.toByteArray();
+    }
+}
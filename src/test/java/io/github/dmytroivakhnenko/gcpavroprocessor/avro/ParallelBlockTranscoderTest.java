@@ -0,0 +1,110 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import example.gcp.Client;
+import example.gcp.ClientMandatory;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.AvroFileUtils.createRandomClient;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ParallelBlockTranscoderTest {
+    private static final int CLIENTS_COUNT = 20_000;
+    private static final int MAX_BLOCKS_IN_FLIGHT = 3;
+    private static ForkJoinPool pool;
+    private static List<Client> clients;
+
+    @BeforeAll
+    static void setUp() {
+        pool = new ForkJoinPool(4);
+        clients = new ArrayList<>(CLIENTS_COUNT);
+        for (int i = 0; i < CLIENTS_COUNT; i++) {
+            clients.add(createRandomClient());
+        }
+    }
+
+    @AfterAll
+    static void tearDown() {
+        pool.shutdown();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"null", "deflate", "snappy", "xz", "bzip2"})
+    void whenFileHasManyBlocksThenOutputKeepsRecordOrder(String codec) throws IOException {
+        var source = writeClients(CodecFactory.fromString(codec));
+        var outputStream = new ByteArrayOutputStream();
+
+        var counter = new ParallelBlockTranscoder(pool, MAX_BLOCKS_IN_FLIGHT)
+                .transcode(new AvroContainerReader(new ByteArrayInputStream(source)), ClientMandatory.getClassSchema(), outputStream);
+
+        assertThat(counter).isEqualTo(CLIENTS_COUNT);
+        try (var stream = new DataFileStream<>(new ByteArrayInputStream(outputStream.toByteArray()), new SpecificDatumReader<>(ClientMandatory.class))) {
+            var i = 0;
+            while (stream.hasNext()) {
+                var mandatoryClient = stream.next();
+                assertThat(mandatoryClient.getId()).isEqualTo(clients.get(i).getId());
+                assertThat(mandatoryClient.getName().toString()).isEqualTo(clients.get(i++).getName().toString());
+            }
+            assertThat(i).isEqualTo(CLIENTS_COUNT);
+        }
+    }
+
+    @Test
+    void whenOutputFormatIsGivenThenOutputIsWrittenWithItsCodec() throws IOException {
+        var source = writeClients(CodecFactory.nullCodec());
+        var outputStream = new ByteArrayOutputStream();
+
+        var counter = new ParallelBlockTranscoder(pool, MAX_BLOCKS_IN_FLIGHT, AvroOutputFormat.of("deflate-6", 4 * 1024))
+                .transcode(new AvroContainerReader(new ByteArrayInputStream(source)), ClientMandatory.getClassSchema(), outputStream);
+
+        assertThat(counter).isEqualTo(CLIENTS_COUNT);
+        try (var stream = new DataFileStream<>(new ByteArrayInputStream(outputStream.toByteArray()), new SpecificDatumReader<>(ClientMandatory.class))) {
+            assertThat(stream.getMetaString("avro.codec")).isEqualTo("deflate");
+            var i = 0;
+            while (stream.hasNext()) {
+                assertThat(stream.next().getId()).isEqualTo(clients.get(i++).getId());
+            }
+            assertThat(i).isEqualTo(CLIENTS_COUNT);
+        }
+    }
+
+    @Test
+    void whenFileIsTruncatedThenExceptionIsThrown() throws IOException {
+        var source = writeClients(CodecFactory.deflateCodec(6));
+        var truncated = Arrays.copyOf(source, source.length / 2);
+
+        assertThatThrownBy(() -> new ParallelBlockTranscoder(pool, MAX_BLOCKS_IN_FLIGHT)
+                .transcode(new AvroContainerReader(new ByteArrayInputStream(truncated)), ClientMandatory.getClassSchema(), new ByteArrayOutputStream()))
+                .isInstanceOf(IOException.class);
+    }
+
+    private byte[] writeClients(CodecFactory codec) throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        try (var writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+            writer.setCodec(codec);
+            writer.setSyncInterval(16 * 1024);
+            writer.create(Client.getClassSchema(), outputStream);
+            for (var client : clients) {
+                writer.append(client);
+            }
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,104 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import example.gcp.Client;
+import example.gcp.ClientMandatory;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.AvroFileUtils.createRandomClient;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PipelinedBlockTranscoderTest {
+    private static final int CLIENTS_COUNT = 20_000;
+    private static final int QUEUE_CAPACITY = 2;
+    private static ExecutorService executor;
+    private static List<Client> clients;
+    private static byte[] source;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        clients = new ArrayList<>(CLIENTS_COUNT);
+        for (int i = 0; i < CLIENTS_COUNT; i++) {
+            clients.add(createRandomClient());
+        }
+        var outputStream = new ByteArrayOutputStream();
+        try (var writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+            writer.setCodec(CodecFactory.deflateCodec(6));
+            writer.setSyncInterval(16 * 1024);
+            writer.create(Client.getClassSchema(), outputStream);
+            for (var client : clients) {
+                writer.append(client);
+            }
+        }
+        source = outputStream.toByteArray();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void whenFileIsTranscodedThroughStagesThenOutputKeepsRecordOrder() throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+
+        var counter = new PipelinedBlockTranscoder(executor, QUEUE_CAPACITY)
+                .transcode(new AvroContainerReader(new ByteArrayInputStream(source)), ClientMandatory.getClassSchema(), outputStream);
+
+        assertThat(counter).isEqualTo(CLIENTS_COUNT);
+        try (var stream = new DataFileStream<>(new ByteArrayInputStream(outputStream.toByteArray()), new SpecificDatumReader<>(ClientMandatory.class))) {
+            var i = 0;
+            while (stream.hasNext()) {
+                var mandatoryClient = stream.next();
+                assertThat(mandatoryClient.getId()).isEqualTo(clients.get(i).getId());
+                assertThat(mandatoryClient.getName().toString()).isEqualTo(clients.get(i++).getName().toString());
+            }
+            assertThat(i).isEqualTo(CLIENTS_COUNT);
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void whenUploadFailsThenAllStagesStopAndExceptionIsThrown() {
+        var failingOutput = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Upload failed");
+            }
+        };
+
+        assertThatThrownBy(() -> new PipelinedBlockTranscoder(executor, QUEUE_CAPACITY)
+                .transcode(new AvroContainerReader(new ByteArrayInputStream(source)), ClientMandatory.getClassSchema(), failingOutput))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Upload failed");
+    }
+
+    @Test
+    @Timeout(10)
+    void whenInputIsTruncatedThenExceptionIsThrown() {
+        var truncated = Arrays.copyOf(source, source.length / 2);
+
+        assertThatThrownBy(() -> new PipelinedBlockTranscoder(executor, QUEUE_CAPACITY)
+                .transcode(new AvroContainerReader(new ByteArrayInputStream(truncated)), ClientMandatory.getClassSchema(), new ByteArrayOutputStream()))
+                .isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,209 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import example.gcp.Client;
+import example.gcp.ClientMandatory;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.ProjectionConfig;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.AvroFileUtils.createRandomClient;
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.ClientUtils.createMandatoryClientFromClient;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class RawRecordProjectorTest {
+    private static final int CLIENTS_COUNT = 1000;
+    private static final int ALLOCATION_TEST_CLIENTS_COUNT = 50_000;
+
+    @Test
+    void whenWriterSchemaIsClientThenProjectedFileContainsMandatoryFields() throws IOException {
+        var clients = createClients(CLIENTS_COUNT);
+        clients.get(0).setPhone(null);
+        clients.get(1).setAddress(null);
+
+        var expected = clients.stream().map(client -> withStringName(createMandatoryClientFromClient(client))).collect(Collectors.toList());
+
+        var projected = project(writeClients(clients, 4096), ClientMandatory.getClassSchema());
+
+        assertThat(readMandatoryClients(projected)).usingFieldByFieldElementComparator().containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void whenProjectedFieldsAreReorderedThenFieldsAreGatheredInProjectedOrder() throws IOException {
+        var reordered = SchemaBuilder.record("ClientMandatory").namespace("example.gcp").fields()
+                .name("name").type().stringType().noDefault()
+                .name("id").type().longType().noDefault()
+                .endRecord();
+        var clients = createClients(CLIENTS_COUNT);
+
+        var projected = project(writeClients(clients, 4096), reordered);
+
+        try (var stream = new DataFileStream<>(new ByteArrayInputStream(projected), new SpecificDatumReader<>(reordered, ClientMandatory.getClassSchema()))) {
+            var i = 0;
+            while (stream.hasNext()) {
+                var mandatoryClient = (ClientMandatory) stream.next();
+                assertThat(mandatoryClient.getId()).isEqualTo(clients.get(i).getId());
+                assertThat(mandatoryClient.getName().toString()).isEqualTo(clients.get(i++).getName().toString());
+            }
+            assertThat(i).isEqualTo(CLIENTS_COUNT);
+        }
+    }
+
+    @Test
+    void whenBlockIsProjectedOntoSeveralSchemasThenEveryOutputGetsItsFields() throws IOException {
+        var contact = ProjectionConfig.parseAll("client_contact:address,id", Client.getClassSchema()).get(0).getSchema();
+        var clients = createClients(CLIENTS_COUNT);
+        var projector = RawRecordProjector.forSchemas(Client.getClassSchema(), List.of(ClientMandatory.getClassSchema(), contact)).orElseThrow();
+        var mandatoryOutput = new ByteArrayOutputStream();
+        var contactOutput = new ByteArrayOutputStream();
+
+        try (var stream = new DataFileStream<>(new ByteArrayInputStream(writeClients(clients, 4096)), new SpecificDatumReader<>(Client.class));
+             var mandatoryWriter = new DataFileWriter<>(new SpecificDatumWriter<>(ClientMandatory.class));
+             var contactWriter = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(contact))) {
+            mandatoryWriter.create(ClientMandatory.getClassSchema(), mandatoryOutput);
+            contactWriter.create(contact, contactOutput);
+            while (stream.hasNext()) {
+                var recordCount = stream.getBlockCount();
+                projector.projectBlock(stream.nextBlock(), recordCount, List.of(mandatoryWriter::appendEncoded, contactWriter::appendEncoded));
+            }
+        }
+
+        assertThat(readMandatoryClients(mandatoryOutput.toByteArray())).usingFieldByFieldElementComparator()
+                .containsExactlyElementsOf(clients.stream().map(client -> withStringName(createMandatoryClientFromClient(client))).collect(Collectors.toList()));
+        try (var stream = new DataFileStream<>(new ByteArrayInputStream(contactOutput.toByteArray()), new GenericDatumReader<GenericRecord>())) {
+            var i = 0;
+            while (stream.hasNext()) {
+                var record = stream.next();
+                assertThat(record.getSchema().getFields()).hasSize(2);
+                assertThat(record.get("id")).isEqualTo(clients.get(i).getId());
+                assertThat(String.valueOf(record.get("address"))).isEqualTo(String.valueOf(clients.get(i++).getAddress()));
+            }
+            assertThat(i).isEqualTo(CLIENTS_COUNT);
+        }
+    }
+
+    @Test
+    void whenProjectedFieldHasDifferentTypeThenProjectorIsNotCreated() {
+        var promoted = SchemaBuilder.record("ClientMandatory").fields()
+                .name("id").type().doubleType().noDefault()
+                .endRecord();
+
+        assertThat(RawRecordProjector.forSchemas(Client.getClassSchema(), promoted)).isEmpty();
+    }
+
+    @Test
+    void whenBlockIsTruncatedThenExceptionIsThrown() throws IOException {
+        var projector = RawRecordProjector.forSchemas(Client.getClassSchema(), ClientMandatory.getClassSchema()).orElseThrow();
+        try (var writer = new DataFileWriter<>(new SpecificDatumWriter<>(ClientMandatory.class))) {
+            writer.create(ClientMandatory.getClassSchema(), OutputStream.nullOutputStream());
+            // id = 1, name of length 10 with only 2 bytes present
+            var block = ByteBuffer.wrap(new byte[]{2, 20, 'a', 'b'});
+
+            assertThatThrownBy(() -> projector.projectBlock(block, 1, writer)).isInstanceOf(IOException.class);
+        }
+    }
+
+    @Test
+    void whenBlockIsProjectedThenNoObjectsAreAllocatedPerRecord() throws IOException {
+        var threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        var allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        assumeTrue(allocationMXBean.isThreadAllocatedMemorySupported() && allocationMXBean.isThreadAllocatedMemoryEnabled());
+
+        var source = writeClients(createClients(ALLOCATION_TEST_CLIENTS_COUNT), 32 * 1024 * 1024);
+        ByteBuffer block;
+        long recordCount;
+        try (var stream = new DataFileStream<>(new ByteArrayInputStream(source), new SpecificDatumReader<>(Client.class))) {
+            assertThat(stream.hasNext()).isTrue();
+            recordCount = stream.getBlockCount();
+            block = stream.nextBlock();
+        }
+        assertThat(recordCount).isEqualTo(ALLOCATION_TEST_CLIENTS_COUNT);
+
+        var projector = RawRecordProjector.forSchemas(Client.getClassSchema(), ClientMandatory.getClassSchema()).orElseThrow();
+        try (var writer = new DataFileWriter<>(new SpecificDatumWriter<>(ClientMandatory.class))) {
+            // whole projection fits into writer buffer, so that no output block is written while measuring
+            writer.setSyncInterval(32 * 1024 * 1024);
+            writer.create(ClientMandatory.getClassSchema(), OutputStream.nullOutputStream());
+            // warm up
+            for (int i = 0; i < 5; i++) {
+                projector.projectBlock(block.duplicate(), recordCount, writer);
+                writer.flush();
+            }
+
+            var threadId = Thread.currentThread().getId();
+            var before = allocationMXBean.getThreadAllocatedBytes(threadId);
+            projector.projectBlock(block.duplicate(), recordCount, writer);
+            var allocated = allocationMXBean.getThreadAllocatedBytes(threadId) - before;
+
+            assertThat(allocated / (double) recordCount).as("bytes allocated per record").isLessThan(1.0);
+        }
+    }
+
+    private List<Client> createClients(int count) {
+        var clients = new ArrayList<Client>(count);
+        for (int i = 0; i < count; i++) {
+            clients.add(createRandomClient());
+        }
+        return clients;
+    }
+
+    private byte[] writeClients(List<Client> clients, int syncInterval) throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        try (var writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+            writer.setSyncInterval(syncInterval);
+            writer.create(Client.getClassSchema(), outputStream);
+            for (var client : clients) {
+                writer.append(client);
+            }
+        }
+        return outputStream.toByteArray();
+    }
+
+    private byte[] project(byte[] source, Schema projectedSchema) throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        var projector = RawRecordProjector.forSchemas(Client.getClassSchema(), projectedSchema).orElseThrow();
+        try (var stream = new DataFileStream<>(new ByteArrayInputStream(source), new SpecificDatumReader<>(Client.class));
+             var writer = new DataFileWriter<>(new SpecificDatumWriter<>(projectedSchema))) {
+            writer.create(projectedSchema, outputStream);
+            while (stream.hasNext()) {
+                var recordCount = stream.getBlockCount();
+                projector.projectBlock(stream.nextBlock(), recordCount, writer);
+            }
+        }
+        return outputStream.toByteArray();
+    }
+
+    private List<ClientMandatory> readMandatoryClients(byte[] file) throws IOException {
+        var result = new ArrayList<ClientMandatory>();
+        try (var stream = new DataFileStream<>(new ByteArrayInputStream(file), new SpecificDatumReader<>(ClientMandatory.class))) {
+            while (stream.hasNext()) {
+                result.add(withStringName(stream.next()));
+            }
+        }
+        return result;
+    }
+
+    private ClientMandatory withStringName(ClientMandatory client) {
+        return new ClientMandatory(client.getId(), client.getName().toString());
+    }
+}
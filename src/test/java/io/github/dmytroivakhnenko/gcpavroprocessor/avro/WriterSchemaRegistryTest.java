@@ -0,0 +1,101 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.avro;
+
+import example.gcp.Client;
+import example.gcp.ClientMandatory;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WriterSchemaRegistryTest {
+    private static final String EVOLVED_CLIENT_SCHEMA = "{\"namespace\": \"example.gcp\", \"type\": \"record\", \"name\": \"Client\", \"fields\": ["
+            + "{\"name\": \"id\", \"type\": \"long\"},"
+            + "{\"name\": \"email\", \"type\": \"string\"},"
+            + "{\"name\": \"name\", \"type\": \"string\"},"
+            + "{\"name\": \"phone\", \"type\": [\"string\", \"null\"]},"
+            + "{\"name\": \"address\", \"type\": [\"string\", \"null\"]}]}";
+    private static final String INCOMPATIBLE_CLIENT_SCHEMA = "{\"namespace\": \"example.gcp\", \"type\": \"record\", \"name\": \"Client\", \"fields\": ["
+            + "{\"name\": \"id\", \"type\": \"string\"},"
+            + "{\"name\": \"name\", \"type\": \"string\"}]}";
+
+    private final WriterSchemaRegistry<ClientMandatory> registry = new WriterSchemaRegistry<>(Client.getClassSchema(), ClientMandatory.getClassSchema(), 2);
+
+    @Test
+    void whenSchemaIsKnownThenParsedSchemaIsReused() throws IOException {
+        var first = registry.resolve(header(writeFile(new Schema.Parser().parse(EVOLVED_CLIENT_SCHEMA))));
+        var secondHeader = header(writeFile(new Schema.Parser().parse(EVOLVED_CLIENT_SCHEMA)));
+
+        var second = registry.resolve(secondHeader);
+
+        assertThat(second).isSameAs(first);
+        assertThat(secondHeader.getSchema()).isSameAs(first.getSchema());
+        assertThat(registry.getStats().getHitCount()).isEqualTo(1);
+        assertThat(registry.getStats().getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void whenSchemaIsEvolvedThenRecordsAreDecodedIntoProjection() throws IOException {
+        var schema = new Schema.Parser().parse(EVOLVED_CLIENT_SCHEMA);
+        var record = new GenericData.Record(schema);
+        record.put("id", 42L);
+        record.put("email", "client@example.com");
+        record.put("name", "Client");
+        record.put("phone", null);
+        record.put("address", "Street 1");
+        var encoded = new ByteArrayOutputStream();
+        var encoder = EncoderFactory.get().binaryEncoder(encoded, null);
+        new GenericDatumWriter<GenericRecord>(schema).write(record, encoder);
+        encoder.flush();
+
+        var writerSchema = registry.resolve(header(writeFile(schema)));
+        var mandatoryClient = writerSchema.getProjectionReader().read(null, DecoderFactory.get().binaryDecoder(encoded.toByteArray(), null));
+
+        assertThat(writerSchema.isCompatible()).isTrue();
+        assertThat(mandatoryClient.getId()).isEqualTo(42L);
+        assertThat(mandatoryClient.getName().toString()).isEqualTo("Client");
+    }
+
+    @Test
+    void whenSchemaIsIncompatibleThenItIsReported() throws IOException {
+        var writerSchema = registry.resolve(header(writeFile(new Schema.Parser().parse(INCOMPATIBLE_CLIENT_SCHEMA))));
+
+        assertThat(writerSchema.isCompatible()).isFalse();
+        assertThat(writerSchema.getIncompatibility()).isNotBlank();
+    }
+
+    @Test
+    void whenRegistryIsFullThenLeastRecentlyUsedSchemaIsEvicted() throws IOException {
+        var clientFile = writeFile(Client.getClassSchema());
+        registry.resolve(header(clientFile));
+        registry.resolve(header(writeFile(new Schema.Parser().parse(EVOLVED_CLIENT_SCHEMA))));
+        registry.resolve(header(clientFile));
+        registry.resolve(header(writeFile(new Schema.Parser().parse(INCOMPATIBLE_CLIENT_SCHEMA))));
+
+        registry.resolve(header(clientFile));
+
+        assertThat(registry.getStats().getSchemaCount()).isEqualTo(2);
+        assertThat(registry.getStats().getHitCount()).isEqualTo(2);
+    }
+
+    private AvroContainerReader.Header header(byte[] file) throws IOException {
+        return new AvroContainerReader(new ByteArrayInputStream(file)).getHeader();
+    }
+
+    private byte[] writeFile(Schema schema) throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        try (var writer = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(schema))) {
+            writer.create(schema, outputStream);
+        }
+        return outputStream.toByteArray();
+    }
+}
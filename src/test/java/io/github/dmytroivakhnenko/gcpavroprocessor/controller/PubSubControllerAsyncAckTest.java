@@ -0,0 +1,74 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.storage.BlobInfo;
+import com.google.gson.GsonBuilder;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.StartupMetrics;
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.FileJobService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.GCSFileProcessorService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.FileJob;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.FileJobState;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.PubSubEvent;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.util.Base64;
+import java.util.Map;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@Import({MetricsRegistry.class, StartupMetrics.class})
+@WebMvcTest(controllers = PubSubController.class, properties = "pubsub.ack.mode=ASYNC")
+public class PubSubControllerAsyncAckTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @MockBean
+    private GCSFileProcessorService gcsFileProcessorService;
+
+    @MockBean
+    private FileJobService fileJobService;
+
+    @Test
+    void whenFileIsAcceptedThenReturnAcceptedStatusWithoutWaitingForProcessing() throws Exception {
+        var job = FileJob.builder().id("job-1").bucket("mybucket").name("myname.avro").state(FileJobState.RUNNING).attempts(1).build();
+        when(fileJobService.accept(Mockito.any(BlobInfo.class), Mockito.any())).thenReturn(job);
+        var event = new PubSubEvent();
+        var message = event.new Message();
+        var data = new GsonBuilder().create().toJson(Map.of("bucket", "mybucket", "name", "myname.avro"));
+        message.setData(Base64.getEncoder().encodeToString(data.getBytes()));
+        event.setMessage(message);
+
+        postEvent(event)
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.id").value("job-1"));
+
+        verify(fileJobService, times(1)).accept(Mockito.any(BlobInfo.class), Mockito.any());
+        verify(gcsFileProcessorService, never()).processFileToBigQuery(Mockito.any(BlobInfo.class));
+    }
+
+    /**
+     * Response of the controller is asynchronous, so the request is dispatched again once it is completed.
+     */
+    private ResultActions postEvent(PubSubEvent event) throws Exception {
+        var resultActions = mockMvc.perform(post("/pubsub")
+                .contentType("application/json")
+                .content(objectMapper.writeValueAsString(event)));
+        var result = resultActions.andReturn();
+        return result.getRequest().isAsyncStarted() ? mockMvc.perform(asyncDispatch(result)) : resultActions;
+    }
+}
@@ -5,6 +5,11 @@ import com.google.cloud.RetryOption;
 import com.google.cloud.bigquery.Job;
 import com.google.cloud.storage.BlobInfo;
 import com.google.gson.GsonBuilder;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.StartupMetrics;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.AvroFileValidationException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.FileJobService;
 import io.github.dmytroivakhnenko.gcpavroprocessor.service.GCSFileProcessorService;
 import io.github.dmytroivakhnenko.gcpavroprocessor.util.PubSubEvent;
 import org.assertj.core.util.Lists;
@@ -15,18 +20,23 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
 
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+@Import({MetricsRegistry.class, StartupMetrics.class})
 @WebMvcTest(controllers = PubSubController.class)
 public class PubSubControllerTest {
     @Autowired
@@ -38,6 +48,9 @@ public class PubSubControllerTest {
     @MockBean
     private GCSFileProcessorService gcsFileProcessorService;
 
+    @MockBean
+    private FileJobService fileJobService;
+
     @Mock
     private CompletableFuture completableFuture;
 
@@ -48,9 +61,7 @@ public class PubSubControllerTest {
     void whenEventMessageIsNullReturnBadRequestStatus() throws Exception {
         var event = new PubSubEvent();
         event.setMessage(null);
-        mockMvc.perform(post("/pubsub")
-                .contentType("application/json")
-                .content(objectMapper.writeValueAsString(event)))
+        postEvent(event)
                 .andExpect(status().isBadRequest());
 
         var blobInfoCaptor = ArgumentCaptor.forClass(BlobInfo.class);
@@ -64,9 +75,7 @@ public class PubSubControllerTest {
         var data = getEncodedJsonData("mybucket", null);
         message.setData(data);
         event.setMessage(message);
-        mockMvc.perform(post("/pubsub")
-                .contentType("application/json")
-                .content(objectMapper.writeValueAsString(event)))
+        postEvent(event)
                 .andExpect(status().isBadRequest());
 
         var blobInfoCaptor = ArgumentCaptor.forClass(BlobInfo.class);
@@ -80,9 +89,7 @@ public class PubSubControllerTest {
         var data = getEncodedJsonData(null, "myname.avro");
         message.setData(data);
         event.setMessage(message);
-        mockMvc.perform(post("/pubsub")
-                .contentType("application/json")
-                .content(objectMapper.writeValueAsString(event)))
+        postEvent(event)
                 .andExpect(status().isBadRequest());
 
         var blobInfoCaptor = ArgumentCaptor.forClass(BlobInfo.class);
@@ -100,9 +107,7 @@ public class PubSubControllerTest {
 
         message.setData(data);
         event.setMessage(message);
-        mockMvc.perform(post("/pubsub")
-                .contentType("application/json")
-                .content(objectMapper.writeValueAsString(event)))
+        postEvent(event)
                 .andExpect(status().isOk());
 
 
@@ -120,15 +125,67 @@ public class PubSubControllerTest {
         var data = getEncodedJsonData("mybucket", "name.txt");
         message.setData(data);
         event.setMessage(message);
-        mockMvc.perform(post("/pubsub")
-                .contentType("application/json")
-                .content(objectMapper.writeValueAsString(event)))
+        postEvent(event)
                 .andExpect(status().isOk());
 
         var blobInfoCaptor = ArgumentCaptor.forClass(BlobInfo.class);
         verify(gcsFileProcessorService, times(0)).processFileToBigQuery(blobInfoCaptor.capture());
     }
 
+    @Test
+    void whenServiceIsOverloadedReturnTooManyRequestsStatus() throws Exception {
+        when(gcsFileProcessorService.processFileToBigQuery(Mockito.any(BlobInfo.class))).thenThrow(new ServiceOverloadedException("Executor transcode is saturated"));
+        postEvent(createEvent("mybucket", "myname.avro"))
+                .andExpect(status().isTooManyRequests());
+    }
+
+    @Test
+    void whenFileValidationFailsAsynchronouslyReturnOk() throws Exception {
+        when(gcsFileProcessorService.processFileToBigQuery(Mockito.any(BlobInfo.class)))
+                .thenReturn(List.of(CompletableFuture.failedFuture(new AvroFileValidationException("Invalid file"))));
+        postEvent(createEvent("mybucket", "myname.avro"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void whenFileIsBeingProcessedThenRequestIsReleasedUntilLoadsFinish() throws Exception {
+        var load = new CompletableFuture<Boolean>();
+        when(gcsFileProcessorService.processFileToBigQuery(Mockito.any(BlobInfo.class))).thenReturn(List.of(load));
+
+        var result = mockMvc.perform(post("/pubsub")
+                .contentType("application/json")
+                .content(objectMapper.writeValueAsString(createEvent("mybucket", "myname.avro"))))
+                .andReturn();
+
+        assertThat(result.getRequest().isAsyncStarted()).isTrue();
+        load.complete(true);
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+    }
+
+    @Test
+    void whenEventHasGenerationThenFileVersionIsProcessed() throws Exception {
+        when(gcsFileProcessorService.processFileToBigQuery(Mockito.any(BlobInfo.class))).thenReturn(Lists.emptyList());
+        var event = new PubSubEvent();
+        var message = event.new Message();
+        var json = "{\"bucket\":\"mybucket\",\"name\":\"myname.avro\",\"generation\":\"1601234567890123\"}";
+        message.setData(new String(Base64.getEncoder().encode(json.getBytes())));
+        event.setMessage(message);
+        postEvent(event)
+                .andExpect(status().isOk());
+
+        var blobInfoCaptor = ArgumentCaptor.forClass(BlobInfo.class);
+        verify(gcsFileProcessorService, times(1)).processFileToBigQuery(blobInfoCaptor.capture());
+        assertThat(blobInfoCaptor.getValue().getGeneration()).isEqualTo(1601234567890123L);
+    }
+
+    private PubSubEvent createEvent(final String bucket, final String name) {
+        var event = new PubSubEvent();
+        var message = event.new Message();
+        message.setData(getEncodedJsonData(bucket, name));
+        event.setMessage(message);
+        return event;
+    }
+
     private String getEncodedJsonData(final String bucket, final String name) {
         var myMap = new HashMap<String, String>();
         myMap.put("bucket", bucket);
@@ -137,4 +194,15 @@ public class PubSubControllerTest {
         var gson = new GsonBuilder().create();
         return new String(Base64.getEncoder().encode(gson.toJson(myMap).getBytes()));
     }
+
+    /**
+     * Response of the controller is asynchronous, so the request is dispatched again once it is completed.
+     */
+    private ResultActions postEvent(PubSubEvent event) throws Exception {
+        var resultActions = mockMvc.perform(post("/pubsub")
+                .contentType("application/json")
+                .content(objectMapper.writeValueAsString(event)));
+        var result = resultActions.andReturn();
+        return result.getRequest().isAsyncStarted() ? mockMvc.perform(asyncDispatch(result)) : resultActions;
+    }
 }
@@ -0,0 +1,57 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.metrics;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.jfr.IoTimer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MeteredStreamTest {
+
+    @Test
+    void whenMeteredOutputIsWrappedAgainThenListenerIsAddedToTheSameStream() throws IOException {
+        var first = new IoTimer();
+        var second = new IoTimer();
+        var closeNanos = new AtomicLong(-1);
+        var target = new ByteArrayOutputStream();
+
+        var output = MeteredOutputStream.of(target, first);
+        var rewrapped = MeteredOutputStream.of(MeteredOutputStream.of(output, second), new IoListener() {
+            @Override
+            public void onTransfer(long bytes, long nanos) {
+            }
+
+            @Override
+            public void onClose(long nanos) {
+                closeNanos.set(nanos);
+            }
+        });
+        try (rewrapped) {
+            rewrapped.write(new byte[100]);
+            rewrapped.write(1);
+        }
+        rewrapped.close();
+
+        assertThat(rewrapped).isSameAs(output);
+        assertThat(target.size()).isEqualTo(101);
+        assertThat(first.getBytes()).isEqualTo(101);
+        assertThat(second.getBytes()).isEqualTo(101);
+        assertThat(closeNanos.get()).isNotNegative();
+    }
+
+    @Test
+    void whenMeteredInputIsReadThenEveryListenerGetsTheBytes() throws IOException {
+        var timer = new IoTimer();
+        var readBytes = new AtomicLong();
+
+        var input = MeteredInputStream.of(MeteredInputStream.of(new ByteArrayInputStream(new byte[1000]), timer), (bytes, nanos) -> readBytes.addAndGet(bytes));
+
+        assertThat(input.readAllBytes()).hasSize(1000);
+        assertThat(timer.getBytes()).isEqualTo(1000);
+        assertThat(readBytes.get()).isEqualTo(1000);
+    }
+}
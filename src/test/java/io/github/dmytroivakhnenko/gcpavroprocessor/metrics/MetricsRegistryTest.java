@@ -0,0 +1,51 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MetricsRegistryTest {
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    @Test
+    void whenMetricsAreScrapedThenTheyAreInPrometheusTextFormat() {
+        metrics.counter("files_total", "Files", "result", "success").increment(3);
+        metrics.gauge("queued_tasks", "Queued tasks", () -> 7, "executor", "transcode");
+        var histogram = metrics.histogram("load_seconds", "Loads", "type", "load");
+        histogram.record(0.003);
+        histogram.record(0.2);
+        histogram.record(1000);
+
+        var scraped = metrics.scrape();
+
+        assertThat(scraped).contains("# TYPE files_total counter\nfiles_total{result=\"success\"} 3\n");
+        assertThat(scraped).contains("# TYPE queued_tasks gauge\nqueued_tasks{executor=\"transcode\"} 7\n");
+        assertThat(scraped).contains("# TYPE load_seconds histogram\n");
+        assertThat(scraped).contains("load_seconds_bucket{type=\"load\",le=\"0.001\"} 0\n");
+        assertThat(scraped).contains("load_seconds_bucket{type=\"load\",le=\"0.005\"} 1\n");
+        assertThat(scraped).contains("load_seconds_bucket{type=\"load\",le=\"0.25\"} 2\n");
+        assertThat(scraped).contains("load_seconds_bucket{type=\"load\",le=\"600.0\"} 2\n");
+        assertThat(scraped).contains("load_seconds_bucket{type=\"load\",le=\"+Inf\"} 3\n");
+        assertThat(scraped).contains("load_seconds_count{type=\"load\"} 3\n");
+    }
+
+    @Test
+    void whenMetricIsLookedUpAgainThenTheSameMetricIsReturned() {
+        var counter = metrics.counter("files_total", "Files", "result", "success");
+
+        assertThat(metrics.counter("files_total", "Files", "result", "success")).isSameAs(counter);
+        assertThat(metrics.counter("files_total", "Files", "result", "failure")).isNotSameAs(counter);
+        assertThatThrownBy(() -> metrics.histogram("files_total", "Files")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void whenCounterIsReadFromSupplierThenItIsScrapedAsCounter() {
+        var rejected = new long[]{2};
+        metrics.counter("rejected_total", "Rejected", () -> rejected[0], "executor", "transcode");
+        rejected[0] = 5;
+
+        assertThat(metrics.scrape()).contains("# TYPE rejected_total counter\nrejected_total{executor=\"transcode\"} 5\n");
+        assertThatThrownBy(() -> metrics.gauge("rejected_total", "Rejected", () -> 1)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
+
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.JobStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BigQueryJobPollerTest {
+    private static final int JOBS_COUNT = 1000;
+
+    @Test
+    void whenManyJobsAreTrackedThenStatusesAreFetchedInBatches() throws Exception {
+        var done = status(JobStatus.State.DONE);
+        var fetchedBatchSizes = new CopyOnWriteArrayList<Integer>();
+        try (var poller = new BigQueryJobPoller(jobs -> {
+            fetchedBatchSizes.add(jobs.size());
+            return jobs.stream().collect(Collectors.toMap(job -> job.getJobId().getJob(), job -> done));
+        }, 50, 50, TimeUnit.MINUTES.toMillis(1))) {
+            var futures = IntStream.range(0, JOBS_COUNT).mapToObj(i -> poller.track(job("job-" + i))).collect(Collectors.toList());
+
+            for (var future : futures) {
+                assertThat(future.get(10, TimeUnit.SECONDS)).isSameAs(done);
+            }
+            assertThat(fetchedBatchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(JOBS_COUNT);
+            assertThat(fetchedBatchSizes.size()).isLessThan(JOBS_COUNT);
+            assertThat(poller.getStats().getTrackedJobs()).isZero();
+        }
+    }
+
+    @Test
+    void whenJobIsRunningThenPollIntervalGrows() throws Exception {
+        var running = status(JobStatus.State.RUNNING);
+        var done = status(JobStatus.State.DONE);
+        var polls = new CopyOnWriteArrayList<Long>();
+        try (var poller = new BigQueryJobPoller(jobs -> {
+            polls.add(System.nanoTime());
+            return Map.of("job", polls.size() < 5 ? running : done);
+        }, 20, 1000, TimeUnit.MINUTES.toMillis(1))) {
+            assertThat(poller.track(job("job")).get(10, TimeUnit.SECONDS)).isSameAs(done);
+            assertThat(polls).hasSize(5);
+            assertThat(polls.get(4) - polls.get(3)).isGreaterThan(polls.get(1) - polls.get(0));
+        }
+    }
+
+    @Test
+    void whenJobIsNotFinishedInTimeThenFutureFailsWithTimeout() {
+        var running = status(JobStatus.State.RUNNING);
+        try (var poller = new BigQueryJobPoller(jobs -> Map.of("job", running), 10, 10, 100)) {
+            var future = poller.track(job("job"));
+
+            assertThatThrownBy(() -> future.get(10, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(TimeoutException.class);
+            assertThat(poller.getStats().getTimedOutCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void whenStatusFetchFailsThenJobIsPolledAgain() throws Exception {
+        var done = status(JobStatus.State.DONE);
+        var attempts = new CopyOnWriteArrayList<Integer>();
+        try (var poller = new BigQueryJobPoller(jobs -> {
+            attempts.add(jobs.size());
+            if (attempts.size() == 1) {
+                throw new IllegalStateException("Backend error");
+            }
+            return Map.of("job", done);
+        }, 10, 10, TimeUnit.MINUTES.toMillis(1))) {
+            assertThat(poller.track(job("job")).get(10, TimeUnit.SECONDS)).isSameAs(done);
+            assertThat(attempts).isEqualTo(List.of(1, 1));
+        }
+    }
+
+    private Job job(String name) {
+        var jobId = mock(JobId.class);
+        when(jobId.getJob()).thenReturn(name);
+        var job = mock(Job.class);
+        when(job.getJobId()).thenReturn(jobId);
+        return job;
+    }
+
+    private JobStatus status(JobStatus.State state) {
+        var status = mock(JobStatus.class);
+        when(status.getState()).thenReturn(state);
+        return status;
+    }
+}
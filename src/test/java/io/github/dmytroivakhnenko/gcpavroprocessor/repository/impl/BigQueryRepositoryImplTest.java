@@ -0,0 +1,103 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.JobStatistics;
+import com.google.cloud.bigquery.JobStatus;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BigQueryRepositoryImplTest {
+    private final BigQuery bigQuery = mock(BigQuery.class);
+    private final CloudClients clients = mock(CloudClients.class);
+    private final JobStatus done = mock(JobStatus.class);
+    private BigQueryRepositoryImpl repository;
+
+    @AfterEach
+    void tearDown() {
+        repository.shutdown();
+    }
+
+    @Test
+    void whenAllTrackedJobsAreListedThenListingStopsAndJobWithoutStatisticsIsFetched() {
+        var attached = job("attached", null);
+        var page = page(List.of(job("first", 100L), job("other", 150L), job("second", 200L)), true);
+        when(bigQuery.listJobs(any())).thenReturn(page);
+        when(bigQuery.getJob(attached.getJobId())).thenReturn(attached);
+        createRepository();
+
+        var statuses = fetchJobStatuses(List.of(job("first", 100L), job("second", 200L), attached));
+
+        assertThat(statuses).containsOnlyKeys("first", "second", "attached");
+        verify(page, never()).getNextPage();
+    }
+
+    @Test
+    void whenListingReachesPageLimitThenOlderJobsAreFetchedOneByOne() {
+        var old = job("old", 10L);
+        var pages = new ArrayList<Page<Job>>();
+        for (int i = 0; i < 10; i++) {
+            pages.add(page(List.of(job("other-" + i, 1000L - i)), true));
+        }
+        for (int i = 0; i < pages.size() - 1; i++) {
+            when(pages.get(i).getNextPage()).thenReturn(pages.get(i + 1));
+        }
+        when(bigQuery.listJobs(any())).thenReturn(pages.get(0));
+        when(bigQuery.getJob(old.getJobId())).thenReturn(old);
+        createRepository();
+
+        var running = job("running", 999L);
+        var statuses = fetchJobStatuses(List.of(old, running, job("new", 2000L)));
+
+        assertThat(statuses).containsOnlyKeys("old");
+        verify(pages.get(2), never()).getNextPage();
+        verify(bigQuery, never()).getJob(running.getJobId());
+    }
+
+    private void createRepository() {
+        when(clients.bigQuery()).thenReturn(bigQuery);
+        repository = new BigQueryRepositoryImpl(clients, new MetricsRegistry(), 500, 1000, 2, 5);
+    }
+
+    private Map<String, JobStatus> fetchJobStatuses(Collection<Job> jobs) {
+        return ReflectionTestUtils.invokeMethod(repository, "fetchJobStatuses", jobs);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Page<Job> page(List<Job> jobs, boolean hasNextPage) {
+        var page = (Page<Job>) mock(Page.class);
+        when(page.getValues()).thenReturn(jobs);
+        when(page.hasNextPage()).thenReturn(hasNextPage);
+        return page;
+    }
+
+    private Job job(String name, Long creationTime) {
+        var jobId = mock(JobId.class);
+        when(jobId.getJob()).thenReturn(name);
+        var job = mock(Job.class);
+        when(job.getJobId()).thenReturn(jobId);
+        when(job.getStatus()).thenReturn(done);
+        if (creationTime != null) {
+            var statistics = mock(JobStatistics.class);
+            when(statistics.getCreationTime()).thenReturn(creationTime);
+            when(job.getStatistics()).thenReturn(statistics);
+        }
+        return job;
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.InsertAllResponse;
+import com.google.cloud.storage.BlobInfo;
+import example.gcp.ClientMandatory;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BigQueryStreamingRowSinkTest {
+    private static final int MAX_INSERT_ID_LENGTH = 128;
+
+    private final BigQuery bigQuery = mock(BigQuery.class);
+    private final CloudClients clients = mock(CloudClients.class);
+
+    @Test
+    void whenFileHasLongNameOrIsOverwrittenThenInsertIdsAreBoundedAndDiffer() {
+        when(clients.bigQuery()).thenReturn(bigQuery);
+        when(bigQuery.insertAll(any())).thenReturn(mock(InsertAllResponse.class));
+        var sink = new BigQueryStreamingRowSink(clients, 10);
+        var name = "a".repeat(1024) + ".avro";
+
+        write(sink, BlobInfo.newBuilder("test_bucket", name, 1L).build());
+        write(sink, BlobInfo.newBuilder("test_bucket", name, 2L).build());
+
+        var requests = ArgumentCaptor.forClass(InsertAllRequest.class);
+        verify(bigQuery, times(2)).insertAll(requests.capture());
+        var firstIds = insertIds(requests.getAllValues().get(0));
+        var secondIds = insertIds(requests.getAllValues().get(1));
+        assertThat(firstIds).hasSize(2).allMatch(id -> id.length() <= MAX_INSERT_ID_LENGTH).doesNotHaveDuplicates();
+        assertThat(secondIds).doesNotContainAnyElementsOf(firstIds);
+    }
+
+    private static void write(BigQueryStreamingRowSink sink, BlobInfo source) {
+        var writer = sink.open("clients_dataset", "client_mandatory", source);
+        writer.write(ClientMandatory.newBuilder().setId(1L).setName("first").build());
+        writer.write(ClientMandatory.newBuilder().setId(2L).setName("second").build());
+        writer.commit();
+    }
+
+    private static List<String> insertIds(InsertAllRequest request) {
+        return request.getRows().stream().map(row -> row.getId()).collect(Collectors.toList());
+    }
+}
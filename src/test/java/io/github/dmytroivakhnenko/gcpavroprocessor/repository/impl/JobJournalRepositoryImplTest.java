@@ -0,0 +1,77 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.FileJob;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.FileJobState;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class JobJournalRepositoryImplTest {
+    private static final int COMPACTION_THRESHOLD = 100;
+    private static final long RETENTION_HOURS = 1;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void whenJournalIsReopenedThenLastStateOfEveryJobIsRestored() throws IOException {
+        var path = tempDir.resolve("jobs.journal");
+        var journal = open(path);
+        journal.save(job("1", FileJobState.RUNNING, System.currentTimeMillis()));
+        journal.save(job("2", FileJobState.RUNNING, System.currentTimeMillis()));
+        journal.save(job("1", FileJobState.SUCCEEDED, System.currentTimeMillis()));
+        journal.close();
+
+        var reopened = open(path);
+
+        assertThat(reopened.findAll()).extracting(FileJob::getId, FileJob::getState)
+                .containsExactlyInAnyOrder(tuple("1", FileJobState.SUCCEEDED), tuple("2", FileJobState.RUNNING));
+        reopened.close();
+    }
+
+    @Test
+    void whenLastLineIsTruncatedThenItIsSkipped() throws IOException {
+        var path = tempDir.resolve("jobs.journal");
+        var journal = open(path);
+        journal.save(job("1", FileJobState.RUNNING, System.currentTimeMillis()));
+        journal.close();
+        Files.writeString(path, "{\"id\":\"2\",\"sta", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        var reopened = open(path);
+
+        assertThat(reopened.findAll()).extracting(FileJob::getId).containsExactly("1");
+        reopened.close();
+    }
+
+    @Test
+    void whenJournalGrowsThenItIsCompacted() throws IOException {
+        var path = tempDir.resolve("jobs.journal");
+        var journal = open(path);
+        var expired = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(RETENTION_HOURS + 1);
+        journal.save(job("expired", FileJobState.SUCCEEDED, expired));
+        for (int i = 0; i < COMPACTION_THRESHOLD * 3; i++) {
+            journal.save(job("active", FileJobState.RUNNING, System.currentTimeMillis()));
+        }
+
+        assertThat(Files.readAllLines(path).size()).isLessThan(COMPACTION_THRESHOLD);
+        assertThat(journal.findAll()).extracting(FileJob::getId).containsExactly("active");
+        journal.close();
+    }
+
+    private JobJournalRepositoryImpl open(Path path) throws IOException {
+        return new JobJournalRepositoryImpl(path.toString(), COMPACTION_THRESHOLD, RETENTION_HOURS);
+    }
+
+    private FileJob job(String id, FileJobState state, long updatedAt) {
+        return FileJob.builder().id(id).bucket("bucket").name(id + ".avro").state(state).acceptedAt(updatedAt).updatedAt(updatedAt).build();
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProcessedFileRepositoryImplTest {
+    private static final int MAX_ENTRIES = 10;
+    private static final long TTL_HOURS = 1;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void whenLogIsReopenedThenProcessedFilesAreRestored() throws IOException {
+        var path = tempDir.resolve("processed-files.log");
+        var repository = open(path);
+        repository.markProcessed("bucket/a.avro#1");
+        repository.close();
+
+        var reopened = open(path);
+
+        assertThat(reopened.isProcessed("bucket/a.avro#1")).isTrue();
+        assertThat(reopened.isProcessed("bucket/a.avro#2")).isFalse();
+        reopened.close();
+    }
+
+    @Test
+    void whenCacheIsFullThenOldestFilesAreEvictedAndLogIsCompacted() throws IOException {
+        var path = tempDir.resolve("processed-files.log");
+        var repository = open(path);
+        for (int i = 0; i < 3 * MAX_ENTRIES; i++) {
+            repository.markProcessed("bucket/" + i + ".avro#1");
+        }
+
+        assertThat(repository.isProcessed("bucket/0.avro#1")).isFalse();
+        assertThat(repository.isProcessed("bucket/" + (3 * MAX_ENTRIES - 1) + ".avro#1")).isTrue();
+        assertThat(Files.readAllLines(path)).hasSizeLessThan(2 * MAX_ENTRIES);
+        repository.close();
+    }
+
+    @Test
+    void whenRecordIsExpiredOrCorruptedThenItIsSkipped() throws IOException {
+        var path = tempDir.resolve("processed-files.log");
+        var expired = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(TTL_HOURS + 1);
+        Files.writeString(path, "{\"key\":\"bucket/old.avro#1\",\"processedAt\":" + expired + "}" + System.lineSeparator()
+                + "{\"key\":\"bucket/cut", StandardCharsets.UTF_8, StandardOpenOption.CREATE);
+
+        var repository = open(path);
+
+        assertThat(repository.isProcessed("bucket/old.avro#1")).isFalse();
+        assertThat(Files.readAllLines(path)).isEmpty();
+        repository.close();
+    }
+
+    private ProcessedFileRepositoryImpl open(Path path) throws IOException {
+        return new ProcessedFileRepositoryImpl(path.toString(), MAX_ENTRIES, TTL_HOURS);
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.repository.impl;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BufferPool;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.RangedReadStats;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ReadAheadInputStreamTest {
+    private static final int RANGE_SIZE = 1000;
+    private static final int WINDOW = 3;
+    private static ExecutorService executor;
+
+    @BeforeAll
+    static void setUp() {
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void whenRangesCompleteOutOfOrderThenBytesAreReturnedInOrder() throws IOException {
+        var content = new byte[10 * RANGE_SIZE + 123];
+        new Random(42).nextBytes(content);
+        var inFlight = new AtomicInteger();
+        var maxInFlight = new AtomicInteger();
+        var stats = new RangedReadStats(WINDOW, RANGE_SIZE);
+
+        var bufferPool = new BufferPool("test", RANGE_SIZE, RANGE_SIZE, WINDOW * RANGE_SIZE, true);
+
+        try (var inputStream = new ReadAheadInputStream((offset, target) -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(20));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            target.put(content, (int) offset, target.remaining());
+        }, executor, content.length, RANGE_SIZE, WINDOW, stats, bufferPool)) {
+            assertThat(inputStream.read()).isEqualTo(content[0] & 0xff);
+            var rest = inputStream.readAllBytes();
+
+            assertThat(rest).isEqualTo(Arrays.copyOfRange(content, 1, content.length));
+            assertThat(inputStream.read()).isEqualTo(-1);
+        }
+        assertThat(maxInFlight.get()).isLessThanOrEqualTo(WINDOW);
+        assertThat(stats.getRangeCount()).isEqualTo(11);
+        assertThat(stats.getBytesRead()).isEqualTo(content.length);
+        assertThat(bufferPool.getStats().getOutstandingBytes()).isZero();
+        assertThat(bufferPool.getStats().getHitCount()).isPositive();
+    }
+
+    @Test
+    void whenRangeIsShorterThanRequestedThenExceptionIsThrown() {
+        var stats = new RangedReadStats(WINDOW, RANGE_SIZE);
+        var bufferPool = new BufferPool("test", RANGE_SIZE, RANGE_SIZE, WINDOW * RANGE_SIZE, false);
+
+        assertThatThrownBy(() -> {
+            try (var inputStream = new ReadAheadInputStream((offset, target) -> target.position(target.limit() / 2), executor, 5 * RANGE_SIZE, RANGE_SIZE, WINDOW, stats, bufferPool)) {
+                inputStream.readAllBytes();
+            }
+        }).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void whenExecutorIsSaturatedThenRangesAreReadByReader() throws IOException {
+        var content = new byte[5 * RANGE_SIZE];
+        new Random(42).nextBytes(content);
+        var stats = new RangedReadStats(WINDOW, RANGE_SIZE);
+        var bufferPool = new BufferPool("test", RANGE_SIZE, RANGE_SIZE, WINDOW * RANGE_SIZE, true);
+        var reader = Thread.currentThread();
+        var readByReader = new AtomicInteger();
+
+        try (var inputStream = new ReadAheadInputStream((offset, target) -> {
+            if (Thread.currentThread() == reader) {
+                readByReader.incrementAndGet();
+            }
+            target.put(content, (int) offset, target.remaining());
+        }, task -> {
+            throw new ServiceOverloadedException("Executor is saturated");
+        }, content.length, RANGE_SIZE, WINDOW, stats, bufferPool)) {
+            assertThat(inputStream.readAllBytes()).isEqualTo(content);
+        }
+        assertThat(readByReader).hasValue(5);
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import com.google.cloud.storage.BlobInfo;
+import example.gcp.Client;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.AdaptiveCodecSelector;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.CloudStorageRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BoundedExecutor;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.GenerationProgress;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.GenerationState;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.getAvroFile;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class AvroFileGeneratorServiceImplTest {
+    private static final int FILE_COUNT = 5;
+    private static final int CLIENTS_COUNT = 2000;
+
+    private final CloudStorageRepository gcStorage = mock(CloudStorageRepository.class);
+    private final BoundedExecutor generatorExecutor = new BoundedExecutor("generator", 2, 4);
+    private final Map<String, ByteArrayOutputStream> files = new ConcurrentHashMap<>();
+
+    @Test
+    void whenGenerationIsStartedThenCompleteFilesAreMovedToInputBucketInBackground() throws Exception {
+        when(gcStorage.createFileAndGetOutputStream(any(BlobInfo.class))).thenAnswer(invocation -> {
+            var outputStream = new ByteArrayOutputStream();
+            files.put(invocation.<BlobInfo>getArgument(0).getBucket() + "/" + invocation.<BlobInfo>getArgument(0).getName(), outputStream);
+            return outputStream;
+        });
+        var service = createService();
+
+        var started = service.startGeneration("test", FILE_COUNT, CLIENTS_COUNT);
+        var progress = awaitGeneration(service, started.getId());
+
+        assertThat(progress.getState()).isEqualTo(GenerationState.SUCCEEDED);
+        assertThat(progress.getFilesWritten()).isEqualTo(FILE_COUNT);
+        assertThat(progress.getRecordsWritten()).isEqualTo(FILE_COUNT * CLIENTS_COUNT);
+        assertThat(progress.getRecordsPerSecond()).isPositive();
+        assertThat(files).hasSize(FILE_COUNT).containsKey("generator_bucket/test0.avro");
+        for (var file : files.values()) {
+            var ids = new HashSet<Long>();
+            try (var stream = new DataFileStream<>(new ByteArrayInputStream(file.toByteArray()), new SpecificDatumReader<>(Client.class))) {
+                for (var client : stream) {
+                    ids.add(client.getId());
+                    assertThat(client.getName().toString()).hasSize(10).matches("[A-Za-z]+");
+                    assertThat(client.getPhone().toString()).hasSize(8).matches("[0-9]+");
+                }
+            }
+            assertThat(ids).hasSize(CLIENTS_COUNT);
+        }
+        verify(gcStorage, times(FILE_COUNT)).moveFileToBucket(any(), eq("input_bucket"));
+    }
+
+    @Test
+    void whenFileIsNotWrittenThenGenerationFails() throws Exception {
+        when(gcStorage.createFileAndGetOutputStream(any(BlobInfo.class))).thenThrow(new IllegalStateException("bucket doesn't exist"));
+        var service = createService();
+
+        var progress = awaitGeneration(service, service.startGeneration("test", FILE_COUNT, CLIENTS_COUNT).getId());
+
+        assertThat(progress.getState()).isEqualTo(GenerationState.FAILED);
+        assertThat(progress.getError()).isEqualTo("bucket doesn't exist");
+        assertThat(progress.getFilesWritten()).isZero();
+        verify(gcStorage, never()).moveFileToBucket(any(), any());
+    }
+
+    @Test
+    void whenFileFailsMidWriteThenPartialFileIsDeletedAndNotMoved() throws Exception {
+        when(gcStorage.createFileAndGetOutputStream(any(BlobInfo.class))).thenAnswer(invocation -> new OutputStream() {
+            private int written;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (++written > 1024) {
+                    throw new IOException("connection reset");
+                }
+            }
+        });
+        var service = createService();
+
+        var progress = awaitGeneration(service, service.startGeneration("test", 1, CLIENTS_COUNT).getId());
+
+        assertThat(progress.getState()).isEqualTo(GenerationState.FAILED);
+        verify(gcStorage).deleteFile(getAvroFile("generator_bucket", "test0"));
+        verify(gcStorage, never()).moveFileToBucket(any(), any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        generatorExecutor.shutdownNow();
+    }
+
+    private AvroFileGeneratorServiceImpl createService() {
+        var service = new AvroFileGeneratorServiceImpl(gcStorage, new AdaptiveCodecSelector(0.25, 10 * 1024 * 1024, 100 * 1024 * 1024), generatorExecutor);
+        ReflectionTestUtils.setField(service, "inputBucketName", "input_bucket");
+        ReflectionTestUtils.setField(service, "generatorBucketName", "generator_bucket");
+        ReflectionTestUtils.setField(service, "outputCodec", "deflate-1");
+        ReflectionTestUtils.setField(service, "outputSyncInterval", 16 * 1024);
+        return service;
+    }
+
+    private GenerationProgress awaitGeneration(AvroFileGeneratorServiceImpl service, String id) throws InterruptedException {
+        var deadline = System.currentTimeMillis() + 10_000;
+        var progress = service.getGeneration(id).orElseThrow();
+        while (progress.getState() == GenerationState.RUNNING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            progress = service.getGeneration(id).orElseThrow();
+        }
+        return progress;
+    }
+}
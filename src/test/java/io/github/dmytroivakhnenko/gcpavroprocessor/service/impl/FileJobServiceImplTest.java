@@ -0,0 +1,97 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import com.google.cloud.storage.BlobInfo;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.AvroFileValidationException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.JobJournalRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.GCSFileProcessorService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.FileJob;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.FileJobState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class FileJobServiceImplTest {
+    private static final BlobInfo testBlobInfo = BlobInfo.newBuilder("test_bucket", "test_name.avro").build();
+
+    private final GCSFileProcessorService gcsFileProcessorService = mock(GCSFileProcessorService.class);
+    private final InMemoryJournal journal = new InMemoryJournal();
+    private FileJobServiceImpl fileJobService;
+
+    @AfterEach
+    void tearDown() {
+        fileJobService.shutdown();
+    }
+
+    @Test
+    @Timeout(10)
+    void whenAttemptFailsThenFileIsRetriedFromJournal() throws InterruptedException {
+        when(gcsFileProcessorService.processFileToBigQuery(any(BlobInfo.class)))
+                .thenReturn(List.of(CompletableFuture.completedFuture(false)))
+                .thenReturn(List.of(CompletableFuture.completedFuture(true)));
+        fileJobService = new FileJobServiceImpl(gcsFileProcessorService, journal, new MetricsRegistry(), 3, 0, 1);
+
+        var job = fileJobService.accept(testBlobInfo);
+        while (fileJobService.getJob(job.getId()).orElseThrow().getState() != FileJobState.SUCCEEDED) {
+            Thread.sleep(50);
+        }
+
+        assertThat(fileJobService.getJob(job.getId()).orElseThrow().getAttempts()).isEqualTo(2);
+        assertThat(journal.history).extracting(FileJob::getState).containsExactly(FileJobState.ACCEPTED, FileJobState.RUNNING,
+                FileJobState.RETRY_PENDING, FileJobState.RUNNING, FileJobState.SUCCEEDED);
+    }
+
+    @Test
+    void whenFileIsInvalidThenItIsNotRetried() {
+        when(gcsFileProcessorService.processFileToBigQuery(any(BlobInfo.class)))
+                .thenReturn(List.of(CompletableFuture.failedFuture(new AvroFileValidationException("Invalid file"))));
+        fileJobService = new FileJobServiceImpl(gcsFileProcessorService, journal, new MetricsRegistry(), 3, 0, 1);
+
+        var job = fileJobService.accept(testBlobInfo);
+
+        assertThat(fileJobService.getJob(job.getId()).orElseThrow().getState()).isEqualTo(FileJobState.INVALID);
+    }
+
+    @Test
+    void whenJobWasInterruptedByRestartThenItIsScheduledForRetry() {
+        journal.save(FileJob.builder().id("1").bucket("test_bucket").name("test_name.avro").state(FileJobState.RUNNING).attempts(1).build());
+        fileJobService = new FileJobServiceImpl(gcsFileProcessorService, journal, new MetricsRegistry(), 3, 60, 60);
+
+        assertThat(fileJobService.getJob("1").orElseThrow().getState()).isEqualTo(FileJobState.RETRY_PENDING);
+        // the same file isn't started twice while the interrupted job is pending
+        assertThat(fileJobService.accept(testBlobInfo).getId()).isEqualTo("1");
+        verify(gcsFileProcessorService, never()).processFileToBigQuery(any(BlobInfo.class));
+    }
+
+    private static class InMemoryJournal implements JobJournalRepository {
+        private final Map<String, FileJob> jobs = new LinkedHashMap<>();
+        private final List<FileJob> history = new ArrayList<>();
+
+        @Override
+        public synchronized void save(FileJob job) {
+            jobs.put(job.getId(), job);
+            history.add(job);
+        }
+
+        @Override
+        public synchronized Optional<FileJob> findById(String id) {
+            return Optional.ofNullable(jobs.get(id));
+        }
+
+        @Override
+        public synchronized List<FileJob> findAll() {
+            return new ArrayList<>(jobs.values());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.jfr.AvroTranscodeEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FlightRecorderServiceImplTest {
+    @TempDir
+    Path tempDir;
+
+    private FlightRecorderServiceImpl flightRecorderService;
+
+    @AfterEach
+    void tearDown() {
+        flightRecorderService.shutdown();
+    }
+
+    @Test
+    void whenRecordingIsStoppedThenTranscodeEventsAreWrittenToFile() throws IOException {
+        flightRecorderService = new FlightRecorderServiceImpl(tempDir.toString(), 5, 16);
+        var started = flightRecorderService.startRecording("default");
+
+        var event = AvroTranscodeEvent.start("gs://bucket/file.avro", "mandatory");
+        event.timeRead(new ByteArrayInputStream(new byte[100])).readAllBytes();
+        try (var outputStream = event.timeWrite(new ByteArrayOutputStream())) {
+            outputStream.write(new byte[40]);
+        }
+        event.recordCount = 7;
+        event.succeeded = true;
+        event.finish();
+        var file = flightRecorderService.stopRecording();
+
+        assertThat(started.getState()).isEqualTo("RUNNING");
+        assertThat(flightRecorderService.getRecording()).isEmpty();
+        assertThat(file).isPresent();
+        var transcodeEvents = RecordingFile.readAllEvents(file.get()).stream()
+                .filter(recorded -> recorded.getEventType().getName().equals("io.github.dmytroivakhnenko.gcpavroprocessor.AvroTranscode"))
+                .collect(Collectors.toList());
+        assertThat(transcodeEvents).hasSize(1);
+        assertThat(transcodeEvents.get(0).getString("fileUri")).isEqualTo("gs://bucket/file.avro");
+        assertThat(transcodeEvents.get(0).getLong("bytesRead")).isEqualTo(100);
+        assertThat(transcodeEvents.get(0).getLong("bytesWritten")).isEqualTo(40);
+        assertThat(transcodeEvents.get(0).getLong("recordCount")).isEqualTo(7);
+    }
+
+    @Test
+    void whenRecordingIsRunningThenStartReturnsIt() {
+        flightRecorderService = new FlightRecorderServiceImpl(tempDir.toString(), 5, 16);
+        var first = flightRecorderService.startRecording("default");
+
+        var second = flightRecorderService.startRecording("profile");
+
+        assertThat(second.getId()).isEqualTo(first.getId());
+        assertThat(second.getSettings()).isEqualTo("default");
+    }
+}
@@ -1,17 +1,335 @@
 package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
 
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobStatus;
+import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
+import example.gcp.Client;
+import example.gcp.ClientMandatory;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.AdaptiveCodecSelector;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.WriterSchemaRegistry;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.AvroFileValidationException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.BigQueryRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.CloudStorageRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.MandatoryRowSink;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.ProcessedFileRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BoundedExecutor;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BufferPool;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.ConcurrencyLimiter;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.LoadInfo;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.MandatoryLoadMode;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.ProjectionConfig;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.InjectMocks;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.AvroFileUtils.createRandomClient;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
 
 @ExtendWith(SpringExtension.class)
 public class GCSFileProcessorServiceImplTest {
     private static final Logger LOG = LoggerFactory.getLogger(GCSFileProcessorServiceImplTest.class);
     private static final BlobInfo testBlobInfo = BlobInfo.newBuilder("test_bucket", "test_name").build();
+    private static final int CLIENTS_COUNT = 5000;
 
     @InjectMocks
     private GCSFileProcessorServiceImpl gcsFileProcessorService;
+
+    private final CloudStorageRepository gcStorage = mock(CloudStorageRepository.class);
+    private final BigQueryRepository bqRepository = mock(BigQueryRepository.class);
+    private final BoundedExecutor bigQueryExecutor = new BoundedExecutor("bigquery", 2, 10);
+    private final TableRebuildScheduler tableRebuildScheduler = new TableRebuildScheduler(0);
+    private final InMemoryRowSink rowSink = new InMemoryRowSink();
+    private final ProcessedFileRepository processedFiles = mock(ProcessedFileRepository.class);
+    private final AdaptiveCodecSelector codecSelector = new AdaptiveCodecSelector(0.25, 10 * 1024 * 1024, 100 * 1024 * 1024);
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final BufferPool bufferPool = new BufferPool("avro", 65536, 8388608, 67108864, false);
+    private final ConcurrencyLimiter processingLimiter = new ConcurrencyLimiter("processing", 2, 1, 2, 0.9, TimeUnit.MINUTES.toNanos(2), 1.0);
+    private final WriterSchemaRegistry<ClientMandatory> schemaRegistry = new WriterSchemaRegistry<>(Client.getClassSchema(), ClientMandatory.getClassSchema(), 4);
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void whenMandatoryRowsAreStreamedThenAllRowsAreCommitted(boolean rawProjectionEnabled) throws IOException {
+        var clients = createClients();
+        var file = writeClients(clients);
+        when(gcStorage.getInputStreamForFile(any(BlobInfo.class))).thenAnswer(invocation -> new ByteArrayInputStream(file));
+
+        var rowCount = createService(rawProjectionEnabled).validateAvroFileAndStreamMandatoryRows(testBlobInfo);
+
+        assertThat(rowCount).isEqualTo(CLIENTS_COUNT);
+        assertThat(metrics.counter("avro_transcode_records_total", "", "output", "streaming").get()).isEqualTo(CLIENTS_COUNT);
+        assertThat(metrics.counter("avro_transcode_bytes_total", "", "output", "streaming").get()).isEqualTo(file.length);
+        assertThat(metrics.counter("avro_transcode_bytes_total", "", "output", "streaming_validation").get()).isEqualTo(file.length);
+        assertThat(bufferPool.getStats().getOutstandingBytes()).isZero();
+        var committed = rowSink.committedRows.get("client_mandatory");
+        assertThat(committed).hasSize(CLIENTS_COUNT);
+        for (int i = 0; i < CLIENTS_COUNT; i++) {
+            assertThat(committed.get(i).getId()).isEqualTo(clients.get(i).getId());
+            assertThat(committed.get(i).getName().toString()).isEqualTo(clients.get(i).getName().toString());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void whenProjectionsAreConfiguredThenEveryTemporaryFileIsWrittenFromOneRead(boolean rawProjectionEnabled) throws IOException {
+        var clients = createClients();
+        var file = writeClients(clients);
+        var outputs = new ArrayList<ByteArrayOutputStream>();
+        when(gcStorage.getInputStreamForFile(any(BlobInfo.class))).thenAnswer(invocation -> new ByteArrayInputStream(file));
+        when(gcStorage.createFileAndGetOutputStream(any(BlobInfo.class))).thenAnswer(invocation -> {
+            var outputStream = new ByteArrayOutputStream();
+            outputs.add(outputStream);
+            return outputStream;
+        });
+        var service = createService(rawProjectionEnabled);
+        ReflectionTestUtils.setField(service, "projections", ProjectionConfig.parseAll("client_contact:id,phone,address:snappy;client_id:id", Client.getClassSchema()));
+
+        var tmpBlobs = service.validateAvroFileAndCreateProjectedFiles(testBlobInfo);
+
+        assertThat(tmpBlobs).hasSize(3);
+        verify(gcStorage, times(1)).getInputStreamForFile(testBlobInfo);
+        var contacts = readRecords(outputs.get(1).toByteArray());
+        var ids = readRecords(outputs.get(2).toByteArray());
+        assertThat(readRecords(outputs.get(0).toByteArray())).hasSize(CLIENTS_COUNT);
+        assertThat(contacts).hasSize(CLIENTS_COUNT);
+        assertThat(ids).hasSize(CLIENTS_COUNT);
+        for (int i = 0; i < CLIENTS_COUNT; i++) {
+            assertThat(contacts.get(i).get("id")).isEqualTo(clients.get(i).getId());
+            assertThat(String.valueOf(contacts.get(i).get("phone"))).isEqualTo(String.valueOf(clients.get(i).getPhone()));
+            assertThat(ids.get(i).getSchema().getFields()).hasSize(1);
+            assertThat(ids.get(i).get("id")).isEqualTo(clients.get(i).getId());
+        }
+    }
+
+    @Test
+    void whenStreamedFileHasCorruptBlockThenNoRowsAreCommitted() throws IOException {
+        var file = writeClients(createClients());
+        // last sync marker of the file is broken, every block before it is valid and would be flushed
+        file[file.length - 1] ^= 1;
+        when(gcStorage.getInputStreamForFile(any(BlobInfo.class))).thenAnswer(invocation -> new ByteArrayInputStream(file));
+
+        assertThatThrownBy(() -> createService(true).validateAvroFileAndStreamMandatoryRows(testBlobInfo))
+                .isInstanceOf(AvroFileValidationException.class);
+        assertThat(rowSink.committedRows).isEmpty();
+    }
+
+    @Test
+    void whenStreamedFileIsTruncatedThenNoRowsAreCommitted() throws IOException {
+        var file = writeClients(createClients());
+        var truncated = Arrays.copyOf(file, file.length / 2);
+        when(gcStorage.getInputStreamForFile(any(BlobInfo.class))).thenAnswer(invocation -> new ByteArrayInputStream(truncated));
+
+        assertThatThrownBy(() -> createService(true).validateAvroFileAndStreamMandatoryRows(testBlobInfo))
+                .isInstanceOf(AvroFileValidationException.class);
+        assertThat(rowSink.committedRows).isEmpty();
+        assertThat(bufferPool.getStats().getOutstandingBytes()).isZero();
+    }
+
+    @Test
+    void whenFullLoadSucceedsInQueryModeThenMandatoryColumnsAreCopied() {
+        var fullLoadJob = mock(Job.class);
+        var copyJob = mock(Job.class);
+        when(bqRepository.loadAvroFileToDataset(eq("clients_dataset"), any(LoadInfo.class))).thenReturn(fullLoadJob);
+        when(bqRepository.copyColumnsToTable("clients_dataset", "client_full", "client_mandatory", List.of("id", "name"))).thenReturn(copyJob);
+        when(bqRepository.waitForJob(any(Job.class))).thenReturn(CompletableFuture.completedFuture(mock(JobStatus.class)));
+
+        var results = createQueryModeService().processFileToBigQuery(testBlobInfo).stream().map(CompletableFuture::join).collect(Collectors.toList());
+
+        assertThat(results).containsExactly(true, true);
+        verify(bqRepository).waitForJob(copyJob);
+        verify(gcStorage, never()).getInputStreamForFile(any(BlobInfo.class));
+    }
+
+    @Test
+    void whenFullLoadFailsInQueryModeThenMandatoryColumnsAreNotCopied() {
+        var failedStatus = mock(JobStatus.class);
+        when(failedStatus.getError()).thenReturn(mock(BigQueryError.class));
+        when(bqRepository.loadAvroFileToDataset(eq("clients_dataset"), any(LoadInfo.class))).thenReturn(mock(Job.class));
+        when(bqRepository.waitForJob(any(Job.class))).thenReturn(CompletableFuture.completedFuture(failedStatus));
+
+        var results = createQueryModeService().processFileToBigQuery(testBlobInfo).stream().map(CompletableFuture::join).collect(Collectors.toList());
+
+        assertThat(results).containsExactly(false, false);
+        verify(bqRepository, never()).copyColumnsToTable(any(), any(), any(), any());
+    }
+
+    @Test
+    void whenDuplicateArrivesWhileFileIsProcessedThenItIsAttachedToTheSameLoads() {
+        var versionedBlobInfo = BlobInfo.newBuilder(BlobId.of("test_bucket", "test_name", 7L)).build();
+        var fullLoadStatus = new CompletableFuture<JobStatus>();
+        when(bqRepository.loadAvroFileToDataset(eq("clients_dataset"), any(LoadInfo.class))).thenReturn(mock(Job.class));
+        when(bqRepository.copyColumnsToTable(any(), any(), any(), any())).thenReturn(mock(Job.class));
+        when(bqRepository.waitForJob(any(Job.class))).thenReturn(fullLoadStatus);
+        var service = createQueryModeService();
+
+        var futures = service.processFileToBigQuery(versionedBlobInfo);
+        var duplicateFutures = service.processFileToBigQuery(versionedBlobInfo);
+        assertThat(duplicateFutures).isSameAs(futures);
+
+        fullLoadStatus.complete(mock(JobStatus.class));
+        assertThat(futures.stream().map(CompletableFuture::join)).containsExactly(true, true);
+        verify(bqRepository, times(1)).loadAvroFileToDataset(eq("clients_dataset"), any(LoadInfo.class));
+        verify(processedFiles, timeout(1000)).markProcessed("test_bucket/test_name#7");
+    }
+
+    @Test
+    void whenFileVersionWasProcessedThenDuplicateIsSkipped() {
+        when(processedFiles.isProcessed("test_bucket/test_name#7")).thenReturn(true);
+
+        var results = createQueryModeService().processFileToBigQuery(BlobInfo.newBuilder(BlobId.of("test_bucket", "test_name", 7L)).build())
+                .stream().map(CompletableFuture::join).collect(Collectors.toList());
+
+        assertThat(results).containsExactly(true, true);
+        verifyNoInteractions(bqRepository);
+    }
+
+    @Test
+    void whenConcurrencyLimitIsReachedThenFileIsRejected() throws InterruptedException {
+        var fullLoadStatus = new CompletableFuture<JobStatus>();
+        when(bqRepository.loadAvroFileToDataset(eq("clients_dataset"), any(LoadInfo.class))).thenReturn(mock(Job.class));
+        when(bqRepository.copyColumnsToTable(any(), any(), any(), any())).thenReturn(mock(Job.class));
+        when(bqRepository.waitForJob(any(Job.class))).thenReturn(fullLoadStatus);
+        var service = createQueryModeService();
+
+        var first = service.processFileToBigQuery(BlobInfo.newBuilder("test_bucket", "first").build());
+        var second = service.processFileToBigQuery(BlobInfo.newBuilder("test_bucket", "second").build());
+
+        assertThatThrownBy(() -> service.processFileToBigQuery(BlobInfo.newBuilder("test_bucket", "third").build()))
+                .isInstanceOf(ServiceOverloadedException.class);
+        assertThat(processingLimiter.getInFlight()).isEqualTo(2);
+
+        fullLoadStatus.complete(mock(JobStatus.class));
+        first.forEach(CompletableFuture::join);
+        second.forEach(CompletableFuture::join);
+        verify(bqRepository, times(2)).loadAvroFileToDataset(eq("clients_dataset"), any(LoadInfo.class));
+        // limiter is released once the loads complete, after the futures returned to the caller
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (processingLimiter.getInFlight() > 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(processingLimiter.getInFlight()).isZero();
+    }
+
+    @AfterEach
+    void tearDown() {
+        tableRebuildScheduler.shutdown();
+        bigQueryExecutor.shutdownNow();
+    }
+
+    private GCSFileProcessorServiceImpl createQueryModeService() {
+        var service = new GCSFileProcessorServiceImpl(gcStorage, bqRepository, rowSink, null, tableRebuildScheduler, null, processedFiles, schemaRegistry, metrics, bufferPool, null, null, null, null, bigQueryExecutor, processingLimiter);
+        ReflectionTestUtils.setField(service, "mandatoryLoadMode", MandatoryLoadMode.QUERY);
+        ReflectionTestUtils.setField(service, "datasetName", "clients_dataset");
+        ReflectionTestUtils.setField(service, "tableNameFull", "client_full");
+        ReflectionTestUtils.setField(service, "tableNameMandatory", "client_mandatory");
+        return service;
+    }
+
+    private GCSFileProcessorServiceImpl createService(boolean rawProjectionEnabled) {
+        var service = new GCSFileProcessorServiceImpl(gcStorage, bqRepository, rowSink, null, null, codecSelector, processedFiles, schemaRegistry, metrics, bufferPool, null, null, null, null, null, processingLimiter);
+        ReflectionTestUtils.setField(service, "rawProjectionEnabled", rawProjectionEnabled);
+        ReflectionTestUtils.setField(service, "tmpBucketName", "tmp_bucket");
+        ReflectionTestUtils.setField(service, "mandatoryOutputCodec", "deflate-1");
+        ReflectionTestUtils.setField(service, "mandatoryOutputSyncInterval", 16 * 1024);
+        ReflectionTestUtils.setField(service, "datasetName", "clients_dataset");
+        ReflectionTestUtils.setField(service, "tableNameMandatory", "client_mandatory");
+        return service;
+    }
+
+    private List<Client> createClients() {
+        var clients = new ArrayList<Client>(CLIENTS_COUNT);
+        for (int i = 0; i < CLIENTS_COUNT; i++) {
+            clients.add(createRandomClient());
+        }
+        return clients;
+    }
+
+    private List<GenericRecord> readRecords(byte[] file) throws IOException {
+        var records = new ArrayList<GenericRecord>();
+        try (var stream = new DataFileStream<>(new ByteArrayInputStream(file), new GenericDatumReader<GenericRecord>())) {
+            stream.forEach(records::add);
+        }
+        return records;
+    }
+
+    private byte[] writeClients(List<Client> clients) throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        try (var writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+            writer.setSyncInterval(16 * 1024);
+            writer.setCodec(CodecFactory.deflateCodec(1));
+            writer.create(Client.getClassSchema(), outputStream);
+            for (var client : clients) {
+                writer.append(client);
+            }
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Commits rows once a batch is full like the streaming sink does, so rows written before a failure stay committed.
+     */
+    private static class InMemoryRowSink implements MandatoryRowSink {
+        private static final int BATCH_SIZE = 100;
+        private final Map<String, List<ClientMandatory>> committedRows = new ConcurrentHashMap<>();
+
+        @Override
+        public Writer open(String dataset, String table, BlobInfo source) {
+            var batch = new ArrayList<ClientMandatory>();
+            return new Writer() {
+                private long rowCount;
+
+                @Override
+                public void write(ClientMandatory row) {
+                    batch.add(ClientMandatory.newBuilder(row).build());
+                    rowCount++;
+                    if (batch.size() >= BATCH_SIZE) {
+                        flush();
+                    }
+                }
+
+                @Override
+                public long commit() {
+                    flush();
+                    return rowCount;
+                }
+
+                private void flush() {
+                    committedRows.computeIfAbsent(table, key -> new ArrayList<>()).addAll(batch);
+                    batch.clear();
+                }
+            };
+        }
+    }
 }
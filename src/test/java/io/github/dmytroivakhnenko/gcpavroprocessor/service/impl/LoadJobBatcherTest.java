@@ -0,0 +1,135 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobStatus;
+import com.google.cloud.storage.BlobInfo;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.BigQueryRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.BoundedExecutor;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.LoadInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class LoadJobBatcherTest {
+    private static final long MAX_BYTES = 1000;
+
+    private final BigQueryRepository bqRepository = mock(BigQueryRepository.class);
+    private final JobStatus succeeded = status(null);
+    private final BoundedExecutor bigQueryExecutor = new BoundedExecutor("bigquery", 2, 10);
+    private LoadJobBatcher batcher;
+
+    @AfterEach
+    void tearDown() {
+        batcher.shutdown();
+        bigQueryExecutor.shutdownNow();
+    }
+
+    @Test
+    void whenBatchReachesMaxFilesThenAllFilesAreLoadedWithOneJob() {
+        batcher = new LoadJobBatcher(bqRepository, bigQueryExecutor, TimeUnit.MINUTES.toMillis(1), 3, MAX_BYTES);
+        var loads = loads(3);
+        var job = mock(Job.class);
+        when(bqRepository.loadAvroFilesToDataset(eq("dataset"), eq("table"), eq(files(loads)), anyString())).thenReturn(job);
+        when(bqRepository.waitForJob(job)).thenReturn(CompletableFuture.completedFuture(succeeded));
+
+        var results = loads.stream().map(load -> batcher.submit("dataset", load, 1)).collect(Collectors.toList());
+
+        assertThat(results.stream().map(CompletableFuture::join)).containsExactly(true, true, true);
+        verify(bqRepository, times(1)).loadAvroFilesToDataset(anyString(), anyString(), anyList(), anyString());
+    }
+
+    @Test
+    void whenWindowElapsesThenIncompleteBatchIsLoaded() {
+        batcher = new LoadJobBatcher(bqRepository, bigQueryExecutor, 50, 100, MAX_BYTES);
+        var loads = loads(2);
+        var job = mock(Job.class);
+        when(bqRepository.loadAvroFilesToDataset(eq("dataset"), eq("table"), eq(files(loads)), anyString())).thenReturn(job);
+        when(bqRepository.waitForJob(job)).thenReturn(CompletableFuture.completedFuture(succeeded));
+
+        var results = loads.stream().map(load -> batcher.submit("dataset", load, 1)).collect(Collectors.toList());
+
+        assertThat(results.stream().map(future -> future.orTimeout(10, TimeUnit.SECONDS).join())).containsExactly(true, true);
+    }
+
+    @Test
+    void whenBatchReachesMaxBytesThenItIsClosed() {
+        batcher = new LoadJobBatcher(bqRepository, bigQueryExecutor, TimeUnit.MINUTES.toMillis(1), 100, MAX_BYTES);
+        var loads = loads(2);
+        when(bqRepository.loadAvroFilesToDataset(anyString(), anyString(), anyList(), anyString())).thenReturn(mock(Job.class));
+        when(bqRepository.waitForJob(any(Job.class))).thenReturn(CompletableFuture.completedFuture(succeeded));
+
+        batcher.submit("dataset", loads.get(0), MAX_BYTES / 2);
+        var result = batcher.submit("dataset", loads.get(1), MAX_BYTES / 2);
+
+        assertThat(result.orTimeout(10, TimeUnit.SECONDS).join()).isTrue();
+        verify(bqRepository).loadAvroFilesToDataset(eq("dataset"), eq("table"), eq(files(loads)), anyString());
+    }
+
+    @Test
+    void whenBatchFailsThenFilesAreLoadedOneByOne() {
+        batcher = new LoadJobBatcher(bqRepository, bigQueryExecutor, TimeUnit.MINUTES.toMillis(1), 2, MAX_BYTES);
+        var loads = loads(2);
+        var batchJob = mock(Job.class);
+        var goodFileJob = mock(Job.class);
+        var brokenFileJob = mock(Job.class);
+        var failed = status(mock(BigQueryError.class));
+        when(bqRepository.loadAvroFilesToDataset(eq("dataset"), eq("table"), eq(files(loads)), anyString())).thenReturn(batchJob);
+        when(bqRepository.loadAvroFileToDataset("dataset", loads.get(0))).thenReturn(goodFileJob);
+        when(bqRepository.loadAvroFileToDataset("dataset", loads.get(1))).thenReturn(brokenFileJob);
+        when(bqRepository.waitForJob(batchJob)).thenReturn(CompletableFuture.completedFuture(failed));
+        when(bqRepository.waitForJob(goodFileJob)).thenReturn(CompletableFuture.completedFuture(succeeded));
+        when(bqRepository.waitForJob(brokenFileJob)).thenReturn(CompletableFuture.completedFuture(failed));
+
+        var results = loads.stream().map(load -> batcher.submit("dataset", load, 1)).collect(Collectors.toList());
+
+        assertThat(results.stream().map(future -> future.orTimeout(10, TimeUnit.SECONDS).join())).containsExactly(true, false);
+    }
+
+    @Test
+    void whenSameFilesAreBatchedAgainInAnotherOrderThenBatchHasTheSameKey() {
+        batcher = new LoadJobBatcher(bqRepository, bigQueryExecutor, TimeUnit.MINUTES.toMillis(1), 3, MAX_BYTES);
+        when(bqRepository.loadAvroFilesToDataset(anyString(), anyString(), anyList(), anyString())).thenReturn(mock(Job.class));
+        when(bqRepository.waitForJob(any(Job.class))).thenReturn(CompletableFuture.completedFuture(succeeded));
+        var loads = loads(3);
+        var reversed = new ArrayList<>(loads);
+        Collections.reverse(reversed);
+
+        var results = new ArrayList<CompletableFuture<Boolean>>();
+        loads.forEach(load -> results.add(batcher.submit("dataset", load, 1)));
+        reversed.forEach(load -> results.add(batcher.submit("dataset", load, 1)));
+
+        assertThat(results.stream().map(future -> future.orTimeout(10, TimeUnit.SECONDS).join())).containsOnly(true);
+        var keys = ArgumentCaptor.forClass(String.class);
+        verify(bqRepository, times(2)).loadAvroFilesToDataset(anyString(), anyString(), anyList(), keys.capture());
+        assertThat(keys.getAllValues().get(0)).isEqualTo(keys.getAllValues().get(1)).hasSizeLessThan(64);
+    }
+
+    private List<LoadInfo> loads(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> LoadInfo.builder().blobInfo(BlobInfo.newBuilder("bucket", "file" + i + ".avro").build()).tableName("table").idempotencyKey("bucket/file" + i + ".avro#1").build())
+                .collect(Collectors.toList());
+    }
+
+    private static List<BlobInfo> files(List<LoadInfo> loads) {
+        return loads.stream().map(LoadInfo::getBlobInfo).collect(Collectors.toList());
+    }
+
+    private static JobStatus status(BigQueryError error) {
+        var status = mock(JobStatus.class);
+        when(status.getError()).thenReturn(error);
+        return status;
+    }
+}
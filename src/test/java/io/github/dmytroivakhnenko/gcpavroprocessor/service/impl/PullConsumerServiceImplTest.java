@@ -0,0 +1,273 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import com.google.cloud.storage.BlobInfo;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.AvroFileValidationException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.metrics.MetricsRegistry;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.PubSubSubscriber;
+import io.github.dmytroivakhnenko.gcpavroprocessor.service.GCSFileProcessorService;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.PulledMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PullConsumerServiceImplTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final FakeSubscriber subscriber = new FakeSubscriber();
+    private final GCSFileProcessorService gcsFileProcessorService = mock(GCSFileProcessorService.class);
+    private final Map<String, CompletableFuture<Boolean>> loads = new ConcurrentHashMap<>();
+    private PullConsumerServiceImpl pullConsumerService;
+
+    @AfterEach
+    void stop() {
+        pullConsumerService.stop();
+    }
+
+    @Test
+    void whenFileIsLoadedThenMessageIsAcknowledged() throws InterruptedException {
+        whenFilesAreProcessed(CompletableFuture.completedFuture(true));
+        start(10, Long.MAX_VALUE, 60);
+        subscriber.publish("1", notification("test.avro", 100));
+
+        assertThat(subscriber.acknowledged.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isEqualTo("1");
+        assertThat(subscriber.redelivered).isEmpty();
+        assertThat(pullConsumerService.getStats().getOutstandingMessages()).isZero();
+    }
+
+    @Test
+    void whenLoadsCompleteThenAcknowledgementsAreSentInBatchesByLeaseThread() throws InterruptedException {
+        var load = new CompletableFuture<Boolean>();
+        whenFilesAreProcessed(load);
+        start(10, Long.MAX_VALUE, 60);
+        for (int i = 0; i < 3; i++) {
+            subscriber.publish(String.valueOf(i), notification(i + ".avro", 100));
+        }
+        awaitOutstandingMessages(3);
+
+        load.complete(true);
+        var acknowledged = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            acknowledged.add(subscriber.acknowledged.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        assertThat(acknowledged).containsExactlyInAnyOrder("0", "1", "2");
+        assertThat(subscriber.requestThreads).allMatch(thread -> thread.startsWith("pubsub-lease-"));
+        assertThat(subscriber.requestThreads.size()).isLessThan(3);
+    }
+
+    @Test
+    void whenFileIsInvalidOrNotAvroThenMessageIsAcknowledged() throws InterruptedException {
+        whenFilesAreProcessed(CompletableFuture.failedFuture(new AvroFileValidationException("invalid")));
+        start(10, Long.MAX_VALUE, 60);
+        subscriber.publish("1", notification("test.avro", 100));
+        subscriber.publish("2", notification("test.txt", 100));
+        subscriber.publish("3", Base64.getEncoder().encodeToString("not json".getBytes(StandardCharsets.UTF_8)));
+
+        var acknowledged = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            acknowledged.add(subscriber.acknowledged.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        assertThat(acknowledged).containsExactlyInAnyOrder("1", "2", "3");
+        assertThat(subscriber.redelivered).isEmpty();
+        verify(gcsFileProcessorService, never()).processFileToBigQuery(BlobInfo.newBuilder("test_bucket", "test.txt").build());
+    }
+
+    @Test
+    void whenLoadFailsOrServiceIsOverloadedThenMessageIsRedelivered() throws InterruptedException {
+        when(gcsFileProcessorService.processFileToBigQuery(any()))
+                .thenReturn(List.of(CompletableFuture.completedFuture(false)))
+                .thenThrow(new ServiceOverloadedException("overloaded"));
+        start(10, Long.MAX_VALUE, 60);
+        subscriber.publish("1", notification("first.avro", 100));
+        subscriber.publish("2", notification("second.avro", 100));
+
+        assertThat(List.of(subscriber.redelivered.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS), subscriber.redelivered.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)))
+                .containsExactlyInAnyOrder("1", "2");
+        assertThat(subscriber.acknowledged).isEmpty();
+    }
+
+    @Test
+    void whenOutstandingLimitIsReachedThenNextMessagesArePulledAfterLoadsFinish() throws InterruptedException {
+        when(gcsFileProcessorService.processFileToBigQuery(any())).thenAnswer(invocation -> {
+            var load = new CompletableFuture<Boolean>();
+            loads.put(invocation.<BlobInfo>getArgument(0).getName(), load);
+            return List.of(load);
+        });
+        start(2, 1000, 60);
+        for (int i = 0; i < 5; i++) {
+            subscriber.publish(String.valueOf(i), notification(i + ".avro", 100));
+        }
+
+        awaitLoads(2);
+        TimeUnit.MILLISECONDS.sleep(300);
+        assertThat(loads).hasSize(2);
+        assertThat(subscriber.pending).hasSize(3);
+        assertThat(pullConsumerService.getStats().getOutstandingMessages()).isEqualTo(2);
+        assertThat(pullConsumerService.getStats().getOutstandingBytes()).isEqualTo(200);
+
+        loads.get("0.avro").complete(true);
+        assertThat(subscriber.acknowledged.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isEqualTo("0");
+        awaitLoads(3);
+        assertThat(pullConsumerService.getStats().getFlowControlledCount()).isPositive();
+    }
+
+    @Test
+    void whenOutstandingBytesLimitIsReachedThenNoMoreMessagesArePulled() throws InterruptedException {
+        when(gcsFileProcessorService.processFileToBigQuery(any())).thenAnswer(invocation -> {
+            var load = new CompletableFuture<Boolean>();
+            loads.put(invocation.<BlobInfo>getArgument(0).getName(), load);
+            return List.of(load);
+        });
+        start(10, 1000, 60);
+        subscriber.publish("0", notification("0.avro", 1000));
+        awaitLoads(1);
+        subscriber.publish("1", notification("1.avro", 1000));
+
+        TimeUnit.MILLISECONDS.sleep(300);
+        assertThat(loads).hasSize(1);
+        loads.get("0.avro").complete(true);
+        awaitLoads(2);
+    }
+
+    @Test
+    void whenFileIsProcessedLongerThanDeadlineThenDeadlineIsExtended() throws InterruptedException {
+        whenFilesAreProcessed(new CompletableFuture<>());
+        start(10, Long.MAX_VALUE, 1);
+        subscriber.publish("1", notification("test.avro", 100));
+
+        assertThat(subscriber.extended.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isEqualTo("1");
+        // extension is counted once the request returns, after the fake subscriber records it
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (pullConsumerService.getStats().getExtendedCount() == 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(pullConsumerService.getStats().getExtendedCount()).isPositive();
+
+        pullConsumerService.stop();
+        assertThat(subscriber.redelivered.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isEqualTo("1");
+        assertThat(pullConsumerService.getStats().isRunning()).isFalse();
+    }
+
+    @Test
+    void whenManyMessagesAreOutstandingThenDeadlinesAreExtendedInBatches() throws InterruptedException {
+        whenFilesAreProcessed(new CompletableFuture<>());
+        start(2000, Long.MAX_VALUE, 1);
+        for (int i = 0; i < 1500; i++) {
+            subscriber.publish(String.valueOf(i), notification(i + ".avro", 100));
+        }
+        awaitOutstandingMessages(1500);
+
+        var extended = new HashSet<String>();
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (extended.size() < 1500 && System.nanoTime() < deadline) {
+            var ackId = subscriber.extended.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (ackId != null) {
+                extended.add(ackId);
+            }
+        }
+        assertThat(extended).hasSize(1500);
+        assertThat(subscriber.extensionSizes).allMatch(size -> size <= 1000);
+    }
+
+    private void whenFilesAreProcessed(CompletableFuture<Boolean> load) {
+        when(gcsFileProcessorService.processFileToBigQuery(any())).thenReturn(List.of(load));
+    }
+
+    private void start(int maxOutstandingMessages, long maxOutstandingBytes, int ackDeadlineSeconds) {
+        pullConsumerService = new PullConsumerServiceImpl(subscriber, gcsFileProcessorService, new MetricsRegistry(),
+                false, 10, maxOutstandingMessages, maxOutstandingBytes, ackDeadlineSeconds, 60);
+        pullConsumerService.start();
+    }
+
+    private void awaitLoads(int count) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (loads.size() < count && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(loads).hasSize(count);
+    }
+
+    private void awaitOutstandingMessages(int count) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (pullConsumerService.getStats().getOutstandingMessages() < count && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(pullConsumerService.getStats().getOutstandingMessages()).isEqualTo(count);
+    }
+
+    private static String notification(String name, long size) {
+        var data = String.format("{\"bucket\":\"test_bucket\",\"name\":\"%s\",\"size\":\"%d\"}", name, size);
+        return Base64.getEncoder().encodeToString(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Subscription that delivers every published message once, like the emulator does until the ack deadline expires
+     */
+    private static class FakeSubscriber implements PubSubSubscriber {
+        private final ConcurrentLinkedQueue<PulledMessage> pending = new ConcurrentLinkedQueue<>();
+        private final BlockingQueue<String> acknowledged = new LinkedBlockingQueue<>();
+        private final BlockingQueue<String> redelivered = new LinkedBlockingQueue<>();
+        private final BlockingQueue<String> extended = new LinkedBlockingQueue<>();
+        /**
+         * Threads which sent acknowledgements and redeliveries, one per request
+         */
+        private final Queue<String> requestThreads = new ConcurrentLinkedQueue<>();
+        private final Queue<Integer> extensionSizes = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger messageIds = new AtomicInteger();
+
+        private void publish(String ackId, String data) {
+            pending.add(PulledMessage.builder()
+                    .ackId(ackId)
+                    .messageId(String.valueOf(messageIds.incrementAndGet()))
+                    .data(data)
+                    .build());
+        }
+
+        @Override
+        public List<PulledMessage> pull(int maxMessages) {
+            var messages = new ArrayList<PulledMessage>();
+            PulledMessage message;
+            while (messages.size() < maxMessages && (message = pending.poll()) != null) {
+                messages.add(message);
+            }
+            return messages;
+        }
+
+        @Override
+        public void acknowledge(List<String> ackIds) {
+            requestThreads.add(Thread.currentThread().getName());
+            acknowledged.addAll(ackIds);
+        }
+
+        @Override
+        public void modifyAckDeadline(List<String> ackIds, int seconds) {
+            if (seconds == 0) {
+                requestThreads.add(Thread.currentThread().getName());
+            } else {
+                extensionSizes.add(ackIds.size());
+            }
+            (seconds == 0 ? redelivered : extended).addAll(ackIds);
+        }
+    }
+}
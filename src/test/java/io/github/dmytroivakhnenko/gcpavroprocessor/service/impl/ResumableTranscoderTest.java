@@ -0,0 +1,182 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import com.google.cloud.storage.BlobInfo;
+import example.gcp.Client;
+import example.gcp.ClientMandatory;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.AvroBlockCodec;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.AvroOutputFormat;
+import io.github.dmytroivakhnenko.gcpavroprocessor.avro.RawRecordProjector;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.CloudStorageRepository;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.AvroFileUtils.createRandomClient;
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.constructGCSUri;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResumableTranscoderTest {
+    private static final int CLIENTS_COUNT = 500;
+    private static final long PART_BYTES = 512;
+
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final CloudStorageRepository gcStorage = mock(CloudStorageRepository.class);
+    private final ResumableTranscoder transcoder = new ResumableTranscoder(gcStorage, "tmp", PART_BYTES);
+    private final BlobInfo source = BlobInfo.newBuilder("input", "clients.avro", 1L).build();
+    private volatile String failingPart;
+    private volatile Runnable beforeCheckpointSave;
+
+    @Test
+    void whenTranscodeIsInterruptedThenRetryContinuesFromCheckpoint() throws IOException {
+        mockStorage();
+        var clients = createClients();
+        objects.put(constructGCSUri(source), write(clients));
+        failingPart = "part-3";
+
+        assertThatThrownBy(() -> transcode(BlobInfo.newBuilder("tmp", "first.avro").build())).isInstanceOf(IllegalStateException.class);
+        verify(gcStorage, never()).getInputStreamForFile(any(BlobInfo.class), anyLong());
+        assertThat(objects.keySet()).anyMatch(uri -> uri.endsWith(".checkpoint.json"));
+
+        failingPart = null;
+        var target = BlobInfo.newBuilder("tmp", "second.avro").build();
+        var counter = transcode(target);
+
+        verify(gcStorage).getInputStreamForFile(any(BlobInfo.class), anyLong());
+        assertThat(counter).isEqualTo(CLIENTS_COUNT);
+        assertThat(readIds(objects.get(constructGCSUri(target)))).isEqualTo(clients.stream().map(Client::getId).collect(Collectors.toList()));
+        assertThat(objects.keySet()).noneMatch(uri -> uri.contains("checkpoint"));
+    }
+
+    @Test
+    void whenTranscodeIsNotInterruptedThenPartsAreComposedIntoSingleFile() throws IOException {
+        mockStorage();
+        var clients = createClients();
+        objects.put(constructGCSUri(source), write(clients));
+        var target = BlobInfo.newBuilder("tmp", "output.avro").build();
+
+        var counter = transcode(target);
+
+        verify(gcStorage, never()).getInputStreamForFile(any(BlobInfo.class), anyLong());
+        assertThat(counter).isEqualTo(CLIENTS_COUNT);
+        assertThat(readIds(objects.get(constructGCSUri(target)))).isEqualTo(clients.stream().map(Client::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void whenConcurrentAttemptWritesPartsThenTheyAreNotComposedIntoOutput() throws IOException {
+        mockStorage();
+        var clients = createClients();
+        objects.put(constructGCSUri(source), write(clients));
+        // second attempt starts before the first one saves its checkpoint, and is interrupted after its first part
+        beforeCheckpointSave = () -> {
+            failingPart = "part-1";
+            assertThatThrownBy(() -> transcode(BlobInfo.newBuilder("tmp", "second.avro").build())).isInstanceOf(IllegalStateException.class);
+            failingPart = null;
+        };
+        var target = BlobInfo.newBuilder("tmp", "first.avro").build();
+
+        var counter = transcode(target);
+
+        assertThat(beforeCheckpointSave).isNull();
+        assertThat(counter).isEqualTo(CLIENTS_COUNT);
+        assertThat(readIds(objects.get(constructGCSUri(target)))).isEqualTo(clients.stream().map(Client::getId).collect(Collectors.toList()));
+    }
+
+    private long transcode(BlobInfo target) throws IOException {
+        return transcoder.transcode(source, target, ClientMandatory.getClassSchema(), AvroOutputFormat.of("deflate-1", 1024), new SpecificDatumWriter<>(ClientMandatory.class),
+                reader -> {
+                    var codec = reader.getHeader().getCodec();
+                    var projector = RawRecordProjector.forSchemas(reader.getHeader().getSchema(), ClientMandatory.getClassSchema()).orElseThrow();
+                    return (block, writer) -> projector.projectBlock(AvroBlockCodec.decompress(codec, block.getData()), block.getRecordCount(), writer);
+                }, UnaryOperator.identity(), UnaryOperator.identity());
+    }
+
+    private void mockStorage() {
+        when(gcStorage.getInputStreamForFile(any(BlobInfo.class))).thenAnswer(invocation -> new ByteArrayInputStream(objects.get(constructGCSUri(invocation.getArgument(0)))));
+        when(gcStorage.getInputStreamForFile(any(BlobInfo.class), anyLong())).thenAnswer(invocation -> {
+            var content = objects.get(constructGCSUri(invocation.getArgument(0)));
+            long offset = invocation.getArgument(1);
+            return new ByteArrayInputStream(content, (int) offset, content.length - (int) offset);
+        });
+        when(gcStorage.readFile(any(BlobInfo.class))).thenAnswer(invocation -> Optional.ofNullable(objects.get(constructGCSUri(invocation.getArgument(0)))));
+        when(gcStorage.createFileAndGetOutputStream(any(BlobInfo.class))).thenAnswer(invocation -> {
+            String uri = constructGCSUri(invocation.getArgument(0));
+            if (failingPart != null && uri.contains(failingPart)) {
+                throw new IllegalStateException("Instance was recycled");
+            }
+            var hook = beforeCheckpointSave;
+            if (hook != null && uri.endsWith(".checkpoint.json")) {
+                beforeCheckpointSave = null;
+                hook.run();
+            }
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    objects.put(uri, toByteArray());
+                }
+            };
+        });
+        doAnswer(invocation -> objects.remove(constructGCSUri(invocation.getArgument(0)))).when(gcStorage).deleteFile(any(BlobInfo.class));
+        doAnswer(invocation -> {
+            List<BlobInfo> sources = invocation.getArgument(0);
+            var composed = new ByteArrayOutputStream();
+            sources.forEach(part -> composed.writeBytes(objects.get(constructGCSUri(part))));
+            objects.put(constructGCSUri(invocation.getArgument(1)), composed.toByteArray());
+            return null;
+        }).when(gcStorage).composeFiles(anyList(), any(BlobInfo.class));
+    }
+
+    private List<Client> createClients() {
+        var clients = new ArrayList<Client>(CLIENTS_COUNT);
+        for (int i = 0; i < CLIENTS_COUNT; i++) {
+            clients.add(createRandomClient());
+        }
+        return clients;
+    }
+
+    private byte[] write(List<Client> clients) throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        try (var writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+            // small blocks, so that the file has many block boundaries
+            writer.setSyncInterval(512);
+            writer.create(Client.getClassSchema(), outputStream);
+            for (var client : clients) {
+                writer.append(client);
+            }
+        }
+        return outputStream.toByteArray();
+    }
+
+    private List<Long> readIds(byte[] file) {
+        var ids = new ArrayList<Long>();
+        try (var stream = new DataFileStream<>(new ByteArrayInputStream(file), new SpecificDatumReader<>(ClientMandatory.class))) {
+            stream.forEach(client -> ids.add(client.getId()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,166 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import com.google.cloud.storage.BlobInfo;
+import com.google.gson.Gson;
+import example.gcp.Client;
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.AvroFileValidationException;
+import io.github.dmytroivakhnenko.gcpavroprocessor.repository.CloudStorageRepository;
+import io.github.dmytroivakhnenko.gcpavroprocessor.util.CompactionManifest;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.AvroFileUtils.createRandomClient;
+import static io.github.dmytroivakhnenko.gcpavroprocessor.util.CloudFileUtils.constructGCSUri;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SmallFileCompactorTest {
+    private static final int CLIENTS_PER_FILE = 100;
+
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final CloudStorageRepository gcStorage = mock(CloudStorageRepository.class);
+    private final List<BlobInfo> loadedFiles = new CopyOnWriteArrayList<>();
+    private final Map<String, byte[]> loadedContents = new ConcurrentHashMap<>();
+    private SmallFileCompactor compactor;
+
+    @AfterEach
+    void tearDown() {
+        compactor.close();
+    }
+
+    @Test
+    void whenPendingFilesReachFlushSizeThenTheyAreLoadedAsOneCompactedFile() throws IOException {
+        mockStorage();
+        compactor = new SmallFileCompactor(gcStorage, ForkJoinPool.commonPool(), "tmp", 3, TimeUnit.MINUTES.toMillis(1), this::load);
+        var clients = new ArrayList<Client>();
+        var futures = new ArrayList<CompletableFuture<Boolean>>();
+        for (int i = 0; i < 3; i++) {
+            var fileClients = createClients();
+            clients.addAll(fileClients);
+            var file = BlobInfo.newBuilder("input", "file" + i + ".avro").build();
+            objects.put(constructGCSUri(file), write(fileClients));
+            futures.add(compactor.submit(file, 1));
+        }
+
+        futures.forEach(future -> assertThat(future.orTimeout(10, TimeUnit.SECONDS).join()).isTrue());
+
+        assertThat(loadedFiles).hasSize(1);
+        var compactedUri = constructGCSUri(loadedFiles.get(0));
+        assertThat(readClients(loadedContents.get(compactedUri))).isEqualTo(clients);
+        verify(gcStorage, timeout(10_000)).deleteFile(loadedFiles.get(0));
+        assertThat(objects).doesNotContainKey(compactedUri);
+        var manifestUri = compactedUri.replace(".avro", ".manifest.json");
+        var manifest = new Gson().fromJson(new String(objects.get(manifestUri), StandardCharsets.UTF_8), CompactionManifest.class);
+        assertThat(manifest.getCompactedFile()).isEqualTo(compactedUri);
+        assertThat(manifest.getInputFiles()).containsExactly("gs://input/file0.avro", "gs://input/file1.avro", "gs://input/file2.avro");
+    }
+
+    @Test
+    void whenOldestPendingFileReachesMaxAgeThenFilesAreCompacted() throws IOException {
+        mockStorage();
+        compactor = new SmallFileCompactor(gcStorage, ForkJoinPool.commonPool(), "tmp", Long.MAX_VALUE, 50, this::load);
+        var file = BlobInfo.newBuilder("input", "file.avro").build();
+        objects.put(constructGCSUri(file), write(createClients()));
+
+        assertThat(compactor.submit(file, 1).orTimeout(10, TimeUnit.SECONDS).join()).isTrue();
+        assertThat(loadedFiles).hasSize(1);
+    }
+
+    @Test
+    void whenFileIsCorruptedAfterItsFirstBlocksThenRestAreCompactedWithoutIt() throws IOException {
+        mockStorage();
+        compactor = new SmallFileCompactor(gcStorage, ForkJoinPool.commonPool(), "tmp", 3, TimeUnit.MINUTES.toMillis(1), this::load);
+        var firstClients = createClients();
+        var lastClients = createClients();
+        var files = new ArrayList<BlobInfo>();
+        for (int i = 0; i < 3; i++) {
+            files.add(BlobInfo.newBuilder("input", "file" + i + ".avro").build());
+        }
+        objects.put(constructGCSUri(files.get(0)), write(firstClients));
+        var corrupted = write(createClients());
+        objects.put(constructGCSUri(files.get(1)), Arrays.copyOf(corrupted, corrupted.length - 20));
+        objects.put(constructGCSUri(files.get(2)), write(lastClients));
+
+        var futures = files.stream().map(file -> compactor.submit(file, 1)).collect(Collectors.toList());
+
+        assertThat(futures.get(0).orTimeout(10, TimeUnit.SECONDS).join()).isTrue();
+        assertThat(futures.get(2).orTimeout(10, TimeUnit.SECONDS).join()).isTrue();
+        assertThatThrownBy(() -> futures.get(1).orTimeout(10, TimeUnit.SECONDS).join()).hasCauseInstanceOf(AvroFileValidationException.class);
+        assertThat(loadedFiles).hasSize(1);
+        var expected = new ArrayList<>(firstClients);
+        expected.addAll(lastClients);
+        assertThat(readClients(loadedContents.get(constructGCSUri(loadedFiles.get(0))))).isEqualTo(expected);
+    }
+
+    private CompletableFuture<Boolean> load(BlobInfo file) {
+        loadedFiles.add(file);
+        loadedContents.put(constructGCSUri(file), objects.get(constructGCSUri(file)));
+        return CompletableFuture.completedFuture(true);
+    }
+
+    private void mockStorage() {
+        when(gcStorage.getInputStreamForFile(any(BlobInfo.class))).thenAnswer(invocation -> new ByteArrayInputStream(objects.get(constructGCSUri(invocation.getArgument(0)))));
+        when(gcStorage.createFileAndGetOutputStream(any(BlobInfo.class))).thenAnswer(invocation -> {
+            String uri = constructGCSUri(invocation.getArgument(0));
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    objects.put(uri, toByteArray());
+                }
+            };
+        });
+        doAnswer(invocation -> objects.remove(constructGCSUri(invocation.getArgument(0)))).when(gcStorage).deleteFile(any(BlobInfo.class));
+    }
+
+    private List<Client> createClients() {
+        var clients = new ArrayList<Client>(CLIENTS_PER_FILE);
+        for (int i = 0; i < CLIENTS_PER_FILE; i++) {
+            clients.add(createRandomClient());
+        }
+        return clients;
+    }
+
+    private byte[] write(List<Client> clients) throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        try (var writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+            writer.create(Client.getClassSchema(), outputStream);
+            for (var client : clients) {
+                writer.append(client);
+            }
+        }
+        return outputStream.toByteArray();
+    }
+
+    private List<Client> readClients(byte[] file) throws IOException {
+        var clients = new ArrayList<Client>();
+        try (var stream = new DataFileStream<>(new ByteArrayInputStream(file), new SpecificDatumReader<>(Client.class))) {
+            stream.forEach(clients::add);
+        }
+        return clients;
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.service.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TableRebuildSchedulerTest {
+    private final List<CompletableFuture<Boolean>> started = new ArrayList<>();
+    private final Supplier<CompletableFuture<Boolean>> rebuild = () -> {
+        var future = new CompletableFuture<Boolean>();
+        synchronized (started) {
+            started.add(future);
+        }
+        return future;
+    };
+    private TableRebuildScheduler scheduler;
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void whenRequestsArriveWithinWindowThenTableIsRebuiltOnce() throws InterruptedException {
+        scheduler = new TableRebuildScheduler(50);
+
+        var first = scheduler.submit("dataset.table", rebuild);
+        var second = scheduler.submit("dataset.table", rebuild);
+        var other = scheduler.submit("dataset.other", rebuild);
+
+        awaitStarted(2);
+        started.forEach(future -> future.complete(true));
+        assertThat(List.of(first.join(), second.join(), other.join())).containsExactly(true, true, true);
+        assertThat(started).hasSize(2);
+    }
+
+    @Test
+    void whenRequestsArriveWhileTableIsRebuiltThenOneRebuildStartsAfterIt() throws InterruptedException {
+        scheduler = new TableRebuildScheduler(0);
+        var first = scheduler.submit("dataset.table", rebuild);
+        awaitStarted(1);
+
+        var second = scheduler.submit("dataset.table", rebuild);
+        var third = scheduler.submit("dataset.table", rebuild);
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertThat(started).hasSize(1);
+
+        started.get(0).complete(false);
+        assertThat(first.join()).isFalse();
+        awaitStarted(2);
+        assertThat(second).isNotDone();
+        started.get(1).complete(true);
+        assertThat(List.of(second.join(), third.join())).containsExactly(true, true);
+        assertThat(started).hasSize(2);
+    }
+
+    private void awaitStarted(int count) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            synchronized (started) {
+                if (started.size() >= count) {
+                    return;
+                }
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import io.github.dmytroivakhnenko.gcpavroprocessor.exception.ServiceOverloadedException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ConcurrencyLimiterTest {
+    private static final long LATENCY_THRESHOLD_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final AtomicLong clock = new AtomicLong();
+    private double heapPressure;
+    private final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 4, 2, 8, 0.5, LATENCY_THRESHOLD_NANOS, 0.9,
+            () -> heapPressure, clock::get);
+
+    @Test
+    void whenLimitIsReachedThenWorkIsRejected() {
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+        }
+
+        assertThatThrownBy(limiter::acquire).isInstanceOf(ServiceOverloadedException.class);
+        assertThat(limiter.getStats().getRejectedCount()).isEqualTo(1);
+        assertThat(limiter.getInFlight()).isEqualTo(4);
+    }
+
+    @Test
+    void whenUsedLimitCompletesFastThenLimitIsIncreasedUpToMax() {
+        for (int i = 0; i < 100; i++) {
+            var starts = new long[limiter.getLimit()];
+            for (int j = 0; j < starts.length; j++) {
+                starts[j] = limiter.acquire();
+            }
+            clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+            for (var start : starts) {
+                limiter.release(start, false);
+            }
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(8);
+    }
+
+    @Test
+    void whenUnusedLimitCompletesFastThenLimitIsKept() {
+        for (int i = 0; i < 100; i++) {
+            limiter.release(limiter.acquire(), false);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void whenWorkIsSlowThenLimitIsDecreasedOncePerConcurrentWork() {
+        var first = limiter.acquire();
+        var second = limiter.acquire();
+        clock.addAndGet(2 * LATENCY_THRESHOLD_NANOS);
+
+        limiter.release(first, false);
+        limiter.release(second, false);
+        assertThat(limiter.getLimit()).isEqualTo(2);
+
+        var third = limiter.acquire();
+        limiter.release(third, true);
+        assertThat(limiter.getLimit()).isEqualTo(2);
+        assertThat(limiter.getStats().getDecreaseCount()).isEqualTo(2);
+    }
+
+    @Test
+    void whenHeapIsUnderPressureThenWorkIsRejectedAndLimitIsDecreased() {
+        var start = limiter.acquire();
+        heapPressure = 0.95;
+
+        assertThatThrownBy(limiter::acquire).isInstanceOf(ServiceOverloadedException.class);
+        limiter.release(start, false);
+        assertThat(limiter.getLimit()).isEqualTo(2);
+
+        heapPressure = 0.5;
+        limiter.acquire();
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void whenHeapStaysUnderPressureWithNoWorkInFlightThenWorkIsAdmittedOneAtATime() {
+        heapPressure = 0.95;
+
+        var start = limiter.acquire();
+        assertThatThrownBy(limiter::acquire).isInstanceOf(ServiceOverloadedException.class);
+        limiter.release(start, false);
+
+        limiter.acquire();
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.dmytroivakhnenko.gcpavroprocessor.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares throughput and memory of the I/O executor running on platform and on virtual threads. Every file makes
+ * a number of sequential blocking requests, emulated by sleeping for the request latency, like the size lookup, ranged reads
+ * and deletion of a file do on the gcs-io executor. Every mode uses its default number of threads from application.properties.
+ * Virtual mode is skipped on Java older than 21. Run with the file count and request latency in milliseconds as optional arguments.
+ */
+public class ExecutorModeBenchmark {
+    private static final int PLATFORM_THREADS = 16;
+    private static final int VIRTUAL_THREADS = 256;
+    private static final int REQUESTS_PER_FILE = 8;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        var fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        var latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        System.out.printf("Java %d, %d files, %d requests per file, %d ms per request%n", Runtime.version().feature(), fileCount, REQUESTS_PER_FILE, latencyMillis);
+        System.out.printf("%-9s %8s %10s %9s %13s %13s%n", "mode", "threads", "files/s", "peak thr", "heap used MB", "non-heap MB");
+
+        for (var mode : ExecutorMode.values()) {
+            BoundedExecutor executor;
+            if (mode == ExecutorMode.VIRTUAL) {
+                var threadFactory = VirtualThreads.newFactory("bench-");
+                if (threadFactory.isEmpty()) {
+                    System.out.printf("%-9s virtual threads aren't supported%n", mode);
+                    continue;
+                }
+                executor = new BoundedExecutor("bench", VIRTUAL_THREADS, fileCount, threadFactory.get(), true);
+            } else {
+                executor = new BoundedExecutor("bench", PLATFORM_THREADS, fileCount);
+            }
+            try {
+                // first round warms up the executor threads and the JIT
+                for (int round = 0; round <= ROUNDS; round++) {
+                    run(mode, executor, fileCount, latencyMillis, round > 0);
+                }
+            } finally {
+                executor.shutdownNow();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        }
+    }
+
+    private static void run(ExecutorMode mode, BoundedExecutor executor, int fileCount, long latencyMillis, boolean print) {
+        var threadBean = ManagementFactory.getThreadMXBean();
+        var memoryBean = ManagementFactory.getMemoryMXBean();
+        threadBean.resetPeakThreadCount();
+        System.gc();
+        var peakHeap = new AtomicLong();
+
+        var start = System.nanoTime();
+        var futures = new CompletableFuture[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            futures[i] = CompletableFuture.runAsync(() -> {
+                for (int r = 0; r < REQUESTS_PER_FILE; r++) {
+                    sleep(latencyMillis);
+                }
+                peakHeap.accumulateAndGet(memoryBean.getHeapMemoryUsage().getUsed(), Math::max);
+            }, executor);
+        }
+        CompletableFuture.allOf(futures).join();
+        var elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        if (print) {
+            System.out.printf("%-9s %8d %10.1f %9d %13.1f %13.1f%n", mode, executor.getMaximumPoolSize(), fileCount / elapsedSeconds,
+                    threadBean.getPeakThreadCount(), peakHeap.get() / 1048576.0, memoryBean.getNonHeapMemoryUsage().getUsed() / 1048576.0);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}